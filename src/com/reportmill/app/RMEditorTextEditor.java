@@ -57,9 +57,9 @@ public void setTextShape(RMTextShape aText)
     // Set editor text
     _textShape = aText;
     
-    // Start listening to property changes in new text shape
-    if(_textShape!=null)
-        _textShape.addPropertyChangeListener(this);
+    // Start listening to property changes in new text shape (and have it lay out its own xstring, not a cached copy)
+    if(_textShape!=null) {
+        _textShape.addPropertyChangeListener(this); _textShape.setLayoutCacheable(false); }
     
     // Set text shape xstring
     setXStringFromTextShape();
@@ -13,7 +13,7 @@ public class RMDateFormat extends SimpleDateFormat implements RMFormat {
     String       _nullString = "<N/A>";
     
     // The local of the format
-    Locale       _locale;
+    volatile Locale  _locale;
     
     // Shared common formats
     public static RMDateFormat BASIC = new RMDateFormat("MM/dd/yyyy");
@@ -56,19 +56,27 @@ public void setFormatString(String aFormat)  { applyPattern(aFormat); }
 public Object formatRM(Object obj) 
 {
     // If locale hasn't been set, get it from RMDocument locale
-    if(_locale != RMDocument._locale) {
-        _locale = RMDocument._locale;
-        setDateFormatSymbols(new DateFormatSymbols(RMDocument._locale));
-    }
+    if(_locale != RMDocument._locale)
+        setLocale(RMDocument._locale);
 
-    // If object is date, return date format
+    // If object is date, return date format (from a copy, since shared formats are used by concurrent reports)
     if(obj instanceof Date)
-        return format((Date)obj);
+        return ((DateFormat)clone()).format((Date)obj);
     
     // If object isn't date, just return null string
     return _nullString;
 }
 
+/**
+ * Sets the locale of the format symbols.
+ */
+private synchronized void setLocale(Locale aLocale)
+{
+    if(_locale==aLocale) return;
+    setDateFormatSymbols(new DateFormatSymbols(aLocale));
+    _locale = aLocale;
+}
+
 /**
  * Standard equals implementation.
  */
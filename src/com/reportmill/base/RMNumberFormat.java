@@ -345,8 +345,8 @@ public Object formatRM(Object anObj)
         if(getPositiveSuffix().indexOf('%') >= 0)
             number = number.doubleValue()/100;
         
-        // Do normal DecimalFormat format
-        Object formatted = format(number);
+        // Do normal DecimalFormat format (with a copy, since shared formats are used by concurrent reports)
+        Object formatted = ((NumberFormat)clone()).format(number);
         
         // If number is negative and _negativeInRed is true, put formatted string in red xstring
         if(number.doubleValue()<0 && _negativeInRed)
@@ -129,25 +129,48 @@ public static void lc(RMDocument aDoc)
         
         // Add watermark/unlicensed message to each report page
         for(int i=0; i<aDoc.getPages().size(); i++) addWatermark(aDoc.getPage(i));
+        lcWarning();
+    }
+}
+
+/**
+ * Simple lc check for a single page: Adds watermark if unlicensed (and complains if requested) and returns the shapes
+ * added, so they can be removed again (for export formats that don't get a watermark).
+ */
+public static List <RMShape> lc(RMParentShape aPage, boolean doWarn)
+{
+    // If licensed, just return
+    if(_licensed) return Collections.emptyList();
 
-        // If not app, print warning
-        if(!RMUtils.isApp) {
-            System.err.println("Warning: Unlicensed copy of ReportMill for host " + RMUtils.getHostname() +
-                " and user " + System.getProperty("user.name") + " - call 214.513.1636 for license.");
-            System.err.println("    Enter license with: \"java -cp /YourInstallDir/ReportMill.jar " +
-                "com.reportmill.Shell -license <license-string>\"");
-            System.err.println("    Or call \"ReportMill.setLicense(\"<license_string>\") in app " +
-                "prior to report generation.");
-            System.err.println("    This is only a warning (generated report will contain a watermark).");
-        }
+    // Add watermark, complain and return added shapes
+    List <RMShape> wmark = addWatermark(aPage); if(doWarn) lcWarning();
+    return wmark;
+}
+
+/**
+ * Prints unlicensed warning (if not app).
+ */
+private static void lcWarning()
+{
+    if(!RMUtils.isApp) {
+        System.err.println("Warning: Unlicensed copy of ReportMill for host " + RMUtils.getHostname() +
+            " and user " + System.getProperty("user.name") + " - call 214.513.1636 for license.");
+        System.err.println("    Enter license with: \"java -cp /YourInstallDir/ReportMill.jar " +
+            "com.reportmill.Shell -license <license-string>\"");
+        System.err.println("    Or call \"ReportMill.setLicense(\"<license_string>\") in app " +
+            "prior to report generation.");
+        System.err.println("    This is only a warning (generated report will contain a watermark).");
     }
 }
 
 /**
- * This method adds a watermark to the given shape.
+ * This method adds a watermark to the given shape and returns the shapes added.
  */
-private static void addWatermark(RMParentShape aShape)
+private static List <RMShape> addWatermark(RMParentShape aShape)
 {
+    // Create list for added shapes
+    List <RMShape> added = new ArrayList(2);
+
     // Get attributed string with REPORTMILL in 72pt grey (with R & M in 100pt)
     RMFont font72 = RMFont.getFont("Arial Bold", 72), font100 = RMFont.getFont("Arial Bold", 100);;
     RMColor color = new RMColor(.9f, .9f, .9f);
@@ -160,7 +183,7 @@ private static void addWatermark(RMParentShape aShape)
     evalShape.setFrame((aShape.getWidth() - 570)/2, (aShape.getHeight() - 140)/2, 570, 140);
     evalShape.setRoll(45);
     evalShape.setOpacity(.667f);
-    aShape.addChild(evalShape, 0);
+    aShape.addChild(evalShape, 0); added.add(evalShape);
 
     // Get attributed string with bottom eval message in 12pt
     String msg = "ReportMill Evaluation - request a free license at reportmill.com/free.";
@@ -170,7 +193,8 @@ private static void addWatermark(RMParentShape aShape)
     evalShape = new RMTextShape(xstring);
     evalShape.setFrame(5, aShape.getHeight() - 20, 500, 18);
     evalShape.setURL("http://www.reportmill.com/free");
-    aShape.addChild(evalShape);
+    aShape.addChild(evalShape); added.add(evalShape);
+    return added;
 }
 
 }
@@ -4,10 +4,12 @@ import com.reportmill.shape.RMShapePainter;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.*;
+import java.io.*;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.List;
-import snap.web.WebURL;
+import snap.util.FileUtils;
+import snap.web.*;
 
 /**
  * This class manages image data. Each instance holds the raw image data and provides methods to return
@@ -21,12 +23,15 @@ public class RMImageData implements Cloneable {
     // The time the source was last modified (in milliseconds since 1970)
     long                _modTime;
 
-    // The AWT version of this image
-    BufferedImage       _image;
+    // The AWT version of this image (volatile, since images can be painted from several threads)
+    volatile BufferedImage  _image;
 
     // The original file bytes
     byte                _bytes[];
     
+    // The local file of source, if it is a PDF file (read memory mapped, so bytes are only loaded if asked for)
+    File                _pdfFile;
+    
     // The image bytes uncompressed
     byte                _bytesDecoded[];
     
@@ -154,6 +159,12 @@ protected void setSource(Object aSource, int aPageIndex)
         _reader = new RMImageReader(this); _bytes = null;
     }
     
+    // Otherwise, if source is local PDF file, have PDF reader map it (bytes are only loaded if asked for)
+    else if((_pdfFile=getLocalPDFFile(url))!=null) {
+        _bytes = null; _pageIndex = aPageIndex; _image = null;
+        _reader = new RMPDFImageReader(this); _reader.readBasicInfo(this);
+    }
+    
     // Otherwise, assume source can provide bytes
     else if(aSource!=null) {
         _bytes = url!=null && url.getFile()!=null? url.getFile().getBytes() : RMUtils.getBytes(aSource); // Get bytes
@@ -162,6 +173,32 @@ protected void setSource(Object aSource, int aPageIndex)
     }
 }
 
+/**
+ * Returns the local file for given source URL, if it is a PDF file.
+ */
+private static File getLocalPDFFile(WebURL aURL)
+{
+    // Get local file for URL (just return if not found)
+    WebFile wfile = aURL!=null? aURL.getFile() : null;
+    File file = wfile!=null? wfile.getStandardFile() : null;
+    if(file==null || !file.isFile()) return null;
+    
+    // Read file header and return file if PDF
+    byte head[] = new byte[10];
+    try {
+        DataInputStream stream = new DataInputStream(new FileInputStream(file));
+        try { stream.readFully(head); }
+        finally { stream.close(); }
+    }
+    catch(IOException e) { return null; }
+    return RMPDFImageReader.canRead(head)? file : null;
+}
+
+/**
+ * Returns the local PDF file of the source, if available (read memory mapped by RMPDFImageReader).
+ */
+public File getSourcePDFFile()  { return _pdfFile; }
+
 /**
  * Returns the source URL, if loaded from URL.
  */
@@ -181,7 +218,11 @@ protected void refresh()
 /**
  * Returns the buffered image for image data.
  */
-public BufferedImage getImage()  { return _image!=null? _image : (_image=createImage()); }
+public BufferedImage getImage()
+{
+    BufferedImage image = _image; if(image!=null) return image;
+    synchronized(this) { return _image!=null? _image : (_image=createImage()); }
+}
 
 /**
  * Creates a buffered image for image data.
@@ -196,7 +237,11 @@ public byte[] getBytes()  { return _bytes!=null? _bytes : (_bytes=createBytes())
 /**
  * Creates bytes from the image (loaded from the source).
  */
-protected byte[] createBytes()  { return getSource() instanceof Image? RMAWTUtils.getBytesPNG(getImage()) : null; }
+protected byte[] createBytes()
+{
+    if(_pdfFile!=null) return FileUtils.getBytes(_pdfFile);
+    return getSource() instanceof Image? RMAWTUtils.getBytesPNG(getImage()) : null;
+}
 
 /**
  * Returns the decoded image bytes for the image.
@@ -366,9 +411,12 @@ public boolean equals(Object anObj)
     if(!(anObj instanceof RMImageData)) return false;
     RMImageData other = (RMImageData)anObj;
     
-    // Check bytes (use method in case images source was java Image and bytes need to be generated), PageIndex
-    if(!RMArrayUtils.equals(other.getBytes(), getBytes())) return false;
+    // Check PageIndex and local PDF file (if same file and modified time, bytes are equal)
     if(other._pageIndex!=_pageIndex) return false;
+    if(_pdfFile!=null && _pdfFile.equals(other._pdfFile) && other._modTime==_modTime) return true;
+    
+    // Check bytes (use method in case images source was java Image and bytes need to be generated)
+    if(!RMArrayUtils.equals(other.getBytes(), getBytes())) return false;
     return true; // Return true since all checks passed
 }
 
@@ -391,10 +439,11 @@ public static boolean canRead(String anExt)  { return RMImageReader.canRead(anEx
  */
 public void paint(RMShapePainter aPntr, double x, double y, double w, double h)
 {
-    // If reader is pdf reader, have it paint and return
-    if(aPntr.isPrinting() && getReader() instanceof RMPDFImageReader) {
+    // If reader is pdf reader, have it paint (directly if printing, otherwise with tiles at device scale) and return
+    if(getReader() instanceof RMPDFImageReader) {
         RMPDFImageReader pdfReader = (RMPDFImageReader)getReader();
-        pdfReader.paint(this, aPntr.getGraphics(), x, y, w, h);
+        if(aPntr.isPrinting()) pdfReader.paint(this, aPntr.getGraphics(), x, y, w, h);
+        else pdfReader.paintTiles(this, aPntr.getGraphics(), x, y, w, h);
         return;
     }
     
@@ -1,6 +1,7 @@
 package com.reportmill.graphics;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.*;
 import com.reportmill.base.RMRect;
 import com.reportmill.pdf.reader.*;
 
@@ -11,6 +12,9 @@ public class RMPDFImageReader implements RMImageData.ImageReader {
     
     // The PDF file
     PDFFile          _pdfFile;
+    
+    // The key for the PDF bytes in the tile cache
+    Object           _docKey;
 
 /**
  * Creates a new PDF image reader.
@@ -45,9 +49,11 @@ public void readBasicInfo(RMImageData anImageData)
     // Set type
     anImageData._type = "pdf";
     
-    // Create PDF file from image data bytes and set
-    if(_pdfFile==null)
-        _pdfFile = new PDFFile(anImageData.getBytes());
+    // Create PDF file from image data local file (memory mapped) or from image data bytes and set
+    if(_pdfFile==null) { File file = anImageData.getSourcePDFFile();
+        try { _pdfFile = file!=null? new PDFFile(file) : new PDFFile(anImageData.getBytes()); }
+        catch(IOException e) { _pdfFile = new PDFFile(anImageData.getBytes()); }
+    }
     
     // Get pdf page
     PDFPage page = _pdfFile.getPage(anImageData.getPageIndex());
@@ -73,6 +79,20 @@ public BufferedImage readImage(RMImageData anImageData)
  */
 public void readBytesDecoded()  { }
 
+/**
+ * Draws page at the device resolution of given graphics, using tiles from shared tile cache (for screen and raster
+ * output). Page is scaled & translated to fit exactly in rect.
+ */
+public void paintTiles(RMImageData anImageData, Graphics2D g, double x, double y, double w, double h)
+{
+    // Get doc key for PDF bytes (equal for all image data with same bytes)
+    RMPDFTileCache cache = RMPDFTileCache.getShared();
+    if(_docKey==null) _docKey = cache.getDocKey(getPDFFile().getBuffer());
+    
+    // Have tile cache draw page
+    cache.paint(getPDFFile().getPage(anImageData.getPageIndex()), _docKey, g, x, y, w, h);
+}
+
 /**
  * Draw at maximum resolution.  Page is scaled & translated to fit exactly in r.
  */
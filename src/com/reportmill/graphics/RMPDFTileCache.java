@@ -0,0 +1,238 @@
+package com.reportmill.graphics;
+import com.reportmill.pdf.reader.PDFPage;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.*;
+
+/**
+ * A cache of rendered tiles of PDF pages used as images (see RMPDFImageReader), so PDF images can be drawn at the
+ * resolution of the device instead of as a scaled page bitmap.
+ *
+ * Pages are rendered at the power of two scale nearest the device scale, in square tiles that are rendered when visible
+ * (all missing tiles of a paint in one page pass, cut into tiles) and drawn directly to the device (each with a one
+ * pixel gutter, clipped to its rect, so scaled tiles don't show seams). Tiles are keyed by a digest of the PDF bytes (not by image data or the bytes themselves), so
+ * image shapes that point to the same PDF page share them without the cache keeping PDFs alive, and least recently
+ * used tiles are evicted when the cached tiles exceed the memory budget.
+ */
+public class RMPDFTileCache {
+
+    // The tiles, by key (in access order, so least recently used are first)
+    LinkedHashMap <TileKey,BufferedImage>  _tiles = new LinkedHashMap(16, .75f, true);
+
+    // The total bytes of cached tiles and the max total bytes
+    long                      _length, _maxLength = 64*1024*1024;
+
+    // The tile size in pixels (not including gutter) and the gutter size in pixels
+    public static final int TILE_SIZE = 256, GUTTER = 1;
+
+    // The min and max scale exponents (page scale is a power of two between 1/8 and 32)
+    static final int MIN_LEVEL = -3, MAX_LEVEL = 5;
+
+    // The shared tile cache
+    static RMPDFTileCache     _shared = new RMPDFTileCache();
+
+/**
+ * Returns the shared tile cache.
+ */
+public static RMPDFTileCache getShared()  { return _shared; }
+
+/**
+ * Returns the max total bytes of cached tiles.
+ */
+public long getMaxLength()  { return _maxLength; }
+
+/**
+ * Sets the max total bytes of cached tiles (zero turns off caching).
+ */
+public synchronized void setMaxLength(long aValue)  { _maxLength = aValue; trim(); }
+
+/**
+ * Removes all cached tiles.
+ */
+public synchronized void clear()  { _tiles.clear(); _length = 0; }
+
+/**
+ * Returns the key for given PDF bytes (equal for all equal byte arrays, but holding only a digest of them).
+ */
+public Object getDocKey(byte theBytes[])  { return new DocKey(ByteBuffer.wrap(theBytes)); }
+
+/**
+ * Returns the key for given PDF bytes buffer (like a memory mapped PDF file), from its position to its limit.
+ */
+public Object getDocKey(ByteBuffer aBuffer)  { return new DocKey(aBuffer.duplicate()); }
+
+/**
+ * Draws given page of PDF (with given doc key) in given rect, using tiles rendered at the device scale of graphics.
+ */
+public void paint(PDFPage aPage, Object aDocKey, Graphics2D g, double x, double y, double w, double h)
+{
+    // Get page size and device scale of graphics (scale of area, to handle rotation)
+    Rectangle2D pageRect = aPage.getCropBox(); double pw = pageRect.getWidth(), ph = pageRect.getHeight();
+    if(w<=0 || h<=0 || pw<=0 || ph<=0) return;
+    double dscale = Math.sqrt(Math.abs(g.getTransform().getDeterminant()));
+
+    // Get page scale level: power of two nearest to device scale of page in rect (tiles are drawn at .71x to 1.41x)
+    double scale = dscale*Math.max(w/pw, h/ph);
+    int level = (int)Math.round(Math.log(scale)/Math.log(2));
+    level = Math.max(MIN_LEVEL, Math.min(level, MAX_LEVEL)); scale = Math.pow(2, level);
+
+    // Get page size in pixels at page scale and the scale from pixels to rect
+    int pageW = (int)Math.ceil(pw*scale), pageH = (int)Math.ceil(ph*scale);
+    double sx = w/pageW, sy = h/pageH;
+
+    // Get visible rect in pixels (rect, intersected with clip)
+    Rectangle2D vrect = new Rectangle2D.Double(x, y, w, h); Shape clip = g.getClip();
+    if(clip!=null) Rectangle2D.intersect(vrect, clip.getBounds2D(), vrect);
+    if(vrect.isEmpty()) return;
+    int col0 = Math.max((int)((vrect.getX()-x)/sx/TILE_SIZE), 0);
+    int row0 = Math.max((int)((vrect.getY()-y)/sy/TILE_SIZE), 0);
+    int col1 = Math.min((int)Math.ceil((vrect.getMaxX()-x)/sx/TILE_SIZE), (pageW+TILE_SIZE-1)/TILE_SIZE);
+    int row1 = Math.min((int)Math.ceil((vrect.getMaxY()-y)/sy/TILE_SIZE), (pageH+TILE_SIZE-1)/TILE_SIZE);
+    if(col0>=col1 || row0>=row1) return;
+
+    // Set bilinear interpolation (since tiles are near device size)
+    Object interp = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    // Get visible tiles (rendering missing ones)
+    BufferedImage tiles[] = getTiles(aPage, aDocKey, level, pageW, pageH, col0, row0, col1, row1);
+
+    // Draw visible tiles, each clipped to its rect (so gutter blends with neighbor)
+    for(int row=row0; row<row1; row++) for(int col=col0; col<col1; col++) {
+        BufferedImage tile = tiles[(row-row0)*(col1-col0) + col - col0];
+        double tx = x + col*TILE_SIZE*sx, tmaxX = x + Math.min((col+1)*TILE_SIZE, pageW)*sx;
+        double ty = y + row*TILE_SIZE*sy, tmaxY = y + Math.min((row+1)*TILE_SIZE, pageH)*sy;
+        g.clip(new Rectangle2D.Double(tx, ty, tmaxX - tx, tmaxY - ty));
+        g.drawImage(tile, new AffineTransform(sx, 0, 0, sy, tx - GUTTER*sx, ty - GUTTER*sy), null);
+        g.setClip(clip);
+    }
+
+    // Restore interpolation
+    if(interp!=null) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interp);
+}
+
+/**
+ * Returns the tiles for given page, scale level and column/row range, by row (rendering and caching missing ones). The
+ * missing tiles are rendered in a single page paint of their bounds and cut from it, so the page is parsed only once.
+ */
+BufferedImage[] getTiles(PDFPage aPage, Object aDocKey, int aLevel, int pageW, int pageH, int col0, int row0,
+    int col1, int row1)
+{
+    // Get cached tiles and the column/row bounds of missing ones
+    int cols = col1 - col0, rows = row1 - row0;
+    BufferedImage tiles[] = new BufferedImage[cols*rows]; TileKey keys[] = new TileKey[cols*rows];
+    int mcol0 = col1, mrow0 = row1, mcol1 = col0, mrow1 = row0;
+    synchronized(this) {
+        for(int row=row0; row<row1; row++) for(int col=col0; col<col1; col++) { int i = (row-row0)*cols + col - col0;
+            tiles[i] = _tiles.get(keys[i] = new TileKey(aDocKey, aPage.getIndex(), aLevel, col, row));
+            if(tiles[i]==null) {
+                mcol0 = Math.min(mcol0, col); mcol1 = Math.max(mcol1, col+1);
+                mrow0 = Math.min(mrow0, row); mrow1 = Math.max(mrow1, row+1); }
+        }
+    }
+    
+    // If no tiles are missing, just return
+    if(mcol0>=mcol1) return tiles;
+
+    // Render region of missing tiles with gutter (outside lock)
+    int x = mcol0*TILE_SIZE - GUTTER, y = mrow0*TILE_SIZE - GUTTER;
+    int w = Math.min(mcol1*TILE_SIZE, pageW) + GUTTER - x, h = Math.min(mrow1*TILE_SIZE, pageH) + GUTTER - y;
+    BufferedImage region = renderRegion(aPage, Math.pow(2, aLevel), x, y, w, h);
+
+    // Cut missing tiles (with gutter) from region and add to cache
+    for(int row=mrow0; row<mrow1; row++) for(int col=mcol0; col<mcol1; col++) { int i = (row-row0)*cols + col - col0;
+        if(tiles[i]!=null) continue;
+        int tx = col*TILE_SIZE - GUTTER, ty = row*TILE_SIZE - GUTTER;
+        int tw = Math.min(TILE_SIZE, pageW - col*TILE_SIZE) + GUTTER*2;
+        int th = Math.min(TILE_SIZE, pageH - row*TILE_SIZE) + GUTTER*2;
+        BufferedImage tile = tiles[i] = new BufferedImage(tw, th, BufferedImage.TYPE_INT_ARGB);
+        tile.getRaster().setRect(x - tx, y - ty, region.getRaster());
+        addTile(keys[i], tile);
+    }
+    return tiles;
+}
+
+/**
+ * Renders the region of given page at given scale with given origin and size in pixels.
+ */
+BufferedImage renderRegion(PDFPage aPage, double aScale, int x, int y, int w, int h)
+{
+    // Create image and graphics (with same rendering hints as PDFPage.createImage)
+    BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+
+    // Have page paint into rect for whole page at scale, offset by region origin
+    Rectangle2D pageRect = aPage.getCropBox();
+    g.translate(-x, -y); g.clipRect(x, y, w, h);
+    aPage.paint(g, new Rectangle2D.Double(0, 0, pageRect.getWidth()*aScale, pageRect.getHeight()*aScale));
+    g.dispose();
+    return image;
+}
+
+/**
+ * Adds a tile (evicting least recently used tiles, if over max length).
+ */
+synchronized void addTile(TileKey aKey, BufferedImage aTile)
+{
+    long length = aTile.getWidth()*aTile.getHeight()*4L;
+    BufferedImage old = _tiles.put(aKey, aTile);
+    _length += length - (old!=null? old.getWidth()*old.getHeight()*4L : 0);
+    trim();
+}
+
+/**
+ * Evicts least recently used tiles until total length is under max length.
+ */
+private void trim()
+{
+    for(Iterator <BufferedImage> i=_tiles.values().iterator(); _length>_maxLength;) {
+        BufferedImage tile = i.next(); _length -= tile.getWidth()*tile.getHeight()*4L; i.remove(); }
+}
+
+/**
+ * A key for PDF bytes: their length and SHA-1 digest (equal for equal bytes).
+ */
+private static class DocKey {
+    int _length; byte _digest[];
+    DocKey(ByteBuffer theBytes)
+    {
+        _length = theBytes.remaining();
+        try { MessageDigest md = MessageDigest.getInstance("SHA-1"); md.update(theBytes); _digest = md.digest(); }
+        catch(NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    }
+    public boolean equals(Object anObj)
+    {
+        if(anObj==this) return true; if(!(anObj instanceof DocKey)) return false; DocKey other = (DocKey)anObj;
+        return other._length==_length && Arrays.equals(other._digest, _digest);
+    }
+    public int hashCode()  { return Arrays.hashCode(_digest); }
+}
+
+/**
+ * A key for a tile: doc key, page index, scale level, column and row.
+ */
+private static class TileKey {
+    Object _doc; int _page, _level, _col, _row;
+    TileKey(Object aDoc, int aPage, int aLevel, int aCol, int aRow)
+    {
+        _doc = aDoc; _page = aPage; _level = aLevel; _col = aCol; _row = aRow;
+    }
+    public boolean equals(Object anObj)
+    {
+        if(!(anObj instanceof TileKey)) return false; TileKey other = (TileKey)anObj;
+        return other._doc.equals(_doc) && other._page==_page && other._level==_level && other._col==_col &&
+            other._row==_row;
+    }
+    public int hashCode()  { return ((_doc.hashCode()*31 + _page)*31 + _level)*31 + _col*1021 + _row; }
+}
+
+}
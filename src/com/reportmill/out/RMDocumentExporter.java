@@ -0,0 +1,231 @@
+package com.reportmill.out;
+import com.reportmill.base.*;
+import com.reportmill.pdf.writer.RMPDFWriter;
+import com.reportmill.shape.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class exports a document to several formats at once, walking the document pages once and feeding each page to
+ * the writer for every format before moving on to the next. Page layout is done once, and results that writers can
+ * share for a page (like the Excel header/footer, sheet bounds and sheet table) are computed once (see RMExportPage).
+ *
+ * As with the standalone writers, only PDF and HTML get the evaluation watermark (if unlicensed): It is added to each
+ * page for those formats and removed again before the page is written to the others.
+ *
+ * You simply invoke this with:
+ * <pre>
+ *   new RMDocumentExporter().addPDF(pdfStream).addExcel(xlsStream).addCSV(csvStream).export(aDoc);
+ * </pre>
+ */
+public class RMDocumentExporter {
+
+    // The list of format targets
+    List <Target>          _targets = new ArrayList();
+
+/**
+ * Adds a PDF target that writes to given stream.
+ */
+public RMDocumentExporter addPDF(OutputStream aStream)  { return addTarget(new PDFTarget(), aStream, false); }
+
+/**
+ * Adds an HTML target that writes to given stream.
+ */
+public RMDocumentExporter addHTML(OutputStream aStream)  { return addTarget(new HTMLTarget(), aStream, false); }
+
+/**
+ * Adds a CSV target that writes to given stream.
+ */
+public RMDocumentExporter addCSV(OutputStream aStream)  { return addDelimited(aStream, ",", "\n", true); }
+
+/**
+ * Adds a delimited text target that writes to given stream (in the RMStringWriter default charset, ISO-8859-1).
+ */
+public RMDocumentExporter addDelimited(OutputStream aStream, String fieldDelim, String recordDelim, boolean quote)
+{
+    return addDelimited(aStream, fieldDelim, recordDelim, quote, RMStringWriter.DELIMITED_CHARSET);
+}
+
+/**
+ * Adds a delimited text target that writes to given stream in given charset.
+ */
+public RMDocumentExporter addDelimited(OutputStream aStream, String fieldDelim, String recordDelim, boolean quote,
+    String aCharset)
+{
+    return addTarget(new DelimitedTarget(fieldDelim, recordDelim, quote, aCharset), aStream, false);
+}
+
+/**
+ * Adds an Excel (.xls) target that writes to given stream.
+ */
+public RMDocumentExporter addExcel(OutputStream aStream)  { return addTarget(new ExcelTarget(), aStream, false); }
+
+/**
+ * Adds an Excel (.xlsx) target that writes to given stream.
+ */
+public RMDocumentExporter addXLSX(OutputStream aStream)  { return addTarget(new XLSXTarget(), aStream, false); }
+
+/**
+ * Adds a target for given file path, with format determined by extension (pdf, html, csv, xls or xlsx).
+ * The file is written when document is exported.
+ */
+public RMDocumentExporter addFile(String aPath)
+{
+    // Get target for path extension (complain if not supported)
+    String path = aPath.toLowerCase(); Target target = null;
+    if(path.endsWith(".pdf")) target = new PDFTarget();
+    else if(path.endsWith(".html")) target = new HTMLTarget();
+    else if(path.endsWith(".csv")) target = new DelimitedTarget(",", "\n", true, RMStringWriter.DELIMITED_CHARSET);
+    else if(path.endsWith(".xls")) target = new ExcelTarget();
+    else if(path.endsWith(".xlsx")) target = new XLSXTarget();
+    else throw new IllegalArgumentException("RMDocumentExporter: Unsupported file type: " + aPath);
+
+    // Set path and add target
+    target._path = aPath;
+    return addTarget(target, null, true);
+}
+
+/**
+ * Adds a target.
+ */
+protected RMDocumentExporter addTarget(Target aTarget, OutputStream aStream, boolean doClose)
+{
+    aTarget._stream = aStream; aTarget._close = doClose;
+    _targets.add(aTarget); return this;
+}
+
+/**
+ * Exports the given document to all targets.
+ */
+public void export(RMDocument aDoc) throws IOException
+{
+    // Validate and resolve page references
+    aDoc.layout();
+    aDoc.resolvePageReferences();
+
+    // Get targets by write order: Plain, then watermarked (PDF, HTML), then Excel (last, since Excel targets remove
+    // ExcelHeader/ExcelFooter shapes from page)
+    List <Target> plain = new ArrayList(), watermarked = new ArrayList(), excel = new ArrayList(), targets;
+    for(Target target : _targets)
+        (target.isExcel()? excel : target.isWatermarked()? watermarked : plain).add(target);
+    targets = new ArrayList(plain); targets.addAll(watermarked); targets.addAll(excel);
+
+    // Start targets, write each page to all targets, then finish targets (close streams for file targets)
+    try {
+        for(Target target : targets) {
+            if(target._path!=null) target._stream = new BufferedOutputStream(new FileOutputStream(target._path));
+            target.start(aDoc);
+        }
+        for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++) { RMExportPage page = new RMExportPage(aDoc.getPage(i), i);
+
+            // Write page to plain targets
+            for(Target target : plain) target.writePage(page);
+
+            // Add watermark (if unlicensed), write page to watermarked targets and remove watermark
+            if(watermarked.size()>0) {
+                List <RMShape> wmark = ReportMill.lc(page.getPage(), i==0);
+                for(Target target : watermarked) target.writePage(page);
+                for(RMShape shape : wmark) page.getPage().removeChild(shape);
+            }
+
+            // Write page to Excel targets
+            for(Target target : excel) target.writePage(page);
+        }
+        for(Target target : targets) {
+            target.finish(); target._stream.flush(); }
+    }
+    finally {
+        for(Target target : targets)
+            if(target._close && target._stream!=null) { target._stream.close(); target._stream = null; }
+    }
+}
+
+/**
+ * A format that document pages are written to.
+ */
+protected abstract static class Target {
+
+    // The stream, the file path (if target writes file) and whether to close stream when done
+    OutputStream _stream; String _path; boolean _close;
+
+    /** Starts writing document. */
+    public void start(RMDocument aDoc) throws IOException  { }
+
+    /** Writes a page. */
+    public abstract void writePage(RMExportPage aPage) throws IOException;
+
+    /** Finishes writing document. */
+    public void finish() throws IOException  { }
+
+    /** Returns whether target is an Excel target (which removes ExcelHeader/ExcelFooter shapes from page). */
+    public boolean isExcel()  { return false; }
+
+    /** Returns whether target gets the evaluation watermark (if unlicensed). */
+    public boolean isWatermarked()  { return false; }
+}
+
+/**
+ * A target for PDF.
+ */
+private static class PDFTarget extends Target {
+    RMPDFWriter _writer = new RMPDFWriter();
+    public void start(RMDocument aDoc) throws IOException  { _writer.startDocument(aDoc, _stream); }
+    public void writePage(RMExportPage aPage) throws IOException  { _writer.writePage(aPage.getPage()); }
+    public void finish() throws IOException  { _writer.finishDocument(_stream); }
+    public boolean isWatermarked()  { return true; }
+}
+
+/**
+ * A target for HTML.
+ */
+private static class HTMLTarget extends Target {
+    RMHtmlFile _writer;
+    public void start(RMDocument aDoc) throws IOException  { _writer = new RMHtmlFile(aDoc); _writer.open(_stream); }
+    public void writePage(RMExportPage aPage) throws IOException  { _writer.writePage(aPage.getPage()); }
+    public void finish() throws IOException  { _writer.close(); }
+    public boolean isWatermarked()  { return true; }
+}
+
+/**
+ * A target for delimited text (like CSV).
+ */
+private static class DelimitedTarget extends Target {
+    String _fieldDelim, _recordDelim, _charset; boolean _quote; Writer _writer;
+    public DelimitedTarget(String fieldD, String recD, boolean quote, String aCharset)
+    {
+        _fieldDelim = fieldD; _recordDelim = recD; _quote = quote; _charset = aCharset;
+    }
+    public void start(RMDocument aDoc) throws IOException
+    {
+        _writer = new BufferedWriter(new OutputStreamWriter(_stream, _charset));
+    }
+    public void writePage(RMExportPage aPage) throws IOException
+    {
+        RMStringWriter.appendDelimited(_writer, aPage.getPage(), _fieldDelim, _recordDelim, _quote, false);
+    }
+    public void finish() throws IOException  { _writer.flush(); }
+}
+
+/**
+ * A target for Excel (.xls).
+ */
+private static class ExcelTarget extends Target {
+    RMExcelWriter _writer = new RMExcelWriter();
+    public void start(RMDocument aDoc)  { _writer.createWorkbook(); }
+    public void writePage(RMExportPage aPage)  { _writer.appendPage(aPage); }
+    public void finish() throws IOException  { _writer.getWorkbook().write(_stream); }
+    public boolean isExcel()  { return true; }
+}
+
+/**
+ * A target for Excel (.xlsx).
+ */
+private static class XLSXTarget extends Target {
+    RMXLSXWriter _writer = new RMXLSXWriter();
+    public void start(RMDocument aDoc) throws IOException  { _writer.open(_stream); }
+    public void writePage(RMExportPage aPage) throws IOException  { _writer.writePage(aPage); }
+    public void finish() throws IOException  { _writer.close(); }
+    public boolean isExcel()  { return true; }
+}
+
+}
@@ -19,11 +19,11 @@ public class RMExcelWriter {
     // The workbook for this writer
     HSSFWorkbook          _workbook;
     
-    // The list of workbook styles found in this workbook
-    List <WorkbookStyle>  _styles = new ArrayList();
+    // The workbook styles found in this workbook (mapped to themselves, so a probe style can find the shared one)
+    Map <WorkbookStyle,WorkbookStyle>  _styles = new HashMap();
 
-    // The list of fonts in this workbook
-    List <WorkbookFont>   _fonts = new ArrayList();
+    // The fonts in this workbook (mapped to themselves, so a probe font can find the shared one)
+    Map <WorkbookFont,WorkbookFont>    _fonts = new HashMap();
     
     // The currently selected cell in the sheet
     HSSFCell              _activeCell;
@@ -52,6 +52,11 @@ public byte[] getBytes(RMDocument aDoc)
     return byteOut.toByteArray();
 }
 
+/**
+ * Writes an Excel file (.xls) for the given RMDocument to given stream (the stream isn't closed).
+ */
+public void write(RMDocument aDoc, OutputStream aStream) throws IOException  { getWorkbook(aDoc).write(aStream); }
+
 /**
  * Returns an Excel workbook for the RMDocument.
  * Use this routine instead of getBytes() if you need to do any post-processing on the workbook.
@@ -59,63 +64,71 @@ public byte[] getBytes(RMDocument aDoc)
 public HSSFWorkbook getWorkbook(RMDocument aDoc)
 {
     // Create a new workbook
-    _workbook = new HSSFWorkbook();
+    createWorkbook();
     
     // Validate and resolve page references in aDoc
     aDoc.layout();
     aDoc.resolvePageReferences();
 
-    // Allocate the array of shapes that ultimately will become the spreadsheet
+    // Iterate through pages and have each one append a sheet
+    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++)
+        appendPage(new RMExportPage(aDoc.getPage(i), i));
+    
+    // Return workbook
+    return _workbook;
+}
+
+/**
+ * Returns the workbook of this writer (from the last call to getWorkbook(doc) or createWorkbook()).
+ */
+public HSSFWorkbook getWorkbook()  { return _workbook; }
+
+/**
+ * Creates a new workbook for this writer, to be followed by appendPage() for each page of a (laid out) document.
+ */
+public HSSFWorkbook createWorkbook()  { return _workbook = new HSSFWorkbook(); }
+
+/**
+ * Appends a sheet to workbook for given page.
+ */
+public void appendPage(RMExportPage aPage)
+{
+    // Create a new sheet for each explicit page
+    RMPage page = aPage.getPage();
+    RMExcelSheet sheet = new RMExcelSheet(_workbook.createSheet());
+    
+    // If shape named ExcelHeader was present, set sheet Header text
+    String header = aPage.getExcelHeader();
+    if(header!=null) sheet.getSheet().getHeader().setCenter(header);
+   
+    // If shape named ExcelFooter was present, set sheet Footer text
+    String footer = aPage.getExcelFooter();
+    if(footer!=null) sheet.getSheet().getFooter().setCenter(footer);
+   
+    // First, get the texts of shapes that define rows & columns, which become cells (other shapes become drawings)
     List <RMShape> sheetShapes = new ArrayList();
+    getSheetShapes(page, sheetShapes);
     
-    // Iterate through pages and have each one append XLS
-    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++) { RMPage page = aDoc.getPage(i);
-        
-        // Create a new sheet for each explicit page
-        RMExcelSheet sheet = new RMExcelSheet(_workbook.createSheet());
-        
-        // If shape named ExcelHeader is present, remove and set sheet Header text
-        RMShape excelHeader = page.getChildWithName("ExcelHeader"); if(excelHeader!=null) {
-            page.removeChild(excelHeader);
-            String text = excelHeader instanceof RMTextShape? ((RMTextShape)excelHeader).getText() : "";
-            sheet.getSheet().getHeader().setCenter(text);
-        }
-       
-        // If shape named ExcelFooter is present, remove and set sheet Footer text
-        RMShape excelFooter = page.getChildWithName("ExcelFooter"); if(excelFooter!=null) {
-            page.removeChild(excelFooter);
-            String text = excelFooter instanceof RMTextShape? ((RMTextShape)excelFooter).getText() : "";
-            sheet.getSheet().getFooter().setCenter(text);
-        }
-       
-        // First, reorder the shapes so that shapes that define rows & columns will be processed first.
-        sheetShapes.clear();
-        getSheetShapes(page, sheetShapes);
-        
-        // Get the enclosing rect of all the shapes
-        RMRect childrenRect = getBoundsOfExcelChildren(page);
-        
-        // Create a crosstab for the entire spreadsheet
-        RMShapeTable tempCells = RMShapeTable.createTable(sheetShapes, page, childrenRect);
-        
-        // Set the sheet origin so the upper-leftmost child will be placed at the upper-left
-        // of the sheet.  Note that this could be set to the RMPage's bounds origin instead, in which case
-        // everything would appear exactly as it does in the template (as much as possible, anyway).
-        sheet.setOrigin(childrenRect.getOrigin());
-        
-        // Create the Excel table
-        if(tempCells != null)
-            appendCrossTab(sheet, null, tempCells);
+    // Get the enclosing rect of all the shapes
+    RMRect childrenRect = aPage.getExcelBounds();
+    
+    // Get the crosstab for the entire spreadsheet (shared with other writers, with a cell for every text)
+    RMShapeTable tempCells = aPage.getExcelTable();
+    
+    // Set the sheet origin so the upper-leftmost child will be placed at the upper-left
+    // of the sheet.  Note that this could be set to the RMPage's bounds origin instead, in which case
+    // everything would appear exactly as it does in the template (as much as possible, anyway).
+    sheet.setOrigin(childrenRect.getOrigin());
+    
+    // Create the Excel table (with cells for sheet shape texts only)
+    if(tempCells != null)
+        appendCrossTab(sheet, null, tempCells, sheetShapes);
 
-        // Now add the freeform shapes on top
-        append(sheet, null, page);
-        
-        // Set per-sheet options
-        sheet.getSheet().setDisplayGridlines(getShowsGridlines(i));
-    }
+    // Now add the freeform shapes on top
+    append(sheet, null, page);
     
-    // Return workbook
-    return _workbook;
+    // Set per-sheet options
+    sheet.getSheet().setDisplayGridlines(getShowsGridlines(aPage.getIndex()));
 }
 
 /**
@@ -158,7 +171,7 @@ private void getSheetShapes(RMShape aShape, List aList)
 /** 
  * a lot like RMShape.getBoundsOfChildren(), but excludes RMTableRPGs
  */
-private RMRect getBoundsOfExcelChildren(RMShape aShape)
+static RMRect getBoundsOfExcelChildren(RMShape aShape)
 {
     RMRect maxBounds = null;
 
@@ -296,6 +309,21 @@ private void append(RMExcelSheet rmSheet, HSSFShapeContainer aParent, RMShape aS
  */
 public void appendCrossTab(RMExcelSheet aSheet, HSSFShapeContainer aParent, RMShapeTable aCrossTab)
 {
+    appendCrossTab(aSheet, aParent, aCrossTab, null);
+}
+
+/**
+ * Appends a crosstab like appendCrossTab() above, but only fills and merges the cells of the given shapes (if
+ * non-null), so that the crosstab can have cells for shapes that are added otherwise.
+ */
+public void appendCrossTab(RMExcelSheet aSheet, HSSFShapeContainer aParent, RMShapeTable aCrossTab,
+    List <RMShape> theCellShapes)
+{
+    // Get cell shapes set (if given)
+    Set <RMShape> cellShapes = null;
+    if(theCellShapes!=null) {
+        cellShapes = Collections.newSetFromMap(new IdentityHashMap()); cellShapes.addAll(theCellShapes); }
+    
     // Get HSSF sheet
     HSSFSheet sheet = aSheet.getSheet();
     
@@ -327,8 +355,9 @@ public void appendCrossTab(RMExcelSheet aSheet, HSSFShapeContainer aParent, RMSh
             RMShapeTable.STCell rmcell = aCrossTab.getCell(rowIndex, colIndex);
             
             // If a cell spans multiple rows or columns, getCell(row,col) returns the same cell instance
-            // for each row,col this cell covers. Only take the first one.
-            if(rmcell.getRow()==rowIndex && rmcell.getColumn()==colIndex) {
+            // for each row,col this cell covers. Only take the first one (and skip cells not for given cell shapes).
+            if(rmcell.getRow()==rowIndex && rmcell.getColumn()==colIndex &&
+                (cellShapes==null || cellShapes.contains(rmcell.getCellShape()))) {
                 
                 // Merge any cells that this cell spans
                 int rowspan = rmcell.getRowSpan();
@@ -449,15 +478,10 @@ public void setShapeFillAndStroke(HSSFShape hssfShape, RMShape aShape)
  */
 private HSSFCellStyle getWorkbookStyle(RMTextShape aText, String aFormat)
 {
-    // Iterate over workbook styles and return first matching entry
-    for(WorkbookStyle style : _styles)
-        if(style.isMatch(aText, aFormat))
-            return style.getHSSFCellStyle();
-    
-    // Otherwise, create and add style to list
-    WorkbookStyle workBookStyle = new WorkbookStyle(aText, aFormat);
-    _styles.add(workBookStyle);
-    return workBookStyle.getHSSFCellStyle();
+    // Get workbook style for text and format (if not found, add it)
+    WorkbookStyle workBookStyle = new WorkbookStyle(aText, aFormat), style = _styles.get(workBookStyle);
+    if(style==null) _styles.put(style = workBookStyle, workBookStyle);
+    return style.getHSSFCellStyle();
 }
 
 /**
@@ -465,15 +489,10 @@ private HSSFCellStyle getWorkbookStyle(RMTextShape aText, String aFormat)
  */
 private HSSFFont getWorkbookFont(RMFont aFont, RMColor aColor)
 {
-    // Iterate over workbook fonts and return first matching entry
-    for(WorkbookFont font : _fonts)
-        if(font.isMatch(aFont, aColor))
-            return font.getHSSFFont();
-    
-    // Otherwise, create and add style to list
-    WorkbookFont workBookFont = new WorkbookFont(aFont, aColor);
-    _fonts.add(workBookFont);
-    return workBookFont.getHSSFFont();
+    // Get workbook font for font and color (if not found, add it)
+    WorkbookFont workBookFont = new WorkbookFont(aFont, aColor), font = _fonts.get(workBookFont);
+    if(font==null) _fonts.put(font = workBookFont, workBookFont);
+    return font.getHSSFFont();
 }
 
 /** 
@@ -510,11 +529,21 @@ class WorkbookStyle {
     
     // The HSSFCellStyle
     HSSFCellStyle  _style;
+    
+    // The hash code
+    int            _hash;
 
     /**
      * Creates a new workbook style.
      */
-    public WorkbookStyle(RMTextShape aText, String aFormat)  { _text = aText; _format = aFormat; }
+    public WorkbookStyle(RMTextShape aText, String aFormat)
+    {
+        _text = aText; _format = aFormat;
+        _hash = getHash(aText.getFont())*31 + aText.getAlignmentX().ordinal();
+        _hash = _hash*31 + aText.getAlignmentY().ordinal();
+        _hash = _hash*31 + getHash(aText.getFill()); _hash = _hash*31 + getHash(aText.getStroke());
+        _hash = _hash*31 + getHash(aText.getTextColor()); _hash = _hash*31 + getHash(aFormat);
+    }
     
     /**
      * Returns whether this style is a match for given text and format string.
@@ -531,6 +560,18 @@ class WorkbookStyle {
         return true;
     }
 
+    /** Standard equals implementation. */
+    public boolean equals(Object anObj)
+    {
+        if(anObj==this) return true;
+        if(!(anObj instanceof WorkbookStyle)) return false;
+        WorkbookStyle other = (WorkbookStyle)anObj;
+        return other._hash==_hash && isMatch(other._text, other._format);
+    }
+
+    /** Standard hashCode implementation. */
+    public int hashCode()  { return _hash; }
+
     /**
      * Returns a shared HSSFCellStyle for a given font, alignment and format string.
      */
@@ -615,12 +656,24 @@ class WorkbookFont {
     /** Creates a new workbook font. */
     public WorkbookFont(RMFont aFont, RMColor aColor)  { _font = aFont; _color = aColor; }
     
-    /** Standard equals implementation. */
+    /** Returns whether this font is a match for given font and color. */
     public boolean isMatch(RMFont aFont, RMColor aColor)
     {
         return RMUtils.equals(aFont, _font) && RMUtils.equals(aColor, _color);
     }
     
+    /** Standard equals implementation. */
+    public boolean equals(Object anObj)
+    {
+        if(anObj==this) return true;
+        if(!(anObj instanceof WorkbookFont)) return false;
+        WorkbookFont other = (WorkbookFont)anObj;
+        return isMatch(other._font, other._color);
+    }
+    
+    /** Standard hashCode implementation. */
+    public int hashCode()  { return getHash(_font)*31 + getHash(_color); }
+    
     /**
      * Returns the HSSFFont for this workbook font.
      */
@@ -660,6 +713,19 @@ class WorkbookFont {
     }
 }
 
+/**
+ * Returns a hash code for a style attribute that is consistent with its equals (RMFont, RMColor and RMFill don't
+ * implement hashCode).
+ */
+static int getHash(Object anObj)
+{
+    if(anObj instanceof RMFont) { RMFont font = (RMFont)anObj;
+        return System.identityHashCode(font.getFontFile())*31 + Double.hashCode(font.getSize()); }
+    if(anObj instanceof RMColor) return ((RMColor)anObj).getRGBA();
+    if(anObj instanceof RMFill) return anObj.getClass().hashCode()*31 + getHash(((RMFill)anObj).getColor());
+    return anObj!=null? anObj.hashCode() : 0;
+}
+
 /**
  * The custom palette crap doesn't work (http://issues.apache.org/bugzilla/show_bug.cgi?id=24519)
  * So this does a brute-force lookup through the fixed palette.  It just finds the closest color in Lab space.
@@ -695,7 +761,7 @@ public short getWorkbookColorIndex(RMColor c)
 /**
  * Returns an Excel date format string for the given SimpleDateFormat string.
  */
-private String getExcelDatePattern(String javaPattern)
+static String getExcelDatePattern(String javaPattern)
 {
     // Rather than try to translate all possible format patterns, this is just a list of the ones in the
     // RMStudio formatter panel and one or two others.
@@ -0,0 +1,111 @@
+package com.reportmill.out;
+import com.reportmill.base.RMRect;
+import com.reportmill.shape.*;
+import java.util.*;
+
+/**
+ * A page of a document being exported, which holds results that writers of different formats can share when exporting
+ * the same page (like the Excel header/footer text, sheet bounds and sheet table), so that they are only computed once
+ * when a document is exported to several formats with RMDocumentExporter.
+ *
+ * The Excel sheet table has a cell for each text of the page and is built once for both XLS and XLSX writers: XLSX
+ * writes every text as a cell, while XLS fills only the cells of texts in table rows and crosstabs (other texts are
+ * added as drawings over the sheet, which is laid out on the same grid).
+ */
+public class RMExportPage {
+
+    // The page and page index
+    RMPage                 _page;
+    int                    _index;
+
+    // The Excel header and footer text (null if not present) and whether they have been removed from page
+    String                 _excelHeader, _excelFooter;
+    boolean                _excelHeaderFooterSet;
+
+    // The bounds of the Excel sheet children
+    RMRect                 _excelBounds;
+
+    // The Excel sheet table (null if page has no cells) and whether it has been created
+    RMShapeTable           _excelTable;
+    boolean                _excelTableSet;
+
+/**
+ * Creates a new export page for given page and page index.
+ */
+public RMExportPage(RMPage aPage, int anIndex)  { _page = aPage; _index = anIndex; }
+
+/**
+ * Returns the page.
+ */
+public RMPage getPage()  { return _page; }
+
+/**
+ * Returns the page index.
+ */
+public int getIndex()  { return _index; }
+
+/**
+ * Returns the text of the shape named ExcelHeader (or null if not present).
+ */
+public String getExcelHeader()  { setExcelHeaderFooter(); return _excelHeader; }
+
+/**
+ * Returns the text of the shape named ExcelFooter (or null if not present).
+ */
+public String getExcelFooter()  { setExcelHeaderFooter(); return _excelFooter; }
+
+/**
+ * Removes the shapes named ExcelHeader and ExcelFooter from page (if present) and saves their text.
+ */
+protected void setExcelHeaderFooter()
+{
+    // If already set, just return
+    if(_excelHeaderFooterSet) return; _excelHeaderFooterSet = true;
+
+    // If shape named ExcelHeader is present, remove and save text
+    RMShape excelHeader = _page.getChildWithName("ExcelHeader"); if(excelHeader!=null) {
+        _page.removeChild(excelHeader);
+        _excelHeader = excelHeader instanceof RMTextShape? ((RMTextShape)excelHeader).getText() : "";
+    }
+
+    // If shape named ExcelFooter is present, remove and save text
+    RMShape excelFooter = _page.getChildWithName("ExcelFooter"); if(excelFooter!=null) {
+        _page.removeChild(excelFooter);
+        _excelFooter = excelFooter instanceof RMTextShape? ((RMTextShape)excelFooter).getText() : "";
+    }
+}
+
+/**
+ * Returns the bounds of the Excel sheet children (after ExcelHeader and ExcelFooter are removed).
+ */
+public RMRect getExcelBounds()
+{
+    if(_excelBounds!=null) return _excelBounds;
+    setExcelHeaderFooter();
+    return _excelBounds = RMExcelWriter.getBoundsOfExcelChildren(_page);
+}
+
+/**
+ * Returns the Excel sheet table, with a cell for each text of the page, bounded by the Excel bounds (from
+ * RMShapeTable.createTable). The table is created on first call.
+ */
+public RMShapeTable getExcelTable()
+{
+    // If already set, just return
+    if(_excelTableSet) return _excelTable; _excelTableSet = true;
+
+    // Get texts (note that RMCells are RMText subclasses), create table and return
+    List <RMShape> texts = new ArrayList(); getExcelTexts(getPage(), texts);
+    return _excelTable = RMShapeTable.createTable(texts, _page, getExcelBounds());
+}
+
+/**
+ * Adds the texts in given shape hierarchy (the Excel sheet cells) to given list.
+ */
+private static void getExcelTexts(RMShape aShape, List aList)
+{
+    if(aShape instanceof RMTextShape) aList.add(aShape);
+    else for(int i=0, n=aShape.getChildCount(); i<n; ++i) getExcelTexts(aShape.getChild(i), aList);
+}
+
+}
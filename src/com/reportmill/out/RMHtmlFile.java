@@ -5,13 +5,18 @@ import com.reportmill.shape.*;
 import com.reportmill.text.*;
 import java.awt.Shape;
 import java.awt.geom.*;
-import java.io.File;
+import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
+import snap.util.ASCIICodec;
 import snap.util.XMLElement;
 
 /**
  * Generates an HTML file.
+ *
+ * Pages are written as inline SVG, one page at a time, so write(OutputStream) only holds one page in memory. Identical
+ * fill/stroke and font style combinations share generated CSS classes (declared in a style element in the first page
+ * that uses them) and repeated shape paths are declared once and reused with SVG use elements.
  */
 public class RMHtmlFile {
 
@@ -26,6 +31,28 @@ public class RMHtmlFile {
 
     // Whether to show border around page
     boolean                _showBorder = true;
+    
+    // Whether images are written inline as data URIs (instead of referencing files in image root)
+    boolean                _embedImages;
+    
+    // A map of CSS declarations to generated style class names (and the list of classes not yet written)
+    Map <String,String>    _styleClasses = new HashMap();
+    List <String>          _newStyleClasses = new ArrayList();
+    
+    // A map of recent path strings to use count (or to path id, once path is repeated) in access order, and the number
+    // of shared paths (least recently used paths are dropped, so a path used again much later is just declared again)
+    Map <String,Object>    _paths = new LinkedHashMap(256, .75f, true) {
+        protected boolean removeEldestEntry(Map.Entry anEntry)  { return size()>MAX_PATHS; } };
+    int                    _pathCount;
+    
+    // The writer for streamed HTML
+    Writer                 _writer;
+    
+    // The minimum length of a path string that is shared by reference when repeated
+    static final int       MIN_SHARED_PATH_LENGTH = 24;
+    
+    // The maximum number of recent path strings remembered for sharing
+    static final int       MAX_PATHS = 1024;
 
 /**
  * Creates a new RMHtmlFile for given document.
@@ -42,6 +69,16 @@ public boolean getShowBorder()  { return _showBorder; }
  */
 public void setShowBorder(boolean aValue)  { _showBorder = aValue; }
 
+/**
+ * Returns whether images are written inline as data URIs (instead of referencing files in image root).
+ */
+public boolean getEmbedImages()  { return _embedImages; }
+
+/**
+ * Sets whether images are written inline as data URIs (for HTML written to stream without image files).
+ */
+public void setEmbedImages(boolean aValue)  { _embedImages = aValue; }
+
 /**
  * Returns document as HTML XML.
  */
@@ -55,29 +92,81 @@ public XMLElement getXML()
     ReportMill.lc(_doc);
 
     // Create element for HTML and body and add pages
-    XMLElement html = new XMLElement("html");
+    XMLElement html = new XMLElement("html"); resetStyles();
     XMLElement body = new XMLElement("body"); html.addElement(body);
     XMLElement div = new XMLElement("div"); body.addElement(div);
     for(int i=0;i<_doc.getPageCount(); i++) { RMPage page = _doc.getPage(i);
-        XMLElement pageXML = toXML(page); div.addElement(pageXML); }
+        XMLElement pageXML = getPageXML(page); div.addElement(pageXML); }
     return html;
 }
 
+/**
+ * Writes HTML for document to given stream, a page at a time (the stream isn't closed).
+ */
+public void write(OutputStream aStream) throws IOException
+{
+    // Validate and resolve doc page references
+    _doc.layout();
+    _doc.resolvePageReferences();
+    
+    // Add watermark
+    ReportMill.lc(_doc);
+    
+    // Open, write pages and close
+    open(aStream);
+    for(int i=0;i<_doc.getPageCount(); i++)
+        writePage(_doc.getPage(i));
+    close();
+}
+
+/**
+ * Starts writing HTML to given stream (document should already be laid out), to be followed by writePage() for each
+ * page and close().
+ */
+public void open(OutputStream aStream) throws IOException
+{
+    _writer = new BufferedWriter(new OutputStreamWriter(aStream, "UTF-8")); resetStyles();
+    _writer.write("<!DOCTYPE html>\n<html>\n  <body>\n    <div>\n");
+}
+
+/**
+ * Writes HTML for given page.
+ */
+public void writePage(RMPage aPage) throws IOException
+{
+    StringBuffer sb = new StringBuffer();
+    getPageXML(aPage).write(sb, 3, "  ");
+    _writer.append(sb);
+}
+
+/**
+ * Finishes writing HTML (the stream is flushed, but not closed).
+ */
+public void close() throws IOException
+{
+    _writer.write("    </div>\n  </body>\n</html>\n");
+    _writer.flush(); _writer = null;
+}
+
 /**
  * Returns a HTML XML string for document.
  */
 public String getString()
 {
-    XMLElement xml = getXML();
-    StringBuffer sb = new StringBuffer("<!DOCTYPE html>\n");
-    xml.write(sb, 0, "  ");
-    return sb.toString();
+    try { return new String(getBytes(), "UTF-8"); }
+    catch(UnsupportedEncodingException e) { throw new RuntimeException(e); }
 }
 
 /**
  * Returns bytes.
  */
-public byte[] getBytes()  { return getString().getBytes(); }
+public byte[] getBytes()
+{
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    try { write(bytesOut); }
+    catch(IOException e) { throw new RuntimeException(e); }
+    return bytesOut.toByteArray();
+}
 
 /**
  * Returns bytes for top level div tag.
@@ -89,9 +178,13 @@ public byte[] getDivBytes()  { return getXML().get("body").get("div").getBytes()
  */
 public void write(String aPath)
 {
-    // Write bytes
-    try { RMFileUtils.writeBytes(new File(aPath), getBytes()); }
-    catch(Exception e) { throw new RuntimeException(e); }
+    // Write HTML
+    try {
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(aPath));
+        try { write(fileOut); }
+        finally { fileOut.close(); }
+    }
+    catch(IOException e) { throw new RuntimeException(e); }
     
     // Write images
     File dir = new File(aPath); dir = dir.getParentFile();
@@ -103,6 +196,26 @@ public void write(String aPath)
     }
 }
 
+/**
+ * Returns the SVG HTML XML for a page, with a style element for any style classes first used by page.
+ */
+protected XMLElement getPageXML(RMPage aPage)
+{
+    // Get page XML
+    XMLElement pageXML = toXML(aPage);
+    
+    // If new style classes were added, add style element with class declarations
+    if(_newStyleClasses.size()>0) {
+        StringBuffer sb = new StringBuffer();
+        for(String sclass : _newStyleClasses) sb.append(sclass).append(' ');
+        sb.setLength(sb.length()-1); _newStyleClasses.clear();
+        pageXML.addElement(new XMLElement("style", sb.toString()), 0);
+    }
+    
+    // Return page XML
+    return pageXML;
+}
+
 /**
  * Writes a shape to SVG HTML XML.
  */
@@ -112,6 +225,85 @@ protected XMLElement toXML(RMShape aShape)
     return hpr.toHTML(aShape, this);
 }
 
+/**
+ * Returns the name of the shared style class for given CSS declarations (adding it if not yet present).
+ */
+protected String getStyleClass(String aDecl)
+{
+    String name = _styleClasses.get(aDecl); if(name!=null) return name;
+    _styleClasses.put(aDecl, name = "s" + _styleClasses.size());
+    _newStyleClasses.add('.' + name + '{' + aDecl + '}');
+    return name;
+}
+
+/**
+ * Returns a path element for given path string: The first time a path string is used, a normal path is returned. When
+ * repeated, the path is declared once (in a defs element added to given parent) and SVG use elements are returned.
+ */
+protected XMLElement getPathXML(String aPath, XMLElement aParent)
+{
+    // If path string is short, just return path
+    XMLElement pathXML = new XMLElement("path");
+    if(aPath.length()<MIN_SHARED_PATH_LENGTH) { pathXML.add("d", aPath); return pathXML; }
+    
+    // If path string is first use, just increment count and return path
+    Object value = _paths.get(aPath);
+    if(value==null) { _paths.put(aPath, 1); pathXML.add("d", aPath); return pathXML; }
+    
+    // If path string is on second use, declare path with id in defs
+    if(value instanceof Integer) {
+        String id = "p" + _pathCount++; _paths.put(aPath, value = id);
+        pathXML.add("id", id); pathXML.add("d", aPath);
+        XMLElement defs = new XMLElement("defs"); defs.addElement(pathXML);
+        aParent.addElement(defs);
+    }
+    
+    // Return use element for shared path
+    XMLElement useXML = new XMLElement("use"); useXML.add("xlink:href", "#" + value);
+    return useXML;
+}
+
+/**
+ * Returns a unique image name for a shape with image data (adding image bytes to files if not yet present).
+ */
+protected String getImageName(RMShape aShape, RMImageData anImageData)
+{
+    // See if imageBytes are already in _files, if so return respective key
+    byte imageBytes[] = anImageData.getBytes();
+    for(String key : _files.keySet()) {
+        byte bytes[] = _files.get(key);
+        if(RMArrayUtils.equals(imageBytes, bytes))
+            return key;
+    }
+
+    // Get name from aShape (or use sequential name: img0, img1, etc...)
+    String name = aShape.getName(); if(name==null) name = "img" + _files.size();
+    String filename = _imageRoot + name + "." + anImageData.getType();
+    _files.put(filename, imageBytes);
+    return filename;
+}
+
+/**
+ * Returns the image href for given image name (or data URI, if embedding images).
+ */
+protected String getImageHref(String aName)
+{
+    // If not embedding images, return path in image root
+    if(!_embedImages) return _imageRoot + '/' + aName;
+    
+    // Get image type from name (browsers need jpeg or png, so convert others) and return data URI
+    String type = aName.substring(aName.lastIndexOf('.')+1).toLowerCase(); byte bytes[] = _files.get(aName);
+    if(type.equals("jpg") || type.equals("jpeg")) type = "jpeg";
+    else if(!type.equals("png") && !type.equals("gif")) { type = "png";
+        bytes = RMAWTUtils.getBytesPNG(RMImageData.getImageData(bytes).getImage()); }
+    return "data:image/" + type + ";base64," + ASCIICodec.encodeBase64(bytes);
+}
+
+/**
+ * Resets style classes and shared paths.
+ */
+void resetStyles()  { _styleClasses.clear(); _newStyleClasses.clear(); _paths.clear(); _pathCount = 0; }
+
 /**
  * A class to do the work of writing HTML for other classes.
  */
@@ -193,18 +385,16 @@ private static class RMShapeHpr <T extends RMShape> extends RMHtmlHelper<T> {
         // Add path
         XMLElement pathXML = null;
         if(fill!=null || stroke!=null || effect!=null) {
-            pathXML = new XMLElement("path");
-            pathXML.add("d", new SVGPathMaker().append(aShape.getPathInBounds()).toString());
+            pathXML = aFile.getPathXML(new SVGPathMaker().append(aShape.getPathInBounds()).toString(), anXML);
             anXML.addElement(pathXML);
         
-            // Do fill
-            pathXML.add("fill", fillString);
-        
-            // Do stroke
+            // Do fill and stroke (as shared style class)
+            StringMaker decl = new StringMaker().append("fill:").append(fillString);
             if(stroke!=null) {
-                pathXML.add("stroke", '#' + stroke.getColor().toHexString());
-                pathXML.add("stroke-width", stroke.getWidth());
+                decl.append(";stroke:#").append(stroke.getColor().toHexString());
+                decl.append(";stroke-width:").append(stroke.getWidth());
             }
+            pathXML.add("class", aFile.getStyleClass(decl.toString()));
             
             // Do filter
             if(filterString!=null) pathXML.add("filter", filterString);
@@ -217,14 +407,14 @@ private static class RMShapeHpr <T extends RMShape> extends RMHtmlHelper<T> {
         // Handle RMImageFill
         if(aFill instanceof RMImageFill) { RMImageFill ifill = (RMImageFill)aFill;
             RMImageData idata = ifill.getImageData();
-            String id = imageName(aFile, aShape, idata);
+            String id = aFile.getImageName(aShape, idata);
             XMLElement fxml = new XMLElement("pattern");
             fxml.add("id", id);
             fxml.add("width", ifill.isTiled()? idata.getImageWidth() : aShape.getWidth());
             fxml.add("height", ifill.isTiled()? idata.getImageHeight() : aShape.getHeight());
             fxml.add("patternUnits", "userSpaceOnUse");
             XMLElement ixml = new XMLElement("image");
-            ixml.add("xlink:href", aFile._imageRoot + '/' + id);
+            ixml.add("xlink:href", aFile.getImageHref(id));
             ixml.add("width", ifill.isTiled()? idata.getImageWidth() : aShape.getWidth());
             ixml.add("height", ifill.isTiled()? idata.getImageHeight() : aShape.getHeight());
             if(!ifill.isTiled()) ixml.add("preserveAspectRatio", "none");
@@ -299,23 +489,6 @@ private static class RMShapeHpr <T extends RMShape> extends RMHtmlHelper<T> {
     /** Writes shape close for XML. */
     public void writeClose(T aShape, RMHtmlFile aWriter, XMLElement anXML)  { }
     
-    /** Returns a unique image name for a shape with an image fill. */
-    protected String imageName(RMHtmlFile aWriter, RMShape aShape, RMImageData anImageData)
-    {
-        // See if imageBytes are already in _files, if so return respective key
-        byte imageBytes[] = anImageData.getBytes();
-        for(String key : aWriter._files.keySet()) {
-            byte bytes[] = aWriter._files.get(key);
-            if(RMArrayUtils.equals(imageBytes, bytes))
-                return key;
-        }
-    
-        // Get name from aShape (or use sequential name: img0, img1, etc...)
-        String name = aShape.getName(); if(name==null) name = "img" + aWriter._files.size();
-        String filename = aWriter._imageRoot + name + "." + anImageData.getType();
-        aWriter._files.put(filename, imageBytes);
-        return filename;
-    }
 }
 
 /**
@@ -337,8 +510,7 @@ private static class RMPageHpr <T extends RMPage> extends RMShapeHpr <T> {
             XMLElement border = new XMLElement("rect");
             border.add("width", (int)aShape.getWidth());
             border.add("height", (int)aShape.getHeight());
-            border.add("fill", "white");
-            border.add("stroke", "black");
+            border.add("class", aWriter.getStyleClass("fill:white;stroke:black"));
             anXML.addElement(border);
         }
     }
@@ -369,11 +541,12 @@ private static class RMTextShapeHpr <T extends RMTextShape> extends RMShapeHpr <
             while(str.length()>0 && str.charAt(0)==' ') { x += rfont.charAdvance(' '); str = str.substring(1); }
             XMLElement tspan = new XMLElement("tspan");
             tspan.add("x", x); tspan.add("y", y);
-            tspan.add("font-family", rfont.getFamily());
-            tspan.add("font-style", rfont.isItalic()? "italic" : "normal");
-            tspan.add("font-weight", rfont.isBold()? "bold" : "normal");
-            tspan.add("font-size", (int)rfont.getSize());
-            if(!rcolor.equals(RMColor.black)) tspan.add("fill", '#' + rcolor.toHexString());
+            StringMaker decl = new StringMaker().append("font-family:").append(getCSSFamily(rfont.getFamily()));
+            decl.append(";font-style:").append(rfont.isItalic()? "italic" : "normal");
+            decl.append(";font-weight:").append(rfont.isBold()? "bold" : "normal");
+            decl.append(";font-size:").append((int)rfont.getSize()).append("px");
+            if(!rcolor.equals(RMColor.black)) decl.append(";fill:#").append(rcolor.toHexString());
+            tspan.add("class", aWriter.getStyleClass(decl.toString()));
             tspan.setValue(str);
             text.addElement(tspan);
         }
@@ -382,6 +555,15 @@ private static class RMTextShapeHpr <T extends RMTextShape> extends RMShapeHpr <
         if(text.getElementCount()==1) { text = text.getElement(0); text.setName("text"); }
         anXML.addElement(text);
     }
+    
+    /** Returns a CSS font-family value for given family name (quoted if not plain words). */
+    static String getCSSFamily(String aFamily)
+    {
+        for(int i=0, iMax=aFamily.length(); i<iMax; i++) { char c = aFamily.charAt(i);
+            if(!Character.isLetter(c) && c!=' ' && c!='-' && (i==0 || !Character.isDigit(c)))
+                return '"' + aFamily.replace("\"", "") + '"'; }
+        return aFamily;
+    }
 }
 
 /**
@@ -406,7 +588,7 @@ private static class RMImageShapeHpr <T extends RMImageShape> extends RMShapeHpr
         if(bounds.getY()!=0) ixml.add("y", bounds.getY());
         ixml.add("width", bounds.getWidth());
         ixml.add("height", bounds.getHeight());
-        ixml.add("xlink:href", aWriter._imageRoot + '/' + imageName(aWriter, anImageShape, idata));
+        ixml.add("xlink:href", aWriter.getImageHref(aWriter.getImageName(anImageShape, idata)));
         if(!anImageShape.getPreserveRatio()) ixml.add("preserveAspectRatio", "none");
         anXML.addElement(ixml);
     }
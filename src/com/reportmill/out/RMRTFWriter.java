@@ -6,10 +6,12 @@ import com.reportmill.graphics.*;
 import java.awt.Color;
 import java.io.*;
 import java.util.*;
-import snap.util.ASCIICodec;
 
 /**
  * Write RTF for a document.
+ *
+ * The font and color tables are collected in a first pass over the document, so that the header and tables can be
+ * written first and the pages streamed after them.
  */
 public class RMRTFWriter {
 
@@ -17,6 +19,10 @@ public class RMRTFWriter {
     List <RMFontFile>    _fontTable;
     List <RMColor>       _colorTable;
     
+    // Maps of font files and color RGBA values to font & color table index
+    Map <RMFontFile,Integer>  _fontIndexes;
+    Map <Integer,Integer>     _colorIndexes;
+    
     // settings that persist across shapes
     RMParagraph          _currentParagraph;
     RMFont               _currentFont;
@@ -32,38 +38,71 @@ public class RMRTFWriter {
  * Returns RTF bytes for given document.
  */
 public byte[] getBytes(RMDocument aDoc)
+{
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    try { write(aDoc, bytesOut); } catch(IOException e) { throw new RuntimeException(e); }
+    return bytesOut.toByteArray();
+}
+
+/**
+ * Writes RTF for given document to given stream (the stream isn't closed).
+ */
+public void write(RMDocument aDoc, OutputStream aStream) throws IOException
 {
     // Validate and resolve page references
     aDoc.layout();
     aDoc.resolvePageReferences();
 
     // Allocate font & color tables
-    _fontTable = new ArrayList();
-    _colorTable = new ArrayList(); _colorTable.add(RMColor.black); // Init with black
+    _fontTable = new ArrayList(); _fontIndexes = new HashMap();
+    _colorTable = new ArrayList(); _colorIndexes = new HashMap(); getColorIndex(RMColor.black); // Init with black
+    
+    // Collect fonts & colors for document pages
+    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++)
+        addFontsAndColors(aDoc.getPage(i));
     
     // Set the current color & paragraph styles to the defaults
     _currentColor = RMColor.black; _currentParagraph = getRTFParagraphDefaults();
     _currentFont = null; _isBold = _isItalic = _isUnderline = false;
     
-    // Create print stream and write the header
-    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-    PrintStream ps = new PrintStream(byteStream);
-    ps.println("{\\rtf1\\mac\\ansi\\uc0 ");
+    // Create writer and write the header (all output is ASCII, since other chars are written as unicode escapes)
+    Writer out = new BufferedWriter(new OutputStreamWriter(aStream, "US-ASCII"), 65536);
+    out.write("{\\rtf1\\mac\\ansi\\uc0 \n");
     
-    // Generate the body of the rtf
+    // Output the font & color tables
+    writeFontTable(out);
+    writeColorTable(out);
+    
+    // Output the main body
     _tableLevel = 0;
-    byte body[] = getRTFForShapes(aDoc);
+    writeBody(aDoc, out);
     
-    // Output the font & color tables
-    writeFontTable(ps);
-    writeColorTable(ps);
+    // Close the top level and flush
+    out.write("}\n");
+    out.flush();
+}
+
+/**
+ * Adds the fonts and colors of the shapes that will be output for given shape to the font & color tables.
+ */
+protected void addFontsAndColors(RMShape aShape)
+{
+    // If shape not visible, just return
+    if(!aShape.isVisible()) return;
     
-    // Output the main body;
-    ps.write(body, 0, body.length);
+    // If rtf shape, add color of cell fill (from shape or ancestor) and fonts & colors of text
+    if(isRTFShape(aShape)) {
+        RMShape s = aShape; while(s!=null && s.getFill()==null) s = s.getParent();
+        if(s!=null) getColorIndex(s.getFill().getColor());
+        if(aShape instanceof RMTextShape) { RMXString xstring = ((RMTextShape)aShape).getXString();
+            for(int i=0, iMax=xstring.getRunCount(); i<iMax; i++) { RMXStringRun run = xstring.getRun(i);
+                getFontIndex(run.getFont()); getColorIndex(run.getColor()); }
+        }
+    }
     
-    // Close the top level and return bytes
-    ps.println("}");
-    return byteStream.toByteArray();
+    // Otherwise recurse for every child
+    else for(int i=0, iMax=aShape.getChildCount(); i<iMax; i++)
+        addFontsAndColors(aShape.getChild(i));
 }
 
 /**
@@ -73,36 +112,36 @@ public byte[] getBytes(RMDocument aDoc)
 public int getFontIndex(RMFont f)
 {
     RMFontFile fontfile = f.getFontFile();
-    int i = _fontTable.indexOf(fontfile);
-    if(i<0) { i = _fontTable.size(); _fontTable.add(fontfile); }
+    Integer index = _fontIndexes.get(fontfile); if(index!=null) return index;
+    int i = _fontTable.size(); _fontTable.add(fontfile); _fontIndexes.put(fontfile, i);
     return i;
 }
 
 /**
  * Output all the fonts as an RTF FontTable. Fonts are all referenced by name, never embedded.
  */
-public void writeFontTable(PrintStream ps) 
+public void writeFontTable(Writer anOut) throws IOException
 {
     int nfonts = _fontTable.size();
     
     if (nfonts > 0) {
-        ps.print("{\\fonttbl");
+        anOut.write("{\\fonttbl");
         for(int i=0; i<nfonts; ++i) { RMFontFile ff = _fontTable.get(i);
-            ps.print("\\f"+i);
-            writeFont(ps, ff);
+            anOut.write("\\f"); anOut.write(Integer.toString(i));
+            writeFont(anOut, ff);
         }
-        ps.println("}");
+        anOut.write("}\n");
     }
 }
 
 /**
  * Writes an entry in the font table for a particular font.
  */
-public void writeFont(PrintStream aPS, RMFontFile aFontFile) 
+public void writeFont(Writer anOut, RMFontFile aFontFile) throws IOException
 {
-    aPS.print(getRTFFontFamily(aFontFile)+" ");
-    aPS.print("\\fcharset" + getRTFFontCharset(aFontFile) + " ");
-    aPS.print(aFontFile.getFontName()+";");
+    anOut.write(getRTFFontFamily(aFontFile)+" ");
+    anOut.write("\\fcharset" + getRTFFontCharset(aFontFile) + " ");
+    writeChars(anOut, aFontFile.getFontName()); anOut.write(';');
 }
 
 public String getRTFFontFamily(RMFontFile f)
@@ -125,28 +164,31 @@ public int getRTFFontCharset(RMFontFile f)  { return 77; } // Mac
 /**
  * Output all the fonts as an RTF fonttable. Fonts are all referenced by name, never embedded.
  */
-public void writeColorTable(PrintStream ps) 
+public void writeColorTable(Writer anOut) throws IOException
 {
     int ncolors = _colorTable.size();
     
     if(ncolors > 0) {
-        ps.print("{\\colortbl");
+        anOut.write("{\\colortbl");
         for(int i=0; i<ncolors; ++i) { RMColor c = _colorTable.get(i);
             int r = c.getRedInt(), g = c.getGreenInt(), b = c.getBlueInt();
             
             // black is special
             if(r==0 && g==0 && b==0) 
-                ps.print(";");
-            else ps.print("\\red"+r+"\\green"+g+"\\blue"+b+";");
+                anOut.write(";");
+            else anOut.write("\\red"+r+"\\green"+g+"\\blue"+b+";");
         }
-        ps.println("}");
+        anOut.write("}\n");
     }
 }
 
+/**
+ * Looks up a color in the color table and adds it if it's not there.
+ */
 public int getColorIndex(RMColor c)
 {
-    int i = _colorTable.indexOf(c);
-    if(i<0) { i = _colorTable.size(); _colorTable.add(c); }
+    Integer index = _colorIndexes.get(c.getRGBA()); if(index!=null) return index;
+    int i = _colorTable.size(); _colorTable.add(c); _colorIndexes.put(c.getRGBA(), i);
     return i;
 }
 
@@ -156,32 +198,25 @@ public int getColorIndex(RMColor c)
 public int twip(double x)  { return (int)(20*x); }
 
 /**
- * Returns RTF for document Shapes.
+ * Writes RTF for document Shapes.
  */
-public byte[] getRTFForShapes(RMDocument aDoc)
+public void writeBody(RMDocument aDoc, Writer anOut) throws IOException
 {
-    ByteArrayOutputStream outs = new ByteArrayOutputStream();
-    PrintStream ps = new PrintStream(outs);
-    
     // Output the paper size and margins
-    ps.print("\\paperw" + twip(aDoc.getPage(0).getWidth()));
-    ps.print("\\paperh" + twip(aDoc.getPage(0).getHeight()));
-    ps.print("\\margl" + twip(aDoc.getMarginLeft()));
-    ps.print("\\margr" + twip(aDoc.getMarginRight()));
-    ps.print("\\margb" + twip(aDoc.getMarginBottom()));
-    ps.print("\\margt" + twip(aDoc.getMarginTop()));
-    ps.print("\\viewkind1"); // page layout view mode
-    ps.println();
+    anOut.write("\\paperw" + twip(aDoc.getPage(0).getWidth()));
+    anOut.write("\\paperh" + twip(aDoc.getPage(0).getHeight()));
+    anOut.write("\\margl" + twip(aDoc.getMarginLeft()));
+    anOut.write("\\margr" + twip(aDoc.getMarginRight()));
+    anOut.write("\\margb" + twip(aDoc.getMarginBottom()));
+    anOut.write("\\margt" + twip(aDoc.getMarginTop()));
+    anOut.write("\\viewkind1"); // page layout view mode
+    anOut.write('\n');
     
     // add a hard page break between pages
     for(int i=0, n=aDoc.getPageCount(); i<n; ++i) {
-        if(i>0) ps.println("\\page");
-        appendRTF(aDoc.getPage(i), ps);
+        if(i>0) anOut.write("\\page\n");
+        appendRTF(aDoc.getPage(i), anOut);
     }
-    
-    ps.flush();
-    return outs.toByteArray();
-    
 }
 
 /**
@@ -211,13 +246,13 @@ boolean isRTFShape(RMShape aShape)
         aShape instanceof RMPolygonShape || aShape instanceof RMScene3D;
 }
 
-public void appendRTF(RMShape aShape, PrintStream ps)
+public void appendRTF(RMShape aShape, Writer anOut) throws IOException
 {
     // Table representing the page is placed relative to margins of the page, whereas nested tables are relative to ...
     if(aShape instanceof RMPage) {
         RMRect bounds = null; //((RMPage)aShape).getDocument().getMarginRect();
         RMShapeTable cells = RMShapeTable.createTable(getRTFShapes(aShape), aShape, bounds);
-        appendTable(cells, ps);
+        appendTable(cells, anOut);
     }
         
     // Get the real shape this that goes in this cell
@@ -229,8 +264,8 @@ public void appendRTF(RMShape aShape, PrintStream ps)
             aShape = ((RMShapeTable.STCell)aShape).getCellShape();
         
         // Append text or image for shape
-        if(aShape instanceof RMTextShape) appendText(((RMTextShape)aShape).getXString(), ps);
-        else appendImageBytesForShape(aShape, ps);
+        if(aShape instanceof RMTextShape) appendText(((RMTextShape)aShape).getXString(), anOut);
+        else appendImageBytesForShape(aShape, anOut);
     }
 }
 
@@ -238,7 +273,7 @@ public void appendRTF(RMShape aShape, PrintStream ps)
  * Append table.
  * Tables are intermediary objects used for positioning content. Thus, tables themselves shouldn't do any drawing
  */
-public void appendTable(RMShapeTable table, PrintStream ps)
+public void appendTable(RMShapeTable table, Writer anOut) throws IOException
 {
     // empty docs can lead to null tables
     if(table==null) return;
@@ -258,10 +293,10 @@ public void appendTable(RMShapeTable table, PrintStream ps)
     for(int r=0, nrows=table.getRowCount(); r<nrows; ++r) {
         
         // Basic setup
-        ps.print("\\itap" + _tableLevel + "\\trowd "); // nest level - and table row defaults
-        ps.println("\\trbrdrt\\brdrnil\\trbrdrl\\brdrnil\\trbrdrr\\brdrnil"); // no borders anywhere
-        ps.println("\\trgaph0\\trleft0"); // table shouldn't add any spaces itself, so set all the coords to 0
-        ps.println("\\trrh" + twip(table.getRow(r).getHeight())); // set the (minimum) height of the row
+        anOut.write("\\itap" + _tableLevel + "\\trowd "); // nest level - and table row defaults
+        anOut.write("\\trbrdrt\\brdrnil\\trbrdrl\\brdrnil\\trbrdrr\\brdrnil\n"); // no borders anywhere
+        anOut.write("\\trgaph0\\trleft0\n"); // table shouldn't add any spaces itself, so set all the coords to 0
+        anOut.write("\\trrh" + twip(table.getRow(r).getHeight()) + "\n"); // set the (minimum) height of the row
 
         // Iterate over columns and add the cells definitions for the row
         for(int c=0; c<columnCount; ++c) { RMShapeTable.STCell rmcell = table.getCell(r,c);
@@ -270,44 +305,44 @@ public void appendTable(RMShapeTable table, PrintStream ps)
             
             // For merged cells, output a 'cl[v]mgf' for the first occurance, and a 'cl[v]mrg' thereafter
             if(colspan>1) {
-                if(rmcell.getColumn()==c) ps.print("\\clmgf");
-                else ps.print("\\clmrg");
+                if(rmcell.getColumn()==c) anOut.write("\\clmgf");
+                else anOut.write("\\clmrg");
             }
             if(rowspan>1) {
-                if(rmcell.getRow()==r) ps.print("\\clvmgf");
-                else ps.print("\\clvmrg");
+                if(rmcell.getRow()==r) anOut.write("\\clvmgf");
+                else anOut.write("\\clvmrg");
             }
             
             // Cell shading
             RMFill fill = rmcell.getFill();
-            if(fill != null) ps.print("\\clcbpat" + getColorIndex(fill.getColor()));
-            else ps.print("\\clshdrawnil");
+            if(fill != null) anOut.write("\\clcbpat" + getColorIndex(fill.getColor()));
+            else anOut.write("\\clshdrawnil");
 
             // Vertical alignment
-            ps.print("\\clvertal");
+            anOut.write("\\clvertal");
             switch(rmcell.getAlignmentY()) {
-                case Top : ps.print("t"); break;
-                case Middle : ps.print("c"); break;
-                default : ps.print("b");
+                case Top : anOut.write("t"); break;
+                case Middle : anOut.write("c"); break;
+                default : anOut.write("b");
             }
             
             // Cell height - this doesn't seem to be a real rtf control word, but TextEdit needs it.  The ignore row
             // height (trrh) in favor of this made-up control
-            ps.print("\\clheight"+twip(rmcell.getHeight()));
+            anOut.write("\\clheight"+twip(rmcell.getHeight()));
             
             // Cell borders
             RMShape cshape = rmcell.getCellShape();
             RMCrossTabCell ctcell = cshape instanceof RMCrossTabCell? (RMCrossTabCell)cshape : null;
-            ps.print("\\clbrdrt"+RTFBorderStyle(ctcell!=null && ctcell.getShowTopBorder(),20));
-            ps.print("\\clbrdrb"+RTFBorderStyle(ctcell!=null && ctcell.getShowBottomBorder(),20));
-            ps.print("\\clbrdrl"+RTFBorderStyle(ctcell!=null && ctcell.getShowLeftBorder(),20));
-            ps.print("\\clbrdrr"+RTFBorderStyle(ctcell!=null && ctcell.getShowRightBorder(),20));
+            anOut.write("\\clbrdrt"+RTFBorderStyle(ctcell!=null && ctcell.getShowTopBorder(),20));
+            anOut.write("\\clbrdrb"+RTFBorderStyle(ctcell!=null && ctcell.getShowBottomBorder(),20));
+            anOut.write("\\clbrdrl"+RTFBorderStyle(ctcell!=null && ctcell.getShowLeftBorder(),20));
+            anOut.write("\\clbrdrr"+RTFBorderStyle(ctcell!=null && ctcell.getShowRightBorder(),20));
             
             // CellX defines the right margin of the cell but clwWidth seems to be more important
             int cw = twip(rmcell.getWidth()) - pads - border;
-            ps.print("\\clwWidth" + cw + "\\clftsWidth3");
-            ps.print("\\clpadl" + pads + "\\clpadr" + pads);
-            ps.println("\\cellx" + cellx*(c+1));
+            anOut.write("\\clwWidth" + cw + "\\clftsWidth3");
+            anOut.write("\\clpadl" + pads + "\\clpadr" + pads);
+            anOut.write("\\cellx" + cellx*(c+1) + "\n");
         }
         
         // Iterate over cells in row again and output the actual cell data, possibly recursing for nested tables
@@ -315,23 +350,23 @@ public void appendTable(RMShapeTable table, PrintStream ps)
             
             // Add the rtf for the text (or shapes) inside the cell, otherwise empty paragraph for merged cell
             if((rmcell.getRow()==r) && (rmcell.getColumn()==c))
-                appendRTF(rmcell, ps);
-            else ps.print("\\pard\\intbl\\itap" + _tableLevel);
+                appendRTF(rmcell, anOut);
+            else anOut.write("\\pard\\intbl\\itap" + _tableLevel);
             
             // End the cell
-            ps.println(_tableLevel>1?"\\nestcell":"\\cell");
+            anOut.write(_tableLevel>1? "\\nestcell\n" : "\\cell\n");
 
         }
         // End the row
-        if(r==nrows-1) ps.print("\\lastrow");
-        ps.println(_tableLevel>1?"\\nestrow":"\\row");
+        if(r==nrows-1) anOut.write("\\lastrow");
+        anOut.write(_tableLevel>1? "\\nestrow\n" : "\\row\n");
     }
     
     // restore previous table level
     --_tableLevel;
 }
 
-public void appendText(RMXString s, PrintStream ps)
+public void appendText(RMXString s, Writer anOut) throws IOException
 {
     String text = s.toString();
     boolean newParagraph = true;
@@ -341,22 +376,22 @@ public void appendText(RMXString s, PrintStream ps)
         
         // new paragraph at the start and then at each carriage return (when is \par used?)
         if (newParagraph || !run.getParagraph().equals(_currentParagraph)) {
-            ps.print("\\pard");
+            anOut.write("\\pard");
             // we just reset the paragraph defaults above, so reset the currentParagraph
             _currentParagraph = getRTFParagraphDefaults();
             
             // we're always somewhere inside a table
-            ps.print("\\intbl\\itap"+_tableLevel);
+            anOut.write("\\intbl\\itap"+_tableLevel);
             RMParagraph par = run.getParagraph();
             //if any of the paragraph settings have changed, set them
             if (!par.equals(_currentParagraph)) {
                 // paragraph alignment
                 if (par.getAlignmentX() != _currentParagraph.getAlignmentX()) {
                     switch(par.getAlignmentX()) {
-                        case Center : ps.print("\\qc"); break;
-                        case Full : ps.print("\\qj"); break;
-                        case Left : ps.print("\\ql"); break;
-                        case Right : ps.print("\\qr"); break;
+                        case Center : anOut.write("\\qc"); break;
+                        case Full : anOut.write("\\qj"); break;
+                        case Left : anOut.write("\\ql"); break;
+                        case Right : anOut.write("\\qr"); break;
                     }
                 }
                 // tabs
@@ -365,11 +400,11 @@ public void appendText(RMXString s, PrintStream ps)
                     for(int j=0, ntabs=par.getTabCount(); j<ntabs; ++j) {
                         switch(par.getTabType(j)) {
                         case RMParagraph.TAB_LEFT: break; // the default
-                        case RMParagraph.TAB_RIGHT: ps.print("\\tqr"); break;
-                        case RMParagraph.TAB_CENTER: ps.print("\\tqc"); break;
-                        case RMParagraph.TAB_DECIMAL: ps.print("\\tqdec"); break;
+                        case RMParagraph.TAB_RIGHT: anOut.write("\\tqr"); break;
+                        case RMParagraph.TAB_CENTER: anOut.write("\\tqc"); break;
+                        case RMParagraph.TAB_DECIMAL: anOut.write("\\tqdec"); break;
                         }
-                        ps.print("\\tx"+twip(par.getTab(j)));
+                        anOut.write("\\tx"+twip(par.getTab(j)));
                     }
                 }
                 
@@ -384,28 +419,28 @@ public void appendText(RMXString s, PrintStream ps)
         if(_currentFont==null || !_currentFont.equals(font)) {
             
             // Font size units are half-points.  Who comes up with this shit?
-            ps.print("\\f" + getFontIndex(font));
-            ps.print("\\fs" + (int)(font.getSize()*2));
+            anOut.write("\\f" + getFontIndex(font));
+            anOut.write("\\fs" + (int)(font.getSize()*2));
             _currentFont = font;
             
             // Update bold/italic (note that in RM this is a font property, whereas in RTF it's a character property)
             if(_isBold != font.isBold()) {
-                _isBold = !_isBold; ps.print("\\b"+ (_isBold ? "" : "0")); } 
+                _isBold = !_isBold; anOut.write("\\b"+ (_isBold ? "" : "0")); } 
             if(_isItalic != font.isItalic()) {
-                _isItalic = !_isItalic; ps.print("\\i" + (_isItalic ? "" : "0")); }
+                _isItalic = !_isItalic; anOut.write("\\i" + (_isItalic ? "" : "0")); }
         }
         
         // Update text color
         RMColor color = run.getColor();
         if(!_currentColor.equals(color)) {
-            ps.print("\\cf"+getColorIndex(color)); _currentColor = color; }
+            anOut.write("\\cf"+getColorIndex(color)); _currentColor = color; }
         
         // Update underlining: turn on or off
         if(_isUnderline != run.isUnderlined()) {
-            _isUnderline = !_isUnderline; ps.print("\\ul" + ( _isUnderline ? "":"0"));  }
+            _isUnderline = !_isUnderline; anOut.write("\\ul" + ( _isUnderline ? "":"0"));  }
         
         // delimeter before raw text
-        ps.println();
+        anOut.write('\n');
        
         // Iterate over run characters and write them
         for(int cp = run.start(), cend = run.end(); cp<cend; ++cp) { char c = text.charAt(cp);
@@ -418,15 +453,15 @@ public void appendText(RMXString s, PrintStream ps)
             // generated. Some generators seems to constantly generate "uc0" controls.
             // We do it once in the header, and never generate compatibility characters.
             if(c>127)  // output anything beyond 7 bit ascii as 16-bit unicode
-                ps.print("\\u"+(int)c+" ");
+                writeUnicode(anOut, c);
             
             // escape meaningful characters
-            else if(c=='\n' || c=='\\' || c=='{' || c=='}')
-                ps.print("\\"+c);
+            else if(c=='\n' || c=='\\' || c=='{' || c=='}') {
+                anOut.write('\\'); anOut.write(c); }
             
             // tabs and all other plain ascii chars get emitted as-is. 
             else if(c>=32 || c=='\t')
-                ps.print(c);
+                anOut.write(c);
         }
         
     }
@@ -440,7 +475,7 @@ public String RTFBorderStyle(boolean show, int width)  { return show? ("\\brdrs\
 /**
  * Convert the shape into an image stream and embedd that into the rtf.
  */
-public void appendImageBytesForShape(RMShape s, PrintStream ps) 
+public void appendImageBytesForShape(RMShape s, Writer anOut) throws IOException 
 {
     RMShapeImager simager = new RMShapeImager().setColor(Color.WHITE);
     byte[] pngBytes = RMAWTUtils.getBytesPNG(simager.createImage(s)); if(pngBytes==null) return;
@@ -450,14 +485,43 @@ public void appendImageBytesForShape(RMShape s, PrintStream ps)
     // is probably going to cause trouble.
     RMRect bounds = s.getBoundsMarked();
     
-    ps.println();
-    ps.print("\\*\\shppict {\\pict\\pngblip");
-    ps.print("\\picwgoal" + twip(bounds.getWidth()) + "\\pichgoal" + twip(bounds.getHeight()));
-    ps.print(" ");
-    ps.print(ASCIICodec.encodeHex(pngBytes));
-    ps.print("}");
+    anOut.write('\n');
+    anOut.write("\\*\\shppict {\\pict\\pngblip");
+    anOut.write("\\picwgoal" + twip(bounds.getWidth()) + "\\pichgoal" + twip(bounds.getHeight()));
+    anOut.write(" ");
+    writeHex(anOut, pngBytes);
+    anOut.write("}");
+}
+
+/**
+ * Writes a string with chars beyond 7 bit ascii as unicode escapes.
+ */
+void writeChars(Writer anOut, String aString) throws IOException
+{
+    for(int i=0, iMax=aString.length(); i<iMax; i++) { char c = aString.charAt(i);
+        if(c>127) writeUnicode(anOut, c); else anOut.write(c); }
 }
 
+/**
+ * Writes a char as a unicode escape.
+ */
+void writeUnicode(Writer anOut, char c) throws IOException
+{
+    anOut.write("\\u"); anOut.write(Integer.toString(c)); anOut.write(' ');
+}
+
+/**
+ * Writes bytes as hex.
+ */
+void writeHex(Writer anOut, byte theBytes[]) throws IOException
+{
+    for(int i=0, iMax=theBytes.length; i<iMax; i++) { int b = theBytes[i] & 0xff;
+        anOut.write(HEX_CHARS[b>>4]); anOut.write(HEX_CHARS[b&0xf]); }
+}
+
+// Hex chars
+static final char HEX_CHARS[] = "0123456789ABCDEF".toCharArray();
+
 /**
  * Creates and RMParagraph object whose values are set to the defaults assigned by the RTF spec.
  * The RMParagraph defaultParagraph is very similar to the rtf defaults:
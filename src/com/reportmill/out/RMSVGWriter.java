@@ -0,0 +1,296 @@
+package com.reportmill.out;
+import com.reportmill.base.*;
+import com.reportmill.graphics.*;
+import com.reportmill.shape.*;
+import java.io.*;
+import java.util.*;
+import snap.util.*;
+
+/**
+ * Generates SVG, as one self-contained SVG document per page.
+ *
+ * Page SVG is generated like the inline SVG of RMHtmlFile (with fill/stroke and font styles as shared CSS classes in a
+ * style element), but images are embedded as data URIs, declared once per page as symbols and drawn with SVG use
+ * elements. Repeated paths, text and groups (like logos or label contents) are declared once in the page defs element
+ * and also drawn with use elements (with the transform of each occurrence).
+ */
+public class RMSVGWriter {
+
+    // The document
+    RMDocument             _doc;
+
+    // The HTML file used to generate page SVG
+    SVGFile                _file = new SVGFile();
+
+    // Whether document has been laid out for writing
+    boolean                _docReady;
+
+    // The minimum length of an element that is declared once and reused when repeated
+    static final int       MIN_SHARED_LENGTH = 48;
+
+    // The SVG namespaces
+    static final String    SVG_NS = "http://www.w3.org/2000/svg", XLINK_NS = "http://www.w3.org/1999/xlink";
+
+/**
+ * Creates a new RMSVGWriter for given document.
+ */
+public RMSVGWriter(RMDocument aDoc)  { _doc = aDoc; _file.setShowBorder(false); }
+
+/**
+ * Returns whether to show border around page(s).
+ */
+public boolean getShowBorder()  { return _file.getShowBorder(); }
+
+/**
+ * Sets whether to show border around page(s).
+ */
+public void setShowBorder(boolean aValue)  { _file.setShowBorder(aValue); }
+
+/**
+ * Returns the number of pages (each written as a separate SVG document).
+ */
+public int getPageCount()  { prepareDocument(); return _doc.getPageCount(); }
+
+/**
+ * Returns the SVG XML for page at given index.
+ */
+public XMLElement getPageXML(int anIndex)
+{
+    prepareDocument();
+    return getPageXML(_doc.getPage(anIndex));
+}
+
+/**
+ * Returns the SVG file bytes for page at given index.
+ */
+public byte[] getBytes(int anIndex)  { return getPageXML(anIndex).getBytes(); }
+
+/**
+ * Writes the SVG file for page at given index to given stream (the stream isn't closed).
+ */
+public void write(int anIndex, OutputStream aStream) throws IOException  { aStream.write(getBytes(anIndex)); }
+
+/**
+ * Writes SVG to file (if document has multiple pages, pages are written to files with page number appended to name).
+ */
+public void write(String aPath)
+{
+    // If one page, just write it to path
+    if(getPageCount()==1) { RMUtils.writeBytes(getBytes(0), aPath); return; }
+
+    // Get path without extension and write each page to path with page number
+    int dot = aPath.lastIndexOf('.'), sep = aPath.lastIndexOf(File.separatorChar);
+    String base = dot>sep? aPath.substring(0, dot) : aPath, ext = dot>sep? aPath.substring(dot) : ".svg";
+    for(int i=0, iMax=getPageCount(); i<iMax; i++)
+        RMUtils.writeBytes(getBytes(i), base + "-" + (i+1) + ext);
+}
+
+/**
+ * Validates and resolves page references for document and adds watermark (only once).
+ */
+protected void prepareDocument()
+{
+    if(_docReady) return; _docReady = true;
+    _doc.layout();
+    _doc.resolvePageReferences();
+    ReportMill.lc(_doc);
+}
+
+/**
+ * Returns the SVG XML for given page.
+ */
+protected XMLElement getPageXML(RMPage aPage)
+{
+    // Reset styles, paths and images, so that each page is self-contained, and get page XML
+    _file.resetStyles(); _file._images.clear();
+    XMLElement svg = _file.getPageXML(aPage);
+
+    // Declare images as symbols and repeated elements in defs element
+    XMLElement defs = new XMLElement("defs");
+    addImageSymbols(svg, defs, new HashMap());
+    new ElementSharer(svg).share(svg, 1, defs);
+
+    // If defs were added, add defs element (after style element, if present)
+    if(defs.getElementCount()>0) {
+        int index = svg.getElementCount()>0 && svg.getElement(0).getName().equals("style")? 1 : 0;
+        svg.addElement(defs, index);
+    }
+
+    // Add namespaces, version and view box and return
+    svg.addAttribute(new XMLAttribute("xmlns", SVG_NS), 0);
+    svg.addAttribute(new XMLAttribute("xmlns:xlink", XLINK_NS), 1);
+    svg.addAttribute(new XMLAttribute("version", "1.1"), 2);
+    svg.add("viewBox", "0 0 " + (int)aPage.getWidth() + " " + (int)aPage.getHeight());
+    return svg;
+}
+
+/**
+ * Replaces image elements (for images in page) with use elements that reference image symbols, adding a symbol to
+ * given defs the first time an image is used with a given preserveAspectRatio.
+ */
+protected void addImageSymbols(XMLElement anXML, XMLElement theDefs, Map <String,String> theSymbols)
+{
+    for(int i=0, iMax=anXML.getElementCount(); i<iMax; i++) { XMLElement child = anXML.getElement(i);
+
+        // If not image, just recurse
+        String href = child.getName().equals("image")? child.getAttributeValue("xlink:href") : null;
+        RMImageData idata = href!=null && href.startsWith("#")? _file._images.get(href.substring(1)) : null;
+        if(idata==null) { addImageSymbols(child, theDefs, theSymbols); continue; }
+
+        // Get symbol for image and preserveAspectRatio (create and add to defs if first use)
+        XMLAttribute par = child.removeAttribute("preserveAspectRatio");
+        String key = href + (par!=null? par.getValue() : ""), id = theSymbols.get(key);
+        if(id==null) {
+            theSymbols.put(key, id = "i" + theSymbols.size());
+            theDefs.addElement(getImageSymbol(id, idata, par));
+        }
+
+        // Turn image into use element for symbol
+        child.setName("use");
+        child.getAttribute("xlink:href").setValue("#" + id);
+    }
+}
+
+/**
+ * Returns a symbol element for given id, image data and preserveAspectRatio.
+ */
+protected XMLElement getImageSymbol(String anId, RMImageData anImageData, XMLAttribute aPAR)
+{
+    // Create image element for image size with image bytes as data URI
+    XMLElement image = new XMLElement("image");
+    image.add("width", anImageData.getImageWidth());
+    image.add("height", anImageData.getImageHeight());
+    image.add("xlink:href", getImageDataURI(anImageData));
+
+    // Create symbol with view box for image size, add image and return
+    XMLElement symbol = new XMLElement("symbol"); symbol.add("id", anId);
+    symbol.add("viewBox", "0 0 " + image.getAttributeValue("width") + " " + image.getAttributeValue("height"));
+    if(aPAR!=null) symbol.add(aPAR);
+    symbol.addElement(image);
+    return symbol;
+}
+
+/**
+ * Returns a data URI for given image data (images not in a browser format are converted to PNG).
+ */
+protected String getImageDataURI(RMImageData anImageData)
+{
+    String type = anImageData.getType().toLowerCase(); byte bytes[] = anImageData.getBytes();
+    if(type.equals("jpg") || type.equals("jpeg")) type = "jpeg";
+    else if(!type.equals("png") && !type.equals("gif")) { type = "png";
+        bytes = RMAWTUtils.getBytesPNG(anImageData.getImage()); }
+    return "data:image/" + type + ";base64," + ASCIICodec.encodeBase64(bytes);
+}
+
+/**
+ * An RMHtmlFile subclass to generate page SVG with images referenced by name and plain paths (images and repeated
+ * elements are declared once in defs by RMSVGWriter).
+ */
+private static class SVGFile extends RMHtmlFile {
+
+    // A map of image names to image data for current page
+    Map <String,RMImageData>  _images = new HashMap();
+
+    /** Creates a new SVGFile. */
+    public SVGFile()  { super(null); }
+
+    /** Returns a path element for given path string. */
+    protected XMLElement getPathXML(String aPath, XMLElement aParent)
+    {
+        XMLElement pathXML = new XMLElement("path"); pathXML.add("d", aPath); return pathXML;
+    }
+
+    /** Returns a unique image name for a shape with image data. */
+    protected String getImageName(RMShape aShape, RMImageData anImageData)
+    {
+        byte imageBytes[] = anImageData.getBytes();
+        for(Map.Entry <String,RMImageData> entry : _images.entrySet())
+            if(RMArrayUtils.equals(imageBytes, entry.getValue().getBytes()))
+                return entry.getKey();
+        String name = "img" + _images.size(); _images.put(name, anImageData);
+        return name;
+    }
+
+    /** Returns the image href for given image name. */
+    protected String getImageHref(String aName)  { return "#" + aName; }
+}
+
+/**
+ * Finds repeated path, text and group elements in a page and declares them once in defs, replacing each occurrence with
+ * a use element (with the transform of the occurrence).
+ */
+private static class ElementSharer {
+
+    // A map of canonical element strings to key index and the use count and length of elements for each key index
+    Map <String,Integer>                _keys = new HashMap();
+    List <int[]>                        _counts = new ArrayList();
+
+    // A map of elements to key index
+    Map <XMLElement,Integer>            _elementKeys = new IdentityHashMap();
+
+    // A map of key index to defs id for shared elements
+    Map <Integer,String>                _ids = new HashMap();
+
+    /** Creates a new ElementSharer for given page SVG element. */
+    public ElementSharer(XMLElement aRoot)  { for(XMLElement child : aRoot.getElements()) addElement(child); }
+
+    /** Adds an element (and its children) and returns its key index. */
+    int addElement(XMLElement anXML)
+    {
+        // Get canonical string for element name, attributes (other than transform), value and children
+        StringBuffer sb = new StringBuffer(anXML.getName()); int length = anXML.getName().length() + 4;
+        for(int i=0, iMax=anXML.getAttributeCount(); i<iMax; i++) { XMLAttribute attr = anXML.getAttribute(i);
+            if(attr.getName().equals("transform")) continue;
+            sb.append(' ').append(attr.getName()).append("=\"").append(attr.getValue()).append('"');
+            length += attr.getName().length() + attr.getValue().length() + 4;
+        }
+        if(anXML.getValue()!=null) { sb.append('>').append(anXML.getValue()); length += anXML.getValue().length(); }
+        for(int i=0, iMax=anXML.getElementCount(); i<iMax; i++) { XMLElement child = anXML.getElement(i);
+            int childKey = addElement(child); length += _counts.get(childKey)[1];
+            sb.append(" (").append(childKey).append(' ').append(child.getAttributeValue("transform", "")).append(')');
+        }
+
+        // Get key index for canonical string (adding it if new), increment count if element can be shared and return
+        String str = sb.toString(); Integer key = _keys.get(str);
+        if(key==null) { _keys.put(str, key = _counts.size()); _counts.add(new int[] { 0, length }); }
+        if(isShareable(anXML)) _counts.get(key)[0]++;
+        _elementKeys.put(anXML, key);
+        return key;
+    }
+
+    /** Returns whether element is of a kind that is declared once when repeated. */
+    boolean isShareable(XMLElement anXML)
+    {
+        String name = anXML.getName();
+        return (name.equals("g") || name.equals("path") || name.equals("text")) && !anXML.hasAttribute("id");
+    }
+
+    /** Replaces repeated children of element with use elements (declaring them in given defs the first time). */
+    public void share(XMLElement anXML, int aParentCount, XMLElement theDefs)
+    {
+        for(int i=0, iMax=anXML.getElementCount(); i<iMax; i++) { XMLElement child = anXML.getElement(i);
+
+            // If child isn't repeated more than parent or is too short, just recurse
+            int key = _elementKeys.get(child), counts[] = _counts.get(key);
+            if(counts[0]<2 || counts[0]<=aParentCount || counts[1]<MIN_SHARED_LENGTH) {
+                share(child, Math.max(counts[0], aParentCount), theDefs); continue; }
+
+            // Get child transform and defs id (if first occurrence, declare child in defs with id and without transform)
+            XMLAttribute transform = child.removeAttribute("transform");
+            String id = _ids.get(key);
+            if(id==null) {
+                _ids.put(key, id = "u" + _ids.size());
+                share(child, counts[0], theDefs);
+                child.addAttribute(new XMLAttribute("id", id), 0);
+                theDefs.addElement(child);
+            }
+
+            // Replace child with use element
+            XMLElement use = new XMLElement("use"); use.add("xlink:href", "#" + id);
+            if(transform!=null) use.add(transform);
+            anXML.getElements().set(i, use);
+        }
+    }
+}
+
+}
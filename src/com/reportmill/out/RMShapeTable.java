@@ -14,8 +14,8 @@ public class RMShapeTable {
     // The rows
     List <STRow>  _rows = new ArrayList();
     
-    // The cells
-    STCell        _cells[][];
+    // The cells of each row
+    RowCells      _cells[];
     
     // Cells within this horizontal or vertical distance are considered to be aligned.
     static final double CELL_ALIGNMENT_TOLERANCE = .5;
@@ -33,7 +33,7 @@ public int getRowCount()  { return _rows.size(); }
 public STRow getRow(int anIndex)  { return _rows.get(anIndex); }
 
 /** Returns the cell at index. */
-public STCell getCell(int aRow, int aCol)  { return _cells[aRow][aCol]; }
+public STCell getCell(int aRow, int aCol)  { return _cells[aRow].getCell(aCol); }
 
 /**
  * A class for rows.
@@ -122,7 +122,7 @@ public static RMShapeTable createTable(List <RMShape> shapes, RMShape topLevel,
     
     int numRows = numRowBoundaries-1;
     int numCols = numColBoundaries-1;
-    STCell cells[][] = new STCell[numRows][numCols];
+    RowCells cells[] = new RowCells[numRows]; for(int i=0; i<numRows; i++) cells[i] = new RowCells();
     
     // Walk through converted rects and assign row-column spans
     for(int i=0; i<shapeCount; i++) {
@@ -135,40 +135,26 @@ public static RMShapeTable createTable(List <RMShape> shapes, RMShape topLevel,
         int row = binarySearch(rowStarts, 0, numRowBoundaries-1, cellRects[i].getY(), CELL_ALIGNMENT_TOLERANCE);
         if(row<0 || col<0 || row>=numRows || col>=numCols)
             throw new RuntimeException("Internal Error : search failed");
-        if(cells[row][col] != null) {
+        if(cells[row].getCell(col) != null) {
             printOverlapWarning(); continue; }
         
-        // Create a new cell for shape and add to cells
+        // Create a new cell for shape
         RMShape shape = shapes.get(i);
         STCell newCell = new STCell(); newCell._cshape = shape;
         RMShape s = shape; while(s!=null && s.getFill()==null) s = s.getParent();
         if(s!=null) newCell.setFill(s.getFill());
-        cells[row][col] = newCell;
         
-        // Declare variables for row span & column span
-        int rowspan, colspan;
+        // Find the rowspan and column span from the first boundaries after origin that match cell max y and max x
+        int rowEnd = findBoundary(rowStarts, row+1, numRowBoundaries-1, cellRects[i].getMaxY());
+        if(rowEnd<0) throw new RuntimeException("Internal error: couldn't find last row boundary");
+        int colEnd = findBoundary(colStarts, col+1, numColBoundaries-1, cellRects[i].getMaxX());
+        if(colEnd<0) throw new RuntimeException("Internal error: couldn't find last column boundary");
+        int rowspan = rowEnd - row, colspan = colEnd - col;
         
-        // Find the rowspan
-        for(rowspan=1; row+rowspan<numRowBoundaries; ++rowspan) {
-            if(Math.abs(rowStarts[row+rowspan] - cellRects[i].getMaxY()) <= CELL_ALIGNMENT_TOLERANCE)
-                break;
-            if(row+rowspan==numRows) // Another option is to make loop only go to numRows and check (or not) once at end
-                throw new RuntimeException("Internal error: couldn't find last row boundary");
-            if(cells[row+rowspan][col]!=null) printOverlapWarning();
-            else cells[row+rowspan][col] = newCell;
-        }
-        
-        // Find column span
-        for(colspan=1; col+colspan<numColBoundaries; ++colspan) {
-            if(Math.abs(colStarts[col+colspan] - cellRects[i].getMaxX()) <= CELL_ALIGNMENT_TOLERANCE)
-                break;
-            if(col+colspan == numCols)
-                throw new RuntimeException("Internal error: couldn't find last column boundary");
-            for(int r = 0; r < rowspan; ++r) {
-                if(cells[row+r][col+colspan] != null) printOverlapWarning();
-                else cells[row+r][col+colspan] = newCell;
-            }
-        }
+        // Add cell to the rows and columns it covers (that don't already have a cell)
+        for(int r=row; r<rowEnd; r++)
+            if(cells[r].fill(col, colEnd, newCell))
+                printOverlapWarning();
         
         newCell.setInfo(row, col, rowspan, colspan);
         
@@ -186,7 +172,7 @@ public static RMShapeTable createTable(List <RMShape> shapes, RMShape topLevel,
     for(int i=0; i<numCols; ++i) stable._cols.add(new STCol(colStarts[i+1]-colStarts[i]));
     
     // Create empty cells for any area that not covered by a real cell
-    fillInCells(cells, rowStarts, colStarts, maxBounds);
+    fillInCells(cells, numCols, rowStarts, colStarts, maxBounds);
     _pow = false;
     
     // Return table
@@ -226,62 +212,169 @@ static int binarySearch(double array[], int first, int last, double value, doubl
     return -1;
 }
 
+/**
+ * Returns the first boundary index in given range (of a sorted, unique array) within tolerance of given value.
+ */
+static int findBoundary(double array[], int first, int last, double value)
+{
+    int index = binarySearch(array, first, last, value, CELL_ALIGNMENT_TOLERANCE);
+    while(index>first && Math.abs(array[index-1]-value)<=CELL_ALIGNMENT_TOLERANCE) index--;
+    return index;
+}
+
 /**
  * Creates RMCells for any empty (null) cells.
- * Tries to coalesce neighboring empty cells into rectangular regions.
+ * Tries to coalesce neighboring empty cells into rectangular regions: An empty cell spans the empty columns to the
+ * right, then extends down while those columns are empty in the rows below (empty cells are extended a row at a time).
  */
-static void fillInCells(STCell cells[][], double rowStarts[], double colStarts[], RMRect maxBounds)
+static void fillInCells(RowCells cells[], int colCount, double rowStarts[], double colStarts[], RMRect maxBounds)
 {
-    // Iterate over cells
-    for(int row=0, rowCount=cells.length; row<rowCount; row++) {
-        for(int col=0, colCount=cells[row].length; col<colCount; col++) {
+    // Iterate over rows, with the empty cells that extend down from the previous row (sorted by column)
+    RowCells active = new RowCells(4), extended = new RowCells(4);
+    for(int row=0, rowCount=cells.length; row<rowCount; row++) { RowCells rcells = cells[row];
+        
+        // Get the active empty cells that extend into this row (end the others)
+        extended._count = 0;
+        for(int i=0; i<active._count; i++) { STCell cell = active._cells[i];
+            if(rcells.isEmpty(active._starts[i], active._ends[i]))
+                extended.add(active._starts[i], active._ends[i], cell);
+            else endEmptyCell(cell, row - cell._row, active._ends[i] - cell._col, rowStarts, colStarts, maxBounds);
+        }
+        
+        // If no extended cells and row cells cover all columns, just continue
+        active._count = 0;
+        if(extended._count==0 && rcells.isFull(colCount)) continue;
+        
+        // Merge row cells and extended empty cells, and add new empty cell for each remaining empty column range
+        RowCells merged = new RowCells((rcells._count + extended._count)*2 + 1);
+        for(int col=0, ri=0, ei=0; col<colCount; ) {
             
-            // Find a horizontal span of 1 or more null cells and fill them with a new cell
-            if(cells[row][col]==null) {
-                
-                STCell newCell = new STCell();
-                
-                // Find colspan
-                int colspan = 0;
-                do {
-                    cells[row][col+colspan] = newCell; ++colspan;
-                } while((col+colspan<colCount) && (cells[row][col+colspan]==null));
-                
-                // Cell now spans 1 row and colspan cols, extend rowspan if cells col->col+colspan below also empty
-                int rowspan = 1, c;
-                while((row+rowspan<rowCount) && (cells[row+rowspan][col]==null)) {
-                    
-                    // 
-                    for(c=0; c<colspan; ++c)
-                        if(cells[row+rowspan][col+c]!=null)
-                            break;
-                    
-                    // found matching empty region.  Fill in the array
-                    if(c==colspan) {
-                        for(c=0; c<colspan; ++c)
-                            cells[row+rowspan][col+c] = newCell;
-                        ++rowspan;
-                    }
-                    else break;
-                }
-                
-                newCell.setInfo(row, col, rowspan, colspan);
-                
-                // Set the cell's bounds
-                newCell.setFrame(colStarts[col] - maxBounds.getX(), rowStarts[row] - maxBounds.getY(),
-                    colStarts[col+colspan]-colStarts[col], rowStarts[row+rowspan]-rowStarts[row]);
-                
-                // Make it invisible
-                newCell.setVisible(false);
-                
-                // Skip over ones we've just filled in
-                col += colspan-1;
-                
-                // If we've filled in multiple entire rows, skip them now, too.
-                if(col==0 && colspan==colCount) 
-                    row += rowspan-1;
-            }
+            // If row cell or extended cell starts at column, add it and skip to end of it
+            if(ri<rcells._count && rcells._starts[ri]==col) {
+                merged.add(col, rcells._ends[ri], rcells._cells[ri]); col = rcells._ends[ri++]; continue; }
+            if(ei<extended._count && extended._starts[ei]==col) { int end = extended._ends[ei];
+                merged.add(col, end, extended._cells[ei]); active.add(col, end, extended._cells[ei++]); col = end; continue; }
+            
+            // Create new empty cell for columns up to next cell
+            int end = Math.min(ri<rcells._count? rcells._starts[ri] : colCount,
+                ei<extended._count? extended._starts[ei] : colCount);
+            STCell newCell = new STCell(); newCell._row = row; newCell._col = col;
+            merged.add(col, end, newCell); active.add(col, end, newCell); col = end;
         }
+        cells[row] = merged;
+    }
+    
+    // End empty cells that extend to last row
+    for(int i=0; i<active._count; i++) { STCell cell = active._cells[i];
+        endEmptyCell(cell, cells.length - cell._row, active._ends[i] - cell._col, rowStarts, colStarts, maxBounds); }
+}
+
+/**
+ * Sets the span and frame of an empty cell once its row span is known and makes it invisible.
+ */
+private static void endEmptyCell(STCell aCell, int rowspan, int colspan, double rowStarts[], double colStarts[],
+    RMRect maxBounds)
+{
+    int row = aCell._row, col = aCell._col;
+    aCell.setInfo(row, col, rowspan, colspan);
+    
+    // Set the cell's bounds
+    aCell.setFrame(colStarts[col] - maxBounds.getX(), rowStarts[row] - maxBounds.getY(),
+        colStarts[col+colspan]-colStarts[col], rowStarts[row+rowspan]-rowStarts[row]);
+    
+    // Make it invisible
+    aCell.setVisible(false);
+}
+
+/**
+ * The cells of a table row, stored as runs of columns covered by the same cell (sorted by start column), so that
+ * table storage scales with the number of cells rather than rows x columns.
+ */
+static class RowCells {
+
+    // The start column, end column (exclusive) and cell of each run, and the number of runs
+    int       _starts[], _ends[];
+    STCell    _cells[];
+    int       _count;
+    
+    // The index of the last run found by getCell (a hint for lookups in column order)
+    int       _last;
+
+    /** Creates new row cells. */
+    RowCells()  { this(4); }
+
+    /** Creates new row cells with given capacity. */
+    RowCells(int aCapacity)  { _starts = new int[aCapacity]; _ends = new int[aCapacity]; _cells = new STCell[aCapacity]; }
+
+    /** Returns the index of the run that contains given column (or the first run after it). */
+    int indexOf(int aCol)
+    {
+        int lo = 0, hi = _count - 1;
+        while(lo<=hi) { int mid = (lo + hi)>>>1;
+            if(_ends[mid]<=aCol) lo = mid + 1;
+            else if(_starts[mid]>aCol) hi = mid - 1;
+            else return mid;
+        }
+        return lo;
+    }
+
+    /** Returns the cell at given column (or null). */
+    STCell getCell(int aCol)
+    {
+        // Check last run found and the one after it, since cells are usually looked up in column order
+        int last = _last;
+        if(last<_count && _starts[last]<=aCol) {
+            if(aCol<_ends[last]) return _cells[last];
+            if(last+1<_count && _starts[last+1]<=aCol && aCol<_ends[last+1]) { _last = last + 1; return _cells[last+1]; }
+        }
+        
+        // Otherwise search for run
+        int i = indexOf(aCol); if(i>=_count || _starts[i]>aCol) return null;
+        _last = i; return _cells[i];
+    }
+
+    /** Returns whether given column range has no cells. */
+    boolean isEmpty(int aStart, int anEnd)  { int i = indexOf(aStart); return i>=_count || _starts[i]>=anEnd; }
+
+    /** Returns whether runs cover all columns up to given column count. */
+    boolean isFull(int aColCount)
+    {
+        if(_count==0 || _starts[0]!=0 || _ends[_count-1]!=aColCount) return false;
+        for(int i=1; i<_count; i++) if(_starts[i]!=_ends[i-1]) return false;
+        return true;
+    }
+
+    /** Sets given cell for the empty columns in given range and returns whether any columns already had a cell. */
+    boolean fill(int aStart, int anEnd, STCell aCell)
+    {
+        // If range is after last run (cells are usually added in column order), just add run
+        if(_count==0 || aStart>=_ends[_count-1]) { add(aStart, anEnd, aCell); return false; }
+        
+        // Iterate over range and add runs for empty column ranges
+        boolean overlap = false;
+        for(int i=indexOf(aStart), col=aStart; col<anEnd; i++) {
+            if(i<_count && _starts[i]<=col) { overlap = true; col = _ends[i]; continue; }
+            int end = i<_count? Math.min(_starts[i], anEnd) : anEnd;
+            insert(i, col, end, aCell); col = end;
+        }
+        return overlap;
+    }
+
+    /** Adds a run to end. */
+    void add(int aStart, int anEnd, STCell aCell)  { insert(_count, aStart, anEnd, aCell); }
+
+    /** Inserts a run at given index. */
+    void insert(int anIndex, int aStart, int anEnd, STCell aCell)
+    {
+        // Grow arrays if needed
+        if(_count==_starts.length) { int len = _count*2;
+            _starts = Arrays.copyOf(_starts, len); _ends = Arrays.copyOf(_ends, len); _cells = Arrays.copyOf(_cells, len); }
+
+        // Shift runs after index and set run
+        int n = _count - anIndex;
+        System.arraycopy(_starts, anIndex, _starts, anIndex+1, n); System.arraycopy(_ends, anIndex, _ends, anIndex+1, n);
+        System.arraycopy(_cells, anIndex, _cells, anIndex+1, n);
+        _starts[anIndex] = aStart; _ends[anIndex] = anEnd; _cells[anIndex] = aCell; _count++;
     }
 }
 
@@ -1,95 +1,181 @@
 package com.reportmill.out;
 import com.reportmill.base.RMSort;
 import com.reportmill.shape.*;
+import java.io.*;
 import java.util.*;
 
 /**
  * This class is used to write a String representation of an RMDocument.
+ *
+ * Delimited text is streamed a row at a time, so it can be written straight to a Writer or OutputStream. Fields are
+ * written as is (or wrapped in quotes, if quoteFields is set) unless escapeFields is set, in which case quoted fields
+ * have embedded quotes doubled and unquoted fields that contain a quote or delimiter are quoted (as in RFC 4180).
  */
 public class RMStringWriter {
 
+    // The charset for delimited text written as bytes (unless another is given)
+    public static final String DELIMITED_CHARSET = "ISO-8859-1";
+
 /**
  * Returns a byte array holding an ASCII representation of a given document.
  */
 public static byte[] delimitedAsciiBytes(RMDocument aDoc, String fieldDelim, String recordDelim, boolean quoteFields)
 {
-    // Generate delimited string
-    String s = delimitedString(aDoc, fieldDelim, recordDelim, quoteFields);
-    
-    // Return bytes
-    try { return s.getBytes("ISO-8859-1"); }
+    // Write delimited text to byte array output stream and return bytes
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    try { writeDelimited(aDoc, bytesOut, DELIMITED_CHARSET, fieldDelim, recordDelim, quoteFields); }
     catch(Exception e) { System.err.println(e); return null; }
+    return bytesOut.toByteArray();
 }
 
 /**
  * Returns a String holding the delimited data for a given document.
  */
 public static String delimitedString(RMDocument aDoc, String fieldDelim, String recordDelim, boolean quoteFields)
+{
+    // Write delimited text to string writer and return string
+    StringWriter writer = new StringWriter();
+    try { writeDelimited(aDoc, writer, fieldDelim, recordDelim, quoteFields); }
+    catch(IOException e) { throw new RuntimeException(e); }
+    return writer.toString();
+}
+
+/**
+ * Writes the delimited data for a given document to given stream with given charset (the stream isn't closed).
+ */
+public static void writeDelimited(RMDocument aDoc, OutputStream aStream, String aCharset, String fieldDelim,
+    String recordDelim, boolean quoteFields) throws IOException
+{
+    Writer writer = new BufferedWriter(new OutputStreamWriter(aStream, aCharset));
+    writeDelimited(aDoc, writer, fieldDelim, recordDelim, quoteFields);
+    writer.flush();
+}
+
+/**
+ * Writes the delimited data for a given document to given writer.
+ */
+public static void writeDelimited(RMDocument aDoc, Writer aWriter, String fieldDelim, String recordDelim,
+    boolean quoteFields) throws IOException
+{
+    writeDelimited(aDoc, aWriter, fieldDelim, recordDelim, quoteFields, false);
+}
+
+/**
+ * Writes the delimited data for a given document to given writer, with fields escaped if requested.
+ */
+public static void writeDelimited(RMDocument aDoc, Writer aWriter, String fieldDelim, String recordDelim,
+    boolean quoteFields, boolean escapeFields) throws IOException
 {
     // Validate and resolve page references
     aDoc.layout();
     aDoc.resolvePageReferences();
-    
-    // Create new string buffer
-    StringBuffer sb = new StringBuffer();
 
     // Append shapes
     for(int i=0, iMax=aDoc.getPages().size(); i<iMax; i++)
-        appendDelimited(sb, aDoc.getPage(i), fieldDelim, recordDelim, quoteFields);
+        appendDelimited(aWriter, aDoc.getPage(i), fieldDelim, recordDelim, quoteFields, escapeFields);
+}
 
-    // Return string
-    return sb.toString();
+/**
+ * Writes the delimited data for a table (or table group) evaluated against given objects to given writer, without
+ * generating a report. Table rows are generated and written one at a time (without pagination), so memory use doesn't
+ * grow with dataset.
+ */
+public static void writeDelimited(RMShape aTable, Object theObjects, Writer aWriter, String fieldDelim,
+    String recordDelim, boolean quoteFields) throws IOException
+{
+    writeDelimited(aTable, theObjects, aWriter, fieldDelim, recordDelim, quoteFields, false);
 }
 
 /**
- * Appends a string representation of the given shape to the given string buffer.
+ * Writes the delimited data for a table (or table group) evaluated against given objects to given writer, with fields
+ * escaped if requested.
  */
-static void appendDelimited(StringBuffer aSB, RMShape aShape, String fieldD, String recD, boolean quoteFields)
+public static void writeDelimited(RMShape aTable, Object theObjects, final Writer aWriter, final String fieldDelim,
+    final String recordDelim, final boolean quoteFields, final boolean escapeFields) throws IOException
+{
+    // Generate table rows and append each (IOExceptions are passed through listener as unchecked and rethrown)
+    try {
+        RMTableRPG.rpgRows(aTable, theObjects, new RMTableRPG.RowListener() {
+            public void rowGenerated(RMTableRowRPG aRow) {
+                try { appendDelimited(aWriter, aRow, fieldDelim, recordDelim, quoteFields, escapeFields); }
+                catch(IOException e) { throw new UncheckedIOException(e); }
+            }});
+    }
+    catch(UncheckedIOException e) { throw e.getCause(); }
+}
+
+/**
+ * Appends a string representation of the given shape to the given writer.
+ */
+static void appendDelimited(Appendable anOut, RMShape aShape, String fieldD, String recD, boolean quoteFields,
+    boolean escapeFields) throws IOException
 {
     // If table row, iterate over children (sorted by minX) and append their strings separated by fieldDelim
     if(aShape instanceof RMTableRowRPG && aShape.getChildCount()>0) {
-        
+
         // Get sorted children
         List <RMShape> children = RMSort.sortedList(aShape.getChildren(), "FrameX");
 
-        // Iterate over children
+        // Iterate over children and append text fields (with field delimiter between them)
+        int fieldCount = 0;
         for(int i=0, iMax=children.size(); i<iMax; i++) { RMShape child = children.get(i);
-
-            // Handle text children
             if(child instanceof RMTextShape) { RMTextShape text = (RMTextShape)child;
-                if(quoteFields)
-                    aSB.append('\"').append(text.getXString().getText()).append('\"').append(fieldD);
-                else aSB.append(text.getXString().getText()).append(fieldD);
+                if(fieldCount++>0) anOut.append(fieldD);
+                appendField(anOut, text.getXString().getText(), fieldD, recD, quoteFields, escapeFields);
             }
         }
-        
-        // Trim last field delimiter and add record delimiter
-        if(aSB.toString().endsWith(fieldD))
-            aSB.delete(aSB.length()-fieldD.length(), aSB.length());
-        aSB.append(recD);
+
+        // Add record delimiter
+        anOut.append(recD);
     }
-    
+
     // Handle RMCrossTab
     else if(aShape instanceof RMCrossTab) { RMCrossTab table = (RMCrossTab)aShape;
-        
+
         // Iterate over rows
         for(int i=0, iMax=table.getRowCount(); i<iMax; i++) { RMCrossTabRow row = table.getRow(i);
-            
-            // Iterate over row cells and add cell string plus field delimiter
-            for(int j=0, jMax=row.getCellCount(); j<jMax; j++)
-                if(quoteFields)
-                    aSB.append('\"').append(row.getCell(j).getXString().getText()).append('\"').append(fieldD);
-                else aSB.append(row.getCell(j).getXString().getText()).append(fieldD);
-            
-            // Trim last field delimiter and add record delimiter
-            aSB.delete(aSB.length()-fieldD.length(), aSB.length());
-            aSB.append(recD);
+
+            // Iterate over row cells and add cell string (with field delimiter between them)
+            for(int j=0, jMax=row.getCellCount(); j<jMax; j++) {
+                if(j>0) anOut.append(fieldD);
+                appendField(anOut, row.getCell(j).getXString().getText(), fieldD, recD, quoteFields, escapeFields);
+            }
+
+            // Add record delimiter
+            anOut.append(recD);
         }
     }
 
     // Otherwise descend into shape
     else for(int i=0, iMax=aShape.getChildCount(); i<iMax; i++)
-        appendDelimited(aSB, aShape.getChild(i), fieldD, recD, quoteFields);
+        appendDelimited(anOut, aShape.getChild(i), fieldD, recD, quoteFields, escapeFields);
+}
+
+/**
+ * Appends a field string, quoted if requested. If escaping, embedded quotes are doubled and fields that contain a quote
+ * or delimiter are always quoted.
+ */
+static void appendField(Appendable anOut, String aString, String fieldD, String recD, boolean quoteFields,
+    boolean escapeFields) throws IOException
+{
+    // If not escaping, append string (in quotes if requested)
+    if(!escapeFields) {
+        if(quoteFields) anOut.append('\"').append(aString).append('\"');
+        else anOut.append(aString);
+    }
+
+    // If escaping but quoting not requested or needed, just append string
+    else if(!quoteFields && aString.indexOf('\"')<0 && (fieldD.length()==0 || aString.indexOf(fieldD)<0) &&
+        (recD.length()==0 || aString.indexOf(recD)<0))
+        anOut.append(aString);
+
+    // Otherwise, append quoted string (double embedded quotes)
+    else {
+        anOut.append('\"');
+        for(int i=0, iMax=aString.length(); i<iMax; i++) { char c = aString.charAt(i);
+            if(c=='\"') anOut.append('\"'); anOut.append(c); }
+        anOut.append('\"');
+    }
 }
 
 }
\ No newline at end of file
@@ -0,0 +1,670 @@
+package com.reportmill.out;
+import com.reportmill.base.*;
+import com.reportmill.graphics.*;
+import com.reportmill.shape.*;
+import com.reportmill.text.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * This class is used to generate an Excel Office Open XML file (.xlsx) from an RMDocument.
+ *
+ * Unlike RMExcelWriter, this writer doesn't build a workbook in memory - sheet rows are written straight to a zip
+ * stream as they are created and only the shared strings and the (deduplicated) cell styles are held until the end.
+ * You simply invoke this with: new RMXLSXWriter().getBytes(aDoc) or new RMXLSXWriter().write(aDoc, aStream);
+ *
+ * Large data sets can also be written directly, row by row, without a document:
+ *
+ *   writer.open(aStream); writer.startSheet(null, colWidths);
+ *   writer.addRow(0, "Title", 1999, new Date()); ...
+ *   writer.endSheet(); writer.close();
+ *
+ * Sheets are limited to 1,048,576 rows and 16,384 columns: A sheet with more rows is continued on a new sheet (with the
+ * same name, numbered, and column widths) and cells beyond the last column are dropped (both are reported).
+ */
+public class RMXLSXWriter {
+
+    // The zip stream and the writer for the current zip entry
+    ZipOutputStream               _zip;
+    Writer                        _out;
+
+    // The names of the sheets written so far
+    List <String>                 _sheetNames = new ArrayList();
+
+    // The name (as given) and column widths of the current sheet, and the number of sheets it continues on
+    String                        _sheetName;
+    double                        _colWidths[];
+    int                           _sheetParts;
+
+    // The number of rows written in the current sheet
+    int                           _rowCount;
+
+    // The number of cells in the current sheet dropped for being beyond the last column
+    int                           _droppedCells;
+
+    // The merged cell ranges for the current sheet
+    List <String>                 _merges = new ArrayList();
+
+    // The header and footer text for the current sheet
+    String                        _header, _footer;
+
+    // The shared strings, mapped to their index (and the total number of shared string references)
+    Map <String,Integer>          _strings = new HashMap();
+    List <String>                 _stringList = new ArrayList();
+    int                           _stringRefs;
+
+    // The fonts, fills, borders and cell formats (as XML), mapped to their index
+    Map <String,Integer>          _fonts = new LinkedHashMap(), _fills = new LinkedHashMap();
+    Map <String,Integer>          _borders = new LinkedHashMap(), _cellXfs = new LinkedHashMap();
+
+    // The custom number format codes, mapped to their number format id
+    Map <String,Integer>          _numFmts = new LinkedHashMap();
+
+    // Whether to write strings to the shared strings table (instead of inline)
+    boolean                       _useSharedStrings = true;
+
+    // Whether to show gridlines
+    boolean                       _showsAllGridlines = false;
+
+    // The XML header for all parts
+    static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    // The spreadsheet and relationship namespaces
+    static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    static final String NS_RELS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    // The first number format id available for custom formats and the built-in id for "m/d/yyyy"
+    static final int FIRST_CUSTOM_FORMAT = 164, DATE_FORMAT = 14;
+
+    // The maximum number of rows and columns in a sheet
+    public static final int MAX_ROWS = 1048576, MAX_COLUMNS = 16384;
+
+/**
+ * Creates a basic xlsx writer.
+ */
+public RMXLSXWriter() { }
+
+/**
+ * Returns a byte array of an Excel file (.xlsx) for the given RMDocument.
+ */
+public byte[] getBytes(RMDocument aDoc)
+{
+    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+    try { write(aDoc, byteOut); } catch(IOException e) { throw new RuntimeException(e); }
+    return byteOut.toByteArray();
+}
+
+/**
+ * Writes an Excel file (.xlsx) for the given RMDocument to the given stream (the stream isn't closed).
+ */
+public void write(RMDocument aDoc, OutputStream aStream) throws IOException
+{
+    // Open workbook
+    open(aStream);
+
+    // Validate and resolve page references in aDoc
+    aDoc.layout();
+    aDoc.resolvePageReferences();
+
+    // Iterate through pages and write a sheet for each one
+    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++)
+        writePage(new RMExportPage(aDoc.getPage(i), i));
+
+    // Close workbook
+    close();
+}
+
+/**
+ * Writes a sheet for given page (its Excel header/footer and sheet table can be shared with other writers).
+ */
+public void writePage(RMExportPage aPage) throws IOException
+{
+    // Get header/footer text (if ExcelHeader/ExcelFooter shapes are present)
+    String header = aPage.getExcelHeader(), footer = aPage.getExcelFooter();
+
+    // Get the table for the entire sheet, with a cell for every text (since xlsx sheets are written without drawings)
+    RMShapeTable table = aPage.getExcelTable();
+
+    // Get column widths and start sheet
+    int colCount = table!=null? table.getColumnCount() : 0;
+    double widths[] = new double[colCount];
+    for(int i=0; i<colCount; i++) widths[i] = table.getColumn(i).getWidth();
+    startSheet(null, widths);
+    _header = header; _footer = footer;
+
+    // Iterate over table rows and write cells for each cell that starts in row
+    for(int row=0, rowCount=table!=null? table.getRowCount() : 0; row<rowCount; row++) {
+        startRow(table.getRow(row).getHeight());
+        for(int col=0; col<colCount; col++) { RMShapeTable.STCell cell = table.getCell(row, col);
+
+            // If a cell spans multiple rows or columns, getCell(row,col) returns the same cell instance
+            // for each row,col this cell covers. Only take the first one.
+            if(cell.getRow()!=row || cell.getColumn()!=col) continue;
+
+            // Add merged range for any cells that this cell spans (clamped to sheet, since sheet may be continued)
+            int srow = _rowCount - 1, rowspan = Math.min(cell.getRowSpan(), MAX_ROWS - srow);
+            int colspan = Math.min(cell.getColumnSpan(), MAX_COLUMNS - col);
+            if(col<MAX_COLUMNS && (rowspan>1 || colspan>1))
+                _merges.add(getCellRef(srow, col) + ":" + getCellRef(srow+rowspan-1, col+colspan-1));
+
+            // Write cell for text
+            if(cell.getCellShape() instanceof RMTextShape)
+                writeCell(col, (RMTextShape)cell.getCellShape());
+        }
+        endRow();
+    }
+
+    // End sheet
+    endSheet();
+}
+
+/**
+ * Returns whether strings are written to the workbook shared strings table (the default). Shared strings make files
+ * with repeating values smaller, but every unique string is held until the workbook is closed. Turn this off for
+ * large exports of mostly unique strings to write them inline and keep memory use constant.
+ */
+public boolean getUseSharedStrings()  { return _useSharedStrings; }
+
+/**
+ * Sets whether strings are written to the workbook shared strings table.
+ */
+public void setUseSharedStrings(boolean aValue)  { _useSharedStrings = aValue; }
+
+/**
+ * Returns whether gridlines will be shown in Excel sheets.
+ */
+public boolean getShowsAllGridlines()  { return _showsAllGridlines; }
+
+/**
+ * Sets whether gridlines will be shown in Excel sheets.
+ */
+public void setShowsAllGridlines(boolean aValue)  { _showsAllGridlines = aValue; }
+
+/**
+ *  Returns whether gridlines are shown for given sheet index. If you have multiple pages but only want
+ *  gridlines for certain pages, subclass RMXLSXWriter and override this method.
+ */
+public boolean getShowsGridlines(int aSheet)  { return _showsAllGridlines; }
+
+/**
+ * Opens a new workbook on given stream.
+ */
+public void open(OutputStream aStream) throws IOException
+{
+    // Create zip stream and writer
+    _zip = new ZipOutputStream(aStream);
+    _out = new BufferedWriter(new OutputStreamWriter(_zip, "UTF-8"), 65536);
+
+    // Reset sheets, strings and styles
+    _sheetNames.clear(); _strings.clear(); _stringList.clear(); _stringRefs = 0;
+    _fonts.clear(); _fills.clear(); _borders.clear(); _cellXfs.clear(); _numFmts.clear();
+
+    // Add default font (Arial 10 is assumed by RMExcelWriter column widths), required fills, border and cell format
+    getIndex(_fonts, "<font><sz val=\"10\"/><name val=\"Arial\"/></font>");
+    getIndex(_fills, "<fill><patternFill patternType=\"none\"/></fill>");
+    getIndex(_fills, "<fill><patternFill patternType=\"gray125\"/></fill>");
+    getIndex(_borders, "<border><left/><right/><top/><bottom/><diagonal/></border>");
+    getIndex(_cellXfs, "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");
+}
+
+/**
+ * Starts a new sheet with given name (null for default) and column widths in points (can be null).
+ */
+public void startSheet(String aName, double theColWidths[]) throws IOException
+{
+    _sheetName = aName; _colWidths = theColWidths; _sheetParts = 1; _header = _footer = null;
+    startSheetPart(aName);
+}
+
+/**
+ * Starts a new sheet entry with given name for current sheet (or continuation of current sheet).
+ */
+private void startSheetPart(String aName) throws IOException
+{
+    // Get sheet name (default, invalid or duplicate names get "SheetN")
+    String name = aName!=null? aName.replaceAll("[\\[\\]\\*\\?/\\\\:]", " ").trim() : "";
+    if(name.length()>31) name = name.substring(0, 31);
+    if(name.length()==0 || _sheetNames.contains(name)) name = "Sheet" + (_sheetNames.size()+1);
+    _sheetNames.add(name);
+
+    // Reset sheet state and start sheet entry
+    _rowCount = 0; _droppedCells = 0; _merges.clear();
+    startEntry("xl/worksheets/sheet" + _sheetNames.size() + ".xml");
+    _out.write(XML_HEADER);
+    _out.write("<worksheet xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_RELS + "\">");
+
+    // Write sheet view (to turn off gridlines)
+    if(!getShowsGridlines(_sheetNames.size()-1))
+        _out.write("<sheetViews><sheetView showGridLines=\"0\" workbookViewId=\"0\"/></sheetViews>");
+
+    // Write column widths (up to last column)
+    if(_colWidths!=null && _colWidths.length>0) {
+        _out.write("<cols>");
+        for(int i=0, iMax=Math.min(_colWidths.length, MAX_COLUMNS); i<iMax; i++) {
+            String width = format(Math.round(RMExcelWriter.getCharWidthFromPoints(_colWidths[i])*256)/256d);
+            _out.write("<col min=\"" + (i+1) + "\" max=\"" + (i+1) + "\" width=\"" + width + "\" customWidth=\"1\"/>");
+        }
+        _out.write("</cols>");
+    }
+
+    // Start sheet data
+    _out.write("<sheetData>");
+}
+
+/**
+ * Adds a row to the current sheet with given height in points (zero for default) and values. Values can be strings,
+ * numbers, dates or booleans (null values leave an empty cell).
+ */
+public void addRow(double aHeight, Object ... theValues) throws IOException
+{
+    startRow(aHeight);
+    for(int i=0; i<theValues.length; i++)
+        writeCell(i, theValues[i], theValues[i] instanceof Date? getDateStyle() : 0);
+    endRow();
+}
+
+/**
+ * Returns the number of rows written to the current sheet.
+ */
+public int getRowCount()  { return _rowCount; }
+
+/**
+ * Ends the current sheet.
+ */
+public void endSheet() throws IOException
+{
+    // Report cells dropped beyond last column
+    if(_droppedCells>0)
+        System.err.println("RMXLSXWriter: Dropped " + _droppedCells + " cells beyond column " + MAX_COLUMNS +
+            " in sheet " + _sheetNames.get(_sheetNames.size()-1));
+
+    // End sheet data
+    _out.write("</sheetData>");
+
+    // Write merged cells
+    if(_merges.size()>0) {
+        _out.write("<mergeCells count=\"" + _merges.size() + "\">");
+        for(String merge : _merges) _out.write("<mergeCell ref=\"" + merge + "\"/>");
+        _out.write("</mergeCells>");
+    }
+
+    // Write header and footer (centered, with ampersands escaped as header codes)
+    if(_header!=null || _footer!=null) {
+        _out.write("<headerFooter>");
+        if(_header!=null) _out.write("<oddHeader>" + escape("&C" + _header.replace("&", "&&")) + "</oddHeader>");
+        if(_footer!=null) _out.write("<oddFooter>" + escape("&C" + _footer.replace("&", "&&")) + "</oddFooter>");
+        _out.write("</headerFooter>");
+    }
+
+    // End sheet entry
+    _out.write("</worksheet>");
+    endEntry(); _merges.clear();
+}
+
+/**
+ * Closes the workbook by writing the shared strings, styles, workbook and package parts (the stream isn't closed).
+ */
+public void close() throws IOException
+{
+    // If no sheets were written, write an empty one (a workbook needs at least one sheet)
+    if(_sheetNames.size()==0) { startSheet(null, null); endSheet(); }
+
+    // Write shared strings, styles and workbook
+    writeSharedStrings();
+    writeStyles();
+    writeWorkbook();
+
+    // Write content types and package relationships
+    int sheetCount = _sheetNames.size();
+    startEntry("[Content_Types].xml");
+    _out.write(XML_HEADER);
+    _out.write("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">");
+    _out.write("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>");
+    _out.write("<Default Extension=\"xml\" ContentType=\"application/xml\"/>");
+    String ctype = "application/vnd.openxmlformats-officedocument.spreadsheetml.";
+    _out.write("<Override PartName=\"/xl/workbook.xml\" ContentType=\"" + ctype + "sheet.main+xml\"/>");
+    for(int i=1; i<=sheetCount; i++)
+        _out.write("<Override PartName=\"/xl/worksheets/sheet" + i + ".xml\" ContentType=\"" + ctype+"worksheet+xml\"/>");
+    _out.write("<Override PartName=\"/xl/styles.xml\" ContentType=\"" + ctype + "styles+xml\"/>");
+    _out.write("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"" + ctype + "sharedStrings+xml\"/>");
+    _out.write("</Types>");
+    endEntry();
+
+    // Write package relationships
+    startEntry("_rels/.rels");
+    _out.write(XML_HEADER);
+    _out.write("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+    _out.write("<Relationship Id=\"rId1\" Type=\"" + NS_RELS + "/officeDocument\" Target=\"xl/workbook.xml\"/>");
+    _out.write("</Relationships>");
+    endEntry();
+
+    // Finish zip (without closing underlying stream)
+    _zip.finish(); _zip.flush();
+    _zip = null; _out = null;
+}
+
+/**
+ * Writes the shared strings part.
+ */
+private void writeSharedStrings() throws IOException
+{
+    startEntry("xl/sharedStrings.xml");
+    _out.write(XML_HEADER);
+    _out.write("<sst xmlns=\"" + NS_MAIN + "\" count=\"" + _stringRefs + "\" uniqueCount=\"" + _stringList.size() + "\">");
+    for(String string : _stringList)
+        _out.write("<si><t xml:space=\"preserve\">" + escape(string) + "</t></si>");
+    _out.write("</sst>");
+    endEntry();
+}
+
+/**
+ * Writes the styles part.
+ */
+private void writeStyles() throws IOException
+{
+    // Start styles entry
+    startEntry("xl/styles.xml");
+    _out.write(XML_HEADER);
+    _out.write("<styleSheet xmlns=\"" + NS_MAIN + "\">");
+
+    // Write custom number formats
+    if(_numFmts.size()>0) {
+        _out.write("<numFmts count=\"" + _numFmts.size() + "\">");
+        for(Map.Entry <String,Integer> entry : _numFmts.entrySet())
+            _out.write("<numFmt numFmtId=\"" + entry.getValue() + "\" formatCode=\"" + escape(entry.getKey()) + "\"/>");
+        _out.write("</numFmts>");
+    }
+
+    // Write fonts, fills, borders, cell style formats, cell formats and cell styles
+    writeList("fonts", _fonts.keySet());
+    writeList("fills", _fills.keySet());
+    writeList("borders", _borders.keySet());
+    _out.write("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+    writeList("cellXfs", _cellXfs.keySet());
+    _out.write("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>");
+
+    // End styles entry
+    _out.write("</styleSheet>");
+    endEntry();
+}
+
+/**
+ * Writes the workbook part and its relationships.
+ */
+private void writeWorkbook() throws IOException
+{
+    // Write workbook
+    int sheetCount = _sheetNames.size();
+    startEntry("xl/workbook.xml");
+    _out.write(XML_HEADER);
+    _out.write("<workbook xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_RELS + "\"><sheets>");
+    for(int i=0; i<sheetCount; i++)
+        _out.write("<sheet name=\"" + escape(_sheetNames.get(i)) + "\" sheetId=\"" + (i+1) + "\" r:id=\"rId" + (i+1) + "\"/>");
+    _out.write("</sheets></workbook>");
+    endEntry();
+
+    // Write workbook relationships (sheets, then styles and shared strings)
+    startEntry("xl/_rels/workbook.xml.rels");
+    _out.write(XML_HEADER);
+    _out.write("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+    for(int i=1; i<=sheetCount; i++)
+        _out.write("<Relationship Id=\"rId" + i + "\" Type=\"" + NS_RELS + "/worksheet\" Target=\"worksheets/sheet" +
+            i + ".xml\"/>");
+    _out.write("<Relationship Id=\"rId" + (sheetCount+1) + "\" Type=\"" + NS_RELS + "/styles\" Target=\"styles.xml\"/>");
+    _out.write("<Relationship Id=\"rId" + (sheetCount+2) + "\" Type=\"" + NS_RELS + "/sharedStrings\" " +
+        "Target=\"sharedStrings.xml\"/>");
+    _out.write("</Relationships>");
+    endEntry();
+}
+
+/**
+ * Writes a list of style elements with given tag.
+ */
+private void writeList(String aTag, Collection <String> theElements) throws IOException
+{
+    _out.write("<" + aTag + " count=\"" + theElements.size() + "\">");
+    for(String element : theElements) _out.write(element);
+    _out.write("</" + aTag + ">");
+}
+
+/**
+ * Starts a new row with given height in points (zero for default). If sheet is full, it is continued on a new sheet.
+ */
+private void startRow(double aHeight) throws IOException
+{
+    // If sheet is full, end sheet entry and continue sheet on new sheet entry with numbered name
+    if(_rowCount==MAX_ROWS) {
+        String name = _sheetNames.get(_sheetNames.size()-1);
+        endSheet(); _sheetParts++;
+        String part = _sheetName!=null && _sheetName.trim().length()>0? _sheetName + " (" + _sheetParts + ")" : null;
+        startSheetPart(part);
+        System.err.println("RMXLSXWriter: Sheet " + name + " has more than " + MAX_ROWS + " rows, continued on " +
+            "sheet " + _sheetNames.get(_sheetNames.size()-1));
+    }
+
+    // Write row
+    _rowCount++;
+    _out.write("<row r=\"" + _rowCount + "\"");
+    if(aHeight>0) _out.write(" ht=\"" + format(Math.round(aHeight*100)/100d) + "\" customHeight=\"1\"");
+    _out.write(">");
+}
+
+/**
+ * Ends the current row.
+ */
+private void endRow() throws IOException  { _out.write("</row>"); }
+
+/**
+ * Writes a cell in the current row with the contents & attributes of an RMText shape.
+ */
+private void writeCell(int aCol, RMTextShape aText) throws IOException
+{
+    // Get plain string (replace any tabs with spaces (Excel doesn't like tabs)
+    String string = RMStringUtils.replace(aText.getText(), "\t", " ");
+
+    // Get text format, if available, and declare variables for cell value and format string
+    RMFormat format = aText.getFormat();
+    Object value = string; String formatString = null;
+
+    // Handle numeric cells (number formatted): Get number and format string (if number fails, just use string)
+    if(format instanceof RMNumberFormat) { RMNumberFormat numFormat = (RMNumberFormat)format;
+        Number number = null; try { number = numFormat.parse(string); } catch(Exception e) { }
+        if(number!=null) { value = number; formatString = numFormat.toPattern(); }
+    }
+
+    // Handle date cells (date formatted): Get date and equivalent excel format string (if date fails, just use string)
+    else if(format instanceof RMDateFormat) { RMDateFormat dateFormat = (RMDateFormat)format;
+        Date date = null; try { date = dateFormat.parse(string); } catch(Exception e) { }
+        if(date!=null) { value = date; formatString = RMExcelWriter.getExcelDatePattern(dateFormat.toPattern()); }
+    }
+
+    // Write cell with shared style for cell font, alignment, format
+    writeCell(aCol, value, getCellStyle(aText, formatString));
+}
+
+/**
+ * Writes a cell in the current row with given value and cell format index.
+ */
+private void writeCell(int aCol, Object aValue, int aStyle) throws IOException
+{
+    // If cell is beyond last column, count it as dropped and return
+    if(aCol>=MAX_COLUMNS) { _droppedCells++; return; }
+
+    // Get cell reference and style attributes (if empty, just return)
+    String string = aValue instanceof String? (String)aValue : null;
+    boolean empty = aValue==null || (string!=null && string.length()==0);
+    if(empty && aStyle==0) return;
+    String cell = "<c r=\"" + getCellRef(_rowCount-1, aCol) + "\"" + (aStyle!=0? " s=\"" + aStyle + "\"" : "");
+
+    // Handle empty, number, date, boolean and string cells
+    if(empty) _out.write(cell + "/>");
+    else if(aValue instanceof Number) _out.write(cell + "><v>" + format(((Number)aValue).doubleValue()) + "</v></c>");
+    else if(aValue instanceof Date) _out.write(cell + "><v>" + format(getExcelDate((Date)aValue)) + "</v></c>");
+    else if(aValue instanceof Boolean) _out.write(cell + " t=\"b\"><v>" + (((Boolean)aValue)? 1 : 0) + "</v></c>");
+    else {
+        if(string==null) string = aValue.toString();
+        if(_useSharedStrings) _out.write(cell + " t=\"s\"><v>" + getStringIndex(string) + "</v></c>");
+        else _out.write(cell + " t=\"inlineStr\"><is><t xml:space=\"preserve\">" + escape(string) + "</t></is></c>");
+    }
+}
+
+/**
+ * Returns the shared strings table index for given string.
+ */
+private int getStringIndex(String aString)
+{
+    _stringRefs++;
+    Integer index = _strings.get(aString); if(index!=null) return index;
+    _strings.put(aString, _stringList.size()); _stringList.add(aString);
+    return _stringList.size() - 1;
+}
+
+/**
+ * Returns the shared cell format index for a given text font, alignment, fill, stroke and format string.
+ */
+private int getCellStyle(RMTextShape aText, String aFormat)
+{
+    // Get font index (if font or text color is provided)
+    int fontId = 0;
+    if(aText.getFont()!=null || aText.getTextColor()!=null)
+        fontId = getFont(aText.getFont(), aText.getTextColor());
+
+    // Get fill index (if there's a background fill and it's not solid white)
+    int fillId = 0;
+    if(aText.getFill()!=null && !aText.getFill().getColor().equals(RMColor.white))
+        fillId = getIndex(_fills, "<fill><patternFill patternType=\"solid\"><fgColor rgb=\"" +
+            getARGB(aText.getFill().getColor()) + "\"/><bgColor indexed=\"64\"/></patternFill></fill>");
+
+    // Get border index (if text has stroke)
+    int borderId = 0;
+    if(aText.getStroke()!=null) {
+        String side = " style=\"thin\"><color rgb=\"" + getARGB(aText.getStroke().getColor()) + "\"/>";
+        borderId = getIndex(_borders, "<border><left" + side + "</left><right" + side + "</right><top" + side +
+            "</top><bottom" + side + "</bottom><diagonal/></border>");
+    }
+
+    // Get number format id (if format is provided)
+    int numFmtId = aFormat!=null? getNumFmt(aFormat) : 0;
+
+    // Get horizontal and vertical alignment
+    String alignX = aText.getAlignmentX()==RMTypes.AlignX.Center? "center" :
+        aText.getAlignmentX()==RMTypes.AlignX.Right? "right" : "left";
+    String alignY = aText.getAlignmentY()==RMTypes.AlignY.Middle? "center" :
+        aText.getAlignmentY()==RMTypes.AlignY.Bottom? "bottom" : "top";
+
+    // Return cell format index (configured with text wrapping by default)
+    return getIndex(_cellXfs, "<xf numFmtId=\"" + numFmtId + "\" fontId=\"" + fontId + "\" fillId=\"" + fillId +
+        "\" borderId=\"" + borderId + "\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" " +
+        "applyBorder=\"1\" applyAlignment=\"1\"><alignment horizontal=\"" + alignX + "\" vertical=\"" + alignY +
+        "\" wrapText=\"1\"/></xf>");
+}
+
+/**
+ * Returns the shared cell format index for plain dates.
+ */
+private int getDateStyle()
+{
+    return getIndex(_cellXfs, "<xf numFmtId=\"" + DATE_FORMAT + "\" fontId=\"0\" fillId=\"0\" borderId=\"0\" " +
+        "xfId=\"0\" applyNumberFormat=\"1\"/>");
+}
+
+/**
+ * Returns the shared font index for a given RMFont and color.
+ */
+private int getFont(RMFont aFont, RMColor aColor)
+{
+    StringBuffer sb = new StringBuffer("<font>");
+    if(aFont!=null && aFont.isBold()) sb.append("<b/>");
+    if(aFont!=null && aFont.isItalic()) sb.append("<i/>");
+    sb.append("<sz val=\"").append(aFont!=null? format(aFont.getSize()) : "10").append("\"/>");
+    if(aColor!=null) sb.append("<color rgb=\"").append(getARGB(aColor)).append("\"/>");
+    sb.append("<name val=\"").append(escape(aFont!=null? aFont.getFamilyEnglish() : "Arial")).append("\"/>");
+    return getIndex(_fonts, sb.append("</font>").toString());
+}
+
+/**
+ * Returns the number format id for a given format string.
+ */
+private int getNumFmt(String aFormat)
+{
+    Integer id = _numFmts.get(aFormat); if(id!=null) return id;
+    _numFmts.put(aFormat, id = FIRST_CUSTOM_FORMAT + _numFmts.size());
+    return id;
+}
+
+/**
+ * Returns the index of given element in given map of unique elements (adding it if not present).
+ */
+private static int getIndex(Map <String,Integer> aMap, String anElement)
+{
+    Integer index = aMap.get(anElement); if(index!=null) return index;
+    aMap.put(anElement, index = aMap.size());
+    return index;
+}
+
+/**
+ * Starts a new zip entry with given name.
+ */
+private void startEntry(String aName) throws IOException  { _out.flush(); _zip.putNextEntry(new ZipEntry(aName)); }
+
+/**
+ * Ends the current zip entry.
+ */
+private void endEntry() throws IOException  { _out.flush(); _zip.closeEntry(); }
+
+/**
+ * Returns an Excel cell reference (like "B12") for given zero-based row and column.
+ */
+public static String getCellRef(int aRow, int aCol)
+{
+    StringBuffer sb = new StringBuffer();
+    for(int col=aCol+1; col>0; col = (col-1)/26) sb.insert(0, (char)('A' + (col-1)%26));
+    return sb.append(aRow+1).toString();
+}
+
+/**
+ * Returns an Excel date serial number (days since 1900, in local time) for given date. Excel treats 1900 as a leap
+ * year (serial 60 is the nonexistent February 29, 1900), so dates before March 1, 1900 are one less.
+ */
+public static double getExcelDate(Date aDate)
+{
+    long time = aDate.getTime(); time += TimeZone.getDefault().getOffset(time);
+    double serial = time/86400000d + 25569;
+    return serial<61? serial - 1 : serial;
+}
+
+/**
+ * Returns an ARGB hex string for given color.
+ */
+private static String getARGB(RMColor aColor)
+{
+    int rgb = (aColor.getRedInt()<<16) | (aColor.getGreenInt()<<8) | aColor.getBlueInt();
+    return "FF" + Integer.toHexString(0x1000000 | rgb).substring(1).toUpperCase();
+}
+
+/**
+ * Returns a string for given number (without decimal point for whole numbers).
+ */
+private static String format(double aValue)
+{
+    if(aValue==Math.rint(aValue) && Math.abs(aValue)<1e15) return Long.toString((long)aValue);
+    return Double.isNaN(aValue) || Double.isInfinite(aValue)? "0" : Double.toString(aValue);
+}
+
+/**
+ * Returns given string with XML special chars escaped and invalid XML chars removed.
+ */
+private static String escape(String aString)
+{
+    StringBuffer sb = null;
+    for(int i=0, iMax=aString.length(); i<iMax; i++) { char c = aString.charAt(i);
+        String rep = c=='&'? "&amp;" : c=='<'? "&lt;" : c=='>'? "&gt;" : c=='"'? "&quot;" :
+            (c<0x20 && c!='\t' && c!='\n' && c!='\r') || c=='\uFFFE' || c=='\uFFFF'? "" : null;
+        if(rep!=null && sb==null) sb = new StringBuffer(aString.substring(0, i));
+        if(sb!=null) { if(rep!=null) sb.append(rep); else sb.append(c); }
+    }
+    return sb!=null? sb.toString() : aString;
+}
+
+}
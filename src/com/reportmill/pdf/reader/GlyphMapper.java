@@ -196,7 +196,7 @@ static private Map _zapfDingbatsMap=null;
 static private Map _glyphMap=null;
 
 /** Returns the unicode map for glyph names in the ZapfDingbats set, lazily reading them in. */
-static Map adobeZapfDingbatsGlyphList()
+static synchronized Map adobeZapfDingbatsGlyphList()
 {
     if (_zapfDingbatsMap==null) {
        _zapfDingbatsMap = readGlyphList("ZapfDingbatsGlyphList.txt");
@@ -205,7 +205,7 @@ static Map adobeZapfDingbatsGlyphList()
 }
 
 /** Returns the unicode map for glyph names in the standard set. */
-static Map adobeGlyphList()
+static synchronized Map adobeGlyphList()
 {
     if (_glyphMap==null) {
         _glyphMap = readGlyphList("AdobeGlyphList.txt");
@@ -1,9 +1,11 @@
 package com.reportmill.pdf.reader;
+import java.nio.ByteBuffer;
 
 /**
  * An implementation of interface CharStream, where the stream can contain any
  * binary data.  It holds a buffer to the entire contents and keeps track of the
- * the current position within that buffer.
+ * the current position within that buffer. The buffer can be a wrapped byte array
+ * or a memory mapped file (bytes are read with absolute gets, so buffer position is unused).
  */
 
 public final class PDFCharStream implements CharStream
@@ -11,21 +13,28 @@ public final class PDFCharStream implements CharStream
   public static final boolean staticFlag = false;
   int tokenBegin;
   public int bufpos = 0;
-  private byte[] buffer;
+  private ByteBuffer buffer;
+  private int length;
 
   public PDFCharStream(byte b[])
   {
+  this(ByteBuffer.wrap(b));
+  }
+
+  public PDFCharStream(ByteBuffer b)
+  {
   super();
   buffer = b;
+  length = b.limit();
   bufpos = tokenBegin = 0;
   }
   
   public final char readChar() throws java.io.IOException
   {
-     if (bufpos >= buffer.length) 
+     if (bufpos >= length) 
        throw new java.io.EOFException();
      
-     char c = (char)((char)0xff & buffer[bufpos]);
+     char c = (char)((char)0xff & buffer.get(bufpos));
      ++bufpos;
      return c;
   }
@@ -57,7 +66,7 @@ public final class PDFCharStream implements CharStream
        int len = bufpos - tokenBegin;
        char imageChars[] = new char[len];
        for(int i=0; i<len; ++i)
-         imageChars[i] = (char)((char)0xff & buffer[tokenBegin+i]);
+         imageChars[i] = (char)((char)0xff & buffer.get(tokenBegin+i));
        return new String(imageChars);
        }
      else
@@ -68,17 +77,19 @@ public final class PDFCharStream implements CharStream
   {
      char[] ret = new char[len];
      for(int i=0; i<len; ++i) 
-       ret[i] = (char)((char)0xff & buffer[bufpos-len+i]);
+       ret[i] = (char)((char)0xff & buffer.get(bufpos-len+i));
      return ret;
   }
 
   // returns an array of the next n bytes in the data and advances the pointer
   public byte[] GetNextBytes(int n) throws java.io.IOException
   {
-     if (bufpos+n>=buffer.length) throw new java.io.EOFException();
+     if (bufpos+n>=length) throw new java.io.EOFException();
      
      byte[] ret = new byte[n];
-     System.arraycopy(buffer, bufpos, ret, 0, n);
+     ByteBuffer src = buffer.duplicate();
+     src.position(bufpos);
+     src.get(ret);
      bufpos += n;
      return ret;
   }
@@ -89,7 +100,9 @@ public final class PDFCharStream implements CharStream
   }
 
   public int currentLocation() { return bufpos; }
-  public byte[] buffer() { return buffer; }
+  public ByteBuffer buffer() { return buffer; }
+  public int length() { return length; }
+  public byte byteAt(int index) { return buffer.get(index); }
   
   public void ReInit(int offset)
   {
@@ -97,8 +110,14 @@ public final class PDFCharStream implements CharStream
   }
 
   public void ReInit(byte newdata[], int offset)
+  {
+      ReInit(ByteBuffer.wrap(newdata), offset);
+  }
+
+  public void ReInit(ByteBuffer newdata, int offset)
   {
       buffer=newdata;
+      length=newdata.limit();
       ReInit(offset);
   }
   
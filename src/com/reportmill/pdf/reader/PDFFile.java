@@ -1,11 +1,24 @@
 package com.reportmill.pdf.reader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
  * This class is used to read a PDF file for parsing.
+ *
+ * The file can be read from a byte array or from a memory mapped file (see PDFFile(File)). Only the xref table, trailer
+ * and catalog are read up front - other objects are parsed when first resolved and cached softly in their xref entry,
+ * so that opening a large file and reading a page only needs memory for the objects that page uses.
+ *
+ * Pages can be rendered by several threads at once (see PDFPageRenderer): Object parsing is serialized on the file
+ * parser, while the factories and markup handler are set per thread.
  */
 public class PDFFile {
     
+    // The PDF file bytes (a wrapped byte array or a memory mapped file)
+    ByteBuffer              _buffer;
+    
     // The PDF file version string
     String                  _version;
     
@@ -16,7 +29,7 @@ public class PDFFile {
     Map                     _pages;
     
     // Cached PDFPage instances
-    Map <Integer, PDFPage>  _rmpages = new Hashtable(4);
+    Map <Integer, PDFPage>  _rmpages = new HashMap(4);
     
     // Encyption dictionary
     PDFSecurityHandler      _securityHandler;
@@ -27,18 +40,26 @@ public class PDFFile {
     // The PDF file XREF table
     Vector <PDFXEntry>      _xref = new Vector();
     
+    // The file offsets of xref sections to read (newest first) and of sections already read
+    LinkedList <Integer>    _xrefSections = new LinkedList();
+    Set <Integer>           _xrefSectionsRead = new HashSet();
+    
+    // The fonts used by pages, by font dictionary object number
+    Map <Integer,PDFFont>   _fonts = new HashMap();
+    
+    // Decoded bytes of streams by object number (least recently used, with total length bounded by max length)
+    LinkedHashMap <Integer,byte[]> _decodedStreams = new LinkedHashMap(16, .75f, true);
+    int                     _decodedStreamsLength, _decodedStreamsMaxLength = 32*1024*1024;
+    
     // Whether this PDF file is usable
     boolean                 _valid = true;
     
     // The parser for this PDF file
     PDFParser               _parser;
     
-    // Factory classes and callback handler
-    FontFactory             _fontFactory;
-    PathFactory             _pathFactory;
-    ColorFactory            _colorFactory;
-    ImageFactory            _imageFactory;
-    PDFMarkupHandler        _markupHandler;
+    // Factory classes and callback handler (per thread)
+    ThreadLocal <Handlers>  _handlers = new ThreadLocal <Handlers> () {
+        protected Handlers initialValue()  { return new Handlers(); }};
     
     // options
     boolean                 _stripExtendedGStates = true;
@@ -46,10 +67,21 @@ public class PDFFile {
 /**
  * Creates a new PDF file for the PDF file bytes.
  */
-public PDFFile(byte bytes[])
+public PDFFile(byte bytes[])  { this(ByteBuffer.wrap(bytes)); }
+
+/**
+ * Creates a new PDF file for given file, which is memory mapped (instead of being read into memory).
+ */
+public PDFFile(File aFile) throws IOException  { this(mapFile(aFile)); }
+
+/**
+ * Creates a new PDF file for the PDF file bytes in given buffer.
+ */
+public PDFFile(ByteBuffer aBuffer)
 {
     // Create new PDF parser for given pdf bytes
-    _parser = new PDFParser(this, bytes);
+    _buffer = aBuffer;
+    _parser = new PDFParser(this, aBuffer);
     
     // Get PDF version
     try { _version = _parser.pdfversion(); }
@@ -62,6 +94,26 @@ public PDFFile(byte bytes[])
     _pages = (Map)resolveObject(_catalog.get("Pages"));
 }
 
+/**
+ * Returns a read-only memory mapped buffer for given file.
+ */
+static ByteBuffer mapFile(File aFile) throws IOException
+{
+    // Complain if file is too big to map as a single buffer
+    if(aFile.length()>Integer.MAX_VALUE)
+        throw new IOException("PDFFile: File too large: " + aFile);
+    
+    // Map file (the mapping stays valid after channel is closed)
+    RandomAccessFile raf = new RandomAccessFile(aFile, "r");
+    try { FileChannel channel = raf.getChannel(); return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); }
+    finally { raf.close(); }
+}
+
+/**
+ * Returns the PDF file bytes (as a read-only buffer, since they may be memory mapped).
+ */
+public ByteBuffer getBuffer()  { return _buffer.asReadOnlyBuffer(); }
+
 /**
  * Gets the pdf version as a float.
  */
@@ -72,6 +124,16 @@ public float getVersion()
     catch (NumberFormatException nfe) { throw new PDFException("Illegal PDF version header"); }
 }
 
+/**
+ * Gets the pdf version as a float, or given default version if the version header couldn't be read.
+ */
+public float getVersion(float aDefault)
+{
+    if(_version==null || !_version.startsWith("%PDF-")) return aDefault;
+    try { return Float.parseFloat(_version.substring(5)); }
+    catch (NumberFormatException nfe) { return aDefault; }
+}
+
 /**
  * Returns an individual PDF page for the given page index.
  * This function used to create a new instance every time, but it gets called repeatedly by imagereader and pageparser,
@@ -81,7 +143,7 @@ public float getVersion()
  * The file could be hundreds of pages big, and we're most likely only ever looking at one page.  Creating a sparse
  * array hundreds of elements large seems silly, so we'll use a map instead.
  */
-public PDFPage getPage(int aPageIndex)
+public synchronized PDFPage getPage(int aPageIndex)
 { 
     PDFPage page = _rmpages.get(aPageIndex);
     if(page==null)
@@ -92,7 +154,7 @@ public PDFPage getPage(int aPageIndex)
 /**
  * Clears the page cache.
  */
-public void clearPageCache() { _rmpages.clear(); }
+public synchronized void clearPageCache() { _rmpages.clear(); }
 
 /**
  * Returns the number of PDF pages in the PDF file.
@@ -122,48 +184,67 @@ public Object inheritedAttributeForKeyInPage(String aKey, Map aPage)
     return value;
 }
 
+/**
+ * Reads the newest xref section and its trailer (and the catalog, file identifier and encryption dictionary from it).
+ * Older xref sections (from incremental updates, or the xref streams of hybrid files) are only read when an object
+ * isn't found in the sections read so far (see readXRefSection()).
+ */
 private void readPDFXRefTables()
 {
-    Map lastTrail=null;
-    Map encrypter;
-    int xrefstart = getXRefTablePosition();
+    // Read newest xref section (at startxref offset) to get the trailer dict
+    _xrefSections.add(getXRefTablePosition());
+    Map trail;
+    synchronized(_parser) { trail = readXRefSection(); }
+    if(trail==null)
+        throw new PDFException("Error reading cross-reference section");
     
-    // For each update to the file...
-    try {
-        do {
-        _parser.resetLexingLocation(xrefstart);
-        
-        // Read xref section and get the trailer dict         
-        Map trail = _parser.pdfXRefSection(_xref);
-        
-        // If this is the real trailer (the one at the end of the file), use it
-        // pull out the rest of the file info.
-        if(lastTrail==null)
-            lastTrail = trail;
-        
-        // Check for presence of previous xref table
-        Integer newOffset = (Integer)trail.get("Prev");
-        if(newOffset!=null)
-            xrefstart = newOffset.intValue();
-        else break;
-      } while(true);
-    }
-    catch(ParseException e) { throw new PDFException("Error reading cross-reference section : "+e); }
-
     // Get the catalog
-    _catalog = (Hashtable)resolveObject(lastTrail.get("Root"));
+    _catalog = (Hashtable)resolveObject(trail.get("Root"));
     if(_catalog==null)
         throw new PDFException("Couldn't find Catalog");
 
     // Get the file identifier (optional)
-    _fileID = (Vector)resolveObject(lastTrail.get("ID"));
+    _fileID = (Vector)resolveObject(trail.get("ID"));
 
     // If there was an encryption dictionary, make a handler for it
-    encrypter = (Hashtable)resolveObject(lastTrail.get("Encrypt"));
+    Map encrypter = (Hashtable)resolveObject(trail.get("Encrypt"));
     if (encrypter != null)
         _securityHandler = PDFSecurityHandler.getInstance(encrypter, _fileID, _version);                   
 }
 
+/**
+ * Reads the next xref section not yet read (newest first) and returns its trailer dict, or null if all sections have
+ * been read (called with parser lock).
+ *
+ * Entries are only set by the first section that has them, so newer revisions take priority. The xref stream of a
+ * hybrid file section (trailer XRefStm) is read after the section's table and before the previous section (Prev).
+ */
+private Map readXRefSection()
+{
+    // Get offset of next section (just return if none left or already read, as in a bad Prev loop)
+    if(_xrefSections.isEmpty()) return null;
+    Integer offset = _xrefSections.removeFirst();
+    if(!_xrefSectionsRead.add(offset)) return readXRefSection();
+    
+    // Read xref table (or stream) and trailer (restoring lexer location, since this can happen while parsing)
+    int oldposition = _parser.pdfdata.currentLocation();
+    Map trail;
+    try { _parser.resetLexingLocation(offset); trail = _parser.pdfXRefSection(_xref); }
+    catch(ParseException e) { throw new PDFException("Error reading cross-reference section : "+e); }
+    finally { _parser.resetLexingLocation(oldposition); }
+    
+    // Add previous section and hybrid file xref stream to front of sections to read
+    Object prev = trail.get("Prev"), xrefStm = trail.get("XRefStm");
+    if(prev instanceof Number) _xrefSections.addFirst(((Number)prev).intValue());
+    if(xrefStm instanceof Number) _xrefSections.addFirst(((Number)xrefStm).intValue());
+    return trail;
+}
+
+/**
+ * Reads all xref sections not yet read (so the xref table has entries for all objects in the file).
+ */
+public void readXRefSections()  { synchronized(_parser) { while(readXRefSection()!=null); } }
+
 /**
  * PDF reading starts at file end - this routine starts at end and searches backwards until it finds startxref key
  * It returns file offset to the xref table (also checks that a valid EOF is present).
@@ -172,12 +253,12 @@ public int getXRefTablePosition()
 {
     try {
     char find[] = "ferxtrats".toCharArray();  // "startxref" backwards
-    byte pdfbytes[] = _parser.pdfdata.buffer();
-    int fpos = 0, bpos = pdfbytes.length, xref;
+    PDFCharStream pdfdata = _parser.pdfdata;
+    int fpos = 0, bpos = pdfdata.length(), xref;
     
     while(--bpos >= 0) {
     
-        if((char)pdfbytes[bpos]==find[fpos]) {
+        if((char)pdfdata.byteAt(bpos)==find[fpos]) {
             ++fpos;
             
             if(fpos == find.length) {
@@ -196,15 +277,37 @@ public int getXRefTablePosition()
 }
 
 /**
- * Returns the object from the xref table, reading it if necessary.
+ * Returns the object from the xref table, reading it if necessary. Objects are read by one thread at a time, since
+ * they share the file parser.
  */
 public Object getXRefObject(PDFXEntry anEntry)
+{
+    // If object is already read or cached, just return it (value is read before state, since reset() clears state
+    // before value)
+    Object obj = anEntry.value;
+    if(anEntry.state==PDFXEntry.EntryRead)
+        return obj;
+    obj = anEntry.getCachedValue();
+    if(obj!=null)
+        return obj;
+    
+    // Read object with parser lock
+    synchronized(_parser) { return readXRefObject(anEntry); }
+}
+
+/**
+ * Reads the object for the xref table entry (called with parser lock).
+ */
+private Object readXRefObject(PDFXEntry anEntry)
 {
     Object obj = null;
     
     // Handle exceptions
     try {
         
+    // If entry is unknown, read older xref sections until it's found (or there are no more)
+    while(anEntry.state==PDFXEntry.EntryUnknown && readXRefSection()!=null);
+        
     // Handle entry by entry state
     switch(anEntry.state) {
     
@@ -213,9 +316,13 @@ public Object getXRefObject(PDFXEntry anEntry)
             obj = anEntry.value;
             break;
             
-        // Handle unread object
+        // Handle unread object (or object read from file and cached)
         case PDFXEntry.EntryNotYetRead :
             
+            // If object is cached, just break
+            obj = anEntry.getCachedValue();
+            if(obj!=null) break;
+            
             // Parse object
             int oldposition = _parser.pdfdata.currentLocation();
             _parser.resetLexingLocation(anEntry.fileOffset);
@@ -227,18 +334,20 @@ public Object getXRefObject(PDFXEntry anEntry)
             if(_securityHandler!=null)
                 obj = _securityHandler.decryptObject(obj, anEntry.objectNumber, anEntry.generation);
 
-            // Update entry
-            anEntry.state = PDFXEntry.EntryRead;
-            anEntry.value = obj;
+            // If stream, set xref info (so decoded bytes are cached by object number), then cache object in entry
+            if(obj instanceof PDFStream)
+                ((PDFStream)obj).setXRef(this, anEntry.objectNumber);
+            anEntry.setCachedValue(obj);
             break;
             
-        // Handle compressed object
+        // Handle compressed object (or compressed object read and cached)
         case PDFXEntry.EntryCompressed :
+            obj = anEntry.getCachedValue();
+            if(obj!=null) break;
             int ostreamObjNum = anEntry.fileOffset;
             int objIndex = anEntry.generation;
             obj = readCompressedEntry(ostreamObjNum, objIndex);
-            anEntry.state = PDFXEntry.EntryRead;
-            anEntry.value = obj;
+            anEntry.setCachedValue(obj);
             break;
         
         // Handle unknown object
@@ -267,9 +376,13 @@ public Object resolveObject(Object obj)
     return obj;
 }
 
+/**
+ * Reads the object at given index in the object stream with given object number (called with parser lock).
+ */
 public Object readCompressedEntry(int ostmNum, int objIndex)
 {
     // Get the cross-reference object for the object stream
+    _parser.fillXRefTable(_xref, ostmNum);
     PDFXEntry entry = _xref.get(ostmNum);
     
     // Resolve the reference to get the actual object
@@ -280,7 +393,7 @@ public Object readCompressedEntry(int ostmNum, int objIndex)
     // Get it and create a PDFObjectStream, then change the reference to point to the object stream
     if(obj instanceof PDFStream) {
         oStm = new PDFObjectStream((PDFStream)obj, this, _parser);
-        entry.value = oStm;
+        entry.setCachedValue(oStm);
     }
     else oStm = (PDFObjectStream)obj;
     
@@ -317,6 +430,77 @@ public void resetXRefTable()
 {
     for(int i=0, n=_xref.size(); i<n; ++i)
         _xref.get(i).reset();
+    synchronized(_fonts) { _fonts.clear(); }
+    synchronized(_decodedStreams) { _decodedStreams.clear(); _decodedStreamsLength = 0; }
+}
+
+/**
+ * Returns the font for given font dictionary or reference to one. Fonts for references are shared by all pages that
+ * use them (by object number), and fonts for direct dictionaries are cached in the dictionary.
+ */
+public PDFFont getFont(Object aFontRef)
+{
+    // If reference, get font for object number (create and add if missing)
+    if(aFontRef instanceof PDFXEntry) { Integer objNum = ((PDFXEntry)aFontRef).objectNumber;
+        synchronized(_fonts) { PDFFont font = _fonts.get(objNum); if(font!=null) return font; }
+        Map fontDict = (Map)resolveObject(aFontRef); if(fontDict==null) return null;
+        synchronized(_fonts) { PDFFont font = _fonts.get(objNum);
+            if(font==null) _fonts.put(objNum, font = new PDFFont(fontDict, this));
+            return font;
+        }
+    }
+    
+    // If direct dictionary, get font cached in dictionary (create and add if missing)
+    if(!(aFontRef instanceof Map)) return null;
+    synchronized(aFontRef) { Map fontDict = (Map)aFontRef;
+        PDFFont font = (PDFFont)fontDict.get("_rbcached_pdffont_");
+        if(font==null) fontDict.put("_rbcached_pdffont_", font = new PDFFont(fontDict, this));
+        return font;
+    }
+}
+
+/**
+ * Returns the cached decoded bytes of the stream with given object number (shared, so they shouldn't be modified).
+ */
+public byte[] getDecodedStream(int anObjNum)
+{
+    synchronized(_decodedStreams) { return _decodedStreams.get(anObjNum); }
+}
+
+/**
+ * Caches the decoded bytes of the stream with given object number, removing least recently used bytes to keep the
+ * total length under the max (bytes longer than a quarter of the max aren't cached).
+ */
+public void setDecodedStream(int anObjNum, byte theBytes[])
+{
+    synchronized(_decodedStreams) {
+        if(theBytes.length>_decodedStreamsMaxLength/4) return;
+        byte old[] = _decodedStreams.put(anObjNum, theBytes);
+        _decodedStreamsLength += theBytes.length - (old!=null? old.length : 0);
+        trimDecodedStreams();
+    }
+}
+
+/**
+ * Removes least recently used decoded stream bytes until total length is under max (called with cache lock).
+ */
+private void trimDecodedStreams()
+{
+    for(Iterator <byte[]> i=_decodedStreams.values().iterator(); _decodedStreamsLength>_decodedStreamsMaxLength;) {
+        _decodedStreamsLength -= i.next().length; i.remove(); }
+}
+
+/**
+ * Returns the max total length of cached decoded stream bytes.
+ */
+public int getDecodedStreamCacheLength()  { return _decodedStreamsMaxLength; }
+
+/**
+ * Sets the max total length of cached decoded stream bytes (zero turns off caching).
+ */
+public void setDecodedStreamCacheLength(int aValue)
+{
+    synchronized(_decodedStreams) { _decodedStreamsMaxLength = aValue; trimDecodedStreams(); }
 }
 
 public void setStripsExtendedGStates(boolean flag)
@@ -325,18 +509,32 @@ public void setStripsExtendedGStates(boolean flag)
     _stripExtendedGStates=flag;
 }
 
-/** Graphics object creation factories */
-public FontFactory getFontFactory() { return _fontFactory; }
-public void setFontFactory(FontFactory f) { _fontFactory = f; }
-public PathFactory getPathFactory() { return _pathFactory; }
-public void setPathFactory(PathFactory p) { _pathFactory = p; }
-public ColorFactory getColorFactory() { return  _colorFactory; }
-public void setColorFactory(ColorFactory c) { _colorFactory = c; }
-public ImageFactory getImageFactory() { return _imageFactory; }
-public void setImageFactory(ImageFactory f) { _imageFactory = f; }
-
-/** The callback handler */
-public PDFMarkupHandler getMarkupHandler() { return _markupHandler; }
-public void setMarkupHandler(PDFMarkupHandler h) { _markupHandler = h; }
+/** Graphics object creation factories (for the current thread) */
+public FontFactory getFontFactory() { return _handlers.get()._fontFactory; }
+public void setFontFactory(FontFactory f) { _handlers.get()._fontFactory = f; }
+public PathFactory getPathFactory() { return _handlers.get()._pathFactory; }
+public void setPathFactory(PathFactory p) { _handlers.get()._pathFactory = p; }
+public ColorFactory getColorFactory() { return  _handlers.get()._colorFactory; }
+public void setColorFactory(ColorFactory c) { _handlers.get()._colorFactory = c; }
+public ImageFactory getImageFactory() { return _handlers.get()._imageFactory; }
+public void setImageFactory(ImageFactory f) { _handlers.get()._imageFactory = f; }
+
+/** The callback handler (for the current thread) */
+public PDFMarkupHandler getMarkupHandler() { return _handlers.get()._markupHandler; }
+public void setMarkupHandler(PDFMarkupHandler h) { _handlers.get()._markupHandler = h; }
+
+/**
+ * Clears the factories and markup handler for the current thread, so a page rendered or parsed by the thread (like
+ * the page image of a BufferedMarkupHandler) isn't held once done.
+ */
+void clearHandlers()  { _handlers.remove(); }
+
+/**
+ * The factories and markup handler set for a thread.
+ */
+private static class Handlers {
+    FontFactory _fontFactory; PathFactory _pathFactory; ColorFactory _colorFactory; ImageFactory _imageFactory;
+    PDFMarkupHandler _markupHandler;
+}
 
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package com.reportmill.pdf.reader;
+import java.awt.Font;
+import java.awt.geom.AffineTransform;
+import java.util.*;
+
+/**
+ * Holds the objects resolved for a PDF font dictionary (the AWT font, glyph widths and glyph mapper), so that they are
+ * created once per file and shared by all pages that use the font (see PDFFile.getFont()). Objects are created lazily,
+ * with the font factory of the first thread that asks for them, and accessors are synchronized so pages can be
+ * rendered at once.
+ *
+ * Type3 fonts have no AWT font: each glyph is drawn by executing its glyph procedure (see getCharProc()).
+ */
+public class PDFFont {
+
+    // The PDF file
+    PDFFile         _pdfFile;
+
+    // The font dictionary
+    Map             _fontDict;
+
+    // The AWT font
+    Font            _awtFont;
+
+    // The glyph widths (float[256] for simple fonts or PDFGlyphWidthTable for CID fonts)
+    Object          _widths;
+
+    // The glyph mapper
+    GlyphMapper     _glyphMapper;
+
+    // The glyph procedure names for Type3 char codes
+    String          _charProcNames[];
+
+/**
+ * Creates a new font for given font dictionary and file.
+ */
+public PDFFont(Map aFontDict, PDFFile aFile)  { _fontDict = aFontDict; _pdfFile = aFile; }
+
+/**
+ * Returns the font dictionary.
+ */
+public Map getFontDict()  { return _fontDict; }
+
+/**
+ * Returns the font type (the font dictionary Subtype, like "/TrueType" or "/Type3").
+ */
+public String getType()  { return (String)_fontDict.get("Subtype"); }
+
+/**
+ * Returns whether font is a Type3 font (glyphs are drawn by glyph procedures).
+ */
+public boolean isType3()  { return "/Type3".equals(getType()); }
+
+/**
+ * Returns the AWT font (for a 1 pt font).
+ */
+public synchronized Font getAWTFont()
+{
+    if(_awtFont==null) _awtFont = _pdfFile.getFontFactory().getFont(_fontDict, _pdfFile);
+    return _awtFont;
+}
+
+/**
+ * Returns the glyph widths for a 1 pt font (float[256] for simple fonts or PDFGlyphWidthTable for CID fonts).
+ */
+public synchronized Object getGlyphWidths()
+{
+    if(_widths==null) _widths = _pdfFile.getFontFactory().getGlyphWidths(_fontDict, _pdfFile);
+    return _widths;
+}
+
+/**
+ * Returns the glyph mapper.
+ */
+public synchronized GlyphMapper getGlyphMapper()
+{
+    if(_glyphMapper==null) _glyphMapper = _pdfFile.getFontFactory().getGlyphMapper(_fontDict, _pdfFile);
+    return _glyphMapper;
+}
+
+/**
+ * Returns the font matrix, which maps glyph space to text space (Type3 fonts only).
+ */
+public AffineTransform getFontMatrix()
+{
+    List m = (List)_pdfFile.resolveObject(_fontDict.get("FontMatrix"));
+    if(m==null || m.size()!=6) return new AffineTransform(.001, 0, 0, .001, 0, 0);
+    return new AffineTransform(((Number)m.get(0)).floatValue(), ((Number)m.get(1)).floatValue(),
+        ((Number)m.get(2)).floatValue(), ((Number)m.get(3)).floatValue(),
+        ((Number)m.get(4)).floatValue(), ((Number)m.get(5)).floatValue());
+}
+
+/**
+ * Returns the resources for glyph procedures (Type3 fonts only - can be null, in which case page resources are used).
+ */
+public Map getResources()  { return (Map)_pdfFile.resolveObject(_fontDict.get("Resources")); }
+
+/**
+ * Returns the glyph procedure stream for given char code (Type3 fonts only - null if code has no glyph).
+ */
+public PDFStream getCharProc(int aCode)
+{
+    String name = getCharProcNames()[aCode&255]; if(name==null) return null;
+    Map charProcs = (Map)_pdfFile.resolveObject(_fontDict.get("CharProcs"));
+    Object proc = charProcs!=null? _pdfFile.resolveObject(charProcs.get(name)) : null;
+    return proc instanceof PDFStream? (PDFStream)proc : null;
+}
+
+/**
+ * Returns the Unicode char for given char code (Type3 fonts only), from its glyph procedure name. Names that aren't
+ * Adobe glyph names (like the char code names of Type3 fonts written by ReportMill) map to the char code itself.
+ */
+public char getType3Char(int aCode)
+{
+    String name = getCharProcNames()[aCode&255];
+    int uval = name!=null? GlyphMapper.adobeGlyphNameToUnicode(name, _fontDict) : -1;
+    return uval>0? (char)uval : (char)(aCode&255);
+}
+
+/**
+ * Returns the glyph procedure names for char codes, from the encoding Differences array (Type3 fonts only).
+ */
+protected synchronized String[] getCharProcNames()
+{
+    // If already loaded, just return
+    if(_charProcNames!=null) return _charProcNames;
+
+    // Get names from Differences array: [ code1 /name1 /name2 ... code2 /name3 ... ] (names are keys, so lose leading /)
+    String names[] = new String[256];
+    Object encoding = _pdfFile.resolveObject(_fontDict.get("Encoding"));
+    Object diffs = encoding instanceof Map? _pdfFile.resolveObject(((Map)encoding).get("Differences")) : null;
+    if(diffs instanceof List) { int code = 0;
+        for(Object item : (List)diffs) {
+            if(item instanceof Number) code = ((Number)item).intValue();
+            else if(item instanceof String && code>=0 && code<256) { String name = (String)item;
+                names[code++] = name.startsWith("/")? name.substring(1) : name; }
+        }
+    }
+
+    // Set and return
+    return _charProcNames = names;
+}
+
+}
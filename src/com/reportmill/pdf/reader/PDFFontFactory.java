@@ -18,16 +18,14 @@ public PDFFontFactory()
 /**
  * Given a Font dictionary with keys and values as described in the pdf spec,
  * return a java.awt.Font to use for it.
+ * Fonts aren't cached here - a PDFFont (shared by all pages that use the font dictionary) holds on to the result.
  */
 public Font getFont(Map fontDict, PDFFile srcfile)
 {
     if (fontDict==null) 
         return getDefaultFont();
     
-    // First check to see if we've created & cached the font already
-    Font awtFont = (Font)fontDict.get("_rbcached_awtfont_");
-    if (awtFont != null)
-        return awtFont;
+    Font awtFont = null;
 
     // The (optional) PDF FontDescriptor dictionary
     Map descriptor;
@@ -75,9 +73,31 @@ public Font getFont(Map fontDict, PDFFile srcfile)
             }
         }
     }
+    // Type1 fonts are embedded as streams under the key FontFile (or FontFile3 with OpenType subtype)
+    else if (type.equals("/Type1") || type.equals("/MMType1")) {
+        descriptor = (Map)srcfile.resolveObject(fontDict.get("FontDescriptor"));
+        if (descriptor != null) {
+            try {
+                fobj = srcfile.resolveObject(descriptor.get("FontFile"));
+                if (fobj instanceof PDFStream)
+                    awtFont = Font.createFont(Font.TYPE1_FONT, new ByteArrayInputStream(getType1FontFile((PDFStream)fobj)));
+                // Bare CFF (FontFile3 with Type1C subtype) isn't supported by awt, so it falls through to the system font
+                else if ((fobj=srcfile.resolveObject(descriptor.get("FontFile3"))) instanceof PDFStream &&
+                    "/OpenType".equals(((PDFStream)fobj).getDictionary().get("Subtype")))
+                    awtFont = Font.createFont(Font.TRUETYPE_FONT, new ByteArrayInputStream(((PDFStream)fobj).decodeStream()));
+            }
+            catch(Exception e) {
+                System.err.println("Error loading font \""+fontDict.get("BaseFont")+"\" : "+e);
+                awtFont=null;
+            }
+        }
+    }
     else if (type.equals("/Type0")) { // composite font with a single single cid font descendant
         return getFont(getDescendantFont(fontDict, srcfile), srcfile);
     }
+    // Type3 glyphs are drawn by glyph procedures (see PDFFont), so the awt font is just a placeholder
+    else if (type.equals("/Type3"))
+        return getDefaultFont();
     // If Font wasn't embedded in the file, is an unsupported type, or it couldn't be read,
     // look on the system using the font's name.
     if (awtFont == null) {
@@ -96,11 +116,50 @@ public Font getFont(Map fontDict, PDFFile srcfile)
         awtFont = getDefaultFont();
     }
 
-    // cache it
-    fontDict.put("_rbcached_awtfont_",awtFont);
     return awtFont;
 }
 
+/**
+ * Returns the bytes of an embedded Type1 font file stream as a PFB file (which awt can read). The stream holds the
+ * clear text portion, the binary eexec encrypted portion and the (optional) trailer, with lengths Length1, Length2 and
+ * Length3.
+ */
+byte[] getType1FontFile(PDFStream aStream)
+{
+    // Get font file bytes and lengths of the portions (if lengths are missing or bad, take all bytes as clear text)
+    byte bytes[] = aStream.decodeStream();
+    Map dict = aStream.getDictionary();
+    int len1 = getInt(dict.get("Length1")), len2 = getInt(dict.get("Length2")), len3 = getInt(dict.get("Length3"));
+    if (len1<=0 || len2<0 || len1+len2>bytes.length) { len1 = bytes.length; len2 = 0; }
+    len3 = Math.max(Math.min(len3, bytes.length - len1 - len2), 0);
+    
+    // Trailer is 512 zeros and cleartomark, which is sometimes left out of the stream
+    byte trailer[] = len3>0? Arrays.copyOfRange(bytes, len1+len2, len1+len2+len3) : null;
+    if (trailer==null) { StringBuffer sb = new StringBuffer("\n");
+        for(int i=0; i<8; i++) sb.append("0000000000000000000000000000000000000000000000000000000000000000\n");
+        trailer = sb.append("cleartomark\n").toString().getBytes();
+    }
+    
+    // Write PFB segments: 0x80, type (1=ascii, 2=binary), 4 byte little-endian length and data (then 0x80 3 for EOF)
+    ByteArrayOutputStream out = new ByteArrayOutputStream(len1 + len2 + trailer.length + 20);
+    writePFBSegment(out, 1, bytes, 0, len1);
+    if (len2>0) writePFBSegment(out, 2, bytes, len1, len2);
+    writePFBSegment(out, 1, trailer, 0, trailer.length);
+    out.write(0x80); out.write(3);
+    return out.toByteArray();
+}
+
+/** Writes a PFB segment of given type for given bytes. */
+void writePFBSegment(ByteArrayOutputStream out, int aType, byte bytes[], int offset, int length)
+{
+    out.write(0x80); out.write(aType);
+    out.write(length); out.write(length>>8); out.write(length>>16); out.write(length>>24);
+    out.write(bytes, offset, length);
+}
+
+/** Returns the int value for a number object (or zero). */
+int getInt(Object anObj)  { return anObj instanceof Number? ((Number)anObj).intValue() : 0; }
+
 /** Look on the system for a font with the given name.  */
 public Font getFont(String name, String type)
 {
@@ -143,13 +202,7 @@ public Font getDefaultFont()
 /** Create a glyphmapper for the font specified by the pdf font dictionary */
 public GlyphMapper getGlyphMapper(Map fontDict, PDFFile srcfile)
 {
-    // Check if we did it already
-    GlyphMapper mapper = (GlyphMapper)fontDict.get("_rbcached_glyphmapper_");
-    
-    if (mapper != null)
-        return mapper;
-
-    mapper = GlyphMapper.createGlyphMapper(fontDict,srcfile);
+    GlyphMapper mapper = GlyphMapper.createGlyphMapper(fontDict,srcfile);
     // For composite fonts, if the descendant CID font knows how to 
     // map the CIDs to glyphs, add that information to the glyphmapper.
     if ("/Type0".equals(fontDict.get("Subtype"))) {
@@ -157,8 +210,6 @@ public GlyphMapper getGlyphMapper(Map fontDict, PDFFile srcfile)
         mapper.setCIDToGIDMap(srcfile.resolveObject(child.get("CIDToGIDMap")));
     }
 
-    fontDict.put("_rbcached_glyphmapper_", mapper);
-    
     return mapper;
 }
 
@@ -192,13 +243,10 @@ Map getDescendantFont(Map fontDict, PDFFile srcfile)
 //public float[] getGlyphWidths(Map fontDict, PDFFile srcfile)
 public Object getGlyphWidths(Map fontDict, PDFFile srcfile)
 {
-    Object obj = fontDict.get("_rbcached_glyphwidths_");
+    Object obj;
     int i;
     float missing=1;
     
-    if (obj != null)
-        return obj;
-    
     String type = (String)fontDict.get("Subtype");
     
     //Composite fonts look up widths in their descendant
@@ -211,13 +259,19 @@ public Object getGlyphWidths(Map fontDict, PDFFile srcfile)
     //Single byte fonts use a simple array of 256 floats
     else { 
         float widths[] = new float[256];
+        
+        //Widths are in glyph space, which is 1/1000 of text space (except for Type3 fonts, which have a FontMatrix)
+        float scale = 1/1000f;
+        List fmatrix = "/Type3".equals(type)? (List)srcfile.resolveObject(fontDict.get("FontMatrix")) : null;
+        if (fmatrix != null && fmatrix.size()==6)
+            scale = ((Number)fmatrix.get(0)).floatValue();
    
         //Get the optional MissingWidth from the not-really-optional font descriptor
         Map descriptor=(Map)srcfile.resolveObject(fontDict.get("FontDescriptor"));
         if (descriptor != null) {
             obj = descriptor.get("MissingWidth");
             if (obj != null)
-                missing = ((Number)obj).floatValue()/1000f;
+                missing = ((Number)obj).floatValue()*scale;
         }
 
         // If there's a width array, use it
@@ -232,7 +286,7 @@ public Object getGlyphWidths(Map fontDict, PDFFile srcfile)
                 if ((i<first) || (i>last))
                     widths[i] = missing;
                 else
-                    widths[i] = ((Number)wlist.get(i-first)).floatValue()/1000f;
+                    widths[i] = ((Number)wlist.get(i-first)).floatValue()*scale;
             }
         }
         else {
@@ -257,8 +311,6 @@ public Object getGlyphWidths(Map fontDict, PDFFile srcfile)
         obj = widths;
     }
     
-    // cache it
-    fontDict.put("_rbcached_glyphwidths_", obj);
     return obj;
 }
 
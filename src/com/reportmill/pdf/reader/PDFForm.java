@@ -4,13 +4,12 @@ import java.awt.geom.*;
 
 /**
  * An object which holds on to a stream of markup operations for later drawing. In PDF a form xobject is a stream.
- * This object saves the stream data and when it comes time to draw, the PageParser will parse the stream. The tokens
- * returned by the lexing portion of the parsing will be held on to by the PDFForm so that the markup operations can be
- * executed over and over without repeating that step.
+ * This object saves the stream data and when it comes time to draw, the PageParser will parse the stream. Since the
+ * lexer decodes strings in place, the stream data is kept untouched and the PageParser parses a copy of it, so that
+ * the markup operations can be executed over and over.
  * This method can be used by form xobjects as well as pattern colorspaces.
  */
 public class PDFForm {
-    List tokens;
     byte streamBytes[];
     Map formdict;
     
@@ -21,22 +20,10 @@ public PDFForm(PDFStream s)
     // Save away the contents and the form dictionary
     streamBytes = s.decodeStream();
     formdict = s.getDictionary();
-    tokens = null;
 }
 
 /**
- * Returns list of tokens that defines this form. The PDFPageParser is used to parse the stream the first time around.
- */
-public List getTokens(PDFPageParser parser) {
-    if (tokens==null) {
-        tokens = new ArrayList(32);
-        parser.getTokens(streamBytes, 0, streamBytes.length, tokens);
-    }
-    return tokens;
-}
-
-/**
- * Returns the stream data.  The tokens maintain pointers into this byte array for all string storage.
+ * Returns the stream data (which shouldn't be modified - the PDFPageParser parses a copy).
  */
 public byte[] getBytes() { return streamBytes; }
 
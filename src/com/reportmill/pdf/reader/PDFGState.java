@@ -55,8 +55,8 @@ public class PDFGState implements Cloneable {
     // The clipping path
     GeneralPath    clip = null;
         
-    // The current font dictionary
-    Map            font;
+    // The current font
+    PDFFont        font;
     
     // The current font size
     float          fontSize = 12;
@@ -157,9 +157,9 @@ public Image getImage(PDFStream imageStream, ColorSpace cspace, PDFFile srcfile)
             streamBytes = expandBitmapBits(streamBytes,w,h);
         // if w & h are both 1, the number of bits equals the number of bytes
         // regardless of whether we've exapanded them or not.  So do it again
-        // right here just in case.
+        // right here just in case (in new array, since decoded bytes can be shared).
         else if (w==1 && h==1)
-            streamBytes[0]=(byte)(streamBytes[0]&1);
+            streamBytes = new byte[] { (byte)(streamBytes[0]&1) };
     }
     
     // Decode array (optional)
@@ -67,6 +67,13 @@ public abstract class PDFMarkupHandler extends Object {
    */
   public abstract void showText(PDFGState g, GlyphVector v);
 
+  /** Notifies of the chars of the text just shown at the current text position (optional).
+   * The chars are those the glyph mapper produced for the text bytes (Unicode for simple fonts, CIDs for CID
+   * fonts).  The gstate transform is the same as for showText (glyph space for a 1 point font) and the width
+   * is the advance of the whole run in that space.
+   */
+  public void showChars(PDFGState g, char chars[], int count, float width)  { }
+
   /** Return an awt FontRenderContext object which will be used to render the fonts.
    *  The same rendercontext is used for the entire page.
    */
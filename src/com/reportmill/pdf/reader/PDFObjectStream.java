@@ -51,7 +51,7 @@ public void readOffsets(PDFParser p)
     Integer ival;
     int onum,off;
     int i,n=offTable.length;
-    byte oldData[] = p.pdfdata.buffer(); // save away the parser's old data (the main pdf file)
+    java.nio.ByteBuffer oldData = p.pdfdata.buffer(); // save away the parser's old data (the main pdf file)
     p.resetLexingData(streamdata,0);  // point the parser at the objstream
     
     try {
@@ -77,7 +77,7 @@ public Object get(int objnum, PDFParser p)
     if (relativeOffset<0)
         return null;
     
-    byte oldData[] = p.pdfdata.buffer();
+    java.nio.ByteBuffer oldData = p.pdfdata.buffer();
     Object pdfobj;
     
     p.resetLexingData(streamdata, relativeOffset+firstOffset);
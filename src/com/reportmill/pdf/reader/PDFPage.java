@@ -50,6 +50,9 @@ public PDFPage(PDFFile aPdfFile, int anIndex)
         _resources.add(r);
 }
 
+/** Returns the index of this page. */
+public int getIndex()  { return _index; }
+
 /** Returns the media box of this page. */
 public Rectangle2D getMediaBox()
 {
@@ -101,7 +104,10 @@ public Object getPageResources()  { return _pdfFile.inheritedAttributeForKeyInPa
  * If you need the ProcSet or something other than a dictionary, use
  * getResources() and pull it out from there.
  */
-public Object findResource(String resourceName, String name) {
+public Object findResource(String resourceName, String name)  { return _pdfFile.resolveObject(findResourceRef(resourceName, name)); }
+
+/** Returns the named object from the page's resources, without resolving it if it's a reference. */
+public Object findResourceRef(String resourceName, String name) {
   List rezstack = getResources();
   int n=rezstack.size();
   
@@ -112,7 +118,7 @@ public Object findResource(String resourceName, String name) {
       if (adict instanceof Map) {
           obj = ((Map)adict).get(name);
           if (obj != null)
-              return _pdfFile.resolveObject(obj);
+              return obj;
       }
     }
   return null;
@@ -132,6 +138,13 @@ public Map getExtendedGStateNamed(String name) { return (Map)findResource("ExtGS
  */  
 public Map getFontDictForAlias(String alias) { return (Map)findResource("Font", alias); }
 
+/** Returns the font for a given name (like "/f1"), which is shared by all pages that use the same font dictionary. */
+public PDFFont getFontForAlias(String alias)
+{
+    Object fontRef = findResourceRef("Font", alias);
+    return fontRef!=null? _pdfFile.getFont(fontRef) : null;
+}
+
 /** A colorspace can be specified in several ways.
  *  If a colorspace needs no arguments, in can just be the name.
  *  Otherwise, it is an entry in the page's resource dictionary.
@@ -455,53 +468,61 @@ public PDFStream getPageContentsStream()
 }
 
 /**
- * Set everything to the default implementations and return an Image for this page.
+ * Set everything to the default implementations and return an Image for this page (cached).
  */
-public BufferedImage getImage()
+public synchronized BufferedImage getImage()
 {
     // If image hasn't been loaded, load it
-    if(_pageBuffer==null) {
-
-        DefaultFactories factories = new DefaultFactories();
-    
-        // Create a markup handler to a handler that renders into an image
-        BufferedMarkupHandler buf = new BufferedMarkupHandler();
-        
-        // Set the rendering parameters
-        // TODO: The various markupHandlers might want to do some of these by default.
-        buf.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        buf.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        buf.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        buf.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        buf.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        buf.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-        
-        _pdfFile.setMarkupHandler(buf);
-        
-        // Set the object creation factories to the defaults
-        _pdfFile.setColorFactory(factories);
-        _pdfFile.setFontFactory(new PDFFontFactory());
-        _pdfFile.setPathFactory(factories);
-        _pdfFile.setImageFactory(new PDFImageFactory());
-        
-        // we want the EXGStates
-        _pdfFile.setStripsExtendedGStates(false);
-        
-        // let 'er rip
-        parse();
-        
-        // return the image created by the markup handler
-        _pageBuffer = buf.getImage();
-    }
+    if(_pageBuffer==null)
+        _pageBuffer = createImage();
     
     // Return image
     return _pageBuffer;
 }
 
+/**
+ * Set everything to the default implementations and return a new Image for this page (not cached).
+ * The factories and markup handler are set for the current thread, so different pages can be rendered at once.
+ */
+public synchronized BufferedImage createImage()
+{
+    DefaultFactories factories = new DefaultFactories();
+    
+    // Create a markup handler to a handler that renders into an image
+    BufferedMarkupHandler buf = new BufferedMarkupHandler();
+    
+    // Set the rendering parameters
+    // TODO: The various markupHandlers might want to do some of these by default.
+    buf.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    buf.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    buf.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    buf.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    buf.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    buf.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+    
+    _pdfFile.setMarkupHandler(buf);
+    
+    // Set the object creation factories to the defaults
+    _pdfFile.setColorFactory(factories);
+    _pdfFile.setFontFactory(new PDFFontFactory());
+    _pdfFile.setPathFactory(factories);
+    _pdfFile.setImageFactory(new PDFImageFactory());
+    
+    // we want the EXGStates
+    _pdfFile.setStripsExtendedGStates(false);
+    
+    // let 'er rip (and clear handlers, so thread doesn't hold image)
+    try { parse(); }
+    finally { _pdfFile.clearHandlers(); }
+    
+    // return the image created by the markup handler
+    return buf.getImage();
+}
+
 /**
  * Draw the page to g,  scaled to fit the rectangle r.
  */
-public void paint(Graphics2D g, Rectangle2D r)
+public synchronized void paint(Graphics2D g, Rectangle2D r)
 {
     Java2DMarkupHandler j2d = new Java2DMarkupHandler(g);
     DefaultFactories factories = new DefaultFactories();
@@ -523,13 +544,42 @@ public void paint(Graphics2D g, Rectangle2D r)
     // set the destination rectangle
     j2d.setDestinationRect(r);
     
-    // let 'er rip
-    parse();
+    // let 'er rip (and clear handlers, so thread doesn't hold graphics)
+    try { parse(); }
+    finally { _pdfFile.clearHandlers(); }
     
     // Clean up.
     j2d.endPage();
 }
     
+/**
+ * Returns the text runs shown by this page, in content order (parses page without drawing or decoding images).
+ * The factories and markup handler are set for the current thread, so pages can be extracted at once.
+ */
+public synchronized List <PDFTextMarkupHandler.TextRun> getTextRuns()
+{
+    PDFTextMarkupHandler handler = new PDFTextMarkupHandler();
+    DefaultFactories factories = new DefaultFactories();
+
+    // Set the markup handler to the text version and the object creation factories to the defaults (except images)
+    _pdfFile.setMarkupHandler(handler);
+    _pdfFile.setColorFactory(factories);
+    _pdfFile.setFontFactory(new PDFFontFactory());
+    _pdfFile.setPathFactory(factories);
+    _pdfFile.setImageFactory(PDFTextMarkupHandler.getImageFactory());
+    _pdfFile.setStripsExtendedGStates(false);
+
+    // Parse (and clear handlers, so thread doesn't hold runs) and return runs
+    try { parse(); }
+    finally { _pdfFile.clearHandlers(); }
+    return handler.getTextRuns();
+}
+
+/**
+ * Returns the text shown by this page (see PDFTextMarkupHandler.getText()).
+ */
+public String getText()  { return PDFTextMarkupHandler.getText(getTextRuns()); }
+
 /**
  * Main entry point for parsing the page marking operations
  */
@@ -28,16 +28,52 @@ public class PDFPageParser {
     // The bounds of the area being parsed
     Rectangle2D           _bounds;
     
-    // The tokens of the page being parsed
-    List                 _tokens;
-    
+    // The content bytes being lexed, the index of the next byte to lex and the end index
+    byte                 _bytes[];
+    int                  _pos, _end;
+
+    // The current token (set by the lexer): type, byte range, number value (and whether it is real)
+    // and object value (just for arrays and booleans)
+    int                  _tokType, _tokStart, _tokLength;
+    double               _tokNum;
+    boolean              _tokReal;
+    Object               _tokValue;
+
+    // The operand stack: the operand tokens of the current operator, as parallel arrays of token values
+    int                  _opTypes[] = new int[16], _opStarts[] = new int[16], _opLengths[] = new int[16];
+    double               _opNums[] = new double[16];
+    Object               _opValues[] = new Object[16];
+    int                  _opCount;
+
+    // A range to hold the byte range of decoded strings
+    Range                _strRange = new Range();
+
     // The gstates of the page being parsed
     Stack                _gstates;
     
     // The current text object
     // It will get created once and reused over & over
     PDFTextObject        _textObj = null;
-    
+
+    // Token types returned by the lexer for end of content and array close
+    static final int     END_OF_CONTENT = -1, ARRAY_CLOSE = -2;
+
+    // Operator codes - the bytes of an operator (up to three) packed into an int, first byte lowest
+    static final int     OP_b = 'b', OP_bStar = 'b' | '*'<<8, OP_B = 'B', OP_BStar = 'B' | '*'<<8,
+        OP_BDC = 'B' | 'D'<<8 | 'C'<<16, OP_BI = 'B' | 'I'<<8, OP_BMC = 'B' | 'M'<<8 | 'C'<<16, OP_BT = 'B' | 'T'<<8,
+        OP_BX = 'B' | 'X'<<8, OP_c = 'c', OP_cm = 'c' | 'm'<<8, OP_cs = 'c' | 's'<<8, OP_CS = 'C' | 'S'<<8, OP_d = 'd',
+        OP_d0 = 'd' | '0'<<8, OP_d1 = 'd' | '1'<<8,
+        OP_Do = 'D' | 'o'<<8, OP_DP = 'D' | 'P'<<8, OP_EMC = 'E' | 'M'<<8 | 'C'<<16, OP_ET = 'E' | 'T'<<8,
+        OP_EX = 'E' | 'X'<<8, OP_f = 'f', OP_fStar = 'f' | '*'<<8, OP_F = 'F', OP_g = 'g', OP_gs = 'g' | 's'<<8,
+        OP_G = 'G', OP_h = 'h', OP_i = 'i', OP_j = 'j', OP_J = 'J', OP_k = 'k', OP_K = 'K', OP_l = 'l', OP_m = 'm',
+        OP_M = 'M', OP_MP = 'M' | 'P'<<8, OP_n = 'n', OP_q = 'q', OP_Q = 'Q', OP_re = 'r' | 'e'<<8,
+        OP_rg = 'r' | 'g'<<8, OP_ri = 'r' | 'i'<<8, OP_RG = 'R' | 'G'<<8, OP_s = 's', OP_sc = 's' | 'c'<<8,
+        OP_scn = 's' | 'c'<<8 | 'n'<<16, OP_sh = 's' | 'h'<<8, OP_S = 'S', OP_SC = 'S' | 'C'<<8,
+        OP_SCN = 'S' | 'C'<<8 | 'N'<<16, OP_TStar = 'T' | '*'<<8, OP_Tc = 'T' | 'c'<<8, OP_Td = 'T' | 'd'<<8,
+        OP_TD = 'T' | 'D'<<8, OP_Tf = 'T' | 'f'<<8, OP_Tj = 'T' | 'j'<<8, OP_TJ = 'T' | 'J'<<8, OP_TL = 'T' | 'L'<<8,
+        OP_Tm = 'T' | 'm'<<8, OP_Tr = 'T' | 'r'<<8, OP_Ts = 'T' | 's'<<8, OP_Tw = 'T' | 'w'<<8, OP_Tz = 'T' | 'z'<<8,
+        OP_Quote = '\'', OP_DoubleQuote = '"', OP_v = 'v', OP_w = 'w', OP_W = 'W', OP_WStar = 'W' | '*'<<8, OP_y = 'y';
+
 /** Returns an RMShape for a given PDF file and a page index. */
 static void parsePage(PDFFile aPdfFile, int aPageIndex)
 {
@@ -85,106 +121,102 @@ public PDFPageParser(PDFFile aPdfFile, int aPageIndex)
 PDFPage getPage() { return _pdfFile.getPage(_pageIndex); }
 
 /**
- * The lexer.  Fills the tokens list from the page contents. 
- * Returns the index of the character after the last successfully consumed character.
+ * The lexer. Reads the next token from the content bytes into the current token fields and returns its type (or
+ * END_OF_CONTENT or ARRAY_CLOSE). Nothing is allocated for operators, numbers, names and strings - they just set the
+ * token byte range and number value. Arrays are read into a list of PageTokens (for TJ and dash arrays).
  */
-public int getTokens(byte pageBytes[], int offset, int end, List tokens)
+int nextToken()
 {
-    PageToken aToken;
-    Range r;
-    int i;
+    byte pageBytes[] = _bytes;
+    int i, end = _end;
+    
+    // Reset token value
+    _tokValue = null;
     
     // Iterate over token string chars
-    for(i=offset; i<end; i++) {
+    for(i=_pos; i<end; i++) {
         
         // Get current token char
         byte c = pageBytes[i];
-
-        // Reset token
-        aToken = null;
+        _tokStart = i;
+        
+        // Skip whitespace
+        if ((c==' ') || (c=='\t') || (c=='\r') || (c=='\n') || (c=='\f'))
+            continue;
         
         // Handle comment - toss the rest of the line
         if (c=='%') {
             while((++i<end) && (pageBytes[i] != '\r') && (pageBytes[i] != '\n'));
+            continue;
         }
         
-        // Handle array start
-        else if (c=='[') {
+        // Handle array start - get tokens up to array close
+        if (c=='[') {
+            _pos = i+1;
             List arrayTokens = new ArrayList(4);
-            // recurse
-            i = getTokens(pageBytes, i+1, end, arrayTokens);
-            aToken = new PageToken(PageToken.PDFArrayToken, arrayTokens);
+            for(int type=nextToken(); (type!=ARRAY_CLOSE) && (type!=END_OF_CONTENT); type=nextToken())
+                arrayTokens.add(getCurrentToken());
+            _tokValue = arrayTokens;
+            return setToken(PageToken.PDFArrayToken, i, _pos-i, _pos);
         }
         
         // Handle array close
-        else if (c==']') {
-            return i;//+1;
-        }
+        if (c==']')
+            return setToken(ARRAY_CLOSE, i, 1, i+1);
         
         // Handle string start
-        else if (c=='(') {
-            aToken = new PageToken(PageToken.PDFStringToken);
-            i = getPDFString(pageBytes, i+1, end, aToken);
+        if (c=='(') {
+            int next = getPDFString(pageBytes, i+1, end, _strRange);
+            return setToken(PageToken.PDFStringToken, _strRange.location, _strRange.length, next);
         }
         
         // Handle hex string or dict
-        else if (c=='<') {
-            if ((i<end-1) && (pageBytes[i+1]=='<')) {
-                aToken = new PageToken(PageToken.PDFDictOpenToken);
-                ++i;
-            }
-            else {
-                aToken = new PageToken(PageToken.PDFStringToken);
-                i = getPDFHexString(pageBytes, i+1, end, aToken);
-            }
+        if (c=='<') {
+            if ((i<end-1) && (pageBytes[i+1]=='<'))
+                return setToken(PageToken.PDFDictOpenToken, i, 2, i+2);
+            int next = getPDFHexString(pageBytes, i+1, end, _strRange) + 1;
+            return setToken(PageToken.PDFStringToken, _strRange.location, _strRange.length, next);
         }
         
-        // Handle hex string end
-        else if ((c=='>') && (i<end-1) && (pageBytes[i+1]=='>')) {
-            aToken = new PageToken(PageToken.PDFDictCloseToken);
-            ++i;
-        }
+        // Handle dict end
+        if ((c=='>') && (i<end-1) && (pageBytes[i+1]=='>'))
+            return setToken(PageToken.PDFDictCloseToken, i, 2, i+2);
         
         // Handle name
-        else if (c=='/') {
-            r = new Range(i,0);
-            aToken = new PageToken(PageToken.PDFNameToken);
+        if (c=='/') {
             while(++i<end) {
                 c = pageBytes[i];
                 // whitespace ends name
-                if ((c==' ') || (c=='\t') || (c=='\r') || (c=='\n') || (c=='\f')) {
-                    r.length = i-r.location;
-                    break;
-                }
+                if ((c==' ') || (c=='\t') || (c=='\r') || (c=='\n') || (c=='\f'))
+                    return setToken(PageToken.PDFNameToken, _tokStart, i-_tokStart, i+1);
                 // other delimeter.  end name and back up 
                 if ((c=='(') || (c==')') || (c=='<') || (c=='>') || (c=='[') || (c==']') ||
-                    (c=='{') || (c=='}') || (c=='/') || (c=='%')) {
-                    r.length = i-r.location;
-                    --i;
-                    break;
-                }
+                    (c=='{') || (c=='}') || (c=='/') || (c=='%'))
+                    return setToken(PageToken.PDFNameToken, _tokStart, i-_tokStart, i);
             }
             // end of stream also ends name
-            if (i==end)
-                r.length = end-r.location;
-            aToken.value = r;
+            return setToken(PageToken.PDFNameToken, _tokStart, end-_tokStart, end);
         }
         
-        // Handle
-        else if ((c=='+')||(c=='-')||(c=='.')||((c>='0') && (c<='9'))) {
-            aToken = new PageToken(PageToken.PDFNumberToken);
-            i= getPDFNumber(pageBytes, i, end, aToken);
+        // Handle number
+        if ((c=='+')||(c=='-')||(c=='.')||((c>='0') && (c<='9'))) {
+            int next = getPDFNumber(pageBytes, i, end);
+            return setToken(PageToken.PDFNumberToken, i, next-i, next);
         }
         
-        // Handle
-        else if (((c=='t') || (c=='f')) && ((aToken=checkPDFBoolean(pageBytes,i,end))!=null)) {
-            if (aToken.boolValue())
-                i+=3;
-            else i+=4;
+        // Handle boolean
+        if ((c=='t') && (end-i>4) && (pageBytes[i+1]=='r') && (pageBytes[i+2]=='u') && (pageBytes[i+3]=='e')) {
+            _tokValue = Boolean.TRUE;
+            return setToken(PageToken.PDFBooleanToken, i, 4, i+4);
+        }
+        if ((c=='f') && (end-i>5) && (pageBytes[i+1]=='a') && (pageBytes[i+2]=='l') && (pageBytes[i+3]=='s') &&
+            (pageBytes[i+4]=='e')) {
+            _tokValue = Boolean.FALSE;
+            return setToken(PageToken.PDFBooleanToken, i, 5, i+5);
         }
         
         // Handle ID
-        else if ((c=='I') && (i<end-4) && (pageBytes[i+1]=='D')) {
+        if ((c=='I') && (i<end-4) && (pageBytes[i+1]=='D')) {
             // skip over the ID
             i+=2;
             
@@ -192,7 +224,7 @@ public int getTokens(byte pageBytes[], int offset, int end, List tokens)
             if ((pageBytes[i]==' ') || (pageBytes[i]=='\t') || (pageBytes[i]=='\n'))
                 ++i;
             
-            r = new Range(i,0);
+            int start = i;
             
             // Inline image data - slurp up all the data up to the EI token depending on the encoding stream,
             // the first byte might or might not be significant.
@@ -208,55 +240,102 @@ public int getTokens(byte pageBytes[], int offset, int end, List tokens)
             }
             if (i>=end) 
                 throw new PDFException("Unterminated inline image data");
-            aToken = new PageToken(PageToken.PDFInlineImageData);
-            r.length = i-r.location;
-            aToken.value = r;
+            
             // skip over 'EI'
-            i+=2;
+            return setToken(PageToken.PDFInlineImageData, start, i-start, i+3);
         }
         
-        // Handle
-        else if ((c!=' ') && (c!='\t') && (c!='\r') && (c!='\n') && (c!='\f')) {
-            r = new Range(i,0);
-            aToken = new PageToken(PageToken.PDFOperatorToken);
-            while(++i<end) {
-                c = pageBytes[i];
-                if ((c==' ') || (c=='\t') || (c=='\r') || (c=='\n') || (c=='\f')) {
-                    r.length = i-r.location;
-                    break;
-                }
-                else if ((c=='(') || (c=='/') || (c=='[') || (c=='<') || (c=='%')) {
-                    r.length=i-r.location;
-                    --i;
-                    break;
-                }
-            }
-            if (i==end) r.length=i-r.location;
-            aToken.value = r;
+        // Handle operator
+        while(++i<end) {
+            c = pageBytes[i];
+            if ((c==' ') || (c=='\t') || (c=='\r') || (c=='\n') || (c=='\f'))
+                return setToken(PageToken.PDFOperatorToken, _tokStart, i-_tokStart, i+1);
+            else if ((c=='(') || (c=='/') || (c=='[') || (c=='<') || (c=='%'))
+                return setToken(PageToken.PDFOperatorToken, _tokStart, i-_tokStart, i);
         }
-        
-        // Add new token to the array
-        if (aToken != null)
-            tokens.add(aToken);
+        return setToken(PageToken.PDFOperatorToken, _tokStart, end-_tokStart, end);
+    }
+    
+    // Return end of content
+    _pos = end;
+    return END_OF_CONTENT;
+}
+
+/** Sets the current token type and byte range and the index of the next byte to lex. Returns the token type. */
+private int setToken(int aType, int aStart, int aLength, int aNext)
+{
+    _tokType = aType; _tokStart = aStart; _tokLength = aLength; _pos = aNext;
+    return aType;
+}
+
+/** Returns a new PageToken for the current token. */
+private PageToken getCurrentToken()
+{
+    switch(_tokType) {
+        case PageToken.PDFNumberToken:
+            return new PageToken(_tokType, _tokReal? (Object)Float.valueOf((float)_tokNum) : (Object)Integer.valueOf((int)_tokNum));
+        case PageToken.PDFArrayToken:
+        case PageToken.PDFBooleanToken: return new PageToken(_tokType, _tokValue);
+        case PageToken.PDFDictOpenToken:
+        case PageToken.PDFDictCloseToken: return new PageToken(_tokType);
+        default: return new PageToken(_tokType, new Range(_tokStart, _tokLength));
+    }
+}
+
+/** Returns the current token as a string (for error messages). */
+private String getCurrentTokenString()  { return new String(_bytes, _tokStart, _tokLength); }
+
+/** Pushes the current token onto the operand stack. */
+private void pushOperand()
+{
+    // Grow operand stack if needed
+    int i = _opCount++;
+    if (i==_opTypes.length) {
+        _opTypes = Arrays.copyOf(_opTypes, i*2); _opStarts = Arrays.copyOf(_opStarts, i*2);
+        _opLengths = Arrays.copyOf(_opLengths, i*2); _opNums = Arrays.copyOf(_opNums, i*2);
+        _opValues = Arrays.copyOf(_opValues, i*2);
     }
     
-    // Return end index
-    return i;
+    // Set current token values
+    _opTypes[i] = _tokType; _opStarts[i] = _tokStart; _opLengths[i] = _tokLength;
+    _opNums[i] = _tokNum; _opValues[i] = _tokValue;
 }
 
-/** Returns the token at the given index. */
-private PageToken getToken(int index) { return (PageToken)_tokens.get(index); }
+/** Returns the operator code for the operator at the given byte range (0 if longer than three bytes). */
+static int getOperatorCode(byte pageBytes[], int start, int length)
+{
+    switch(length) {
+        case 1: return pageBytes[start]&0xff;
+        case 2: return (pageBytes[start]&0xff) | (pageBytes[start+1]&0xff)<<8;
+        case 3: return (pageBytes[start]&0xff) | (pageBytes[start+1]&0xff)<<8 | (pageBytes[start+2]&0xff)<<16;
+        default: return 0;
+    }
+}
 
-/** Returns the token at the given index as a float. */
-private float getFloat(int i) { return getToken(i).floatValue(); }
+/** Returns the operand at the given stack index as a float. */
+private float getFloat(int i)
+{
+    if (_opTypes[i]!=PageToken.PDFNumberToken)
+        throw new PDFException("Error in content stream. Expected number but got " +
+            new String(_bytes, _opStarts[i], _opLengths[i]));
+    return (float)_opNums[i];
+}
 
-/** Returns the token at the given index as an int. */
-private int getInt(int i) { return getToken(i).intValue(); }
+/** Returns the operand at the given stack index as an int. */
+private int getInt(int i) { return (int)getFloat(i); }
 
-/** Returns the token at the given index as an array of floats */
+/** Returns the operand at the given stack index as a name string, stripped of the leading '/'. */
+private String getName(int i) { return new String(_bytes, _opStarts[i]+1, _opLengths[i]-1); }
+
+/** Returns the operand at the given stack index as a name string with the leading '/'. */
+private String getNameValue(int i) { return new String(_bytes, _opStarts[i], _opLengths[i]); }
+
+/** Returns the operand at the given stack index as an array of floats */
 private float[] getFloatArray(int i) 
 {
-    List ftokens = (List)(getToken(i).value);
+    if (_opTypes[i]!=PageToken.PDFArrayToken)
+        throw new PDFException("Error in content stream. Expected array");
+    List ftokens = (List)_opValues[i];
     int jMax = ftokens.size();
     float farray[] = new float[jMax];
     
@@ -266,14 +345,14 @@ private float[] getFloatArray(int i)
     return farray;
 }
 
-/** Gets the token at the given index as a point. */
+/** Gets the two operands below the given stack index as a point. */
 void getPoint(int i, Point2D.Float pt)
 {
-    pt.x = getToken(i-2).floatValue();
-    pt.y = getToken(i-1).floatValue();
+    pt.x = getFloat(i-2);
+    pt.y = getFloat(i-1);
 }
 
-/** Returns a new point at the given index */
+/** Returns a new point for the two operands below the given stack index */
 Point2D.Float getPoint(int i) 
 {
     Point2D.Float pt = new Point2D.Float();
@@ -281,12 +360,12 @@ Point2D.Float getPoint(int i)
     return pt;
 }
 
-/** Returns the token at the given index as a transform. */
+/** Returns the six operands below the given stack index as a transform. */
 private AffineTransform getTransform(int i)
 {
-    float a = getToken(i-6).floatValue(), b = getToken(i-5).floatValue();
-    float c = getToken(i-4).floatValue(), d = getToken(i-3).floatValue();
-    float tx = getToken(i-2).floatValue(), ty = getToken(i-1).floatValue();
+    float a = getFloat(i-6), b = getFloat(i-5);
+    float c = getFloat(i-4), d = getFloat(i-3);
+    float tx = getFloat(i-2), ty = getFloat(i-1);
     return new AffineTransform(a, b, c, d, tx, ty);
 }
 
@@ -295,13 +374,13 @@ private AffineTransform getTransform(int i)
  * modified to the exact bytes represented by the escapes.  A buffer that starts out as "(He\154\154o)" would then
  * become "(Hello4\154o) and the token would point to "Hello". No new storage is required and everything can be
  * represented as a byte buffer. This means that if you wanted to parse the buffer a second time, you'd better get
- * the stream again from the PDFPage.
+ * the stream again from the PDFPage. Range gets the string bytes and the return value is the index after the string.
  */
-private int getPDFString(byte pageBytes[], int start, int end, PageToken tok)
+private int getPDFString(byte pageBytes[], int start, int end, Range r)
 {
     int parenDepth = 1;
     int dest=start;
-    Range r = new Range(start,start);
+    r.location = start;
     
     while(start<end) {
         byte c = pageBytes[start++];
@@ -354,19 +433,7 @@ private int getPDFString(byte pageBytes[], int start, int end, PageToken tok)
         pageBytes[dest++]=c;
         }
     r.length = dest-r.location;
-    tok.value = r;
-    return start-1;
-}
-
-/**
- * Hex strings: <AABBCCDDEEFF0011...>. See comment above.
- */
-private int getPDFHexString(byte pageBytes[], int start, int end, PageToken tok)
-{
-    Range r = new Range(0,0);
-    int next_char = PDFPageParser.getPDFHexString(pageBytes, start, end, r);
-    tok.value = r;
-    return next_char;
+    return start;
 }
 
 public static byte[] getPDFHexString(String s)
@@ -476,8 +543,11 @@ public static int getPDFHexString(byte pageBytes[], int start, int end, Range r)
     return start-1;
 }
 
-/** Numbers (floats or ints) Exponential notation not allowed in pdf */
-private int getPDFNumber(byte pageBytes[], int start, int end, PageToken tok)
+/**
+ * Numbers (floats or ints) Exponential notation not allowed in pdf. Sets the current token number value and returns
+ * the index after the number.
+ */
+private int getPDFNumber(byte pageBytes[], int start, int end)
 {
     int parts[]={0,0};
     int whichpart=0, div=1;
@@ -509,37 +579,16 @@ private int getPDFNumber(byte pageBytes[], int start, int end, PageToken tok)
     if (!good)
         throw new PDFException("Illegal number");
     
+    _tokReal = whichpart>0;
     if (whichpart==0)
-        tok.value = sign*parts[0];
-    else tok.value = sign*(parts[0]+((float)parts[1])/div);
-    return start-1;
-}
-
-PageToken checkPDFBoolean(byte pageBytes[], int start, int end)
-{
-    Boolean v=null;
-    // allocates a string, unlike most other parts of the lexer.
-    // probably not a big deal, since it only happens for ops starting with 't' or 'f'.
-    // This could always be unrolled or perhaps changed to use byte arrays
-    try {
-    if ((pageBytes[start]=='t') && (end-start>4) && 
-        ("true".equals(new String(pageBytes, start, 4, "US-ASCII"))))
-        v=Boolean.TRUE;
-    else if ((end-start>5) && ("false".equals(new String(pageBytes, start, 5, "US-ASCII"))))
-        v=Boolean.FALSE;
-    // should really check next char so we dont match a token like 'trueness' or 'falsehood'
-    if (v!=null) 
-        return new PageToken(PageToken.PDFBooleanToken, v);
-    }
-    catch (UnsupportedEncodingException uee) {}
-    
-    return null;
+        _tokNum = sign*parts[0];
+    else _tokNum = sign*(parts[0]+((float)parts[1])/div);
+    return start;
 }
 
 /**
- * Main entry point. Runs the lexer on the pdf content and passes the list of tokens to the parser. By separating out
- * a routine that operates on the list of tokens, we can implement Forms & patterns by recursively calling the parse
- * routine with a subset of the token list.
+ * Main entry point. Gets the page contents and passes them to the parser. By separating out a routine that operates
+ * on content bytes, we can implement Forms & patterns by recursively calling the parse routine with their contents.
  */
 public void parse()
 {
@@ -548,30 +597,28 @@ public void parse()
     if(pageStream==null)
         return;
     
-    // Decompress, decode, etc.
-    byte pageBytes[] = pageStream.decodeStream();
+    // Decompress, decode, etc. (copy bytes, since lexer decodes strings in place and decoded bytes are shared by the
+    // stream or file decoded stream cache)
+    byte pageBytes[] = pageStream.decodeStream().clone();
     
-    // Create top-level list of tokens and run the lexer to fill the list
-    List pageTokens = new ArrayList(32);
-    getTokens(pageBytes, 0, pageBytes.length, pageTokens);
- 
     // Start the markup handler
     PDFMarkupHandler engine = _pdfFile.getMarkupHandler();
     engine.beginPage((float)_bounds.getWidth(), (float)_bounds.getHeight());
     
     // Initialize a text object
-    _textObj = new PDFTextObject(engine.getFontRenderContext());
+    _textObj = new PDFTextObject(this, engine.getFontRenderContext());
     
-    // Parse the tokens
-    parse(pageTokens, pageBytes);
+    // Parse the page contents
+    parse(pageBytes);
 }
 
 /** The meat and potatoes of the pdf parser.
- * Translates the token list into a series of calls to either a Factory class,
- * which creates a Java2D object (like GeneralPath, Font, Image, GlyphVector, etc.),
- * or the markup handler, which does the actual drawing.
+ * Runs the lexer over the content bytes, pushing operands onto the operand stack, and translates each operator
+ * into a series of calls to either a Factory class, which creates a Java2D object (like GeneralPath, Font, Image,
+ * GlyphVector, etc.), or the markup handler, which does the actual drawing.
+ * Note that the lexer decodes strings in place, so the content bytes can only be parsed once.
  */
-public void parse(List tokenList, byte pageBytes[]) 
+public void parse(byte pageBytes[]) 
 {
     // save away the factory callback handler objects
     PDFMarkupHandler engine = _pdfFile.getMarkupHandler();
@@ -581,18 +628,16 @@ public void parse(List tokenList, byte pageBytes[])
     Color acolor;
     int compatibility_sections=0;
     // This routine is potentially recursive, so save the 
-    // tokens list on the stack
-    List oldTokens =_tokens;
+    // lexer state on the stack
+    byte oldBytes[] = _bytes; int oldPos = _pos, oldEnd = _end;
     
-    // Set the token list that will be used by routines like getToken()
-    _tokens = tokenList;
+    // Set the content bytes that will be used by the lexer and clear the operand stack
+    _bytes = pageBytes; _pos = 0; _end = pageBytes.length; _opCount = 0;
     
     // Initialize the current path
     // Note that in PDF, the path is not part of the GState and so is not
     // saved and restored by the gstate operators
     GeneralPath path = null, future_clip=null;
-    // The number of operands available for the current operator
-    int numops = 0;
     // for errors and operations that require multiple tokens
     boolean swallowedToken, didDraw;
     
@@ -600,499 +645,463 @@ public void parse(List tokenList, byte pageBytes[])
     gs = getGState();
     
     // Iterate over page contents tokens
-    for(int i=0, iMax=_tokens.size(); i<iMax; i++) {
+    for(int type=nextToken(); type!=END_OF_CONTENT; type=nextToken()) {
         
-        // Get the current loop token
-        PageToken token = getToken(i);
+        // If token isn't an operator, it must be an operand (comments are tossed by the lexer), so push it
+        if (type != PageToken.PDFOperatorToken) {
+            if (type != ARRAY_CLOSE)
+                pushOperand();
+            continue;
+        }
+        
+        // The number of operands available for the current operator and the stack index after the operands
+        int numops = _opCount, i = numops;
         swallowedToken = didDraw = false;
         
-        if (token.type == PageToken.PDFOperatorToken) {
-            int tstart = token.tokenLocation();
-            int tlen = token.tokenLength();
-            
-            // Switch on first byte of the operator
-            byte c = pageBytes[tstart];
-            switch(c) {
-            case 'b' : //closepath,fill,stroke (*=eostroke)   
-                if (numops == 0) {
-                    if (tlen==1)  // b
-                        path.setWindingRule(GeneralPath.WIND_NON_ZERO);
-                    else if ((tlen==2) && (pageBytes[tstart+1] =='*'))  // b*
-                        path.setWindingRule(GeneralPath.WIND_EVEN_ODD);
-                    else break;
-                    path.closePath();
-                    engine.fillPath(gs, path);
-                    engine.strokePath(gs, path);
-                    swallowedToken=true;
-                    didDraw = true;
-                }
-                break;
-            case 'B' : // fill,stroke (*=eostroke)
-                if ((numops==0) && ((tlen==1) || ((tlen==2) && (pageBytes[tstart+1]=='*')))) {
-                    if (tlen==1)
-                        path.setWindingRule(GeneralPath.WIND_NON_ZERO);
-                    else 
-                        path.setWindingRule(GeneralPath.WIND_EVEN_ODD);
-                    engine.fillPath(gs, path);
-                    engine.strokePath(gs, path);
-                    didDraw = true;
-                    swallowedToken=true;
-                }
-                else if ((numops==0) && (tlen==2)) {
-                    if (pageBytes[tstart+1]=='T') { //BT
-                        // Begin text object
-                        _textObj.begin();
-                        swallowedToken=true;
-                    }
-                    else if (pageBytes[tstart+1]=='X') {//BX 
-                        // start (possibly nested) compatibility section
-                        ++compatibility_sections;
-                        swallowedToken=true;
-                    }
-                    // BI - inline images
-                    else if (pageBytes[tstart+1]=='I') {//BI
-                        i=parseInlineImage(i+1, pageBytes);
-                        swallowedToken=true;
-                    }
-                }
-                else if ((tlen==3) && (pageBytes[tstart+2]=='C')) {
-                    if ((pageBytes[tstart+1]=='D') || (pageBytes[tstart+1]=='M'))  //BDC, BMC
-                        swallowedToken=true;
-                } 
-                break;
-            case 'c' : // c, cm, cs
-                if (tlen==1) {
-                    // Cureveto
-                    if (numops==6) {
-                        getPoint(i, gs.cp);
-                        path.curveTo(getFloat(i-6), getFloat(i-5),
-                                getFloat(i-4), getFloat(i-3),
-                                gs.cp.x, gs.cp.y);
-                        swallowedToken=true;
-                    }
-                }
-                else if (tlen==2) {
-                    c=pageBytes[tstart+1];
-                    if ((c=='m') && (numops==6)) { //cm
-                        // Concat matrix
-                        gs.trans.concatenate(getTransform(i));
-                        swallowedToken=true;
-                    }
-                    else if ((c=='s') && (numops==1)) { //cs
-                        // Set non-stroke colorspace 
-                        String space = getToken(i-1).nameString(pageBytes);
-                        gs.colorSpace = getPage().getColorspace(space);
-                        swallowedToken=true;
-                    }
-                }
-                break;
-            case 'C' : // CS stroke colorspace
-                if ((tlen==2) && (pageBytes[tstart+1]=='S') && (numops==1)) {
-                    String space = getToken(i-1).nameString(pageBytes);
-                    gs.scolorSpace = getPage().getColorspace(space);
-                    swallowedToken=true;
-                }
-                break;
-            case 'd' : //setdash
-                if ((tlen==1) && (numops==2)) {
-                    gs.lineDash = getFloatArray(i-2);
-                    gs.dashPhase = getFloat(i-1);
-                    gs.lineStroke = pathFactory.createStroke(gs);
-                    swallowedToken=true;
-                }
-                // d0 & d1 are only available in charprocs streams
-                break;
-            case 'D' : // xobject Do [also DP]
-                if (tlen==2) {
-                    if ((pageBytes[tstart+1]=='o') && (numops==1)) {
-                        String iname=getToken(i-1).nameString(pageBytes);
-                        Object xobj = getPage().getXObject(iname);
-                        if (xobj instanceof Image) {
-                            drawImage((Image)xobj);
-                            swallowedToken=true;
-                        }
-                        else if (xobj instanceof PDFForm) {
-                            executeForm((PDFForm)xobj);
-                            swallowedToken=true;
-                        }
-                        else throw new PDFException("Error reading XObject");
-                    }
-                    else if (pageBytes[tstart+1]=='P') { // DP marked content
-                        swallowedToken=true;
-                    }
-                }
-                break;
-            case 'E' : // [also EI,EMC]
-                if ((tlen==2) && (numops==0)) {
-                    if (pageBytes[tstart+1]=='T') {  //ET
-                        _textObj.end();
-                        swallowedToken = true;
-                    }
-                    else if (pageBytes[tstart+1]=='X') { // EX
-                        if (--compatibility_sections<0)
-                            throw new PDFException("Unbalanced BX/EX operators");
-                        swallowedToken = true;
-                    }
-                }
-                else if ((tlen==3) && (pageBytes[tstart+1]=='M') && (pageBytes[tstart+2]=='C'))
-                    swallowedToken = true;
-                break;
-            case 'f' : // fill (*=eofill)  
-            case 'F' : // F is the same as f, but obsolete
-                if (tlen==1)
+        // Switch on operator code
+        int oper = getOperatorCode(pageBytes, _tokStart, _tokLength);
+        switch(oper) {
+        case OP_b : //closepath,fill,stroke (*=eostroke)   
+        case OP_bStar :
+            if (numops == 0) {
+                if (oper==OP_b)  // b
+                    path.setWindingRule(GeneralPath.WIND_NON_ZERO);
+                else path.setWindingRule(GeneralPath.WIND_EVEN_ODD);  // b*
+                path.closePath();
+                engine.fillPath(gs, path);
+                engine.strokePath(gs, path);
+                swallowedToken=true;
+                didDraw = true;
+            }
+            break;
+        case OP_B : // fill,stroke (*=eostroke)
+        case OP_BStar :
+            if (numops==0) {
+                if (oper==OP_B)
                     path.setWindingRule(GeneralPath.WIND_NON_ZERO);
-                else if ((tlen==2) && (pageBytes[tstart+1]=='*')) 
+                else 
                     path.setWindingRule(GeneralPath.WIND_EVEN_ODD);
-                else break;
-                
                 engine.fillPath(gs, path);
+                engine.strokePath(gs, path);
                 didDraw = true;
                 swallowedToken=true;
-                break;
-            case 'g' : // setgray
-                if (tlen==1) {
-                    cspace = getPage().getColorspace("DeviceGray");
-                    gs.color = getColor(cspace,i,numops);
-                    gs.colorSpace = cspace;
-                    swallowedToken=true;
-                }
-                else if ((tlen==2) && (pageBytes[tstart+1]=='s') && (numops==1)) { // gs
-                    // Extended graphics state
-                    Map exg = getPage().getExtendedGStateNamed(getToken(i-1).nameString(pageBytes));
-                    readExtendedGState(gs, exg);
-                    swallowedToken=true;
-                }
-                break;
-            case 'G' : // setgray
-                if (tlen==1) {
-                    cspace = getPage().getColorspace("DeviceGray");
-                    gs.scolor = getColor(cspace,i,numops);
-                    gs.scolorSpace = cspace;
-                    swallowedToken=true;
-                }
-                break;
-            case 'h' : // closepath
-                if ((tlen==1) && (numops==0)) {
-                    path.closePath();
-                    Point2D lastPathPoint = path.getCurrentPoint(); 
-                    gs.cp.x = (float)lastPathPoint.getX();
-                    gs.cp.y = (float)lastPathPoint.getY();
-                    swallowedToken=true;
-                }
-                break;
-            case 'i' : // setflat
-                if ((tlen==1) && (numops==1)) {
-                    gs.flatness = getFloat(i-1);
-                    swallowedToken=true;
-                }
-                break;
-            case 'I' : // ID
-                break;
-            case 'j' : // setlinejoin
-                if ((tlen==1) && (numops==1)) {
-                    gs.lineJoin = getInt(i-1);
-                    gs.lineStroke = pathFactory.createStroke(gs);
-                    swallowedToken=true;
-                }
-                break;
-            case 'J' : // setlinecap
-                if ((tlen==1) && (numops==1)) {
-                    gs.lineCap = getInt(i-1);
-                    gs.lineStroke = pathFactory.createStroke(gs);
-                    swallowedToken=true;
-                }
-                break;
-            case 'k' : // setcmyk non-stroke
-            case 'K' : // setcmyk stroke
-                if ((tlen==1)) {
-                    cspace = getPage().getColorspace("DeviceCMYK");
-                    acolor = getColor(cspace,i,numops);
-                    if (c=='k') {
-                        gs.colorSpace = cspace;
-                        gs.color = acolor;
-                    }
-                    else { // strokecolor
-                        gs.scolorSpace = cspace;
-                        gs.scolor = acolor;
-                    }
-                    swallowedToken=true;
-                }
-                break;
-            case 'l' : // lineto
-                if((tlen==1) && (numops==2)) {
-                    getPoint(i, gs.cp);
-                    path.lineTo(gs.cp.x, gs.cp.y);
-                    swallowedToken=true;
-                }
-                break;
-            case 'm' : //moveto
-                if((tlen==1) && (numops==2)) {
-                    getPoint(i, gs.cp);
-                    // moveto creates a new path if there isn't one already,
-                    // otherwise you get a subpath.
-                    if (path==null)
-                        path = pathFactory.createEmptyPath();
-                    path.moveTo(gs.cp.x, gs.cp.y);
-                    swallowedToken=true;
-                }
-                break;
-            case 'M' : //setmiterlimit
-                if (tlen==1) {
-                    if (numops == 1) { 
-                        gs.miterLimit = getFloat(i-1);
-                        gs.lineStroke = pathFactory.createStroke(gs);
-                        swallowedToken=true;
-                    }
-                }
-                else if ((tlen==2) && (pageBytes[tstart+1]=='P') && (numops==1)) { //MP
-                    // Marked content point
-                    swallowedToken=true;
-                }
-                break;
-            case 'n' : //endpath
-                // End path without fill or stroke - used for clearing the path after a clipping operation ( W n )
-                if ((tlen==1) && (numops==0)) {
-                    didDraw = true;
-                    swallowedToken=true;
-                }
-                break;
-            case 'q' : //gsave;
-                if ((tlen==1) && (numops==0)) {
-                    gs=gsave();
-                    swallowedToken=true;
-                }
-                break;
-            case 'Q' : //grestore
-                if ((tlen==1) && (numops==0)) {
-                    gs=grestore();
-                    swallowedToken=true;
-                }
-                break;
-            case 'r' : //re=rectangle, rg=setrgbcolor, ri=renderingintent
-                if (tlen==2) {
-                    c=pageBytes[tstart+1];
-                    if ((c=='e') && (numops==4)) { //x y w h re
-                        // Add Rectangle
-                        float x = getFloat(i-4), y = getFloat(i-3);
-                        float w = getFloat(i-2), h = getFloat(i-1);
-                        
-                        // re either creates a new path or adds to the current one
-                        if (path==null) 
-                            path = pathFactory.createEmptyPath();
-                        path.moveTo(x, y);
-                        path.lineTo(x+w, y);
-                        path.lineTo(x+w, y+h);
-                        path.lineTo(x, y+h);
-                        path.closePath();
-                        // reset the current point to the start of the rect
-                        // TODO: Check that this is what really happens in pdf
-                        gs.cp.x = x;
-                        gs.cp.y = y;
-                        swallowedToken=true;
-                    }
-                    else if ((c=='i') && (numops==1)) {  //  /IntentName ri
-                        gs.renderingIntent=getRenderingIntentID(getToken(i-1).nameValue(pageBytes));
-                        swallowedToken=true;
-                    }
-                    else if (c=='g') { //r g b rg
-                        cspace = getPage().getColorspace("DeviceRGB");
-                        gs.color = getColor(cspace,i,numops);
-                        gs.colorSpace = cspace;
-                        swallowedToken=true;
-                    }
-                }
-                break;
-            case 'R' : //RG set stroke rgbcolor
-                if((tlen==2) && (pageBytes[tstart+1]=='G')) {
-                    cspace = getPage().getColorspace("DeviceRGB");
-                    gs.scolor = getColor(cspace,i,numops);
-                    gs.scolorSpace = cspace;
+            }
+            break;
+        case OP_BT : 
+            if (numops==0) {
+                // Begin text object
+                _textObj.begin();
+                swallowedToken=true;
+            }
+            break;
+        case OP_BX : 
+            if (numops==0) {
+                // start (possibly nested) compatibility section
+                ++compatibility_sections;
+                swallowedToken=true;
+            }
+            break;
+        case OP_BI : // BI - inline images
+            if (numops==0) {
+                parseInlineImage(pageBytes);
+                swallowedToken=true;
+            }
+            break;
+        case OP_BDC : // BDC, BMC
+        case OP_BMC :
+            swallowedToken=true;
+            break;
+        case OP_c : // Cureveto
+            if (numops==6) {
+                getPoint(i, gs.cp);
+                path.curveTo(getFloat(i-6), getFloat(i-5),
+                        getFloat(i-4), getFloat(i-3),
+                        gs.cp.x, gs.cp.y);
+                swallowedToken=true;
+            }
+            break;
+        case OP_cm : // Concat matrix
+            if (numops==6) {
+                gs.trans.concatenate(getTransform(i));
+                swallowedToken=true;
+            }
+            break;
+        case OP_cs : // Set non-stroke colorspace 
+            if (numops==1) {
+                String space = getName(i-1);
+                gs.colorSpace = getPage().getColorspace(space);
+                swallowedToken=true;
+            }
+            break;
+        case OP_CS : // CS stroke colorspace
+            if (numops==1) {
+                String space = getName(i-1);
+                gs.scolorSpace = getPage().getColorspace(space);
+                swallowedToken=true;
+            }
+            break;
+        case OP_d : //setdash
+            if (numops==2) {
+                gs.lineDash = getFloatArray(i-2);
+                gs.dashPhase = getFloat(i-1);
+                gs.lineStroke = pathFactory.createStroke(gs);
+                swallowedToken=true;
+            }
+            break;
+        case OP_d0 : // setcharwidth & setcachedevice (only available in Type3 glyph procedures)
+        case OP_d1 : //   glyph widths come from the font Widths array, so just swallow them
+            if ((oper==OP_d0 && numops==2) || (oper==OP_d1 && numops==6))
+                swallowedToken=true;
+            break;
+        case OP_Do : // xobject Do
+            if (numops==1) {
+                String iname=getName(i-1);
+                Object xobj = getPage().getXObject(iname);
+                if (xobj instanceof Image) {
+                    drawImage((Image)xobj);
                     swallowedToken=true;
                 }
-                break;
-            case 's' : 
-                if (tlen==1) { // s
-                    if (numops==0) {
-                        // closepath, stroke
-                        path.closePath();
-                        engine.strokePath(gs, path);
-                        didDraw=true;
-                        swallowedToken=true;
-                    }
-                }
-                else if (pageBytes[tstart+1]=='c') { //sc, scn   setcolor in colorspace
-                    if (tlen==2) {
-                        gs.color = getColor(gs.colorSpace,i,numops);
-                        swallowedToken=true;
-                    }
-                    else if ((tlen==3) && (pageBytes[tstart+2]=='n')) { // scn
-                        if ((gs.colorSpace instanceof PDFPatternSpace) && (numops>=1)) {
-                            String pname = getToken(i-1).nameString(pageBytes);
-                            PDFPattern pat = getPage().getPattern(pname);
-                            gs.color = pat.getPaint();                            
-                            // this is really stupid.  change this around
-                            if ((pat instanceof PDFPatternTiling) && (gs.color==null)) {
-                                // Uncolored tiling patterns require color values be passed.
-                                // Note, however, that although you can draw an uncolored tiling
-                                // pattern any number of times in different colors, we only do
-                                // it once (after which it will be cached)
-                                if (numops>1) {
-                                    ColorSpace tileSpace=((PDFPatternSpace)gs.colorSpace).tileSpace;
-                                    if (tileSpace==null)
-                                        tileSpace=gs.colorSpace;
-                                    gs.color = getColor(tileSpace,i-1, numops-1);
-                                }
-                                this.executePatternStream((PDFPatternTiling)pat);
-                                gs.color = pat.getPaint();
-                            }
-                        }
-                        else
-                            gs.color = getColor(gs.colorSpace,i,numops);
-                        swallowedToken=true;
-                    }
-                }
-                else if ((tlen==2) && (pageBytes[tstart+1]=='h') /*&& (numops==1)*/) { //sh
-                    String shadename = getToken(i-1).nameString(pageBytes);
-                    GeneralPath shadearea;
-                    java.awt.Paint oldPaint = gs.color;
-                    PDFPatternShading shade = getPage().getShading(shadename);
-                    
-                    //save away old color
-                    gs.color = shade.getPaint();
-                    // Get the area to fill.  If the shading specifies a bounds, use that, if not, use the clip.
-                    // If there's no clip, fill the whole page.
-                    if (shade.getBounds() != null)
-                        shadearea = new GeneralPath(shade.getBounds());
-                    else {
-                        shadearea = (gs.clip != null) ? (GeneralPath)gs.clip.clone() : new GeneralPath(_bounds);
-                        // transform from page space into user space
-                        try {
-                            shadearea.transform(gs.trans.createInverse());
-                        }
-                        catch (NoninvertibleTransformException nte) {
-                            throw new PDFException("Invalid user space transform");
-                        }
-                    }
-                    engine.fillPath(gs, shadearea);
-                    //restore the color
-                    gs.color = oldPaint;
-                    // TODO:probably did draw... check this
-                    didDraw = true;
+                else if (xobj instanceof PDFForm) {
+                    executeForm((PDFForm)xobj);
                     swallowedToken=true;
                 }
-                break;
-            case 'S' : // Very similar to above
-                if (tlen==1) { // S
-                    if (numops==0) {
-                        // stroke
-                        engine.strokePath(gs, path);
-                        didDraw=true;
-                        swallowedToken=true;
+                else throw new PDFException("Error reading XObject");
+            }
+            break;
+        case OP_DP : // DP marked content
+            swallowedToken=true;
+            break;
+        case OP_ET : 
+            if (numops==0) {
+                _textObj.end();
+                swallowedToken = true;
+            }
+            break;
+        case OP_EX : 
+            if (numops==0) {
+                if (--compatibility_sections<0)
+                    throw new PDFException("Unbalanced BX/EX operators");
+                swallowedToken = true;
+            }
+            break;
+        case OP_EMC :
+            swallowedToken = true;
+            break;
+        case OP_f : // fill (*=eofill)  
+        case OP_F : // F is the same as f, but obsolete
+        case OP_fStar :
+            // Fill of no path is a no-op (like in Type3 glyph procedures for blank chars)
+            if (path != null) {
+                if (oper==OP_fStar)
+                    path.setWindingRule(GeneralPath.WIND_EVEN_ODD);
+                else path.setWindingRule(GeneralPath.WIND_NON_ZERO);
+                engine.fillPath(gs, path);
+            }
+            didDraw = true;
+            swallowedToken=true;
+            break;
+        case OP_g : // setgray
+            cspace = getPage().getColorspace("DeviceGray");
+            gs.color = getColor(cspace,i,numops);
+            gs.colorSpace = cspace;
+            swallowedToken=true;
+            break;
+        case OP_gs : // Extended graphics state
+            if (numops==1) {
+                Map exg = getPage().getExtendedGStateNamed(getName(i-1));
+                readExtendedGState(gs, exg);
+                swallowedToken=true;
+            }
+            break;
+        case OP_G : // setgray
+            cspace = getPage().getColorspace("DeviceGray");
+            gs.scolor = getColor(cspace,i,numops);
+            gs.scolorSpace = cspace;
+            swallowedToken=true;
+            break;
+        case OP_h : // closepath
+            if (numops==0) {
+                path.closePath();
+                Point2D lastPathPoint = path.getCurrentPoint(); 
+                gs.cp.x = (float)lastPathPoint.getX();
+                gs.cp.y = (float)lastPathPoint.getY();
+                swallowedToken=true;
+            }
+            break;
+        case OP_i : // setflat
+            if (numops==1) {
+                gs.flatness = getFloat(i-1);
+                swallowedToken=true;
+            }
+            break;
+        case OP_j : // setlinejoin
+            if (numops==1) {
+                gs.lineJoin = getInt(i-1);
+                gs.lineStroke = pathFactory.createStroke(gs);
+                swallowedToken=true;
+            }
+            break;
+        case OP_J : // setlinecap
+            if (numops==1) {
+                gs.lineCap = getInt(i-1);
+                gs.lineStroke = pathFactory.createStroke(gs);
+                swallowedToken=true;
+            }
+            break;
+        case OP_k : // setcmyk non-stroke
+        case OP_K : // setcmyk stroke
+            cspace = getPage().getColorspace("DeviceCMYK");
+            acolor = getColor(cspace,i,numops);
+            if (oper==OP_k) {
+                gs.colorSpace = cspace;
+                gs.color = acolor;
+            }
+            else { // strokecolor
+                gs.scolorSpace = cspace;
+                gs.scolor = acolor;
+            }
+            swallowedToken=true;
+            break;
+        case OP_l : // lineto
+            if (numops==2) {
+                getPoint(i, gs.cp);
+                path.lineTo(gs.cp.x, gs.cp.y);
+                swallowedToken=true;
+            }
+            break;
+        case OP_m : //moveto
+            if (numops==2) {
+                getPoint(i, gs.cp);
+                // moveto creates a new path if there isn't one already,
+                // otherwise you get a subpath.
+                if (path==null)
+                    path = pathFactory.createEmptyPath();
+                path.moveTo(gs.cp.x, gs.cp.y);
+                swallowedToken=true;
+            }
+            break;
+        case OP_M : //setmiterlimit
+            if (numops == 1) { 
+                gs.miterLimit = getFloat(i-1);
+                gs.lineStroke = pathFactory.createStroke(gs);
+                swallowedToken=true;
+            }
+            break;
+        case OP_MP : // Marked content point
+            if (numops==1)
+                swallowedToken=true;
+            break;
+        case OP_n : //endpath
+            // End path without fill or stroke - used for clearing the path after a clipping operation ( W n )
+            if (numops==0) {
+                didDraw = true;
+                swallowedToken=true;
+            }
+            break;
+        case OP_q : //gsave;
+            if (numops==0) {
+                gs=gsave();
+                swallowedToken=true;
+            }
+            break;
+        case OP_Q : //grestore
+            if (numops==0) {
+                gs=grestore();
+                swallowedToken=true;
+            }
+            break;
+        case OP_re : //x y w h re
+            if (numops==4) {
+                // Add Rectangle
+                float x = getFloat(i-4), y = getFloat(i-3);
+                float w = getFloat(i-2), h = getFloat(i-1);
+                
+                // re either creates a new path or adds to the current one
+                if (path==null) 
+                    path = pathFactory.createEmptyPath();
+                path.moveTo(x, y);
+                path.lineTo(x+w, y);
+                path.lineTo(x+w, y+h);
+                path.lineTo(x, y+h);
+                path.closePath();
+                // reset the current point to the start of the rect
+                // TODO: Check that this is what really happens in pdf
+                gs.cp.x = x;
+                gs.cp.y = y;
+                swallowedToken=true;
+            }
+            break;
+        case OP_ri : //  /IntentName ri
+            if (numops==1) {
+                gs.renderingIntent=getRenderingIntentID(getNameValue(i-1));
+                swallowedToken=true;
+            }
+            break;
+        case OP_rg : //r g b rg
+            cspace = getPage().getColorspace("DeviceRGB");
+            gs.color = getColor(cspace,i,numops);
+            gs.colorSpace = cspace;
+            swallowedToken=true;
+            break;
+        case OP_RG : //RG set stroke rgbcolor
+            cspace = getPage().getColorspace("DeviceRGB");
+            gs.scolor = getColor(cspace,i,numops);
+            gs.scolorSpace = cspace;
+            swallowedToken=true;
+            break;
+        case OP_s : 
+            if (numops==0) {
+                // closepath, stroke
+                path.closePath();
+                engine.strokePath(gs, path);
+                didDraw=true;
+                swallowedToken=true;
+            }
+            break;
+        case OP_sc : // setcolor in colorspace
+            gs.color = getColor(gs.colorSpace,i,numops);
+            swallowedToken=true;
+            break;
+        case OP_scn : 
+            if ((gs.colorSpace instanceof PDFPatternSpace) && (numops>=1)) {
+                String pname = getName(i-1);
+                PDFPattern pat = getPage().getPattern(pname);
+                gs.color = pat.getPaint();                            
+                // this is really stupid.  change this around
+                if ((pat instanceof PDFPatternTiling) && (gs.color==null)) {
+                    // Uncolored tiling patterns require color values be passed.
+                    // Note, however, that although you can draw an uncolored tiling
+                    // pattern any number of times in different colors, we only do
+                    // it once (after which it will be cached)
+                    if (numops>1) {
+                        ColorSpace tileSpace=((PDFPatternSpace)gs.colorSpace).tileSpace;
+                        if (tileSpace==null)
+                            tileSpace=gs.colorSpace;
+                        gs.color = getColor(tileSpace,i-1, numops-1);
                     }
+                    this.executePatternStream((PDFPatternTiling)pat);
+                    gs.color = pat.getPaint();
                 }
-                else if (pageBytes[tstart+1]=='C') {  // SC : strokecolor in normal colorspaces
-                    if (tlen==2) {
-                        gs.scolor = getColor(gs.scolorSpace, i, numops);
-                        swallowedToken=true;
+            }
+            else
+                gs.color = getColor(gs.colorSpace,i,numops);
+            swallowedToken=true;
+            break;
+        case OP_sh : 
+            if (numops>=1) {
+                String shadename = getName(i-1);
+                GeneralPath shadearea;
+                java.awt.Paint oldPaint = gs.color;
+                PDFPatternShading shade = getPage().getShading(shadename);
+                
+                //save away old color
+                gs.color = shade.getPaint();
+                // Get the area to fill.  If the shading specifies a bounds, use that, if not, use the clip.
+                // If there's no clip, fill the whole page.
+                if (shade.getBounds() != null)
+                    shadearea = new GeneralPath(shade.getBounds());
+                else {
+                    shadearea = (gs.clip != null) ? (GeneralPath)gs.clip.clone() : new GeneralPath(_bounds);
+                    // transform from page space into user space
+                    try {
+                        shadearea.transform(gs.trans.createInverse());
                     }
-                    else if ((tlen==3) && (pageBytes[tstart+2]=='N')) { // SCN
-                        // TODO: deal with weird colorspaces
-                        gs.scolor = getColor(gs.scolorSpace, i, numops);
-                        swallowedToken=true;
+                    catch (NoninvertibleTransformException nte) {
+                        throw new PDFException("Invalid user space transform");
                     }
                 }
-                break;
-            case 'T' : // [T*, Tc, Td, TD, Tf, Tj, TJ, TL, Tm, Tr, Ts, Tw, Tz]
-                // break text handling out
-                if ((tlen==2) && parseTextOperator(pageBytes[tstart+1], i, numops, gs, pageBytes)) 
-                    swallowedToken=true;
-                break;
-            case '\'':
-            case '\"':  // ' and " also handled by text routine
-                if ((tlen==1) && parseTextOperator(c, i, numops, gs, pageBytes))
-                    swallowedToken=true;
-                break;
-            case 'v' :
-                // Curveto (first control point is current point)
-                if ((tlen==1) && (numops==4)) {
-                    Point2D.Float cp1 = (Point2D.Float)gs.cp.clone();
-                    Point2D.Float cp2 = getPoint(i-2);
-                    getPoint(i, gs.cp);
-                    path.curveTo(cp1.x, cp1.y, cp2.x, cp2.y, gs.cp.x, gs.cp.y);
-                    swallowedToken=true;
-                }
-                break;
-            case 'w' : // setlinewidth
-                if((tlen==1) && (numops==1)) {
-                    gs.lineWidth = getFloat(i-1);
-                    gs.lineStroke = pathFactory.createStroke(gs);
-                    swallowedToken=true;
-                }
-                break;
-            case 'W' : // clip (*=eoclip)
-                int wind;
-                
-                if (numops != 0) break;
-                if (tlen==1) { // W
-                    wind = GeneralPath.WIND_NON_ZERO;
-                }
-                else if ((tlen==2) && (pageBytes[tstart+1]=='*')) { // W*
-                    wind = GeneralPath.WIND_EVEN_ODD;
-                }
-                else break;
-                
-                // Somebody at Adobe's been smoking crack.
-                // The clipping operation doesn't modify the clipping in the gstate.
-                // Instead, the next path drawing operation will do that, but only
-                // AFTER it draws.  
-                // So a sequence like 0 0 99 99 re W f will fill the rect first
-                // and then set the clip path using the rect.
-                // Because the W operation doesn't do anything, they had to introduce
-                // the 'n' operation, which is a drawing no-op, in order to do a clip
-                // and not also draw the path.
-                // You might think it would be safe to just reset the clip here,
-                // since the path it will draw is the same as the path it will clip to.
-                // However, there's at least one (admittedly obscure) case I can think
-                // of where clip(path),draw(path)  is different from draw(path),clip(path): 
-                //     W* f  %eoclip, nonzero-fill
-                // Also note that Acrobat considers it an error to have a W that isn't
-                // immediately followed by a drawing operation (f, f*, F, s, S, B, b, n)
-                if (path != null) {
-                    path.setWindingRule(wind);
-                    future_clip = (GeneralPath)path.clone();
-                 }
+                engine.fillPath(gs, shadearea);
+                //restore the color
+                gs.color = oldPaint;
+                // TODO:probably did draw... check this
+                didDraw = true;
                 swallowedToken=true;
-                break;
-            case 'y' : // curveto (final point replicated)
-                if ((tlen==1) && (numops==4)) {
-                    Point2D.Float cp1 = getPoint(i-2);
-                    getPoint(i, gs.cp);
-                    path.curveTo(cp1.x, cp1.y, gs.cp.x, gs.cp.y, gs.cp.x, gs.cp.y);
-                    swallowedToken=true;
-                }
-                break;
             }
-            
-            // If we made it down here with swallowedToken==false, it's because there
-            // was no match, either because it was an illegal token, or there were the wrong
-            // number of operands for the token.
-            if (!swallowedToken) {
-                // If we're in a compatibility section, just print a warning, since
-                // we want to be alerted about anything that we don't currently support.
-                if (compatibility_sections > 0) 
-                    System.err.println("Warning - ignoring "+token.toString(pageBytes)+" in compatibility section");
-                else
-                    throw new PDFException("Error in content stream. Token = "+token.toString(pageBytes));
+            break;
+        case OP_S : // stroke
+            if (numops==0) {
+                engine.strokePath(gs, path);
+                didDraw=true;
+                swallowedToken=true;
             }
+            break;
+        case OP_SC : // SC : strokecolor in normal colorspaces
+        case OP_SCN : // TODO: deal with weird colorspaces
+            gs.scolor = getColor(gs.scolorSpace, i, numops);
+            swallowedToken=true;
+            break;
+        case OP_TStar : case OP_Tc : case OP_Td : case OP_TD : case OP_Tf : case OP_Tj : case OP_TJ : case OP_TL :
+        case OP_Tm : case OP_Tr : case OP_Ts : case OP_Tw : case OP_Tz : case OP_Quote : case OP_DoubleQuote :
+            // break text handling out
+            swallowedToken = parseTextOperator(oper, i, numops, gs, pageBytes);
+            break;
+        case OP_v :
+            // Curveto (first control point is current point)
+            if (numops==4) {
+                Point2D.Float cp1 = (Point2D.Float)gs.cp.clone();
+                Point2D.Float cp2 = getPoint(i-2);
+                getPoint(i, gs.cp);
+                path.curveTo(cp1.x, cp1.y, cp2.x, cp2.y, gs.cp.x, gs.cp.y);
+                swallowedToken=true;
+            }
+            break;
+        case OP_w : // setlinewidth
+            if (numops==1) {
+                gs.lineWidth = getFloat(i-1);
+                gs.lineStroke = pathFactory.createStroke(gs);
+                swallowedToken=true;
+            }
+            break;
+        case OP_W : // clip (*=eoclip)
+        case OP_WStar :
+            if (numops != 0) break;
             
-            numops=0; // everything was fine, reset the number of operands
-            
+            // Somebody at Adobe's been smoking crack.
+            // The clipping operation doesn't modify the clipping in the gstate.
+            // Instead, the next path drawing operation will do that, but only
+            // AFTER it draws.  
+            // So a sequence like 0 0 99 99 re W f will fill the rect first
+            // and then set the clip path using the rect.
+            // Because the W operation doesn't do anything, they had to introduce
+            // the 'n' operation, which is a drawing no-op, in order to do a clip
+            // and not also draw the path.
+            // You might think it would be safe to just reset the clip here,
+            // since the path it will draw is the same as the path it will clip to.
+            // However, there's at least one (admittedly obscure) case I can think
+            // of where clip(path),draw(path)  is different from draw(path),clip(path): 
+            //     W* f  %eoclip, nonzero-fill
+            // Also note that Acrobat considers it an error to have a W that isn't
+            // immediately followed by a drawing operation (f, f*, F, s, S, B, b, n)
+            if (path != null) {
+                path.setWindingRule(oper==OP_W? GeneralPath.WIND_NON_ZERO : GeneralPath.WIND_EVEN_ODD);
+                future_clip = (GeneralPath)path.clone();
+             }
+            swallowedToken=true;
+            break;
+        case OP_y : // curveto (final point replicated)
+            if (numops==4) {
+                Point2D.Float cp1 = getPoint(i-2);
+                getPoint(i, gs.cp);
+                path.curveTo(cp1.x, cp1.y, gs.cp.x, gs.cp.y, gs.cp.x, gs.cp.y);
+                swallowedToken=true;
+            }
+            break;
         }
-        else {
-            // It wasn't an operator, so it must be an operand (comments are tossed by the lexer)
-            ++numops;
+        
+        // If we made it down here with swallowedToken==false, it's because there
+        // was no match, either because it was an illegal token, or there were the wrong
+        // number of operands for the token.
+        if (!swallowedToken) {
+            // If we're in a compatibility section, just print a warning, since
+            // we want to be alerted about anything that we don't currently support.
+            if (compatibility_sections > 0) 
+                System.err.println("Warning - ignoring "+getCurrentTokenString()+" in compatibility section");
+            else
+                throw new PDFException("Error in content stream. Token = "+getCurrentTokenString());
         }
         
+        _opCount=0; // everything was fine, clear the operand stack
+        
         //Catch up on that clipping.  Plus be anal and return an error, just like Acrobat.
         if (didDraw) {
             if (future_clip != null) {
@@ -1115,8 +1124,8 @@ public void parse(List tokenList, byte pageBytes[])
         }
     }
     
-    //restore previous token list
-    _tokens = oldTokens;
+    //restore previous lexer state
+    _bytes = oldBytes; _pos = oldPos; _end = oldEnd;
 }
 
 public void executeForm(PDFForm f)
@@ -1135,13 +1144,32 @@ public void executeForm(PDFForm f)
   
     // add the form's resources to the page resource stack
     getPage().pushResources(f.getResources(_pdfFile));
-    // recurse back into the parser with a new set of tokens
-    parse(f.getTokens(this), f.getBytes());
+    // recurse back into the parser with a copy of the form contents (the lexer decodes strings in place)
+    parse(f.getBytes().clone());
     // restore the old resources, gstate,ctm, & clip
     getPage().popResources();
     grestore();
 }
 
+/** Executes a Type3 font glyph procedure with given resources (can be null) and glyph to user space transform. */
+public void executeType3Glyph(PDFStream aProc, Map theResources, AffineTransform aTransform)
+{
+    // save the current gstate and set the glyph transform in the new gstate
+    PDFGState gs = gsave();
+    gs.trans.concatenate(aTransform);
+    
+    // add the font's resources to the page resource stack and recurse back into the parser with a copy of the
+    // glyph procedure (the lexer decodes strings in place)
+    if (theResources != null)
+        getPage().pushResources(theResources);
+    parse(aProc.decodeStream().clone());
+    
+    // restore the old resources & gstate
+    if (theResources != null)
+        getPage().popResources();
+    grestore();
+}
+
 // A pattern could execute its pdf over and over, like a form (above)
 // but for performance reasons, we only execute it once and cache a tile.
 // To do this, we temporarily set the markup handler in the file to a new 
@@ -1152,8 +1180,6 @@ public void executePatternStream(PDFPatternTiling pat)
     PDFMarkupHandler oldHandler = _pdfFile.getMarkupHandler();
     BufferedMarkupHandler patHandler = new BufferedMarkupHandler();
     PDFGState gs;
-    ArrayList tokens;
-    byte contents[];
     
     _pdfFile.setMarkupHandler(patHandler);
     // by adding the pattern's resources to the page's resource 
@@ -1169,12 +1195,8 @@ public void executePatternStream(PDFPatternTiling pat)
     // TODO:probably going to have to add a translate by -x, -y of the bounds rect
     Rectangle2D prect = pat.getBounds();
     patHandler.beginPage((float)prect.getWidth(), (float)prect.getHeight());
-    // get the pattern stream's tokens
-    contents = pat.getContents();
-    tokens = new ArrayList(32);
-    getTokens(contents, 0, contents.length, tokens);
-    // fire up the parser
-    parse(tokens, contents);
+    // fire up the parser with the pattern stream contents
+    parse(pat.getContents());
     // Get the image and set the tile.  All the resources can be freed up now
     pat.setTile(patHandler.getImage());
     // restore everything
@@ -1184,74 +1206,73 @@ public void executePatternStream(PDFPatternTiling pat)
 }
 
 // Handles all the text operations [T*,Tc,Td,TD,Tf,Tj,TJ,TL,Tm,Tr,Ts,Tw,Tz,'."]
-// For the "T" operations, oper represents the second letter.
-public boolean parseTextOperator(byte oper, int tindex, int numops, PDFGState gs, byte pageBytes[])
+// The oper is the operator code and tindex is the operand stack index after the operands.
+public boolean parseTextOperator(int oper, int tindex, int numops, PDFGState gs, byte pageBytes[])
 {
      boolean swallowedToken = false;
      
      switch(oper) {
-     case '*' : // T* - move to next line
+     case OP_TStar : // T* - move to next line
          if (numops==0) {
              _textObj.positionText(0, -gs.tleading);
              swallowedToken=true;
          }
          break;
-     case 'c' : // Tc - // Set character spacing
+     case OP_Tc : // Tc - // Set character spacing
         if(numops==1) {
             gs.tcs = getFloat(tindex-1);
             swallowedToken = true;
         }
         break;
-     case 'D' :
-     case 'd' : // TD, td  - move relative to current line start (uppercase indicates to set leading to -ty)
+     case OP_TD :
+     case OP_Td : // TD, Td  - move relative to current line start (uppercase indicates to set leading to -ty)
         if (numops==2) {
             float x = getFloat(tindex-2);
             float y = getFloat(tindex-1);
             _textObj.positionText(x,y);
-            if(oper=='D')
+            if(oper==OP_TD)
                 gs.tleading = -y;
             swallowedToken = true;
         }
         break;
-     case 'f' : // Tf - Set font name and size
+     case OP_Tf : // Tf - Set font name and size
          if (numops==2) {
-            String fontalias = getToken(tindex-2).nameString(pageBytes); // name in dict is key, so lose leading /
+            String fontalias = getName(tindex-2); // name in dict is key, so lose leading /
             
-            gs.font = getPage().getFontDictForAlias(fontalias);
+            gs.font = getPage().getFontForAlias(fontalias);
             gs.fontSize = getFloat(tindex-1);
             swallowedToken = true;
         }
         break;
-     case '"' : // w c string "   set word & charspacing, move to next line, show text
+     case OP_DoubleQuote : // w c string "   set word & charspacing, move to next line, show text
          if (numops!=3) break;
          gs.tws = getFloat(tindex-3);
          gs.tcs = getFloat(tindex-2);
          numops=1;
          // fall through
-     case '\'' :  // ' - move to next line and show text
+     case OP_Quote :  // ' - move to next line and show text
          _textObj.positionText(0, -gs.tleading);
          // Fall through
-     case 'j' : // Tj - Show text
+     case OP_Tj : // Tj - Show text
         if (numops==1) {
-            Range crange = getToken(tindex-1).tokenRange();
-            _textObj.showText(pageBytes, crange.location, crange.length, gs, _pdfFile);
+            _textObj.showText(pageBytes, _opStarts[tindex-1], _opLengths[tindex-1], gs, _pdfFile);
             swallowedToken = true;
         }
         break;
-     case 'J' : // TJ - Show text with spacing adjustment array
-        if (numops==1) {
-            List tArray = (List)(getToken(tindex-1).value);
+     case OP_TJ : // TJ - Show text with spacing adjustment array
+        if ((numops==1) && (_opTypes[tindex-1]==PageToken.PDFArrayToken)) {
+            List tArray = (List)_opValues[tindex-1];
             _textObj.showText(pageBytes, tArray, gs, _pdfFile);
             swallowedToken = true;
         }
         break;
-     case 'L' : // TL -  set text leading
+     case OP_TL : // TL -  set text leading
          if (numops==1) {
              gs.tleading = getFloat(tindex-1);
              swallowedToken = true;
          }
          break;
-     case 'm' : // Tm - set text matrix
+     case OP_Tm : // Tm - set text matrix
         if (numops==6) {
             _textObj.setTextMatrix(getFloat(tindex-6), getFloat(tindex-5),
                                    getFloat(tindex-4), getFloat(tindex-3),
@@ -1259,25 +1280,25 @@ public boolean parseTextOperator(byte oper, int tindex, int numops, PDFGState gs
             swallowedToken = true;
         }
         break;
-     case 'r' : // Tr - set text rendering mode
+     case OP_Tr : // Tr - set text rendering mode
          if (numops==1) {
              gs.trendermode = getInt(tindex-1);
              swallowedToken = true;
          }
          break;
-     case 's' : // Ts - set text rise
+     case OP_Ts : // Ts - set text rise
          if (numops==1) {
              gs.trise = getFloat(tindex-1);
              swallowedToken = true;
          }
          break;
-     case 'w' : // Tw - set text word spacing
+     case OP_Tw : // Tw - set text word spacing
         if (numops==1) {
             gs.tws = getFloat(tindex-1);
             swallowedToken = true;
         }
         break;
-     case 'z' : // Tz - horizontal scale factor
+     case OP_Tz : // Tz - horizontal scale factor
          if (numops==1) {
              gs.thscale = getFloat(tindex-1)/100f;
              swallowedToken = true;
@@ -1372,31 +1393,29 @@ Object getInlineImageValue(PageToken token, byte pageBytes[])
         
 /** 
  * Converts the tokens & data inside a BI/EI block into an image and draws it.
- * Returns the index of the last token consumed.
+ * Reads the tokens from the lexer, up to and including the inline image data.
  **/
-public int parseInlineImage(int tIndex, byte[] pageBytes)
+public void parseInlineImage(byte[] pageBytes)
 {
     Hashtable imageDict = new Hashtable();
     imageDict.put("Subtype", "/Image");
 
     // Get the inline image key/value pairs and create a normal image dictionary
-    for(int i=tIndex, iMax=_tokens.size(); i<iMax; ++i) {
-        PageToken token = getToken(i);
+    for(int type=nextToken(); type!=END_OF_CONTENT; type=nextToken()) {
         String key;
         Object value=null;
 
-        if (token.type==PageToken.PDFNameToken) {
+        if (type==PageToken.PDFNameToken) {
             // Translate the key
-            key = translateInlineImageKey(token.nameString(pageBytes));
+            key = translateInlineImageKey(new String(pageBytes, _tokStart+1, _tokLength-1));
             // Get the value
-            if (++i<iMax) {
-                token=getToken(i);
-                value = getInlineImageValue(token, pageBytes);
+            if (nextToken()!=END_OF_CONTENT) {
+                value = getInlineImageValue(getCurrentToken(), pageBytes);
                 // add translated key/value pair to the real dictionary
                 imageDict.put(key,value);
             }
         }
-        else if (token.type==PageToken.PDFInlineImageData) {
+        else if (type==PageToken.PDFInlineImageData) {
             // The actual inline data.  Create a stream with the dict & data
             // and create an image.  The image does not get cached.
             // The only way an inline image would ever get reused is if it were 
@@ -1407,11 +1426,10 @@ public int parseInlineImage(int tIndex, byte[] pageBytes)
             Object space = imageDict.get("ColorSpace");
             ColorSpace imageCSpace = space==null ? null : getPage().getColorspace(space);
             // Create the stream
-            PDFStream imageStream = new PDFStream(pageBytes, token.tokenLocation(), token.tokenLength(), imageDict);
+            PDFStream imageStream = new PDFStream(pageBytes, _tokStart, _tokLength, imageDict);
             // Tell the imageFactory to create an image and draw it
             drawImage(_pdfFile.getImageFactory().getImage(imageStream, imageCSpace, _pdfFile));
-            // return the token index
-            return i;
+            return;
         }
     }
     
@@ -0,0 +1,109 @@
+package com.reportmill.pdf.reader;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Renders pages of a PDF file to images on a pool of worker threads (like for thumbnails or previews of all the pages
+ * of a large imported PDF).
+ *
+ * Each page is rendered by a single worker with its own markup handler, factories and gstate stack (see
+ * PDFPage.createImage()), so images are the same as those rendered one at a time by PDFPage.getImage(). Rendered
+ * images aren't cached by the pages. You simply invoke this with:
+ * <pre>
+ *   new PDFPageRenderer(pdfFile).renderPages(0, pdfFile.getPageCount(), aPageHandler);
+ * </pre>
+ */
+public class PDFPageRenderer {
+
+    // The PDF file
+    PDFFile        _pdfFile;
+
+    // The number of worker threads
+    int            _threadCount = Runtime.getRuntime().availableProcessors();
+
+/**
+ * Creates a new page renderer for given PDF file.
+ */
+public PDFPageRenderer(PDFFile aFile)  { _pdfFile = aFile; }
+
+/**
+ * Returns the PDF file.
+ */
+public PDFFile getPDFFile()  { return _pdfFile; }
+
+/**
+ * Returns the number of worker threads.
+ */
+public int getThreadCount()  { return _threadCount; }
+
+/**
+ * Sets the number of worker threads.
+ */
+public PDFPageRenderer setThreadCount(int aValue)  { _threadCount = Math.max(aValue, 1); return this; }
+
+/**
+ * Returns a new image for the page at given index (rendered in calling thread).
+ */
+public BufferedImage getImage(int anIndex)  { return _pdfFile.getPage(anIndex).createImage(); }
+
+/**
+ * Returns images for the pages from start index up to (but not including) end index.
+ */
+public List <BufferedImage> getImages(int aStart, int anEnd)
+{
+    final List <BufferedImage> images = new ArrayList(anEnd - aStart);
+    renderPages(aStart, anEnd, new PageHandler() {
+        public void pageRendered(int anIndex, BufferedImage anImage)  { images.add(anImage); }});
+    return images;
+}
+
+/**
+ * Renders the pages from start index up to (but not including) end index on the worker pool and calls the handler
+ * for each page image in page order (in calling thread). To bound memory, only a few pages ahead of the one being
+ * handled are allowed to be in progress or waiting.
+ */
+public void renderPages(int aStart, int anEnd, PageHandler aHandler)
+{
+    // Create worker pool and list of pending results
+    int count = anEnd - aStart, threadCount = Math.min(getThreadCount(), Math.max(count, 1));
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    List <Future<BufferedImage>> futures = new ArrayList();
+
+    // Iterate over pages: Submit pages up to window, then wait for next image and hand it to handler
+    try {
+        for(int i=0, next=0; i<count; i++) {
+            while(next<count && next-i<threadCount*2) { final int index = aStart + next++;
+                futures.add(pool.submit(new Callable<BufferedImage>() { public BufferedImage call() {
+                    return getImage(index); }}));
+            }
+            BufferedImage image = futures.get(i).get(); futures.set(i, null);
+            aHandler.pageRendered(aStart + i, image);
+        }
+    }
+
+    // Rethrow worker exceptions
+    catch(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if(cause instanceof Error) throw (Error)cause;
+        throw new PDFException(cause);
+    }
+    catch(InterruptedException e) {
+        Thread.currentThread().interrupt(); throw new PDFException("Page rendering interrupted", e); }
+
+    // Shut down pool
+    finally { pool.shutdownNow(); }
+}
+
+/**
+ * An interface to receive rendered page images.
+ */
+public interface PageHandler {
+
+    /** Called with the image for the page at given index (in the thread that called renderPages). */
+    public void pageRendered(int anIndex, BufferedImage anImage);
+}
+
+}
@@ -18,7 +18,10 @@ public PDFParser()
 }
 
 /** Creates a new PDF parser. */
-public PDFParser(PDFFile aPdfFile, byte data[])
+public PDFParser(PDFFile aPdfFile, byte data[])  { this(aPdfFile, java.nio.ByteBuffer.wrap(data)); }
+
+/** Creates a new PDF parser for given buffer (which can be a memory mapped file). */
+public PDFParser(PDFFile aPdfFile, java.nio.ByteBuffer data)
 {
     this();
     _pdfFile = aPdfFile;
@@ -39,6 +42,12 @@ public void resetLexingData(byte newdata[], int offset)
     ReInit(pdfdata);
 }
 
+public void resetLexingData(java.nio.ByteBuffer newdata, int offset)
+{
+    pdfdata.ReInit(newdata, offset);
+    ReInit(pdfdata);
+}
+
 /** Allocate space in the xref table.
  *  Fills any holes up to and including objNum with empty entries
  */
@@ -38,7 +38,8 @@ public PDFPatternTiling(PDFStream pstream, PDFFile srcFile)
         resources = (Map)obj;
     else throw new PDFException("Illegal resources dictionary in pattern");
     
-    pdfData = pstream.decodeStream();
+    // Get contents (copy, since page parser decodes strings in place and decoded bytes can be shared)
+    pdfData = pstream.decodeStream().clone();
 }
 
 public AffineTransform getTransform()  { return xform; }
@@ -1,6 +1,5 @@
 package com.reportmill.pdf.reader;
 import java.util.*;
-import java.io.*;
 import java.util.zip.*;
 
 /**
@@ -13,6 +12,10 @@ public class PDFStream implements Cloneable {
     
     // Stream dictionary
     Map      _dict;
+    
+    // The file and object number of stream, if read from file xref table (used to cache decoded bytes)
+    PDFFile  _pdfFile;
+    int      _objNum = -1;
 
 /**
  * Creates a new stream from the byte array and map.
@@ -43,6 +46,11 @@ public byte[] getBytes()  { return _bytes; }
  */
 public Map getDictionary()  { return _dict; }
 
+/**
+ * Sets the file and object number of stream, if read from file xref table (so decoded bytes can be cached in file).
+ */
+public void setXRef(PDFFile aFile, int anObjNum)  { _pdfFile = aFile; _objNum = anObjNum; }
+
 /**
  * The dict for a stream may specify multiple filters. The "Filter" property is either a single filter name or an
  * array of filter names. If it's an array, the PDF reader will apply the filters in the order they appear.
@@ -117,9 +125,22 @@ public Map getFilterParameters(String name)
     
     
 /**
- * Returns the result of running the data through all the filters.
+ * Returns the result of running the data through all the filters. Decoded bytes of streams from a file xref table are
+ * cached by the file, so the result is shared and shouldn't be modified (callers that change it should copy it).
  */
-public byte[] decodeStream()  { return decodeStream(numFilters()); }
+public byte[] decodeStream()
+{
+    // If stream isn't from file xref table or has no filters, just decode
+    int nfilters = numFilters();
+    if(_pdfFile==null || _objNum<0 || nfilters==0)
+        return decodeStream(nfilters);
+
+    // Get decoded bytes from file cache (or decode and add)
+    byte decoded[] = _pdfFile.getDecodedStream(_objNum);
+    if(decoded==null)
+        _pdfFile.setDecodedStream(_objNum, decoded = decodeStream(nfilters));
+    return decoded;
+}
 
 /** Returns the result of running the data through the first n filters. */
 public byte[] decodeStream(int nfilters)
@@ -147,18 +168,74 @@ public byte[] decodeStream(int nfilters)
         
         for(int i=0; i<iMax; i++) {
             String fname = (String)filters.get(i);
-            decoded = getBytesDecoded(decoded, 0, len, fname, paramList != null ? (Map)paramList.get(i) : null);
+            Map params = paramList != null ? (Map)paramList.get(i) : null;
+            int size = i==filters.size()-1? getDecodedLength(params) : 0;
+            decoded = getBytesDecoded(decoded, 0, len, fname, params, size);
             len = decoded.length;
         }
         return decoded;
     }
     
     // If not list, just decode bytes and return
-    return  getBytesDecoded(_bytes, 0, _bytes.length, (String)filter, (Map)parameters);
+    return getBytesDecoded(_bytes, 0, _bytes.length, (String)filter, (Map)parameters, getDecodedLength((Map)parameters));
+}
+
+/**
+ * Returns the expected length of the fully decoded stream before predictor is undone (or zero if unknown), from the
+ * /DL entry, image size or xref stream entry widths, to size the decode buffer.
+ */
+protected int getDecodedLength(Map params)
+{
+    // If decoded length is given, just return it
+    Object dl = _dict.get("DL");
+    if(dl instanceof Number)
+        return ((Number)dl).intValue();
+
+    // Get row count and bytes per row for images (if color space has known component count) and xref streams
+    int rows = 0, rowBytes = 0;
+    if(_dict.get("Width") instanceof Number && _dict.get("Height") instanceof Number) {
+        Object csp = _dict.get("ColorSpace"), bpc = _dict.get("BitsPerComponent");
+        int ncomps = Boolean.TRUE.equals(_dict.get("ImageMask"))? 1 : "/DeviceGray".equals(csp)? 1 :
+            "/DeviceRGB".equals(csp)? 3 : "/DeviceCMYK".equals(csp)? 4 : 0;
+        int bits = Boolean.TRUE.equals(_dict.get("ImageMask"))? 1 : bpc instanceof Number? ((Number)bpc).intValue() : 0;
+        rows = ((Number)_dict.get("Height")).intValue();
+        rowBytes = (((Number)_dict.get("Width")).intValue()*ncomps*bits + 7)/8;
+    }
+    else if("/XRef".equals(_dict.get("Type")) && _dict.get("W") instanceof List) {
+        for(Object w : (List)_dict.get("W")) rowBytes += w instanceof Number? ((Number)w).intValue() : 0;
+        Object index = _dict.get("Index"), size = _dict.get("Size");
+        if(index instanceof List)
+            for(int i=1, iMax=((List)index).size(); i<iMax; i+=2) { Object count = ((List)index).get(i);
+                rows += count instanceof Number? ((Number)count).intValue() : 0; }
+        else if(size instanceof Number) rows = ((Number)size).intValue();
+    }
+    
+    // If PNG predictor, add tag byte for each row (bytes per row comes from predictor parameters)
+    Object predictor = params!=null? params.get("Predictor") : null;
+    if(predictor instanceof Number && ((Number)predictor).intValue()>=10) {
+        Object colors = params.get("Colors"), bits = params.get("BitsPerComponent"), columns = params.get("Columns");
+        int bitsPerRow = (colors instanceof Number? ((Number)colors).intValue() : 1) *
+            (bits instanceof Number? ((Number)bits).intValue() : 8) *
+            (columns instanceof Number? ((Number)columns).intValue() : 1);
+        rowBytes = (bitsPerRow + 7)/8 + 1;
+    }
+    
+    // Return length (or zero if unknown or unreasonable)
+    long length = (long)rows*rowBytes;
+    return length>0 && length<Integer.MAX_VALUE? (int)length : 0;
 }
 
 /** Returns the result of runnning the bytes through a particular filter (/FlateDecode, /LZW, /ASCII85Decode, etc.). */
 public static byte[] getBytesDecoded(byte bytes[], int offset, int length, String aFilter, Map params)
+{
+    return getBytesDecoded(bytes, offset, length, aFilter, params, 0);
+}
+
+/**
+ * Returns the result of runnning the bytes through a particular filter (/FlateDecode, /LZW, /ASCII85Decode, etc.),
+ * with the expected decoded length (before predictor is undone), if known, to size the decode buffer.
+ */
+public static byte[] getBytesDecoded(byte bytes[], int offset, int length, String aFilter, Map params, int aSize)
 {
     byte decoded[];
     
@@ -184,33 +261,8 @@ public static byte[] getBytesDecoded(byte bytes[], int offset, int length, Strin
     }
 
     // Handle FlateDecode
-    if(aFilter.equals("/FlateDecode")) {
-
-        // Get byte array input stream for compressed bytes
-        ByteArrayInputStream byteInStream = new ByteArrayInputStream(bytes, offset, length);
-
-        // Get inflator input stream for bytes
-        InflaterInputStream inflaterInStream = new InflaterInputStream(byteInStream, new Inflater(false));
-        
-        // Get byte array output stream for uncompressed bytes
-        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-        
-        // Get buffer for transfer
-        byte chunk[] = new byte[1024];
-
-        // Catch exceptions
-        try {
-            
-        // Transfer from inflaterStream to byteOutStream
-        for(int len=0; len>=0; len=inflaterInStream.read(chunk, 0, chunk.length))
-            byteOutStream.write(chunk, 0, len);
-
-        // get the buffer
-        decoded = byteOutStream.toByteArray();
-        
-        // Catch Exceptions
-        } catch(IOException e) { throw new PDFException(e); }
-    }
+    if(aFilter.equals("/FlateDecode"))
+        decoded = inflate(bytes, offset, length, aSize);
     
     // Handle LZW
     else if(aFilter.equals("/LZWDecode") || aFilter.equals("/LZW")) {
@@ -222,7 +274,7 @@ public static byte[] getBytesDecoded(byte bytes[], int offset, int length, Strin
             early = ((Number)obj).intValue();
 
         // LZW decode
-        decoded = RBCodecLZW.decode(bytes, offset, length, early);
+        decoded = RBCodecLZW.decode(bytes, offset, length, early, aSize);
     }
     
     // handle CCITTFaxDecode
@@ -249,6 +301,34 @@ public static byte[] getBytesDecoded(byte bytes[], int offset, int length, Strin
     return postprocessBytesForPredictor(decoded, predictor, colors, bits, columns);
 }
 
+/**
+ * Returns the given zlib bytes inflated, into a buffer of given expected size (if known) that is grown if needed and
+ * trimmed to the inflated length. Truncated streams return the bytes inflated so far.
+ */
+public static byte[] inflate(byte bytes[], int offset, int length, int aSize)
+{
+    // Create inflater and buffer (if size unknown, guess a typical compression ratio)
+    Inflater inflater = new Inflater(false); inflater.setInput(bytes, offset, length);
+    byte buffer[] = new byte[aSize>0? aSize : Math.max(length*4, 1024)], extra[] = new byte[1];
+    int count = 0;
+
+    // Inflate into buffer until done (if buffer is full, inflate a byte to see if there is more and grow buffer if so)
+    try {
+        while(!inflater.finished() && !inflater.needsInput() && !inflater.needsDictionary()) {
+            if(count==buffer.length) {
+                if(inflater.inflate(extra)==0) continue;
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2, 1024)); buffer[count++] = extra[0];
+            }
+            count += inflater.inflate(buffer, count, buffer.length - count);
+        }
+    }
+    catch(DataFormatException e) { throw new PDFException(e); }
+    finally { inflater.end(); }
+
+    // Return buffer (trimmed to inflated length)
+    return count==buffer.length? buffer : Arrays.copyOf(buffer, count);
+}
+
 /**
  * Flate & LZW predictor algorithms
  * Predictors are simple algorithms performed on samples prior to compression in hopes of getting better
@@ -284,8 +364,8 @@ private static byte[] postprocessBytesForPredictor(byte buffer[], int predictor,
          * work on bytes, regardless of the size of the components.
          * For a given byte, the algorithms select the 'corresponding' byte in the 
          * three neighboring pixels (left, above, above-left).
-         * Since PNG predictors include an extra tag byte for each row, conversion is
-         * done into a new buffer instead of in place.
+         * Since each decoded row is one tag byte shorter than the source row, decoding is done in place
+         * (decoded bytes never overwrite source bytes that haven't been read yet) and the buffer is trimmed at the end.
          */
         /* The wierdest thing of all, however, is that the predictor's bitsPerSample/samplesPerPixel
          * doesn't necessarily match that of the image.
@@ -295,70 +375,61 @@ private static byte[] postprocessBytesForPredictor(byte buffer[], int predictor,
          */
          
         int bitsperpixel=colors*bitspersample;
-        int bytesperpixel=(bitsperpixel+7)/8;
+        int bytesperpixel=Math.max((bitsperpixel+7)/8, 1);
         int dest_bytesperrow=(bitsperpixel*width+7)/8;
         int src_bytesperrow = dest_bytesperrow+1;  // +1 for tag byte
-        int height = buffer.length/(src_bytesperrow);
-        int row,column,src=0,dest=0;
-        byte x,left,above,aboveleft;
-        byte newbuffer[];
-        byte newbyte;
+        int length = buffer.length, src = 0, dest = 0;
         
-        // since the predictor pixelsize may not match the pixelsize 
-        // of the of the image, there may be a final
-        // incomplete scanline.
-        if (buffer.length%src_bytesperrow != 0) {
-            ++height;
-            //...
-        }
-        // The real image buffer size is the size of the post-predicted buffer
-        // minus one byte for each predicted scanline (the predictor tag byte)
-        newbuffer = new byte[buffer.length - height];
-
-        for(row=0; row<height; ++row) {
-            predictor = buffer[src];
-            // last scanline may not be complete
-            if (row==height-1)
-                src_bytesperrow=buffer.length-src;
-            for(column=1; column<src_bytesperrow; ++column) {
-                x = buffer[src+column];
-                left = column-1<bytesperpixel ? 0 : newbuffer[dest+column-1-bytesperpixel];
-                if (predictor==0) // None
-                    newbyte=x;
-                else if (predictor==1) // Sub
-                    newbyte=(byte)(x+left);
-                else {
-                    above = row==0 ? 0 : newbuffer[dest+column-1-dest_bytesperrow];
-                    if (predictor==2) // Up
-                        newbyte=(byte)(x+above);
-                    else if (predictor==3) // Average
-                        newbyte=(byte)(x+(left+above)/2);
-                    else if (predictor==4) { //Paeth
-                        int p,pa,pb,pc,pr;
-                        if ((row==0)||(column<bytesperpixel)) 
-                            aboveleft = 0;
-                        else 
-                            aboveleft = newbuffer[dest+column-1-dest_bytesperrow-bytesperpixel];
-                        //TODO : double check sign extension, since all java bytes are signed
-                        p =  left+above-aboveleft;
-                        pa = Math.abs(p-left) & 255;
-                        pb = Math.abs(p-above) & 255;
-                        pc = Math.abs(p-aboveleft) & 255;
-                        if ((pa<=pb) && (pa<=pc)) 
-                            pr = left;
-                        else if (pb<=pc) 
-                            pr = above;
-                        else pr = aboveleft;
-                        newbyte  = (byte)(x + pr);
+        // Iterate over rows (since the predictor pixelsize may not match the pixelsize of the image, there may be a
+        // final incomplete scanline)
+        for(int row=0; src<length; row++, src+=src_bytesperrow) {
+            int tag = buffer[src], in = src + 1, n = Math.min(dest_bytesperrow, length - in), above = dest - dest_bytesperrow;
+            switch(tag) {
+                
+                // None
+                case 0: System.arraycopy(buffer, in, buffer, dest, n); break;
+                
+                // Sub
+                case 1:
+                    for(int i=0; i<n; i++)
+                        buffer[dest+i] = (byte)(buffer[in+i] + (i<bytesperpixel? 0 : buffer[dest+i-bytesperpixel]));
+                    break;
+                    
+                // Up
+                case 2:
+                    for(int i=0; i<n; i++)
+                        buffer[dest+i] = (byte)(buffer[in+i] + (row==0? 0 : buffer[above+i]));
+                    break;
+                    
+                // Average (of unsigned left and above)
+                case 3:
+                    for(int i=0; i<n; i++) {
+                        int left = i<bytesperpixel? 0 : buffer[dest+i-bytesperpixel]&255;
+                        int up = row==0? 0 : buffer[above+i]&255;
+                        buffer[dest+i] = (byte)(buffer[in+i] + ((left+up)>>1));
                     }
-                    else throw new PDFException("Illegal value for PNG predictor tag");
-                }
-                newbuffer[dest+column-1] = newbyte;
+                    break;
+                    
+                // Paeth (of unsigned left, above and above-left)
+                case 4:
+                    for(int i=0; i<n; i++) {
+                        int left = i<bytesperpixel? 0 : buffer[dest+i-bytesperpixel]&255;
+                        int up = row==0? 0 : buffer[above+i]&255;
+                        int upleft = row==0 || i<bytesperpixel? 0 : buffer[above+i-bytesperpixel]&255;
+                        int p = left + up - upleft, pa = Math.abs(p-left), pb = Math.abs(p-up), pc = Math.abs(p-upleft);
+                        int pr = pa<=pb && pa<=pc? left : pb<=pc? up : upleft;
+                        buffer[dest+i] = (byte)(buffer[in+i] + pr);
+                    }
+                    break;
+                    
+                // Complain about anything else
+                default: throw new PDFException("Illegal value for PNG predictor tag");
             }
-           src+=src_bytesperrow;
-           dest+=dest_bytesperrow;
+            dest += n;
         }
-    buffer = newbuffer;
+        
+        // Trim buffer to decoded length
+        buffer = Arrays.copyOf(buffer, dest);
     }
     else System.err.println("Predictor algorithm #"+predictor+" not applied - image will look funny");
     
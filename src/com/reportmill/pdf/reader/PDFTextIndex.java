@@ -0,0 +1,305 @@
+package com.reportmill.pdf.reader;
+import java.io.*;
+import java.nio.file.Files;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * An inverted index of the words in the pages of a batch of PDF files, so archived documents can be searched without
+ * rendering or parsing them again. You simply invoke this with:
+ * <pre>
+ *   PDFTextIndex index = new PDFTextIndex(); index.addFiles(files);
+ *   byte bytes[] = index.getBytes(); ...
+ *   List <PDFTextIndex.Hit> hits = new PDFTextIndex(bytes).find("invoice total");
+ * </pre>
+ * Words are runs of letters and digits, in lower case (and truncated to 128 chars). Each word maps to its postings: the (document, page) pairs it
+ * appears on, in order, written as variable length deltas (so most postings take two bytes).
+ */
+public class PDFTextIndex {
+
+    // The document names
+    List <String>            _names = new ArrayList();
+
+    // The postings for each word
+    Map <String,Postings>    _postings = new HashMap();
+
+    // The number of worker threads for addFiles
+    int                      _threadCount = Runtime.getRuntime().availableProcessors();
+
+    // The format identifier and version for index bytes
+    static final int FORMAT_ID = 0x524d5449, FORMAT_VERSION = 2;
+
+    // The maximum length of a word (longer runs of letters and digits are truncated)
+    static final int MAX_WORD_LENGTH = 128;
+
+/**
+ * Creates a new empty text index.
+ */
+public PDFTextIndex()  { }
+
+/**
+ * Creates a new text index from given index bytes (see getBytes()).
+ */
+public PDFTextIndex(byte theBytes[])
+{
+    try {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(theBytes));
+        if(in.readInt()!=FORMAT_ID || in.readInt()!=FORMAT_VERSION)
+            throw new PDFException("Unknown text index format");
+        for(int i=0, iMax=in.readInt(); i<iMax; i++) _names.add(readString(in));
+        for(int i=0, iMax=in.readInt(); i<iMax; i++) { String word = readString(in);
+            Postings postings = new Postings(); postings._lastDoc = in.readInt(); postings._lastPage = in.readInt();
+            postings._bytes = new byte[postings._length = in.readInt()]; in.readFully(postings._bytes);
+            _postings.put(word, postings);
+        }
+    }
+    catch(IOException e) { throw new PDFException("Error reading text index", e); }
+}
+
+/**
+ * Returns the number of worker threads for addFiles.
+ */
+public int getThreadCount()  { return _threadCount; }
+
+/**
+ * Sets the number of worker threads for addFiles.
+ */
+public void setThreadCount(int aValue)  { _threadCount = Math.max(aValue, 1); }
+
+/**
+ * Returns the number of documents.
+ */
+public synchronized int getDocumentCount()  { return _names.size(); }
+
+/**
+ * Returns the name of the document at given index.
+ */
+public synchronized String getDocumentName(int anIndex)  { return _names.get(anIndex); }
+
+/**
+ * Returns the number of distinct words.
+ */
+public synchronized int getWordCount()  { return _postings.size(); }
+
+/**
+ * Adds a document with given name and page texts and returns its index.
+ */
+public synchronized int addDocument(String aName, List <String> thePageTexts)
+{
+    int doc = _names.size(); _names.add(aName);
+    for(int page=0, pageCount=thePageTexts.size(); page<pageCount; page++)
+        for(String word : getWords(thePageTexts.get(page))) {
+            Postings postings = _postings.get(word);
+            if(postings==null) _postings.put(word, postings = new Postings());
+            postings.add(doc, page);
+        }
+    return doc;
+}
+
+/**
+ * Adds a document with given name and PDF file and returns its index.
+ */
+public int addDocument(String aName, PDFFile aFile)  { return addDocument(aName, getPageTexts(aFile)); }
+
+/**
+ * Adds the given PDF files as documents (named by path), extracting their text on a pool of worker threads. Files
+ * are added in order, and files that can't be read are reported and skipped. Each file is read into memory (rather
+ * than memory mapped), so its bytes are released as soon as its text is extracted. To bound memory, only a few files
+ * ahead of the one being added are allowed to be in progress or waiting.
+ */
+public void addFiles(List <File> theFiles)
+{
+    // Create worker pool and list of pending results
+    int count = theFiles.size(), threadCount = Math.min(getThreadCount(), Math.max(count, 1));
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    List <Future<List<String>>> futures = new ArrayList();
+
+    // Iterate over files: Submit files up to window, then wait for next page texts and add document (or complain)
+    try {
+        for(int i=0, next=0; i<count; i++) {
+            while(next<count && next-i<threadCount*2) { final File file = theFiles.get(next++);
+                futures.add(pool.submit(new Callable<List<String>>() { public List<String> call() throws Exception {
+                    return getPageTexts(new PDFFile(Files.readAllBytes(file.toPath()))); }}));
+            }
+            try { addDocument(theFiles.get(i).getPath(), futures.get(i).get()); }
+            catch(ExecutionException e) {
+                System.err.println("Error indexing pdf file " + theFiles.get(i) + " : " + e.getCause()); }
+            futures.set(i, null);
+        }
+    }
+    catch(InterruptedException e) {
+        Thread.currentThread().interrupt(); throw new PDFException("Text indexing interrupted", e); }
+
+    // Shut down pool
+    finally { pool.shutdownNow(); }
+}
+
+/**
+ * Returns the pages (in document order) that contain all the words in given query.
+ */
+public synchronized List <Hit> find(String aQuery)
+{
+    // Get words (just return if none)
+    List <Hit> hits = new ArrayList();
+    Set <String> words = getWords(aQuery); if(words.isEmpty()) return hits;
+
+    // Intersect postings of words (as sorted document/page keys)
+    long keys[] = null; int count = 0;
+    for(String word : words) {
+        Postings postings = _postings.get(word); if(postings==null) return hits;
+        long keys2[] = postings.getKeys();
+        if(keys==null) { keys = keys2; count = keys.length; continue; }
+        int n = 0;
+        for(int i=0, j=0; i<count && j<keys2.length;) {
+            if(keys[i]<keys2[j]) i++; else if(keys[i]>keys2[j]) j++;
+            else { keys[n++] = keys[i]; i++; j++; }
+        }
+        count = n;
+    }
+
+    // Create hits and return
+    for(int i=0; i<count; i++) { int doc = (int)(keys[i]>>>32), page = (int)keys[i];
+        hits.add(new Hit(_names.get(doc), doc, page)); }
+    return hits;
+}
+
+/**
+ * Returns the index bytes (to save the index and create it again with PDFTextIndex(bytes)).
+ */
+public synchronized byte[] getBytes()
+{
+    try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_ID); out.writeInt(FORMAT_VERSION);
+        out.writeInt(_names.size()); for(String name : _names) writeString(out, name);
+        out.writeInt(_postings.size());
+        for(Map.Entry <String,Postings> entry : _postings.entrySet()) { Postings postings = entry.getValue();
+            writeString(out, entry.getKey()); out.writeInt(postings._lastDoc); out.writeInt(postings._lastPage);
+            out.writeInt(postings._length); out.write(postings._bytes, 0, postings._length);
+        }
+        out.flush(); return bytes.toByteArray();
+    }
+    catch(IOException e) { throw new PDFException("Error writing text index", e); }
+}
+
+/**
+ * Writes given string as UTF-8 bytes with int length (unlike writeUTF, which fails for strings over 64K bytes).
+ */
+private static void writeString(DataOutputStream anOut, String aString) throws IOException
+{
+    byte bytes[] = aString.getBytes("UTF-8");
+    anOut.writeInt(bytes.length); anOut.write(bytes);
+}
+
+/**
+ * Reads a string written by writeString.
+ */
+private static String readString(DataInputStream anIn) throws IOException
+{
+    byte bytes[] = new byte[anIn.readInt()]; anIn.readFully(bytes);
+    return new String(bytes, "UTF-8");
+}
+
+/**
+ * Returns the text of each page of given PDF file.
+ */
+public static List <String> getPageTexts(PDFFile aFile)
+{
+    List <String> texts = new ArrayList(aFile.getPageCount());
+    for(int i=0, iMax=aFile.getPageCount(); i<iMax; i++)
+        texts.add(aFile.getPage(i).getText());
+    return texts;
+}
+
+/**
+ * Returns the distinct words in given text (runs of letters and digits, in lower case and truncated to max word
+ * length, with compatibility chars like ligatures decomposed).
+ */
+public static Set <String> getWords(String aStr)
+{
+    aStr = Normalizer.normalize(aStr, Normalizer.Form.NFKC);
+    Set <String> words = new LinkedHashSet();
+    for(int i=0, iMax=aStr.length(); i<iMax;) {
+        if(!Character.isLetterOrDigit(aStr.charAt(i))) { i++; continue; }
+        int start = i; while(i<iMax && Character.isLetterOrDigit(aStr.charAt(i))) i++;
+        int end = Math.min(i, start + MAX_WORD_LENGTH);
+        if(end<i && Character.isHighSurrogate(aStr.charAt(end-1))) end--;
+        words.add(aStr.substring(start, end).toLowerCase());
+    }
+    return words;
+}
+
+/**
+ * The (document, page) pairs of a word, in order, as variable length deltas: Each pair is written as the document
+ * delta and then the page (or page delta, if document delta is zero).
+ */
+private static class Postings {
+
+    // The encoded bytes and length, and the last document and page
+    byte _bytes[] = new byte[8]; int _length, _lastDoc = -1, _lastPage;
+
+    /** Adds given document and page (which must be at or after the last ones). */
+    void add(int aDoc, int aPage)
+    {
+        if(aDoc==_lastDoc && aPage==_lastPage) return;
+        int ddoc = aDoc - _lastDoc;
+        writeInt(ddoc); writeInt(ddoc>0? aPage : aPage - _lastPage);
+        _lastDoc = aDoc; _lastPage = aPage;
+    }
+
+    /** Writes given int in 7 bit groups (low first, with high bit set on all but the last). */
+    void writeInt(int aValue)
+    {
+        if(_length+5>_bytes.length) _bytes = Arrays.copyOf(_bytes, Math.max(_bytes.length*2, _length+5));
+        while((aValue&~0x7f)!=0) { _bytes[_length++] = (byte)(aValue&0x7f | 0x80); aValue >>>= 7; }
+        _bytes[_length++] = (byte)aValue;
+    }
+
+    /** Returns the (document, page) pairs as sorted keys (document in high int, page in low int). */
+    long[] getKeys()
+    {
+        long keys[] = new long[16]; int count = 0, doc = -1, page = 0;
+        for(int pos[] = { 0 }; pos[0]<_length;) {
+            int ddoc = readInt(pos), p = readInt(pos);
+            doc += ddoc; page = ddoc>0? p : page + p;
+            if(count==keys.length) keys = Arrays.copyOf(keys, count*2);
+            keys[count++] = (long)doc<<32 | page;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /** Reads an int written by writeInt at given position (and advances position). */
+    int readInt(int aPos[])
+    {
+        int value = 0; for(int shift=0;; shift+=7) { byte b = _bytes[aPos[0]++];
+            value |= (b&0x7f)<<shift; if(b>=0) return value; }
+    }
+}
+
+/**
+ * A page that matches a query: the document name and index and the page index.
+ */
+public static class Hit {
+
+    // The document name, document index and page index
+    String    _name; int _doc, _page;
+
+    /** Creates a new hit. */
+    public Hit(String aName, int aDoc, int aPage)  { _name = aName; _doc = aDoc; _page = aPage; }
+
+    /** Returns the document name. */
+    public String getDocumentName()  { return _name; }
+
+    /** Returns the document index. */
+    public int getDocumentIndex()  { return _doc; }
+
+    /** Returns the page index. */
+    public int getPageIndex()  { return _page; }
+
+    /** Returns a string representation. */
+    public String toString()  { return "Hit { " + _name + " page " + _page + " }"; }
+}
+
+}
@@ -0,0 +1,159 @@
+package com.reportmill.pdf.reader;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.font.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+
+/**
+ * A PDFMarkupHandler that ignores all drawing and just collects the text shown on a page, as positioned runs of
+ * Unicode chars (see PDFPage.getTextRuns()). Runs are in page coordinates (points, with origin at top left) and in
+ * content order, one for each string shown by the page (or its forms).
+ *
+ * Chars are those of the glyph mappers, so text in CID fonts is only Unicode if the font maps CIDs to Unicode.
+ */
+public class PDFTextMarkupHandler extends PDFMarkupHandler {
+
+    // The page height
+    float            _pageHeight;
+
+    // The text runs
+    List <TextRun>   _runs = new ArrayList();
+
+    // A graphics for font metrics
+    Graphics2D       _graphics;
+
+    // An image factory that doesn't decode images (text extraction only needs their presence)
+    static ImageFactory  _imageFactory = new ImageFactory() {
+        BufferedImage _image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        public Image getImage(PDFStream imageDict, ColorSpace cspace, PDFFile srcfile)  { return _image; }};
+
+/**
+ * Returns the text runs.
+ */
+public List <TextRun> getTextRuns()  { return _runs; }
+
+/**
+ * Returns the text of the runs (see getText(List)).
+ */
+public String getText()  { return getText(_runs); }
+
+/**
+ * Returns the image factory to use with this handler (which doesn't decode images).
+ */
+public static ImageFactory getImageFactory()  { return _imageFactory; }
+
+/** Set the bounds of the page. */
+public void beginPage(float width, float height)  { _pageHeight = height; _runs.clear(); }
+
+/** Drawing operations are ignored. */
+public void strokePath(PDFGState g, GeneralPath p)  { }
+public void fillPath(PDFGState g, GeneralPath p)  { }
+public void clipChanged(PDFGState g)  { }
+public void drawImage(PDFGState g, Image i, AffineTransform ixform)  { }
+public void showText(PDFGState g, GlyphVector v)  { }
+
+/**
+ * Adds a text run for given chars (skipping chars that didn't map to anything).
+ */
+public void showChars(PDFGState g, char chars[], int count, float width)
+{
+    // Get string of mapped chars
+    StringBuffer sb = new StringBuffer(count);
+    for(int i=0; i<count; i++) { char c = chars[i];
+        if(c!=0xffff && c!=0) sb.append(c); }
+    if(sb.length()==0) return;
+
+    // Get run start and end on baseline and size (distance to top of a one point font) in page coords
+    Point2D p0 = g.trans.transform(new Point2D.Float(0, 0), null);
+    Point2D p1 = g.trans.transform(new Point2D.Float(width, 0), null);
+    Point2D p2 = g.trans.transform(new Point2D.Float(0, -1), null);
+
+    // Add run (flipped, so origin is top left)
+    float x = (float)p0.getX(), y = _pageHeight - (float)p0.getY();
+    float endX = (float)p1.getX(), endY = _pageHeight - (float)p1.getY(), size = (float)p0.distance(p2);
+    _runs.add(new TextRun(sb.toString(), x, y, endX, endY, size));
+}
+
+/** Returns a render context for creating glyphs. */
+public FontRenderContext getFontRenderContext()  { return ((Graphics2D)getGraphics()).getFontRenderContext(); }
+
+/** Returns a graphics for font metrics. */
+public Graphics getGraphics()
+{
+    if(_graphics==null) _graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    return _graphics;
+}
+
+/**
+ * Returns the text for given runs: Runs that continue the baseline of the previous run (in any direction) are joined
+ * (with a space if there's a gap between them) and other runs start a new line.
+ */
+public static String getText(List <TextRun> theRuns)
+{
+    StringBuffer sb = new StringBuffer(); TextRun last = null;
+    for(TextRun run : theRuns) {
+        if(last!=null) {
+
+            // Get baseline direction of last run and offset from its end to run start, along and across baseline
+            double dx = last.getEndX() - last.getX(), dy = last.getEndY() - last.getY(), len = Math.hypot(dx, dy);
+            if(len>0) { dx /= len; dy /= len; } else { dx = 1; dy = 0; }
+            double ox = run.getX() - last.getEndX(), oy = run.getY() - last.getEndY();
+            double along = ox*dx + oy*dy, across = Math.abs(oy*dx - ox*dy);
+
+            // If run continues baseline, add space for gap, otherwise add newline
+            float tol = Math.max(Math.min(run.getSize(), last.getSize()), 1);
+            if(across>=tol/2 || along<=-tol) sb.append('\n');
+            else if(along>tol/5 && !Character.isWhitespace(sb.charAt(sb.length()-1))) sb.append(' ');
+        }
+        sb.append(run.getText()); last = run;
+    }
+    return sb.toString();
+}
+
+/**
+ * A run of text shown on a page: the chars, the start and end of its baseline and its font size (in page coords).
+ */
+public static class TextRun {
+
+    // The text, baseline start x & y, baseline end x & y and font size
+    String    _text;
+    float     _x, _y, _endX, _endY, _size;
+
+    /** Creates a new text run. */
+    public TextRun(String aStr, float x, float y, float endX, float endY, float aSize)
+    {
+        _text = aStr; _x = x; _y = y; _endX = endX; _endY = endY; _size = aSize;
+    }
+
+    /** Returns the text. */
+    public String getText()  { return _text; }
+
+    /** Returns the x of baseline start. */
+    public float getX()  { return _x; }
+
+    /** Returns the y of baseline start. */
+    public float getY()  { return _y; }
+
+    /** Returns the x of baseline end. */
+    public float getEndX()  { return _endX; }
+
+    /** Returns the y of baseline end. */
+    public float getEndY()  { return _endY; }
+
+    /** Returns the width (baseline length). */
+    public float getWidth()  { return (float)Math.hypot(_endX - _x, _endY - _y); }
+
+    /** Returns the font size. */
+    public float getSize()  { return _size; }
+
+    /** Returns a string representation. */
+    public String toString()
+    {
+        return "TextRun { \"" + _text + "\" " + _x + " " + _y + " " + _endX + " " + _endY + " " + _size + " }";
+    }
+}
+
+}
@@ -30,6 +30,9 @@ public class PDFTextObject {
     // A FontRenderContext to help create glyphs
     FontRenderContext rendercontext;
     
+    // The page parser (to execute Type3 glyph procedures)
+    PDFPageParser parser;
+    
     // Text state parameters can persist across many text objects, so they're
     // stored in the gstate
     
@@ -40,6 +43,9 @@ public class PDFTextObject {
 /** Main constructor. */
 public PDFTextObject(FontRenderContext ctxt)  { rendercontext = ctxt; }
 
+/** Creates a new text object for given parser (which executes Type3 glyph procedures). */
+public PDFTextObject(PDFPageParser aParser, FontRenderContext ctxt)  { parser = aParser; rendercontext = ctxt; }
+
 /** start a new text object */
 public void begin()
 {
@@ -83,12 +89,15 @@ public void setTextMatrix(float a, float b, float c, float d, float e, float f)
  */
 public void showText(byte pageBytes[], int offset, int length, PDFGState gs, PDFFile file) 
 {
-    // Get the font dictionary from the gstate
-    Map f = gs.font;
-    // Get the font factory and use it to create a glyphmapper & an awt font
-    FontFactory factory = file.getFontFactory();
-    GlyphMapper gmapper = factory.getGlyphMapper(f,file);
-    Font awtFont = factory.getFont(f, file);
+    // Get the font from the gstate (Type3 fonts draw glyphs with glyph procedures)
+    PDFFont f = gs.font;
+    if (f.isType3() && parser!=null) {
+        showType3Text(pageBytes, offset, length, gs);
+        return;
+    }
+    // Get the glyphmapper & awt font from the font (shared by all pages that use it)
+    GlyphMapper gmapper = f.getGlyphMapper();
+    Font awtFont = f.getAWTFont();
     int bufmax, buflen;
     int numMappedChars;
     GlyphVector glyphs;
@@ -121,7 +130,7 @@ public void showText(byte pageBytes[], int offset, int length, PDFGState gs, PDF
     numMappedChars = gmapper.mapBytesToChars(pageBytes, offset, length, unicodeBuffer);
     
     // get the metrics (actually just the widths)
-    wobj = factory.getGlyphWidths(f,file);
+    wobj = f.getGlyphWidths();
 
     // Two nearly identical routines broken out for performance (and readability) reasons
     if (gmapper.isMultiByte()) 
@@ -136,14 +145,64 @@ public void showText(byte pageBytes[], int offset, int length, PDFGState gs, PDF
     AffineTransform saved_ctm=(AffineTransform)gs.trans.clone();
     gs.trans.concatenate(textMatrix);
     gs.trans.concatenate(renderingMatrix);
-    // draw
+    // draw (and notify of chars)
     file.getMarkupHandler().showText(gs, glyphs);
+    file.getMarkupHandler().showChars(gs, unicodeBuffer, numMappedChars, pt.x);
     // restore ctm
     gs.trans=saved_ctm;
     // update the text matrix
     textMatrix.translate(pt.x*gs.fontSize*gs.thscale, pt.y);
 }
 
+/**
+ * Shows text for a Type3 font by executing the glyph procedure for each byte, with a transform from glyph space
+ * (by way of the font matrix) to the glyph's position in user space.
+ */
+void showType3Text(byte pageBytes[], int offset, int length, PDFGState gs)
+{
+    PDFFont f = gs.font;
+    float widths[] = (float [])f.getGlyphWidths();
+    AffineTransform fontMatrix = f.getFontMatrix();
+    Map resources = f.getResources();
+    float x = 0;
+    byte c;
+    
+    // Ensure the buffer is big enough for the chars
+    if (unicodeBuffer.length < length)
+        unicodeBuffer = new char[Math.max(length, unicodeBuffer.length*2)];
+    
+    for(int i=0; i<length; ++i) {
+        c = pageBytes[offset+i];
+        unicodeBuffer[i] = f.getType3Char(c);
+        
+        // Execute glyph procedure with text matrix * text position, font size & horizontal scale * font matrix
+        PDFStream proc = f.getCharProc(c);
+        if (proc != null) {
+            AffineTransform glyphMatrix = new AffineTransform(textMatrix);
+            glyphMatrix.translate(x*gs.fontSize*gs.thscale, gs.trise);
+            glyphMatrix.scale(gs.fontSize*gs.thscale, gs.fontSize);
+            glyphMatrix.concatenate(fontMatrix);
+            parser.executeType3Glyph(proc, resources, glyphMatrix);
+        }
+        
+        // Advance by glyph width, plus word space and character space (see single-byte routine)
+        x += widths[c&255];
+        if ((c==32) && ((i==0) || (pageBytes[offset+i-1] != 32)))
+            x += gs.tws/(gs.fontSize*gs.thscale);
+        x += gs.tcs/(gs.fontSize*gs.thscale);
+    }
+    
+    // notify of chars, with the ctm that showText would use
+    AffineTransform saved_ctm=(AffineTransform)gs.trans.clone();
+    gs.trans.concatenate(textMatrix);
+    gs.trans.concatenate(new AffineTransform(gs.fontSize*gs.thscale, 0, 0, -gs.fontSize, 0, -gs.trise));
+    parser._pdfFile.getMarkupHandler().showChars(gs, unicodeBuffer, length, x);
+    gs.trans=saved_ctm;
+    
+    // update the text matrix
+    textMatrix.translate(x*gs.fontSize*gs.thscale, 0);
+}
+
 // For simple fonts.  The bytes have been mapped through the encoding into
 // unicode values.  The font itself will create the glyphs, and the font metric
 // lookups are done by assuming that a single byte in pageBytes will get mapped
@@ -279,11 +338,8 @@ public void showText(byte pageBytes[], List tokens, PDFGState gs, PDFFile file)
 //debugging foolishness
 public void dddshowText(byte pageBytes[], int offset, int length, PDFGState gs, PDFFile file) 
 {
-    // Get the font dictionary from the gstate
-    Map f = gs.font;
-    // Get the font factory and use it to create a glyphmapper & an awt font
-    FontFactory factory = file.getFontFactory();
-    Font awtFont = factory.getFont(f, file);
+    // Get the awt font from the gstate font
+    Font awtFont = gs.font.getAWTFont();
     GlyphVector glyphs;
     Point2D.Float textoffset = new Point2D.Float();
     
@@ -1,12 +1,16 @@
 package com.reportmill.pdf.reader;
+import java.lang.ref.SoftReference;
 
 /**
  * This class represents a PDF XRef entry.
+ *
+ * Objects read from the file are cached with a SoftReference (see getCachedValue()), so they can be reclaimed when
+ * memory is low and no longer in use, and are then just parsed again from the file on next use.
  */
 public class PDFXEntry {
     
-    // The state
-    public int      state;
+    // The state (volatile, like value, since read objects are returned without parser lock)
+    public volatile int     state;
     
     // The object number
     public int      objectNumber;
@@ -18,7 +22,10 @@ public class PDFXEntry {
     public int      generation;
     
     // The object value
-    public Object   value;
+    public volatile Object  value;
+    
+    // The cached value of an object read from file (volatile, since objects can be resolved by several threads)
+    volatile SoftReference _cachedValue;
     
     // Constants for Entry types
     public static final int EntryUnknown = 0;
@@ -37,6 +44,16 @@ public PDFXEntry(int index)
     generation = 0;
 }
 
+/**
+ * Returns the cached value of an object read from file (or null if not yet read or reclaimed).
+ */
+public Object getCachedValue()  { return _cachedValue!=null? _cachedValue.get() : null; }
+
+/**
+ * Sets the cached value of an object read from file.
+ */
+public void setCachedValue(Object anObj)  { _cachedValue = anObj!=null? new SoftReference(anObj) : null; }
+
 /**
  * Releases the reference to the object.
  */
@@ -46,6 +63,7 @@ public void reset()
         state = EntryNotYetRead;
         value = null;
     }
+    _cachedValue = null;
 }
 
 /**
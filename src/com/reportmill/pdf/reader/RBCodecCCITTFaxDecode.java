@@ -7,6 +7,7 @@
 
 package com.reportmill.pdf.reader;
 import java.io.*;
+import java.util.Arrays;
 
 public class RBCodecCCITTFaxDecode extends RBCodec {
   // The bit stream
@@ -20,6 +21,9 @@ public class RBCodecCCITTFaxDecode extends RBCodec {
   boolean _eolRequired;
   boolean _eoblockRequired;
   boolean _blackIsOne;
+  // changing elements of the reference scanline (used by 2D decoder)
+  int _changes[] = new int[0];
+  int _changeCount;
 
   
 /** convenience method to decode a single image */
@@ -128,37 +132,70 @@ static int ccittCodeWords2d[] = {
     -8, -5, -7, -4};
 
 
+/* Lookup tables for the above trees, indexed by the next LookupBits bits of the stream (all codes are shorter).
+ *  Each entry holds the tree leaf value (shifted left 5 bits) and the codeword length in bits (low 5 bits), so a
+ *  codeword is decoded with a single lookup instead of walking the tree a bit at a time.
+ */
+static final int LookupBits = 13;
+static final int ccittLookup_white[] = createLookup(ccittRunLengths_white);
+static final int ccittLookup_black[] = createLookup(ccittRunLengths_black);
+static final int ccittLookup2d[] = createLookup(ccittCodeWords2d);
+
+/** Returns a lookup table for given tree. */
+static int[] createLookup(int table[])
+{
+    int lookup[] = new int[1<<LookupBits];
+    addLookupEntries(table, 0, 0, 0, lookup);
+    return lookup;
+}
+
+/** Fills lookup entries for all bit strings that start with the given code (of given length) to the given node. */
+private static void addLookupEntries(int table[], int treeindex, int code, int length, int lookup[])
+{
+    for(int bit=0; bit<2; bit++) {
+        int node = table[treeindex+bit], ncode = code<<1 | bit, nlength = length + 1;
+        if(node>0)
+            addLookupEntries(table, node, ncode, nlength, lookup);
+        else {
+            int shift = LookupBits - nlength, entry = node<<5 | nlength;
+            Arrays.fill(lookup, ncode<<shift, (ncode+1)<<shift, entry);
+        }
+    }
+}
+
+/** Returns the lookup table for given tree. */
+private static int[] getLookup(int table[])
+{
+    return table==ccittRunLengths_white? ccittLookup_white : table==ccittRunLengths_black? ccittLookup_black :
+        table==ccittCodeWords2d? ccittLookup2d : createLookup(table);
+}
+
 // Read the next codeword from the stream.  table is one of the above trees.
 // Returns the codeword or -1 for EOF
 public int getNextCodeword(int table[])
 {
-    int byteOffset=_bitOffset/8;
-    int mask = 1<<(7-(_bitOffset%8));
-    int abyte;
-    int treeindex=0;
-    if (byteOffset>=_allBits.length)
+    // Get next LookupBits bits (padded with zeros at end of data) and the number of bits available
+    int byteOffset = _bitOffset>>3, bitShift = _bitOffset&7, nbytes = _allBits.length;
+    if (byteOffset>=nbytes)
       return -1;
-    abyte = _allBits[byteOffset];
-    while(true) {
-         if ((abyte & mask) != 0)
-            ++treeindex;
-        treeindex=table[treeindex];
-        ++_bitOffset;
-        if (treeindex==-9999)
-            throw new PDFException("Error decoding CCITTFaxDecode stream");
-        else if (treeindex==EndOfTheLine)
-            return EndOfTheLine;
-        else if (treeindex<=0)
-          return -treeindex;
-        mask>>=1;
-        if (mask==0) {
-            if (++byteOffset>=_allBits.length)
-                // incomplete codeword, but no more bits.  returns eof
-                return -1;
-            abyte = _allBits[byteOffset];
-            mask = 128;
-        }
+    int bits = (_allBits[byteOffset]&255)<<16;
+    if (byteOffset+1<nbytes) bits |= (_allBits[byteOffset+1]&255)<<8;
+    if (byteOffset+2<nbytes) bits |= _allBits[byteOffset+2]&255;
+    bits = (bits>>>(24-bitShift-LookupBits)) & ((1<<LookupBits)-1);
+    long available = (long)(nbytes-byteOffset)*8 - bitShift;
+    
+    // Look up codeword (if incomplete codeword, but no more bits, return eof)
+    int entry = getLookup(table)[bits], value = entry>>5, length = entry&31;
+    if (length>available) {
+        _bitOffset += (int)available;
+        return -1;
     }
+    _bitOffset += length;
+    if (value==-9999)
+        throw new PDFException("Error decoding CCITTFaxDecode stream");
+    else if (value==EndOfTheLine)
+        return EndOfTheLine;
+    return -value;
 }
 
 /** Interprets next n codewords as an integer.
@@ -203,7 +240,7 @@ public void backup() { _bitOffset = _mark; }
 /** Decode the entire image at once */
 public byte[] decodeStream()
 {
-    ByteArrayOutputStream outstream = new ByteArrayOutputStream(64);
+    RowBuffer outstream = new RowBuffer(_rows>0 && _columns>0 ? Math.min((long)_rows*_columns, 1<<26) : 64);
     try {
         decodeStream(outstream);
     }
@@ -232,8 +269,7 @@ public void decodeStream(OutputStream outstream) throws PDFException, IOExceptio
     else if (_K<0) {
         // 2D encoding always uses the last scanline as a reference.
         // For the first scanline, the reference is a pure white scanline
-        for(int i=0; i<_columns; ++i)
-            scanline[i]=1;
+        Arrays.fill(scanline, (byte)1);
         while(decodeScanline2D(scanline)) {
             writeScanline(outstream, scanline);
             if (_byteAligned)
@@ -319,8 +355,7 @@ public boolean decodeScanline1D(byte outdata[])
             if (x+runlength>_columns) 
                 throw new PDFException("Error decoding CCITTFaxDecode stream");
             // fill the output with the colors.  Notice it's 8bits per pixel, 2 colors
-            for(int r=0; r<runlength; ++r)
-                outdata[x++]=(byte)runcolor;
+            Arrays.fill(outdata, x, x+=runlength, (byte)runcolor);
             
             // reset everthing for the next run
             runcolor = 1-runcolor;
@@ -410,7 +445,15 @@ public boolean decodeScanline2D(byte outdata[])
     int a1,a2;
     int b[] = new int[3];
     int codeword;
+    int changeIndex = 0;
     
+    // Get the changing elements of the reference scanline (the pixel at -1 is defined to be white)
+    if (_changes.length<outdata.length)
+        _changes = new int[outdata.length];
+    _changeCount = 0;
+    for(int i=0; i<outdata.length; ++i)
+        if (outdata[i] != (i==0 ? 1 : outdata[i-1]))
+            _changes[_changeCount++] = i;
     
     while(x<_columns) {
         codeword = getNextCodeword(ccittCodeWords2d);
@@ -430,10 +473,10 @@ public boolean decodeScanline2D(byte outdata[])
             a1 = a0+getNextInt(codeword_trees[a0Color]);
             a2 = a1+getNextInt(codeword_trees[1-a0Color]);
             
-            while(x<a1)
-                outdata[x++]=a0Color;
-            while(x<a2)
-                outdata[x++]=(byte)(1-a0Color);
+            if (x<a1)
+                Arrays.fill(outdata, x, x=a1, a0Color);
+            if (x<a2)
+                Arrays.fill(outdata, x, x=a2, (byte)(1-a0Color));
             a0=a2;
         }
         else if (codeword==UncompressedMode) {
@@ -441,10 +484,18 @@ public boolean decodeScanline2D(byte outdata[])
         }
         else {
             // The rest of these codes make reference to b[1] & b[2] on the line above
-            locateReferenceMarks(outdata, a0, a0Color, b);
+            // If reference scanline isn't overwritten from a0 on (always in valid streams), use its changing elements
+            if (a0>=x || a0<0) {
+                while(changeIndex>0 && _changes[changeIndex-1]>a0) --changeIndex;
+                while(changeIndex<_changeCount && _changes[changeIndex]<=a0) ++changeIndex;
+                int i = changeIndex<_changeCount && outdata[_changes[changeIndex]]==a0Color ? changeIndex+1 : changeIndex;
+                b[1] = i<_changeCount ? _changes[i] : outdata.length;
+                b[2] = i+1<_changeCount ? _changes[i+1] : outdata.length;
+            }
+            else locateReferenceMarks(outdata, a0, a0Color, b);
             if (codeword==PassMode) {
-                while(x<b[2]) 
-                    outdata[x++]=a0Color;
+                if (x<b[2]) 
+                    Arrays.fill(outdata, x, x=b[2], a0Color);
                 a0=b[2];
             }
             else {
@@ -463,8 +514,8 @@ public boolean decodeScanline2D(byte outdata[])
                 if (b[1]>outdata.length)
                     b[1]=outdata.length;
                 a0=b[1];
-                while(x<b[1])
-                    outdata[x++]=a0Color;
+                if (x<b[1])
+                    Arrays.fill(outdata, x, x=b[1], a0Color);
                 a0Color=(byte)(1-a0Color);
             }
         }
@@ -478,6 +529,12 @@ public void writeScanline(OutputStream out, byte scanline[]) throws IOException
     out.write(scanline);
 }
 
+/** An output stream that collects scanlines into a byte array that starts at the expected image size. */
+private static class RowBuffer extends ByteArrayOutputStream {
+    public RowBuffer(long aSize)  { super((int)aSize); }
+    public byte[] toByteArray()  { return count==buf.length? buf : super.toByteArray(); }
+}
+
 /** Get the width of the decompressed image */
 public int getWidth() { return _columns; }
 
@@ -1,57 +1,52 @@
 package com.reportmill.pdf.reader;
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 /**
- * LZW decompressor
+ * LZW decompressor.
+ *
+ * Symbols are kept in a table of prefix symbols, suffix bytes and expansion lengths, so each symbol is written directly
+ * into the output buffer (last byte first, following the prefix chain) instead of through an expansion stack.
  */
 public class RBCodecLZW extends RBCodec {
-   
+
     // Bytes, offset and length
     byte bytes[];
     int offset, originalOffset, length;
-    
+
     // Parameters
-    int predictor, columns, colors, bits, early;
+    int early;
 
-    int look;   // 1 character lookahead
-    
     // LZW alogrithm vars
     int code_buf, num_bits;
-    int clear_code, end_code; // values for Clear and End codes
-    
-    int input_code_size;
+
     int code_size;              // current actual code size
-    int limit_code;             // 2^code_size
-    int real_limit_code;        // limit_code adjusted for earlyChange
+    int real_limit_code;        // 2^code_size adjusted for earlyChange
     int max_code;               // first unused code value
-    boolean first_time;         // flags first call to LZWReadByte
-    
-    // Private state for LZWReadByte
-    int oldcode;            // previous LZW symbol
-    int firstcode;      // first byte of oldcode's expansion
-    
-    // LZW symbol table and expansion stack
-    int symbol_head[];        // => table of prefix symbols
-    short symbol_tail[];      // => table of suffix bytes
-    short symbol_stack[];     // => stack for symbol expansions
-    int sp = -1;              // stack pointer
+
+    // LZW symbol table: prefix symbol, suffix byte and expansion length of each symbol
+    int symbol_head[] = new int[LZW_TABLE_SIZE];
+    byte symbol_tail[] = new byte[LZW_TABLE_SIZE];
+    int symbol_length[] = new int[LZW_TABLE_SIZE];
+
+    // The output buffer and length
+    byte out[];
+    int out_length;
 
     static int MAX_LZW_BITS = 12; // maximum LZW code size
     static int LZW_TABLE_SIZE = 1<<MAX_LZW_BITS; // # of possible LZW symbols
-
+    static final int CLEAR_CODE = 256, END_CODE = 257; // values for Clear and End codes
 
 /** Returns a decoded byte array for given LZW encoded byte array. */
-public static byte[] decode(byte bytes[], int offset, int length, int early)
+public static byte[] decode(byte bytes[], int offset, int length, int early)  { return decode(bytes,offset,length,early,0); }
+
+/**
+ * Returns a decoded byte array for given LZW encoded byte array, with the expected decoded length, if known, to size
+ * the output buffer.
+ */
+public static byte[] decode(byte bytes[], int offset, int length, int early, int aSize)
 {
     RBCodecLZW dec = new RBCodecLZW(bytes, offset, length, early);
-    ByteArrayOutputStream out;
-    int c;
-    
-    out = new ByteArrayOutputStream(length);
-    while((c=dec.getChar()) >= 0)
-        out.write(c);
-    
-    return out.toByteArray();
+    return dec.decode(aSize>0? aSize : Math.max(length*2, 1024));
 }
 
 /** Creates a new LZW decoder for given bytes. */
@@ -61,165 +56,119 @@ public RBCodecLZW(byte bytes[], int offset, int length, int early1)
     this.offset = originalOffset = offset;
     this.length = length;
     early = early1;
-    reset();
-}
 
-/** Resets decoder for new bytes. */
-private void reset()
-{
-    offset = originalOffset;
-    look = -1;
-    if(sp<0)
-        initLZW();
+    // Initialize raw byte symbols
+    for(int i=0; i<CLEAR_CODE; i++) {
+        symbol_tail[i] = (byte)i; symbol_length[i] = 1; }
     reInitLZW();
 }
 
-/** Initialize LZW decoding state. */
-private void initLZW()
+/** Returns the decoded bytes, decoding into a buffer of given initial size. */
+private byte[] decode(int aSize)
 {
-    input_code_size = 8;
-    symbol_head = new int[LZW_TABLE_SIZE];
-    symbol_tail = new short[LZW_TABLE_SIZE];
-    symbol_stack = new short[LZW_TABLE_SIZE];
-    
-    // GetCode initialization
-    code_buf = 0; // nothing in the buffer
-    num_bits = 0; // force buffer load on first call
-    
-    // LZWReadByte initialization:
-    // compute special code values (note that these do not change later)
-    clear_code = 1 << input_code_size;
-    end_code = clear_code + 1;
-    first_time = true;
-}  
+    out = new byte[aSize]; out_length = 0;
+
+    // Previous symbol and first byte of its expansion (previous symbol is -1 at start and after Clear codes)
+    int oldcode = -1, firstcode = 0;
+
+    // Iterate over codes
+    while(true) {
+        int code = getCode();
+
+        // Handle Clear: Reinit state
+        if(code==CLEAR_CODE) {
+            reInitLZW(); oldcode = -1; continue; }
+
+        // Handle first code (after start or Clear): Make sure it is raw byte, write it and make firstcode, oldcode valid
+        if(oldcode<0) {
+            if(code>CLEAR_CODE) break;
+            writeSymbol(code);
+            firstcode = oldcode = code;
+            continue;
+        }
+
+        // Handle EOF
+        if(code==END_CODE)
+            break;
+
+        // Handle symbol: Write its expansion
+        int incode = code, start = out_length;
+        if(code<max_code)
+            writeSymbol(code);
+
+        // Handle not-yet-defined symbol: it's defined as oldcode/firstcode (code==max_code is OK; anything bigger is bad
+        // data, so prevent creation of loops in symbol table)
+        else {
+            if(code>max_code)
+                incode = 0;
+            writeSymbol(oldcode);
+            writeByte(firstcode);
+        }
+
+        // Get first byte of symbol's expansion (save for possible future use)
+        firstcode = out[start]&255;
+
+        // If there's room in table, define a new symbol = prev sym + head of this sym's expansion
+        if((code = max_code) < LZW_TABLE_SIZE) {
+            symbol_head[code] = oldcode;
+            symbol_tail[code] = (byte)firstcode;
+            symbol_length[code] = symbol_length[oldcode] + 1;
+            max_code++;
+
+            // Is it time to increase code_size?
+            if((max_code >= real_limit_code) && (code_size < MAX_LZW_BITS)) {
+                code_size++;
+                real_limit_code = (1<<code_size) - (early!=0? 1 : 0);
+            }
+        }
+
+        oldcode = incode; // Save last input symbol for future use
+    }
+
+    // Return output trimmed to decoded length
+    return out_length==out.length? out : Arrays.copyOf(out, out_length);
+}
 
 /** Reinitialize LZW state; shared code for startup and Clear processing. */
 private void reInitLZW()
 {
-    code_size = input_code_size + 1;
-    limit_code = clear_code << 1;   // 2^code_size
-    real_limit_code = limit_code;
-    if(early!=0)
-        --real_limit_code;
-    max_code = clear_code + 2; // first unused code value
-    sp = 0; // init stack to empty
+    code_size = 9;
+    real_limit_code = (1<<code_size) - (early!=0? 1 : 0);
+    max_code = END_CODE + 1; // first unused code value
 }
 
-/** Returns some LZW thing. */
+/** Returns next code from bytes (or End code if no more bytes). */
 private int getCode()
 {
     while(num_bits < code_size) {
-        int c = (char)bytes[offset++];
-        if(offset > originalOffset+length)
-            return end_code;
-        code_buf <<= 8;
-        code_buf |= (c & 0xff);
+        if(offset >= originalOffset+length)
+            return END_CODE;
+        code_buf = code_buf<<8 | (bytes[offset++] & 0xff);
         num_bits += 8;
     }
-    
-    int code = (code_buf >> (num_bits - code_size));
-    code &= (1<<code_size)-1;
+
     num_bits -= code_size;
-    return code;
+    return (code_buf >> num_bits) & ((1<<code_size)-1);
 }
 
-/** Reads an LZW-compressed byte. */
-private int readLZWByte()
+/** Writes the expansion of given symbol to output (last byte first, following the prefix chain). */
+private void writeSymbol(int aCode)
 {
-    int code; // Current working code
-    int incode; // Saves actual input code
-    
-    // First time, just eat expected Clear code(s) and return next code (should be raw byte)
-    if(first_time) {
-        first_time = false;
-        code = clear_code; // Enables sharing code with Clear case
-    }
-    
-    else {
-
-        // If any codes are stacked from a previously read symbol, return them
-        if(sp>0)
-            return symbol_stack[--sp];
-        // Time to read a new symbol
-        code = getCode();
-    }
-
-    if(code == clear_code) {
-    
-        // Reinit state, swallow any extra Clear codes, and return next code (should be raw byte)
-        reInitLZW();
-        do {
-            code = getCode();
-        } while (code == clear_code);
-    
-        // Make sure it is raw byte
-        if(code > clear_code)
-            return -1;
-
-        // Make firstcode, oldcode valid!
-        firstcode = oldcode = code;
-        return code;
-    }
-
-    // EOF
-    if(code == end_code)
-        return -1;
-
-    // Got normal raw byte or LZW symbol
-    incode = code; // Save for a moment
-  
-    // Special case for not-yet-defined symbol
-    if(code >= max_code) {
-    
-        // code == max_code is OK; anything bigger is bad data
-        if (code > max_code)
-            incode = 0; // Prevent creation of loops in symbol table
-
-        // This symbol will be defined as oldcode/firstcode
-        symbol_stack[sp++] = (short)firstcode;
-        code = oldcode;
-    }
-
-    // If it's a symbol, expand it into the stack
-    while(code >= clear_code) {
-        symbol_stack[sp++] = symbol_tail[code]; // Tail is a byte value
-        code = symbol_head[code]; // Head is another LZW symbol
-    }
-    
-    // At this point code just represents a raw byte
-    firstcode = code; // save for possible future use
-
-    // If there's room in table,
-    if((code = max_code) < LZW_TABLE_SIZE) {
-        // Define a new symbol = prev sym + head of this sym's expansion
-        symbol_head[code] = oldcode;
-        symbol_tail[code] = (short)firstcode;
-        max_code++;
-        
-        // Is it time to increase code_size?
-        if((max_code >= real_limit_code) && (code_size < MAX_LZW_BITS)) {
-            code_size++;
-            limit_code <<= 1; // keep equal to 2^code_size
-            real_limit_code = limit_code;
-            if(early!=0)
-                --real_limit_code;
-        }
-    }
-  
-    oldcode = incode; // Save last input symbol for future use
-    return firstcode; // Return first byte of symbol's expansion
+    int len = symbol_length[aCode];
+    ensureCapacity(len);
+    for(int i=out_length+len-1, code=aCode; i>=out_length; i--) {
+        out[i] = symbol_tail[code]; code = symbol_head[code]; }
+    out_length += len;
 }
 
-/** Returns next char from LZW stream. */
-private int getChar()
-{
-    int c = look;
+/** Writes given byte to output. */
+private void writeByte(int aByte)  { ensureCapacity(1); out[out_length++] = (byte)aByte; }
 
-    if(c==-1)
-        c = readLZWByte();
-    else look = -1;
-    
-    return c;
+/** Makes sure output buffer has room for given number of bytes. */
+private void ensureCapacity(int aCount)
+{
+    if(out_length+aCount > out.length)
+        out = Arrays.copyOf(out, Math.max(out.length*2, out_length+aCount));
 }
 
 }
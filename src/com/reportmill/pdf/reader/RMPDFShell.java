@@ -118,20 +118,13 @@ private static class EmptyHandler extends PDFMarkupHandler {
   }
 }
 
-/** Convenience method to load a new PDFFile from a java.io.File */
-public static PDFFile readFile(File file) throws IOException
-{
-    int len = (int)file.length();
-    BufferedInputStream buf = new BufferedInputStream(new FileInputStream(file));
-    byte fileBytes[] = new byte[len];
-    if (buf.read(fileBytes,0,len) != len) 
-        throw new IOException("Error reading file");
-    return new PDFFile(fileBytes);
-}
+/** Convenience method to load a new PDFFile from a java.io.File (the file is memory mapped) */
+public static PDFFile readFile(File file) throws IOException  { return new PDFFile(file); }
   
 //---------- Debugging ---------
   public void dumpAll(PDFFile aFile, int max) throws ParseException
   {
+      aFile.readXRefSections();
       for(int i=0, iMax=aFile._xref.size(); i<iMax; ++i) {
           PDFXEntry entry = aFile._xref.get(i);
           if ((entry.fileOffset==0) || (entry.state==PDFXEntry.EntryDeleted))
@@ -13,10 +13,36 @@ public class PDFBuffer {
     // This is the actual byte buffer
     ByteArrayOutputStream     _source = new ByteArrayOutputStream();
     
+    // The stream that buffer bytes are flushed to (if streaming) and the number of bytes already flushed to it
+    OutputStream              _out;
+    int                       _flushed;
+    
+    // The buffer size at which flushIfFull() writes buffer bytes to stream
+    static final int          FLUSH_SIZE = 65536;
+    
+/**
+ * Returns the current length of the buffer (including any bytes already flushed to output stream).
+ */
+public int length()  { return _flushed + _source.size(); }
+
+/**
+ * Sets the stream that buffer bytes are written to when flushed.
+ */
+public void setOutputStream(OutputStream aStream)  { _out = aStream; }
+
+/**
+ * Writes buffer bytes to output stream (if set) and resets buffer.
+ */
+public void flush() throws IOException
+{
+    if(_out==null) return;
+    _source.writeTo(_out); _flushed += _source.size(); _source.reset();
+}
+
 /**
- * Returns the current length of the buffer.
+ * Writes buffer bytes to output stream (if set) if buffer has grown past flush size.
  */
-public int length()  { return _source.size(); }
+public void flushIfFull() throws IOException  { if(_source.size()>=FLUSH_SIZE) flush(); }
 
 /**
  * Adds a character to the pdf buffer.
@@ -291,7 +317,7 @@ public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3)
 }
 
 /**
- * Returns the buffer as a byte array.
+ * Returns the buffer as a byte array (just the bytes not yet flushed, if buffer has output stream).
  */
 public byte[] toByteArray()  { return _source.toByteArray(); }
 
@@ -1,6 +1,7 @@
 package com.reportmill.pdf.writer;
 import com.reportmill.graphics.*;
 import com.reportmill.text.*;
+import java.io.IOException;
 import java.util.*;
 import java.text.*;
 
@@ -33,12 +34,18 @@ public class PDFFile {
     // Map of image data names to image reference strings
     Map <String,String>         _images = new Hashtable();
     
+    // Map of image data names to the names of their unique image datas (as referenced in page contents)
+    Map <String,String>         _imageNames = new HashMap();
+    
     // Map of unique image datas
     List <RMImageData>          _imageDatas = new ArrayList();
     
     // unique id
     byte                        _fileID[] = null;
     
+    // The file offsets of xref entries already written (null for entries not yet written)
+    List <Integer>              _offsets = new ArrayList();
+    
 /**
  * Creates a new pfile.
  */
@@ -211,13 +218,25 @@ public PDFFontEntry getFontEntry(RMFont aFont, int fontCharSet)
 public Map <String,String> getImages()  { return _images; }
 
 /**
- * Adds an image data (uniqued) to file reference table, if not already present. 
+ * Adds an image data (uniqued) to file reference table, if not already present, and returns the name by which page
+ * contents should reference it.
  */
-public void addImageData(RMImageData anImageData)
+public String addImageData(RMImageData anImageData)
 {
-    // If not present, unique, add to xref table and add to image refs
-    if(!_images.containsKey(anImageData.getName()))
-        _images.put(anImageData.getName(), _xref.addObject(getUniqueImageData(anImageData)));
+    // If image data was already added, just return name
+    String name = _imageNames.get(anImageData.getName()); if(name!=null) return name;
+    
+    // Get unique image data (PDF images with same bytes and page are equal, so each page is written once as a form)
+    RMImageData idata = getUniqueImageData(anImageData);
+    
+    // If not present, add unique image data to xref table and add to image refs
+    name = idata.getName();
+    if(!_images.containsKey(name))
+        _images.put(name, _xref.addObject(idata, true));
+    
+    // Add name for image data and return
+    _imageNames.put(anImageData.getName(), name);
+    return name;
 }
 
 /**
@@ -234,31 +253,16 @@ public RMImageData getUniqueImageData(RMImageData anImageData)
 /**
  * Writes all entry objects to pdf buffer.
  */
-public int writeXRefTable(RMPDFWriter aWriter)
+public int writeXRefTable(RMPDFWriter aWriter) throws IOException
 {
-    // Create list for offsets
-    List <Integer> offsets = new Vector(_xref.getEntryCount());
-    
     // Get buffer
     PDFBuffer buffer = aWriter.getBuffer();
     
-    // First write the objects themselves, saving the file offsets for later use.
+    // First write the objects themselves (that weren't already written), saving the file offsets for later use.
     // Call entries.size() every time in loop because objects are added as descriptions are generated.
-    for(int i=0; i<_xref.getEntryCount(); i++) {
-        
-        offsets.add(buffer.length());
-        buffer.appendln((i+1) + " 0 obj");
-        Object entry = _xref.getEntry(i);
-        
-        // If encryption has been turned on, notify the encryptor of the top-level object we're about to write out.
-        if(aWriter.getEncryptor() != null)
-            aWriter.getEncryptor().startEncrypt(i+1, 0);
-        
-        aWriter.writeXRefEntry(entry);
-            
-        buffer.appendln();
-        buffer.appendln("endobj");
-    }
+    for(int i=0; i<_xref.getEntryCount(); i++)
+        if(i>=_offsets.size() || _offsets.get(i)==null)
+            writeXRefObject(aWriter, i);
         
     // Record the offset where the xref table lands
     int xoff = buffer.length();
@@ -272,10 +276,36 @@ public int writeXRefTable(RMPDFWriter aWriter)
     DecimalFormat format = new DecimalFormat("0000000000");
     buffer.appendln("0000000000 65535 f ");
     for(int i=0; i<count; i++)
-        buffer.appendln(format.format(offsets.get(i)) + " 00000 n ");
+        buffer.appendln(format.format(_offsets.get(i)) + " 00000 n ");
     
     // Return offset
     return xoff;
 }
 
+/**
+ * Writes the xref entry object at given index to writer buffer and saves its file offset (objects can be written
+ * before the end of the document, like page contents, and are then skipped by writeXRefTable()).
+ */
+public void writeXRefObject(RMPDFWriter aWriter, int anIndex) throws IOException
+{
+    // Get buffer and save offset
+    PDFBuffer buffer = aWriter.getBuffer();
+    while(_offsets.size()<=anIndex) _offsets.add(null);
+    _offsets.set(anIndex, buffer.length());
+    
+    // Write object header and get entry
+    buffer.appendln((anIndex+1) + " 0 obj");
+    Object entry = _xref.getEntry(anIndex);
+    
+    // If encryption has been turned on, notify the encryptor of the top-level object we're about to write out.
+    if(aWriter.getEncryptor() != null)
+        aWriter.getEncryptor().startEncrypt(anIndex+1, 0);
+    
+    // Write entry and object trailer and flush buffer (if full)
+    aWriter.writeXRefEntry(entry);
+    buffer.appendln();
+    buffer.appendln("endobj");
+    buffer.flushIfFull();
+}
+
 }
\ No newline at end of file
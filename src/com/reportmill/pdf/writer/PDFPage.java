@@ -1,6 +1,7 @@
 package com.reportmill.pdf.writer;
 import com.reportmill.base.*;
 import com.reportmill.graphics.RMColor;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -28,6 +29,9 @@ public class PDFPage extends PDFBuffer {
     
     // Compressed version of contents
     PDFStream             _stream;
+    
+    // The reference string of contents stream, if already written (see writeContents())
+    String                _contentsRef;
 
     // Constants for opacity
     public static final byte OPACITY_STROKE_ONLY = 0;
@@ -334,6 +338,24 @@ public void closeContents(RMPDFWriter aWriter)
     _source.reset();
 }
 
+/**
+ * Writes page contents to writer buffer now, as their own object, and releases them (so finished pages aren't held
+ * until the end of the document).
+ */
+public void writeContents(RMPDFWriter aWriter) throws IOException
+{
+    // Get contents stream (just return if no contents)
+    PDFStream stream = _stream!=null? _stream : length()>0? new PDFStream(toByteArray(), null) : null;
+    if(stream==null) return;
+    
+    // Add stream to xref, write it and release it and contents
+    PDFXTable xref = _pfile.getXRefTable();
+    _contentsRef = xref.addObject(stream, true);
+    int index = xref.getEntryCount() - 1;
+    _pfile.writeXRefObject(aWriter, index);
+    xref.releaseEntry(index); _stream = null; _source.reset();
+}
+
 /**
  * Writes the page contents to the pdf buffer.
  */
@@ -346,6 +368,10 @@ public void writePDF(RMPDFWriter aWriter)
     // Write page basic info
     buffer.append("<< /Type /Page /Parent ").appendln(xref.getRefString(_pfile.getPagesTree()));
 
+    // If page contents already written, just write Contents entry
+    if(_contentsRef!=null)
+        buffer.append("/Contents ").appendln(_contentsRef);
+    
     // Write page contents (first turn to stream and add to xref, with Contents entry)
     if(length()>0) {
         PDFStream stream = new PDFStream(toByteArray(), null);
@@ -20,6 +20,12 @@ public int getEntryCount()  { return _entries.size(); }
  */
 public Object getEntry(int anIndex)  { return _entries.get(anIndex); }
 
+/**
+ * Releases the entry object at the given index once it has been written (it can no longer be found by reference),
+ * keeping its place in the table.
+ */
+public void releaseEntry(int anIndex)  { _entries.set(anIndex, null); }
+
 /**
  * Adds an object and returns the string by which the object can be referenced inside the pdf file.
  */
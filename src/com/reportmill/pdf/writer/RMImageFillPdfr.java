@@ -33,8 +33,8 @@ public static void writeImageFill(RMImageFill anImageFill, RMPath aPath, RMRect
             return;
     }
 
-    // Add image data
-    aWriter.addImageData(idata);
+    // Add image data and get name to reference it by
+    String iname = aWriter.addImageData(idata);
 
     // Get PDF page
     PDFPage pdfPage = aWriter.getPDFPage();
@@ -103,7 +103,7 @@ public static void writeImageFill(RMImageFill anImageFill, RMPath aPath, RMRect
                 if(pdfImage)
                     pdfPage.transform(1, 0, 0, -1, x, height + y);
                 else pdfPage.transform(width, 0, 0, -height, x, height + y);
-                pdfPage.appendln("/" + idata.getName() + " Do");
+                pdfPage.appendln("/" + iname + " Do");
                 pdfPage.grestore();
             }
         }
@@ -125,7 +125,7 @@ public static void writeImageFill(RMImageFill anImageFill, RMPath aPath, RMRect
         pdfPage.transform(width, 0, 0, -height, anImageFill.getX() + bounds.x, anImageFill.getY() + bounds.getMaxY());
         
         // Do image
-        pdfPage.appendln("/" + idata.getName() + " Do");
+        pdfPage.appendln("/" + iname + " Do");
     }
         
     // Grestore
@@ -28,8 +28,8 @@ protected void writeShape(T anImageShape, RMPDFWriter aWriter)
             return;
     }
 
-    // Add image data
-    aWriter.addImageData(idata);
+    // Add image data and get name to reference it by
+    String iname = aWriter.addImageData(idata);
 
     // Get PDF page
     PDFPage pdfPage = aWriter.getPDFPage();
@@ -56,7 +56,7 @@ protected void writeShape(T anImageShape, RMPDFWriter aWriter)
     pdfPage.transform(width, 0, 0, -height, bounds.getX(), bounds.getMaxY());
     
     // Do image
-    pdfPage.appendln("/" + idata.getName() + " Do");
+    pdfPage.appendln("/" + iname + " Do");
         
     // Grestore
     pdfPage.grestore();
@@ -2,6 +2,7 @@ package com.reportmill.pdf.writer;
 import com.reportmill.base.*;
 import com.reportmill.graphics.*;
 import com.reportmill.shape.*;
+import java.io.*;
 import java.util.*;
 import java.util.zip.Deflater;
 
@@ -32,6 +33,10 @@ public class RMPDFWriter extends PDFFile {
 
     // The current PDF Buffer
     PDFBuffer                   _buffer = new PDFBuffer();
+    
+    // Whether the PDF header has been written and the version it declared
+    boolean                     _headerWritten;
+    float                       _headerVersion;
 
     // The author
     String                      _author = "ReportMill User";
@@ -49,7 +54,7 @@ public class RMPDFWriter extends PDFFile {
     PDFEncryptor                _encryptor;
     
     // Map of pdf.reader XRefs to pdf.writer XRefs
-    Map                         _readerWriterXRefMap = new HashMap();
+    Map                         _readerWriterXRefMap = new IdentityHashMap();
   
     // The default viewer preferences map
     static Map <String,String>  _viewerPreferencesDefault = Collections.singletonMap("PrintScaling", "/None");
@@ -59,6 +64,9 @@ public class RMPDFWriter extends PDFFile {
     
     // Whether writer should include newline and tab characters (like tab, newline, carriage return)
     static boolean              _includeNewlinesDefault = true;
+    
+    // The highest PDF version, declared for embedded PDF images whose version can't be read
+    static final float          MAX_VERSION = 1.7f;
 
 /**
  * Returns the author.
@@ -94,6 +102,19 @@ public void setCreator(String aValue)  { _creator = aValue; }
  * Returns a PDF byte array for a given RMDocument.
  */
 public byte[] getBytes(RMDocument aDoc)
+{
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    try { write(aDoc, bytesOut); }
+    catch(IOException e) { throw new RuntimeException(e); }
+    return bytesOut.toByteArray();
+}
+
+/**
+ * Writes PDF for given RMDocument to given stream (the stream isn't closed). Page contents are written to the stream
+ * as each page is finished and other PDF file objects as they are generated at the end of document, instead of being
+ * collected into a single byte array first.
+ */
+public void write(RMDocument aDoc, OutputStream aStream) throws IOException
 {
     // Validate and resolve doc page references
     aDoc.layout();
@@ -102,37 +123,101 @@ public byte[] getBytes(RMDocument aDoc)
     // Add watermark
     ReportMill.lc(aDoc);
 
+    // Start document, write pages and finish document to stream
+    startDocument(aDoc, aStream);
+    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++)
+        writePage(aDoc.getPage(i));
+    finishDocument(aStream);
+}
+
+/**
+ * Starts writing given document (which should already be laid out), to be followed by writePage() for each page and
+ * finishDocument(). Page contents are held until finishDocument() (use startDocument(doc, stream) to write them as
+ * pages are finished).
+ */
+public void startDocument(RMDocument aDoc)
+{
     // Get doc pdf attributes
     _compress = aDoc.getCompress();
     
     // Set PDF file author / creator
     setInfoDictAuthor(getAuthor());
     setInfoDictCreator(getCreator());
+}
+
+/**
+ * Starts writing given document (which should already be laid out) to given stream, to be followed by writePage() for
+ * each page and finishDocument(stream). The header is written now, so the PDF version is set first: Pages can need up
+ * to PDF 1.4 (for alpha images and gradient patterns) and the version of any embedded PDF images, which are found by
+ * scanning the document. Each page's contents are then written to stream when the page is finished.
+ */
+public void startDocument(RMDocument aDoc, OutputStream aStream) throws IOException
+{
+    // Do normal start and set final version
+    startDocument(aDoc);
+    setVersion(1.4f);
+    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++)
+        updateVersionForImages(aDoc.getPage(i));
     
-    // Iterate over doc pages
-    for(int i=0, iMax=aDoc.getPageCount(); i<iMax; i++) { RMShape page = aDoc.getPage(i);
-        
-        // Get pdf page, set media box and add to pages tree and xref
-        _pdfPage = new PDFPage(this);
-        _pdfPage.setMediaBox(page.getBoundsInside());
-        
-        // Have page pdfr write pdf
-        RMObjectPdfr.getPdfr(page).writePDF(page, this);
+    // Have buffer write to stream as it fills and write header
+    _buffer.setOutputStream(aStream);
+    writeHeader();
+}
 
-        // Close page contents
-        _pdfPage.closeContents(this);
-    }
-      
+/**
+ * Writes a page of document (and writes page contents to stream, if document was started with a stream).
+ */
+public void writePage(RMShape aPage) throws IOException
+{
+    // Get pdf page, set media box and add to pages tree and xref
+    _pdfPage = new PDFPage(this);
+    _pdfPage.setMediaBox(aPage.getBoundsInside());
+    
+    // Have page pdfr write pdf
+    RMObjectPdfr.getPdfr(aPage).writePDF(aPage, this);
+
+    // Close page contents and, if header has been written, write page contents to stream
+    _pdfPage.closeContents(this);
+    if(_headerWritten) {
+        _pdfPage.writeContents(this); _buffer.flushIfFull(); }
+}
+
+/**
+ * Finishes writing document and returns PDF bytes.
+ */
+public byte[] finishDocument()
+{
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    try { finishDocument(bytesOut); }
+    catch(IOException e) { throw new RuntimeException(e); }
+    return bytesOut.toByteArray();
+}
+
+/**
+ * Finishes writing document to given stream (the stream is flushed, but not closed). If document was started with a
+ * stream, it must be the same stream.
+ */
+public void finishDocument(OutputStream aStream) throws IOException
+{
     // run a pass though all the _pages to resolve any forward references
     _pagesTree.resolvePageReferences();
     
-    // Write out header but save away version in case it gets updated
-    String versionString = getVersion();
-    _buffer.appendln("%" + versionString);
+    // Complain if header was written and stream isn't the one document was started with
+    if(_headerWritten && _buffer._out!=aStream)
+        throw new IllegalStateException("RMPDFWriter: Document must be finished to stream it was started with");
     
-    // Write 4 binary bytes in comment to indicate we may use 8 bit binary
-    _buffer.append(new byte[] { (byte)'%', (byte)'\242', (byte)'\243', (byte)'\245', (byte)'\250' });
-    _buffer.appendln();
+    // Bump version for embedded PDF images (written with xref table)
+    updateVersionForImages();
+    
+    // If header not yet written, have buffer write to stream and write header
+    if(!_headerWritten) {
+        _buffer.setOutputStream(aStream);
+        writeHeader();
+    }
+    
+    // Otherwise, if version was raised since header was written, declare it in catalog (header is at least PDF-1.4)
+    else if(_version>_headerVersion)
+        _catalogDict.put("Version", "/" + _version);
     
     // The _objects & the xref table 
     int off = writeXRefTable(this);
@@ -158,30 +243,57 @@ public byte[] getBytes(RMDocument aDoc)
     _buffer.append(off).appendln();
     _buffer.appendln("%%EOF");
     
-    // Now get actual pdf bytes
-    byte pdfBytes[] = _buffer.toByteArray();
+    // Write remaining bytes and flush stream
+    _buffer.flush(); aStream.flush();
+}
+
+/**
+ * Writes the PDF header (if version is raised after this, finishDocument declares it in the catalog).
+ */
+protected void writeHeader()
+{
+    // Write out header
+    _buffer.appendln("%" + getVersion());
     
-    // Get new version string (might have been bumped during generation)
-    String newVersion = getVersion();
+    // Write 4 binary bytes in comment to indicate we may use 8 bit binary
+    _buffer.append(new byte[] { (byte)'%', (byte)'\242', (byte)'\243', (byte)'\245', (byte)'\250' });
+    _buffer.appendln();
+    _headerWritten = true; _headerVersion = _version;
+}
+
+/**
+ * Bumps the PDF version for the PDF files of any embedded PDF images in xref table.
+ */
+protected void updateVersionForImages()
+{
+    for(int i=0, iMax=_xref.getEntryCount(); i<iMax; i++) { Object entry = _xref.getEntry(i);
+        if(entry instanceof RMImageData) updateVersionForImage((RMImageData)entry); }
+}
+
+/**
+ * Bumps the PDF version for the PDF files of any embedded PDF images in given shape (and its children).
+ */
+protected void updateVersionForImages(RMShape aShape)
+{
+    // Update version for shape image and image fill
+    if(aShape instanceof RMImageShape) updateVersionForImage(((RMImageShape)aShape).getImageData());
+    if(aShape.getFill() instanceof RMImageFill) updateVersionForImage(((RMImageFill)aShape.getFill()).getImageData());
     
-    // If version string was bumped during generation, go back and update header
-    if(!versionString.equals(newVersion)) {
-        
-        // pdf files are extremely sensitive to position, so make sure the headers are the same size
-        int newLen = newVersion.length();
-        int oldLen = versionString.length();
+    // Recurse into children
+    for(int i=0, iMax=aShape.getChildCount(); i<iMax; i++)
+        updateVersionForImages(aShape.getChild(i));
+}
 
-        // Complain if version string increases in length
-        if(newLen > oldLen) 
-            throw new RuntimeException("error trying to update pdf version number to " + newVersion);
-        
-        // Copy new version in (pad with spaces if new version is smaller)
-        for(int i=0; i<oldLen; i++)
-            pdfBytes[i+1] = (byte)(i<newLen? newVersion.charAt(i) : ' ');
+/**
+ * Bumps the PDF version for the PDF file of given image data (if embedded PDF image). If the version of the PDF file
+ * can't be read, the highest version is declared.
+ */
+private void updateVersionForImage(RMImageData anImageData)
+{
+    if(anImageData!=null && anImageData.getReader() instanceof RMPDFImageReader) {
+        com.reportmill.pdf.reader.PDFFile pfile = ((RMPDFImageReader)anImageData.getReader()).getPDFFile();
+        if(pfile!=null) setVersion(pfile.getVersion(MAX_VERSION));
     }
-    
-    // Return pdf bytes
-    return pdfBytes;
 }
 
 /**
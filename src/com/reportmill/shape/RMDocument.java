@@ -6,7 +6,7 @@ import com.reportmill.text.RMFont;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.util.*;
-import java.io.File;
+import java.io.*;
 import snap.util.*;
 import snap.web.*;
 
@@ -84,6 +84,12 @@ public class RMDocument extends RMParentShape {
     // Locale
     public static Locale _locale = Locale.ENGLISH;  // Used by date/number formats    
 
+    // The file types that write(String) writes by streaming output to file with write(OutputStream, String)
+    static final String WRITE_TYPES[] = { "pdf", "csv", "xls", "xlsx", "rtf", "rpt", "rib", "xml" };
+    
+    // The file types that hold a single page
+    static final String PAGE_TYPES[] = { "svg", "jpg", "jpeg", "png" };
+
     // Page Layout Enumerations
     public enum PageLayout { Single, Double, Quadruple, Facing, Continuous, ContinuousDouble };
 
@@ -117,6 +123,11 @@ public RMDocument(Object aSource)  { new RMArchiver().getDoc(aSource, this); }
  */
 public static RMDocument getDoc(Object aSource)  { return new RMArchiver().getDoc(aSource, null); }
 
+/**
+ * Returns a private copy of a cached template document for aSource (reloaded if source changes).
+ */
+public static RMDocument getTemplate(Object aSource)  { return RMTemplateCache.getTemplate(aSource); }
+
 /**
  * Returns the filename associated with this document, if available.
  */
@@ -497,6 +508,11 @@ public byte[] getBytesPDF()  { return new com.reportmill.pdf.writer.RMPDFWriter(
  */
 public byte[] getBytesHTML()  { return new RMHtmlFile(this).getBytes(); }
 
+/**
+ * Returns the document as a byte array of an SVG file (of first page).
+ */
+public byte[] getBytesSVG()  { return new RMSVGWriter(this).getBytes(0); }
+
 /**
  * Returns the document as a byte array of a CSV file.
  */
@@ -515,6 +531,11 @@ public byte[] getBytesDelimitedAscii(String fieldDelimiter, String recordDelimit
  */
 public byte[] getBytesExcel()  { return new RMExcelWriter().getBytes(this); }
 
+/**
+ * Returns the document as byte array of an Excel Office Open XML file (.xlsx).
+ */
+public byte[] getBytesXLSX()  { return new RMXLSXWriter().getBytes(this); }
+
 /**
  * Returns the document as byte array of an Excel file.
  */
@@ -556,16 +577,14 @@ public String getStringDelimitedText(String fieldDelimiter, String recordDelimit
  */
 public void write(String aPath)
 {
-    String path = aPath.toLowerCase();
-    if(path.endsWith(".pdf")) writePDF(aPath);
-    if(path.endsWith(".html")) new RMHtmlFile(this).write(aPath);
-    if(path.endsWith(".csv")) RMUtils.writeBytes(getBytesCSV(), aPath);
-    if(path.endsWith(".jpg")) RMUtils.writeBytes(getBytesJPEG(), aPath);
-    if(path.endsWith(".png")) RMUtils.writeBytes(getBytesPNG(), aPath);
-    if(path.endsWith(".xls")) RMUtils.writeBytes(getBytesExcel(), aPath);
-    if(path.endsWith(".rtf")) RMUtils.writeBytes(getBytesRTF(), aPath);
-    if(path.endsWith(".rpt") || path.endsWith(".rib") || path.endsWith(".xml"))
-        RMUtils.writeBytes(toXML().getBytes(), aPath);
+    // Get type from path extension
+    String type = aPath.substring(aPath.lastIndexOf('.')+1).toLowerCase();
+    
+    // Handle HTML, SVG and images (which may write multiple files) and anything else supported that can be written to stream
+    if(type.equals("html")) new RMHtmlFile(this).write(aPath);
+    else if(type.equals("svg")) new RMSVGWriter(this).write(aPath);
+    else if(type.equals("jpg") || type.equals("jpeg") || type.equals("png")) writeImageFiles(aPath, type);
+    else if(ArrayUtils.contains(WRITE_TYPES, type)) writeFile(aPath, type);
 }
 
 /**
@@ -576,7 +595,79 @@ public void write(File aFile)  { write(aFile.getAbsolutePath()); }
 /**
  * Writes the document to the given path String as PDF.
  */
-public void writePDF(String aPath)  { RMUtils.writeBytes(getBytesPDF(), aPath); }
+public void writePDF(String aPath)  { writeFile(aPath, "pdf"); }
+
+/**
+ * Writes the document to file at given path in format for given type, streaming output to file as it is generated.
+ */
+protected void writeFile(String aPath, String aType)
+{
+    try {
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(aPath));
+        try { write(fileOut, aType); }
+        finally { fileOut.close(); }
+    }
+    catch(IOException e) { throw new RuntimeException(e); }
+}
+
+/**
+ * Writes the document to given stream in format for given type (pdf, html, svg, csv, xls, xlsx, rtf, jpg, png or xml).
+ * Output is written to stream as it is generated, instead of being created as a byte array first, so servlets can send
+ * large reports without holding the whole file in memory (the stream is flushed, but not closed). HTML images are
+ * written inline as data URIs. SVG, JPEG and PNG hold a single page, so they are rejected for documents with multiple
+ * pages (use write(path) or RMShapeImager.writeImagesZip() for those).
+ */
+public void write(OutputStream aStream, String aType) throws IOException
+{
+    String type = aType.toLowerCase(); if(type.startsWith(".")) type = type.substring(1);
+    if(ArrayUtils.contains(PAGE_TYPES, type) && getPageCount()>1)
+        throw new IllegalArgumentException("RMDocument.write: Type " + aType + " can't hold " + getPageCount() +
+            " pages");
+    if(type.equals("pdf")) new com.reportmill.pdf.writer.RMPDFWriter().write(this, aStream);
+    else if(type.equals("html")) { RMHtmlFile hfile = new RMHtmlFile(this); hfile.setEmbedImages(true);
+        hfile.write(aStream); }
+    else if(type.equals("svg")) new RMSVGWriter(this).write(0, aStream);
+    else if(type.equals("csv")) RMStringWriter.writeDelimited(this, aStream, "ISO-8859-1", ",", "\n", true);
+    else if(type.equals("xls")) new RMExcelWriter().write(this, aStream);
+    else if(type.equals("xlsx")) new RMXLSXWriter().write(this, aStream);
+    else if(type.equals("rtf")) new RMRTFWriter().write(this, aStream);
+    else if(type.equals("jpg") || type.equals("jpeg") || type.equals("png")) writeImage(0, aStream, type);
+    else if(type.equals("rpt") || type.equals("rib") || type.equals("xml")) aStream.write(toXML().getBytes());
+    else throw new IllegalArgumentException("RMDocument.write: Unsupported type: " + aType);
+    aStream.flush();
+}
+
+/**
+ * Writes an image of given type (jpg or png) for page at given index to given stream (the stream isn't closed).
+ */
+public void writeImage(int anIndex, OutputStream aStream, String aType) throws IOException
+{
+    String type = aType.toLowerCase(); if(type.equals("jpeg")) type = "jpg";
+    RMShapeImager imager = new RMShapeImager(); if(type.equals("jpg")) imager.setColor(Color.white);
+    imager.writeImage(getPage(anIndex), type, aStream);
+}
+
+/**
+ * Writes an image file of given type for each page (if document has multiple pages, pages are written to files with
+ * page number appended to name).
+ */
+protected void writeImageFiles(String aPath, String aType)
+{
+    // If one page, just write it to path
+    if(getPageCount()==1) { writeFile(aPath, aType); return; }
+
+    // Get path without extension and write each page to path with page number
+    int dot = aPath.lastIndexOf('.'), sep = aPath.lastIndexOf(File.separatorChar);
+    String base = dot>sep? aPath.substring(0, dot) : aPath, ext = dot>sep? aPath.substring(dot) : "." + aType;
+    try {
+        for(int i=0, iMax=getPageCount(); i<iMax; i++) {
+            OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(base + "-" + (i+1) + ext));
+            try { writeImage(i, fileOut, aType); }
+            finally { fileOut.close(); }
+        }
+    }
+    catch(IOException e) { throw new RuntimeException(e); }
+}
 
 /**
  * Returns the total time needed to animate this document (total of all page animators).
@@ -625,11 +716,11 @@ public RMDocument getSubreport(String aName)
         // Get directory, subreport filename and subreport document
         String directory = RMStringUtils.getPathParent(getFilename());
         String subreportFilename = RMStringUtils.getPathChild(directory, aName);
-        try { return RMDocument.getDoc(subreportFilename); }
+        try { return RMDocument.getTemplate(subreportFilename); }
         catch(Exception e) { }
         
         // Otherwise, just try full name in case it's a path
-        try { return RMDocument.getDoc(aName); }
+        try { return RMDocument.getTemplate(aName); }
         catch(Exception e) { }
     }
     
@@ -1,19 +1,42 @@
 package com.reportmill.shape;
 import com.reportmill.base.RMRect;
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import javax.imageio.*;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * A class to produce an image for an RMShape.
+ *
+ * Images can also be written for a list of shapes (usually report pages) to a zip file or multi-image TIFF. Pages are
+ * painted and encoded on a pool of worker threads (but written in order), each with its own painter - pages are
+ * separate shape trees, and what they share (fonts, image data, copies of cached text layouts) is safe to use from
+ * several threads. Pages with more than MaxImagePixels are rendered in horizontal bands on demand (each painted with a
+ * clip, so only shapes in the band are painted), so encoders that read an image a row at a time (like PNG and TIFF)
+ * never need a single full-size image.
  */
 public class RMShapeImager {
 
     // The scale
     double         _scale = 1;
-    
+
     // The background color
     Color          _color;
-    
+
+    // The number of worker threads to use for multiple shapes
+    int            _threadCount = Runtime.getRuntime().availableProcessors();
+
+    // The maximum number of pixels for an image rendered in one piece (larger images are rendered in bands)
+    long           _maxImagePixels = 4096*4096;
+
+    // The height of bands for images rendered in bands
+    int            _bandHeight = 256;
+
 /**
  * Returns the background color.
  */
@@ -34,52 +57,353 @@ public double getScale()  { return _scale; }
  */
 public RMShapeImager setScale(double aValue)  { _scale = aValue; return this; }
 
+/**
+ * Sets the scale for given resolution in dots per inch.
+ */
+public RMShapeImager setDPI(double aValue)  { _scale = aValue/72; return this; }
+
+/**
+ * Returns the number of worker threads to use for multiple shapes.
+ */
+public int getThreadCount()  { return _threadCount; }
+
+/**
+ * Sets the number of worker threads to use for multiple shapes.
+ */
+public RMShapeImager setThreadCount(int aValue)  { _threadCount = Math.max(aValue, 1); return this; }
+
+/**
+ * Returns the maximum number of pixels for an image rendered in one piece (larger images are rendered in bands).
+ */
+public long getMaxImagePixels()  { return _maxImagePixels; }
+
+/**
+ * Sets the maximum number of pixels for an image rendered in one piece.
+ */
+public RMShapeImager setMaxImagePixels(long aValue)  { _maxImagePixels = aValue; return this; }
+
 /**
  * Returns an image for the given shape, with given background color (null for clear) and scale.
  */
-public BufferedImage createImage(RMShape aShape)
+public BufferedImage createImage(RMShape aShape)  { return createImage(aShape, getColor()); }
+
+/**
+ * Returns an image for the given shape and background color.
+ */
+protected BufferedImage createImage(RMShape aShape, Color aColor)
+{
+    // Get image size for shape (if shape has no area, return empty image)
+    Dimension size = getImageSize(aShape);
+    if(size.width==0 || size.height==0)
+        return new BufferedImage(1, 1, getImageType(aColor));
+
+    // Create new image, paint shape and return image
+    BufferedImage image = new BufferedImage(size.width, size.height, getImageType(aColor));
+    paintImage(image, aShape, aColor, size.width, size.height, 0);
+    return image;
+}
+
+/**
+ * Returns an image for the given shape that is rendered in horizontal bands as they are requested.
+ */
+public RenderedImage createBandedImage(RMShape aShape)  { return createBandedImage(aShape, getColor()); }
+
+/**
+ * Returns an image for the given shape and background color that is rendered in horizontal bands.
+ */
+protected RenderedImage createBandedImage(RMShape aShape, Color aColor)
+{
+    Dimension size = getImageSize(aShape);
+    if(size.width==0 || size.height==0) return createImage(aShape, aColor);
+    return new BandedImage(aShape, aColor, size.width, size.height);
+}
+
+/**
+ * Returns the image size for given shape (its marked bounds size times scale, rounded up to integral size).
+ */
+public Dimension getImageSize(RMShape aShape)
 {
-    // Get marked bounds for shape
     RMRect bounds = aShape instanceof RMPage? aShape.getBounds() : aShape.getBoundsMarkedDeep();
-    
-    // Calculate image size from shape bounds and scale (rounded up to integral size)
     int width = (int)Math.ceil(bounds.getWidth()*getScale());
     int height = (int)Math.ceil(bounds.getHeight()*getScale());
-    
-    // If shape has no area, return empty image
-    if(width==0 || height==0)
-        return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-    
-    // Create new image
-    BufferedImage image = null;
-    if(getColor()!=null && getColor().getAlpha()==255)
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    else image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    
+    return new Dimension(width, height);
+}
+
+/**
+ * Returns the image type for a given background color.
+ */
+private static int getImageType(Color aColor)
+{
+    return aColor!=null && aColor.getAlpha()==255? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+}
+
+/**
+ * Paints shape into given image, which holds the rows of the full image size starting at given y.
+ */
+private void paintImage(BufferedImage anImage, RMShape aShape, Color aColor, int aWidth, int aHeight, int aY)
+{
     // Get graphics and apply rendering hints
-    Graphics2D g2 = image.createGraphics();
+    Graphics2D g2 = anImage.createGraphics();
     g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
     //rhints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
     g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
     g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
     g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
     g2.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-    
+
     // Fill background
-    if(getColor()!=null) {
-        g2.setColor(getColor()); g2.fillRect(0, 0, width, height); }
+    if(aColor!=null) {
+        g2.setColor(aColor); g2.fillRect(0, 0, anImage.getWidth(), anImage.getHeight()); }
+
+    // Translate and clip to band (shapes outside clip aren't painted)
+    if(aY!=0) g2.translate(0, -aY);
+    g2.clipRect(0, aY, anImage.getWidth(), anImage.getHeight());
 
     // Create shape painter and configure
     RMShapePainterJ2D painter = new RMShapePainterJ2D(g2);
-    painter.setBounds(0, 0, width, height);
+    painter.setBounds(0, 0, aWidth, aHeight);
     painter.setScale((float)getScale());
     painter.setPrinting(true);
-    
+
     // Paint shape
     painter.paintShape(aShape);
-    
-    // Return image
-    return image;
+    g2.dispose();
 }
 
-}
\ No newline at end of file
+/**
+ * Writes an image of given type (png, jpg, etc.) for given shape to given stream (the stream isn't closed).
+ */
+public void writeImage(RMShape aShape, String aType, OutputStream aStream) throws IOException
+{
+    RenderedImage image = getRenderedImage(aShape, aType);
+    if(!ImageIO.write(image, aType, aStream))
+        throw new IOException("RMShapeImager: No image writer for type " + aType);
+}
+
+/**
+ * Returns the bytes of an image of given type (png, jpg, etc.) for given shape.
+ */
+public byte[] getBytes(RMShape aShape, String aType) throws IOException
+{
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    writeImage(aShape, aType, bytesOut);
+    return bytesOut.toByteArray();
+}
+
+/**
+ * Writes images of given type (png, jpg, etc.) for given shapes to given stream as a zip file with entries named
+ * page1.type, page2.type, etc. Images are rendered and encoded in parallel (the stream isn't closed).
+ */
+public void writeImagesZip(List <? extends RMShape> theShapes, final String aType, OutputStream aStream)
+    throws IOException
+{
+    // Create zip stream
+    final ZipOutputStream zipOut = new ZipOutputStream(aStream);
+
+    // Render and encode shapes in parallel and add zip entry for each (in order)
+    forEachShape(theShapes, new ShapeTask <byte[]> () {
+        public byte[] run(RMShape aShape) throws IOException  { return getBytes(aShape, aType); }
+        public void done(int anIndex, byte theBytes[]) throws IOException {
+            zipOut.putNextEntry(new ZipEntry("page" + (anIndex+1) + "." + aType));
+            zipOut.write(theBytes); zipOut.closeEntry();
+        }
+    });
+
+    // Finish zip
+    zipOut.finish(); zipOut.flush();
+}
+
+/**
+ * Writes images for given shapes to given stream as a multi-image TIFF file. Images are encoded in parallel and
+ * written in order. Requires an ImageIO TIFF writer (built in since Java 9, otherwise a plugin like JAI Image I/O must
+ * be on the classpath) - see isTIFFSupported(). The stream isn't closed.
+ */
+public void writeImagesTIFF(List <? extends RMShape> theShapes, OutputStream aStream) throws IOException
+{
+    // Get TIFF image writer (complain before rendering anything if there isn't one)
+    final ImageWriter writer = getTIFFWriter();
+    if(writer==null)
+        throw new IOException("RMShapeImager: No TIFF image writer found (writing TIFF requires Java 9 or later or " +
+            "an ImageIO TIFF plugin like JAI Image I/O)");
+
+    // Create image output stream and start sequence
+    ImageOutputStream imageOut = ImageIO.createImageOutputStream(aStream);
+    writer.setOutput(imageOut);
+    writer.prepareWriteSequence(null);
+
+    // Render shapes in parallel and write each to sequence (in order)
+    try {
+        forEachShape(theShapes, new ShapeTask <RenderedImage> () {
+            public RenderedImage run(RMShape aShape)  { return getRenderedImage(aShape, "tiff"); }
+            public void done(int anIndex, RenderedImage anImage) throws IOException {
+                writer.writeToSequence(new IIOImage(anImage, null, null), null); }
+        });
+        writer.endWriteSequence();
+    }
+
+    // Dispose writer and flush image stream
+    finally { writer.dispose(); imageOut.flush(); }
+}
+
+/**
+ * Returns whether an ImageIO writer is available for multi-image TIFF files (see writeImagesTIFF()).
+ */
+public static boolean isTIFFSupported()  { ImageWriter w = getTIFFWriter(); if(w!=null) w.dispose(); return w!=null; }
+
+/**
+ * Returns a new ImageIO writer for multi-image TIFF files (or null if none available).
+ */
+private static ImageWriter getTIFFWriter()
+{
+    for(Iterator <ImageWriter> i=ImageIO.getImageWritersByFormatName("tiff"); i.hasNext();) { ImageWriter w = i.next();
+        if(w.canWriteSequence()) return w; w.dispose(); }
+    return null;
+}
+
+/**
+ * Returns the image to encode for a shape and image type: The full image or (for very large images) a banded image.
+ */
+private RenderedImage getRenderedImage(RMShape aShape, String aType)
+{
+    // Get background color (JPEG doesn't support transparency, so make sure it is opaque - images are then RGB)
+    Color color = getColor();
+    boolean jpeg = aType.equalsIgnoreCase("jpg") || aType.equalsIgnoreCase("jpeg");
+    if(jpeg && (color==null || color.getAlpha()<255)) color = Color.white;
+
+    // Return full image or banded image
+    Dimension size = getImageSize(aShape);
+    if((long)size.width*size.height<=getMaxImagePixels()) return createImage(aShape, color);
+    return createBandedImage(aShape, color);
+}
+
+/**
+ * Runs given task for each shape on a worker pool and calls task done for each result in shape order. To bound
+ * memory, only a few results ahead of the one being finished are allowed to be in progress or waiting.
+ */
+private <T> void forEachShape(List <? extends RMShape> theShapes, final ShapeTask <T> aTask) throws IOException
+{
+    // Create worker pool and list of pending results
+    int count = theShapes.size(), threadCount = Math.min(getThreadCount(), Math.max(count, 1));
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    List <Future<T>> futures = new ArrayList();
+
+    // Iterate over shapes: Submit tasks up to window, then wait for next result and finish it
+    try {
+        for(int i=0, next=0; i<count; i++) {
+            while(next<count && next-i<threadCount*2) { final RMShape shape = theShapes.get(next++);
+                futures.add(pool.submit(new Callable<T>() { public T call() throws Exception {
+                    return aTask.run(shape); }}));
+            }
+            T result = futures.get(i).get(); futures.set(i, null);
+            aTask.done(i, result);
+        }
+    }
+
+    // Rethrow worker exceptions as IOException
+    catch(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if(cause instanceof IOException) throw (IOException)cause;
+        if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+        throw new IOException(cause);
+    }
+    catch(InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+
+    // Shut down pool
+    finally { pool.shutdownNow(); }
+}
+
+/**
+ * A task to run on a shape in a worker thread, with results finished in order on the calling thread.
+ */
+private interface ShapeTask <T> {
+
+    /** Runs the task for a shape (in worker thread). */
+    public T run(RMShape aShape) throws IOException;
+
+    /** Finishes the result for the shape at given index (in calling thread, in shape order). */
+    public void done(int anIndex, T aResult) throws IOException;
+}
+
+/**
+ * A RenderedImage that renders a shape in horizontal bands (tiles as wide as the image) as they are requested, and
+ * keeps only the last band rendered.
+ */
+private class BandedImage implements RenderedImage {
+
+    // The shape, background color, image size and band height
+    RMShape      _shape; Color _color; int _width, _height, _bandH;
+
+    // The color model and band sample model
+    ColorModel   _cmodel; SampleModel _smodel;
+
+    // The last rendered band and its index
+    Raster       _band; int _bandIndex = -1;
+
+    /** Creates a new banded image. */
+    public BandedImage(RMShape aShape, Color aColor, int aWidth, int aHeight)
+    {
+        _shape = aShape; _color = aColor; _width = aWidth; _height = aHeight;
+        _bandH = Math.min(_bandHeight, aHeight);
+        _cmodel = new BufferedImage(1, 1, getImageType(aColor)).getColorModel();
+        _smodel = _cmodel.createCompatibleSampleModel(aWidth, _bandH);
+    }
+
+    /** Returns the band raster at given band index (rendering it if not the last band). */
+    public synchronized Raster getTile(int tileX, int tileY)
+    {
+        // If band is last band, just return it
+        if(tileY==_bandIndex) return _band;
+
+        // Render band image and get raster translated to band location
+        int y = tileY*_bandH, h = Math.min(_bandH, _height - y);
+        BufferedImage image = new BufferedImage(_width, _bandH, getImageType(_color));
+        paintImage(image, _shape, _color, _width, _height, y);
+        _band = image.getRaster().createChild(0, 0, _width, h, 0, y, null); _bandIndex = tileY;
+        return _band;
+    }
+
+    /** Returns a raster for given rect, copied from the bands it covers. */
+    public Raster getData(Rectangle aRect)
+    {
+        Rectangle rect = aRect.intersection(new Rectangle(0, 0, _width, _height));
+        WritableRaster raster = _cmodel.createCompatibleWritableRaster(rect.width, rect.height);
+        raster = raster.createWritableTranslatedChild(rect.x, rect.y);
+        copyData(raster);
+        return raster;
+    }
+
+    /** Copies image data into given raster. */
+    public WritableRaster copyData(WritableRaster aRaster)
+    {
+        if(aRaster==null) aRaster = _cmodel.createCompatibleWritableRaster(_width, _height);
+        Rectangle rect = aRaster.getBounds().intersection(new Rectangle(0, 0, _width, _height));
+        for(int ty=rect.y/_bandH, tyMax=(rect.y+rect.height-1)/_bandH; ty<=tyMax; ty++) {
+            Raster band = getTile(0, ty);
+            Rectangle r = rect.intersection(band.getBounds());
+            aRaster.setRect(band.createChild(r.x, r.y, r.width, r.height, r.x, r.y, null));
+        }
+        return aRaster;
+    }
+
+    /** RenderedImage methods. */
+    public Raster getData()  { return getData(new Rectangle(0, 0, _width, _height)); }
+    public Vector<RenderedImage> getSources()  { return null; }
+    public Object getProperty(String aName)  { return Image.UndefinedProperty; }
+    public String[] getPropertyNames()  { return null; }
+    public ColorModel getColorModel()  { return _cmodel; }
+    public SampleModel getSampleModel()  { return _smodel; }
+    public int getWidth()  { return _width; }
+    public int getHeight()  { return _height; }
+    public int getMinX()  { return 0; }
+    public int getMinY()  { return 0; }
+    public int getNumXTiles()  { return 1; }
+    public int getNumYTiles()  { return (_height + _bandH - 1)/_bandH; }
+    public int getMinTileX()  { return 0; }
+    public int getMinTileY()  { return 0; }
+    public int getTileWidth()  { return _width; }
+    public int getTileHeight()  { return _bandH; }
+    public int getTileGridXOffset()  { return 0; }
+    public int getTileGridYOffset()  { return 0; }
+}
+
+}
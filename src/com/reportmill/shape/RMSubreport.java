@@ -158,6 +158,11 @@ public RMShape rpgAll(ReportOwner anRptOwner, RMShape aParent)
     return rpg;
 }
 
+/**
+ * Standard clone implementation (clears subreport shape, so copies load their own).
+ */
+public RMSubreport clone()  { RMSubreport clone = (RMSubreport)super.clone(); clone._subreportShape = null; return clone; }
+
 /**
  * XML archival.
  */
@@ -31,6 +31,12 @@ public class RMTableRPG extends RMParentShape {
    
    // The preferred height of table
    double            _prefHeight;
+   
+   // The listener that receives rows instead of this page, when streaming rows (see rpgRows())
+   RowListener       _rowListener;
+   
+   // The first row group of greatest depth handed to row listener on this page (the page start group)
+   RMGroup           _rowListenerStartGroup;
 
 /**
  * Creates a new RMTableRPG for ReportOwner and Table.
@@ -63,9 +69,9 @@ public RMShape rpgAll()
         setHeight(height);
     }
     
-    // Get return shape - convert to ColumnsPage if needed
+    // Get return shape - convert to ColumnsPage if needed (not when streaming rows)
     RMTableRPG rshape = this;
-    if(_table.getColumnCount()>1)
+    if(_table.getColumnCount()>1 && _rowListener==null)
         rshape = makeColumns();
     
     // If only one page generated, return it, otherwise return ShapeList
@@ -105,6 +111,40 @@ protected RMGroup getGroup(RMTable aTable)
     return aTable.getGrouper().groupObjects(dataset); // Do grouping
 }
 
+/**
+ * Generates the rows of a table (or table group) for given objects, one at a time, and passes each to given listener.
+ * Rows are generated by the normal table RPG without pagination, but are handed to the listener instead of being added
+ * to a table page (or report), so large datasets can be exported with just one row in memory.
+ */
+public static void rpgRows(RMShape aTable, Object theObjects, RowListener aListener)
+{
+    // Create and configure report owner with objects and null-string (like RMDocument.generateReport)
+    RMDocument doc = aTable.getDocument();
+    ReportOwner ro = new ReportOwner(); ro.setTemplate(doc);
+    ro.addModelObject(theObjects!=null? theObjects : new Object());
+    ro.setPaginate(false);
+    ro.setNullString(doc!=null? doc.getNullString() : null);
+
+    // Create table RPG for table or table group
+    RMTableRPG tableRPG;
+    if(aTable instanceof RMTable) tableRPG = new RMTableRPG(ro, (RMTable)aTable);
+    else if(aTable instanceof RMTableGroup) tableRPG = new RMTableGroupRPG(ro, (RMTableGroup)aTable, null);
+    else throw new IllegalArgumentException("RMTableRPG.rpgRows: Not a table or table group: " + aTable);
+    
+    // Set listener and do RPG (rows are passed to listener as they are generated)
+    tableRPG._rowListener = aListener;
+    tableRPG.rpgAll();
+}
+
+/**
+ * An interface for objects that receive generated rows from rpgRows().
+ */
+public interface RowListener {
+
+    /** Called when a row has been generated. */
+    public void rowGenerated(RMTableRowRPG aRow);
+}
+
 /**
  * Returns the last page.
  */
@@ -120,7 +160,7 @@ protected RMTableRPG addPage()
     
     // Create page, reset ivars, return
     RMTableRPG npage = _nextPage = createPage(); npage._table = _table;
-    npage._page = _page + 1;
+    npage._page = _page + 1; npage._rowListener = _rowListener;
     npage._pageBreak = _pageBreak; npage._pageBreakPage = _pageBreakPage + 1;
     if(_doPageBreak) { npage._pageBreak++; npage._pageBreakPage = 1; }
     return npage;
@@ -238,6 +278,14 @@ protected boolean addRows(RMGroup aGroup, RMTableRowRPG aParentRPG, RMTableRowRP
         // If no Running Summary row, just return false
         if(summaryRow==null || !summaryRow.hasVersion("Running")) return false;
         
+        // If streaming rows, add Running summary up to page break group (streamed rows always fit)
+        if(_rowListener!=null) { RMTableRowRPG oldLastRow = _lastRow;
+            RMGroup group = new RMGroup.Running(aGroup, getPageStartGroup(aGroup), oldLastRow.getGroup());
+            RMTableRowRPG row = new RMTableRowRPG(); row.rpgAll(_rptOwner, summaryRow, group, "Running");
+            addRow(row, aParentRPG); _lastRow = oldLastRow;
+            return false;
+        }
+        
         // Get first real group on page and its index
         RMGroup pageStartRowGroup = aGroup; int pageStartRowIndex = 0;
         for(int i=0, iMax=getChildCount(); i<iMax; i++) { RMTableRowRPG row = (RMTableRowRPG)getChild(i);
@@ -264,10 +312,8 @@ protected boolean addRows(RMGroup aGroup, RMTableRowRPG aParentRPG, RMTableRowRP
         
         // Get summary row group: If Running is present, reset group to page groups
         RMGroup group = aGroup;
-        if(summaryRow.hasVersion("Running")) {
-            for(int i=0, iMax=getChildCount(); i<iMax; i++) { RMTableRowRPG row = (RMTableRowRPG)getChild(i);
-                if(row.getGroup().getParentCount()>group.getParentCount()) group = row.getGroup(); }
-            group = new RMGroup.Running(aGroup, group, null); }
+        if(summaryRow.hasVersion("Running"))
+            group = new RMGroup.Running(aGroup, getPageStartGroup(aGroup), null);
         
         // Add summary row
         if(headerRow==null && detailsRow==null) summaryRow.setNumberOfChildrenToStayWith(0); // Hack
@@ -287,11 +333,35 @@ protected boolean addRows(RMGroup aGroup, RMTableRowRPG aParentRPG, RMTableRowRP
  */
 protected boolean addRowsExtra(RMGroup aGroup, RMTableRowRPG aParentRPG, RMTableRowRPG theLastRow)  { return true; }
 
+/**
+ * Returns the first row group on page deeper than given group (or given group if none), for Running summaries.
+ */
+RMGroup getPageStartGroup(RMGroup aGroup)
+{
+    // If streaming rows, return first row group of greatest depth handed to listener, if deeper
+    RMGroup group = aGroup;
+    if(_rowListener!=null) { RMGroup sgroup = _rowListenerStartGroup;
+        return sgroup!=null && sgroup.getParentCount()>group.getParentCount()? sgroup : group; }
+    
+    // Iterate over rows on page to find first row group of greatest depth
+    for(int i=0, iMax=getChildCount(); i<iMax; i++) { RMTableRowRPG row = (RMTableRowRPG)getChild(i);
+        if(row.getGroup().getParentCount()>group.getParentCount()) group = row.getGroup(); }
+    return group;
+}
+
 /**
  * Adds a row to this TableRPG.
  */
 boolean addRow(RMTableRowRPG aRow, RMTableRowRPG aParentRPG)
 {
+    // If streaming rows, hand row to listener instead of adding it (streamed rows aren't kept, so they always fit)
+    if(_rowListener!=null) { RMGroup sgroup = _rowListenerStartGroup;
+        if(sgroup==null || aRow.getGroup().getParentCount()>sgroup.getParentCount())
+            _rowListenerStartGroup = aRow.getGroup();
+        _rowListener.rowGenerated(_lastRow=aRow);
+        return true;
+    }
+    
     // Add row below last row
     aRow.setY(_lastRow!=null? _lastRow.getFrameMaxY() : 0);
     addChild(_lastRow=aRow);
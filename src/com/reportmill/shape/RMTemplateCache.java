@@ -0,0 +1,117 @@
+package com.reportmill.shape;
+import java.util.*;
+import snap.web.*;
+
+/**
+ * A bounded cache of template documents keyed by source URL, so that report servers that generate the same templates
+ * over and over don't re-read and re-parse them for every request (or every subreport reference). A template is
+ * reloaded when its source file modified time changes.
+ *
+ * The cached templates are never handed out: each caller gets a deep copy (cloneDeep()), so callers on different
+ * threads never share shapes with unsynchronized lazy state (like subreport shapes and text layouts). Since a cached
+ * template is never laid out, generated or edited, it stays as loaded and copies are made from it without any lock.
+ * Copying a template is much cheaper than reading and parsing it again.
+ */
+public class RMTemplateCache {
+
+    // The map of source URL strings to cached templates, in access order
+    static Map <String,Entry>  _templates = new LinkedHashMap(16, .75f, true) {
+        protected boolean removeEldestEntry(Map.Entry anEntry)  { return size()>_maxSize; } };
+
+    // The maximum number of templates to hold
+    static int                 _maxSize = 64;
+
+    // The number of lookups that found a current template and the number that had to load one
+    static long                _hits, _misses;
+
+/**
+ * Returns a private copy of the cached template document for given source (URL, File, path string, etc.). Sources
+ * that don't resolve to a file (like byte arrays or streams) aren't cached and just return a new document.
+ */
+public static RMDocument getTemplate(Object aSource)
+{
+    // Get source URL and file (if not available, just return new document)
+    WebURL url = null; try { url = WebURL.getURL(aSource); } catch(Exception e) { }
+    WebFile file = url!=null? url.getFile() : null;
+    if(file==null)
+        return RMDocument.getDoc(aSource);
+
+    // Get source modified time (outside of lock, since refresh can go to the network)
+    String key = url.getString();
+    file.refresh(); long modTime = file.getModifiedTime();
+    
+    // Get current template for source (just return copy if found)
+    Entry entry;
+    synchronized(RMTemplateCache.class) {
+        entry = _templates.get(key);
+        if(entry!=null && entry._modTime==modTime) _hits++;
+        else { entry = null; _misses++; }
+    }
+    if(entry!=null)
+        return entry.getCopy();
+
+    // Load template (outside of lock) and add to cache
+    entry = new Entry(RMDocument.getDoc(url), modTime);
+    synchronized(RMTemplateCache.class) { _templates.put(key, entry); }
+    return entry.getCopy();
+}
+
+/**
+ * Removes the cached template for given source (if present).
+ */
+public static synchronized void removeTemplate(Object aSource)
+{
+    WebURL url = null; try { url = WebURL.getURL(aSource); } catch(Exception e) { }
+    if(url!=null) _templates.remove(url.getString());
+}
+
+/**
+ * Returns the maximum number of templates to hold.
+ */
+public static int getMaxSize()  { return _maxSize; }
+
+/**
+ * Sets the maximum number of templates to hold (zero turns off caching).
+ */
+public static synchronized void setMaxSize(int aValue)
+{
+    _maxSize = aValue;
+    for(Iterator i=_templates.keySet().iterator(); _templates.size()>_maxSize; ) { i.next(); i.remove(); }
+}
+
+/**
+ * Returns the number of templates currently held.
+ */
+public static synchronized int getSize()  { return _templates.size(); }
+
+/**
+ * Returns the number of lookups that found a current cached template.
+ */
+public static synchronized long getHitCount()  { return _hits; }
+
+/**
+ * Returns the number of lookups that had to load a template.
+ */
+public static synchronized long getMissCount()  { return _misses; }
+
+/**
+ * Clears the cache and resets hit/miss counts.
+ */
+public static synchronized void clear()  { _templates.clear(); _hits = _misses = 0; }
+
+/**
+ * A cached template and the source modified time it was loaded for.
+ */
+private static class Entry {
+
+    // The template and the modified time
+    final RMDocument _template; final long _modTime;
+
+    /** Creates a new entry. */
+    public Entry(RMDocument aTemplate, long aModTime)  { _template = aTemplate; _modTime = aModTime; }
+
+    /** Returns a deep copy of the template (cloneDeep only reads the template, so this needs no lock). */
+    public RMDocument getCopy()  { return (RMDocument)_template.cloneDeep(); }
+}
+
+}
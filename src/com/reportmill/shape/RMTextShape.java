@@ -54,7 +54,13 @@ public class RMTextShape extends RMRectShape {
     
     // Cached Preferred size
     RMSize                 _prefSize;
-    
+
+    // Whether text layouts can be copied from RMTextLayoutCache (true for RPG texts)
+    boolean                _cacheLayout;
+
+    // The start/end pairs of simple page keys in RPG text, to be patched in resolvePageReferences (if available)
+    int                    _pageKeys[];
+
     // The default text margin (top=1, left=2, bottom=0, right=2)
     static Insets          _marginDefault = new Insets(1, 2, 0, 2);
     
@@ -519,12 +525,31 @@ public void setLinkedText(RMLinkedText aLinkedText)
  */
 public RMTextLayout getTextLayout()
 {
-    if(_textLayout==null) _textLayout = createTextLayout();
+    if(_textLayout==null) _textLayout = isLayoutCacheable()? RMTextLayoutCache.getLayout(createTextLayout()) :
+        createTextLayout();
     if(_fitText) _textLayout.layoutToFit();
     else _textLayout.layout();
     return _textLayout;
 }
 
+/**
+ * Sets whether text layout can be copied from equivalent texts through RMTextLayoutCache (editors turn this off for
+ * texts they edit, so edited layouts are always laid out against the text's own xstring).
+ */
+public void setLayoutCacheable(boolean aValue)
+{
+    if(aValue==_cacheLayout) return;
+    _cacheLayout = aValue; revalidate();
+}
+
+/**
+ * Returns whether text layout can be copied from equivalent texts through RMTextLayoutCache.
+ */
+protected boolean isLayoutCacheable()
+{
+    return _cacheLayout && !_fitText && getLinkedText()==null && getVisibleStart()==0;
+}
+
 /**
  * Creates a new layout.
  */
@@ -564,7 +589,8 @@ protected double computePrefWidth(double aHeight)
     RMTextLayout layout = new RMTextLayout();
     layout.setXString(getXString()); layout.setStart(getVisibleStart());
     layout.setRect(0, 0, Float.MAX_VALUE, Float.MAX_VALUE);
-    layout.layout();
+    if(isLayoutCacheable()) layout = RMTextLayoutCache.getLayout(layout);
+    else layout.layout();
   
     // Get width from text layout and return
     return Math.ceil(getMarginLeft() + layout.getWidthToFit() + getMarginRight());
@@ -597,6 +623,7 @@ protected RMShape rpgShape(ReportOwner anRptOwner, RMShape aParent)
     // Do xstring RPG (if no change due to RPG, just use normal) with FirePropertyChangeEnabled turned off
     string.setFirePropertyChangeEnabled(false);
     string.rpgClone(anRptOwner, null, clone, false);
+    boolean hasPageRefs = RMListUtils.getLast(anRptOwner.getPageReferenceShapes())==clone;
         
     // If coalesce newlines is set, coalesce newlines
     if(getCoalesceNewlines())
@@ -606,9 +633,14 @@ protected RMShape rpgShape(ReportOwner anRptOwner, RMShape aParent)
     int len = string.length(), end = len; while(end>0 && Character.isWhitespace(string.charAt(end-1))) end--;
     if(end!=len)
         string.removeChars(end, len);
+    
+    // If string has page references, record simple page key ranges so they can be patched in place later
+    if(hasPageRefs)
+        clone._pageKeys = RMXStringUtils.getPageKeyRanges(string);
 
-    // If WRAP_SCALE, set FitText ivar
+    // If WRAP_SCALE, set FitText ivar, otherwise allow shared layouts
     if(getWraps()==WRAP_SCALE) clone._fitText = true;
+    else clone._cacheLayout = true;
     
     // Enable string FirePropertyChangeEnabled and revalidate
     string.setFirePropertyChangeEnabled(true);
@@ -631,18 +663,23 @@ protected RMShape rpgShape(ReportOwner anRptOwner, RMShape aParent)
  */
 protected List <RMTextShape> paginate()
 {
-    // Create pages list with this text in it
+    // Create pages list with this text in it (just return if all text visible)
     List <RMTextShape> pages = new ArrayList(); pages.add(this);
+    if(isAllTextVisible()) return pages;
     
     // Cache vertical alignment and set to Top
     AlignY verticalAlignment = getAlignmentY();
     setAlignmentY(AlignY.Top);
     
-    // Get linked texts until all text visible
-    RMTextShape text = this;
-    while(!text.isAllTextVisible()) {
-        text = new RMLinkedText(text);
-        pages.add(text);
+    // Get linked texts until all text visible: Adding linked text first bounds the current text layout to its height,
+    // so each page lays out only its own lines (instead of re-laying out all remaining text to test visibility)
+    RMTextShape text = this; int length = length();
+    while(true) {
+        RMLinkedText next = new RMLinkedText(text);
+        int end = text.getVisibleEnd();
+        if(end==text.getVisibleStart() && end<length) end = text.forceFirstLine();
+        if(end>=length || end==text.getVisibleStart()) { text.setLinkedText(null); break; }
+        pages.add(next); text = next;
     }
     
     // Restore alignment on last text and return list
@@ -651,13 +688,32 @@ protected List <RMTextShape> paginate()
 }
 
 /**
- * Re-does the RPG clone to resolve any @Page@ keys (assumed to be present in userInfo).
+ * Grows text height to fit its first line (for a paginated text whose first line is taller than it, so the line is
+ * forced onto the page instead of the remaining text being dropped) and returns the new visible end. Only the first
+ * line is laid out (with unlimited height) to find its height.
+ */
+protected int forceFirstLine()
+{
+    RMTextLayout layout = createTextLayout(); layout.setMaxLineCount(1);
+    layout.setRect(layout.getX(), layout.getY(), layout.getWidth(), Float.MAX_VALUE); layout.layout();
+    RMTextLine line = layout.getLine();
+    if(line!=null) setHeight(Math.ceil(line.getMaxY() + getMarginBottom()));
+    return getVisibleEnd();
+}
+
+/**
+ * Resolves any @Page@ keys (assumed to be present in userInfo) by patching recorded page keys or re-doing RPG clone.
  */
 protected void resolvePageReferences(ReportOwner aRptOwner, Object userInfo)
 {
     // Do normal shape resolve page references
     super.resolvePageReferences(aRptOwner, userInfo);
     
+    // If simple page keys were recorded in RPG, just patch them in place
+    int pageKeys[] = _pageKeys; _pageKeys = null;
+    if(pageKeys!=null && userInfo instanceof Map && RMXStringUtils.resolvePageKeys(_xString, pageKeys, (Map)userInfo))
+        return;
+    
     // RPG clone xstring again and set
     RMXString xstringCloneRPG = _xString.rpgClone(aRptOwner, userInfo, null, true);
     setXString(xstringCloneRPG);
@@ -38,7 +38,7 @@ public RMDocument getTemplate()  { return _template!=null? _template : (_templat
  */
 protected RMDocument createTemplate()
 {
-    return RMDocument.getDoc(getClass().getResource(getClass().getSimpleName() + ".rpt"));
+    return RMDocument.getTemplate(getClass().getResource(getClass().getSimpleName() + ".rpt"));
 }
 
 /**
@@ -6,6 +6,8 @@ import java.awt.font.*;
 import java.awt.geom.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class represents all the information about a font that is independent of size. This allows RMFont to be 
@@ -28,14 +30,14 @@ public class RMFontFile {
     // Cached reference to italic version of font
     RMFontFile          _italicVersion = null;
     
-    // Cache of char widths
-    float               _charWidths[] = new float[0];
+    // Cache of char advances for the whole BMP, in pages of 256 chars loaded on demand
+    AtomicReferenceArray <float[]>  _charAdvances = new AtomicReferenceArray(256);
     
     // Cached glyph paths
-    Map                 _glyphPaths = new Hashtable();
+    Map <Character,RMPath>  _glyphPaths = new ConcurrentHashMap();
     
     // Cached map of all previously encountered font files
-    static Map          _allFontFiles = new Hashtable();
+    static ConcurrentMap <String,RMFontFile>  _allFontFiles = new ConcurrentHashMap();
     
     // This font files AWT representation
     Font                _awt = null;
@@ -52,11 +54,17 @@ public class RMFontFile {
 /**
  * Returns a font file for a given font name.
  */
-public static synchronized RMFontFile getFontFile(String aName)
+public static RMFontFile getFontFile(String aName)
 {
-    RMFontFile ffile = (RMFontFile)_allFontFiles.get(aName);
-    if(ffile==null) _allFontFiles.put(aName, ffile = new RMFontFile(aName));
-    return ffile;
+    // Get cached font file (just return if found)
+    RMFontFile ffile = _allFontFiles.get(aName);
+    if(ffile!=null)
+        return ffile;
+    
+    // Create and add font file (if another thread beat us to it, return that one)
+    ffile = new RMFontFile(aName);
+    RMFontFile ffile2 = _allFontFiles.putIfAbsent(aName, ffile);
+    return ffile2!=null? ffile2 : ffile;
 }
 
 /**
@@ -107,24 +115,25 @@ public String getPSName()  { return _awt.getPSName(); }
  */
 public double charAdvance(char aChar)
 {
-    // If char in cache range, load from cache (might have to load cache too)
-    if(aChar<_charWidths.length) {
-        double charWidth = _charWidths[aChar];
-        if(charWidth<0)
-            charWidth = _charWidths[aChar] = _fontMetrics.charWidth(aChar) / METRICS_SIZE;
-        return charWidth;
-    }
-    
-    // Extend cache if less than CharWidths.Length (Max = 1200 + 256)
-    if(aChar<1456) synchronized(this) {
-        int oldLen = _charWidths.length, newLen = oldLen==0 && aChar<256? 256 : 1456;
-        float newWidths[] = new float[newLen]; System.arraycopy(_charWidths, 0, newWidths, 0, oldLen);
-        Arrays.fill(newWidths, oldLen, newWidths.length, -1); _charWidths = newWidths;
-        return charAdvance(aChar);
-    }
+    // Get advances page for char (load if missing) and return advance
+    float advances[] = _charAdvances.get(aChar>>8);
+    if(advances==null) advances = loadCharAdvances(aChar>>8);
+    return advances[aChar & 0xFF];
+}
+
+/**
+ * Loads and returns the page of char advances at given index (chars index*256 thru index*256+255).
+ */
+private float[] loadCharAdvances(int anIndex)
+{
+    // Get advances for page chars from FontMetrics
+    float advances[] = new float[256];
+    for(int i=0; i<256; i++)
+        advances[i] = _fontMetrics.charWidth((char)(anIndex<<8 | i)) / METRICS_SIZE;
     
-    // Get value straight from FontMetrics
-    return _fontMetrics.charWidth(aChar) / METRICS_SIZE;
+    // Set page (unless another thread already did) and return current page
+    _charAdvances.compareAndSet(anIndex, null, advances);
+    return _charAdvances.get(anIndex);
 }
 
 /**
@@ -160,9 +169,8 @@ public RMPath charPath(char aChar)
  */
 private RMPath charPathReal(char c)
 {
-    // Get default graphics 2D, glyph vector for char and shape from glyph vector
-    Graphics2D g = getGraphics2D();
-    GlyphVector gv = _awt.createGlyphVector(g.getFontRenderContext(), new char[] { c });
+    // Get glyph vector for char and shape from glyph vector
+    GlyphVector gv = _awt.createGlyphVector(getFontRenderContext(), new char[] { c });
     Shape shape = gv.getOutline();
     
     // Create new path and get points array to iterate over shape segments
@@ -246,7 +254,7 @@ public double getUnderlineThickness()
         return 1/16f;
     
     // Get the AWT Font's LineMetrics for X
-    LineMetrics lm = _awt.getLineMetrics("X", getGraphics2D().getFontRenderContext());
+    LineMetrics lm = _awt.getLineMetrics("X", getFontRenderContext());
     
     // Return underline thickness for line metrics
     return lm.getUnderlineThickness() / METRICS_SIZE;
@@ -410,6 +418,15 @@ static synchronized Graphics2D getGraphics2D()
     return _graphics2D;
 }
 
+/**
+ * Returns a shared font render context for metrics calculations (same as shared graphics object's).
+ */
+static FontRenderContext getFontRenderContext()
+{
+    if(_fontRenderContext==null) _fontRenderContext = getGraphics2D().getFontRenderContext();
+    return _fontRenderContext;
+} static volatile FontRenderContext _fontRenderContext;
+
 /**
  * Utility method to determine the number of matching words in two phrases.
  */
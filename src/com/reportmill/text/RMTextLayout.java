@@ -19,6 +19,9 @@ public class RMTextLayout extends Rectangle2D.Double implements CharSequence, RM
     // The layout vertical alignment
     AlignY            _alignmentY = AlignY.Top;
     
+    // The maximum number of lines to layout (zero for no limit)
+    int               _maxLineCount;
+    
     // Whether we need to perform layout
     boolean           _needsLayout;
     
@@ -145,10 +148,12 @@ public int addChars(RMXStringRun aRun, int aStart, int anEnd)
     // While chars still available and layout not locked, add lines
     while(start<anEnd && !isLocked()) {
 
-        // Get last line - if null or locked, get new line
+        // Get last line - if null or locked, get new line (or lock layout if at max line count)
         RMTextLine line = getLineLast();
-        if(line==null || line.isLocked())
+        if(line==null || line.isLocked()) {
+            if(_maxLineCount>0 && _lineCount>=_maxLineCount) { setLocked(true); break; }
             line = addLine(aRun);
+        }
         
         // Have line add chars (if it actually rewinds before given start, return)
         start = line.addChars(aRun, start, anEnd);
@@ -241,6 +246,16 @@ public AlignY getAlignmentY()  { return _alignmentY; }
  */
 public void setAlignmentY(AlignY anAlignment)  { _alignmentY = anAlignment; }
 
+/**
+ * Returns the maximum number of lines to layout (zero for no limit).
+ */
+public int getMaxLineCount()  { return _maxLineCount; }
+
+/**
+ * Sets the maximum number of lines to layout (zero for no limit).
+ */
+public void setMaxLineCount(int aValue)  { _maxLineCount = aValue; }
+
 /**
  * Returns the width to fit.
  */
@@ -636,6 +651,35 @@ public void layoutToFit()
     }
 }
 
+/**
+ * Returns a copy of this layout with its own lines and runs (the xstring and its runs are shared).
+ */
+public RMTextLayout cloneDeep()
+{
+    // Do normal clone and give clone its own lines array and line start point
+    RMTextLayout clone = (RMTextLayout)clone();
+    clone._lines = new RMTextLine[Math.max(_lineCount, 1)]; clone._runs = null;
+    clone._point = new Point2D.Double();
+    
+    // Copy lines and their runs, relinking them to clone
+    RMTextRun lastRun = null;
+    for(int i=0; i<_lineCount; i++) { RMTextLine line = _lines[i], lclone = (RMTextLine)line.clone();
+        lclone._layout = clone; lclone._next = null; lclone._runs = null;
+        if(i>0) clone._lines[i-1]._next = lclone;
+        clone._lines[i] = lclone;
+        RMTextRun run = line._runs;
+        for(int j=0; j<line._runCount; j++, run=run._next) { RMTextRun rclone = (RMTextRun)run.clone();
+            rclone._layout = clone; rclone._line = lclone; rclone._next = null;
+            if(lastRun!=null) lastRun._next = rclone; else clone._runs = rclone;
+            if(j==0) lclone._runs = rclone;
+            lastRun = rclone;
+        }
+    }
+    
+    // Return clone
+    return clone;
+}
+
 /**
  * Standard toString implementation.
  */
@@ -0,0 +1,188 @@
+package com.reportmill.text;
+import com.reportmill.base.*;
+import com.reportmill.graphics.*;
+import java.beans.PropertyChangeListener;
+import java.util.*;
+
+/**
+ * A bounded least-recently-used cache of text layouts. Generated texts that repeat the same string, text styles and
+ * layout bounds (common values in report columns) share one layout instead of laying out the same text again.
+ * Layouts that wrap to a path (RMTextLayoutInPath) are cached too, keyed also by the wrap path.
+ * Cached layouts are laid out against a private copy of the xstring and are never handed out: each caller gets a copy
+ * of the lines and runs (see RMTextLayout.cloneDeep()), which is much cheaper than measuring the text again.
+ */
+public class RMTextLayoutCache {
+
+    // The map of layout keys to cached layouts, in access order
+    static Map <Key,RMTextLayout>  _layouts = new LinkedHashMap(256, .75f, true) {
+        protected boolean removeEldestEntry(Map.Entry anEntry)  { return size()>_maxSize; } };
+
+    // The maximum number of layouts to hold
+    static int                     _maxSize = 4096;
+
+    // The number of lookups that found a layout and the number that created one
+    static long                    _hits, _misses;
+
+/**
+ * Returns a laid out layout equivalent to given configured layout, copied from the cache if available. Layouts of
+ * other classes than RMTextLayout and RMTextLayoutInPath or that are already laid out are just laid out and returned.
+ */
+public static RMTextLayout getLayout(RMTextLayout aLayout)
+{
+    // If layout isn't cacheable, just do layout and return
+    Class cls = aLayout.getClass();
+    if(cls!=RMTextLayout.class && cls!=RMTextLayoutInPath.class || !aLayout.getNeedsLayout() ||
+        aLayout.getXString()==null || aLayout.getFontScale()!=1) {
+        aLayout.layout(); return aLayout; }
+
+    // If cached layout is found, return copy
+    Key key = new Key(aLayout);
+    RMTextLayout layout = getCachedLayout(key);
+    if(layout!=null)
+        return layout.cloneDeep();
+
+    // Otherwise, do layout with private copy of xstring (outside of lock), add to cache and return copy
+    RMXString xstring = getDetachedCopy(aLayout.getXString());
+    aLayout.setXString(xstring); aLayout.layout();
+    return addCachedLayout(new Key(aLayout), aLayout).cloneDeep();
+}
+
+/**
+ * Returns a copy of given xstring that doesn't reference the original string, its listeners or its runs (so cached
+ * layouts don't hold on to generated documents).
+ */
+private static RMXString getDetachedCopy(RMXString aString)
+{
+    // Clone string, remove listeners and clear representable string (unless it is the string)
+    RMXString xstring = aString.clone();
+    for(PropertyChangeListener listener : xstring.getListeners(PropertyChangeListener.class))
+        xstring.removePropertyChangeListener(listener);
+    if(xstring._representableString!=xstring) xstring._representableString = null;
+    
+    // Give runs copies of styles with defaults resolved and no reference back to original run
+    for(RMXStringRun run=xstring.getRun(); run!=null; run=run.getNext()) {
+        RMTextStyle style = run.getStyle().clone();
+        style.getFont(); style.getColor(); style.getParagraph(); style.getFormat(); style._run = null;
+        run._style = style;
+    }
+    
+    // Return string
+    return xstring;
+}
+
+/**
+ * Returns the cached layout for given key (updating hit/miss counts).
+ */
+private static synchronized RMTextLayout getCachedLayout(Key aKey)
+{
+    RMTextLayout layout = _layouts.get(aKey);
+    if(layout!=null) _hits++; else _misses++;
+    return layout;
+}
+
+/**
+ * Adds given layout for given key, unless another thread added one first (in which case it is returned).
+ */
+private static synchronized RMTextLayout addCachedLayout(Key aKey, RMTextLayout aLayout)
+{
+    RMTextLayout layout = _layouts.get(aKey); if(layout!=null) return layout;
+    _layouts.put(aKey, aLayout);
+    return aLayout;
+}
+
+/**
+ * Returns the maximum number of layouts to hold.
+ */
+public static int getMaxSize()  { return _maxSize; }
+
+/**
+ * Sets the maximum number of layouts to hold (zero turns off caching).
+ */
+public static synchronized void setMaxSize(int aValue)
+{
+    _maxSize = aValue;
+    for(Iterator i=_layouts.keySet().iterator(); _layouts.size()>_maxSize; ) { i.next(); i.remove(); }
+}
+
+/**
+ * Returns the number of layouts currently held.
+ */
+public static synchronized int getSize()  { return _layouts.size(); }
+
+/**
+ * Returns the number of lookups that found a cached layout.
+ */
+public static synchronized long getHitCount()  { return _hits; }
+
+/**
+ * Returns the number of lookups that had to create a new layout.
+ */
+public static synchronized long getMissCount()  { return _misses; }
+
+/**
+ * Clears the cache and resets hit/miss counts.
+ */
+public static synchronized void clear()  { _layouts.clear(); _hits = _misses = 0; }
+
+/**
+ * Returns a string describing cache size and hit/miss counts.
+ */
+public static synchronized String getStats()
+{
+    return "RMTextLayoutCache { Size=" + _layouts.size() + ", Hits=" + _hits + ", Misses=" + _misses + " }";
+}
+
+/**
+ * A key for a layout: The layout class, the xstring chars and run styles, the layout start and bounds (so the wrap
+ * width), the vertical alignment, whether fractional metrics are used and the wrap path (for RMTextLayoutInPath).
+ */
+private static class Key {
+
+    // The xstring, its chars, layout start, bounds, align height, vertical alignment and fractional metrics
+    RMXString  _xstring; String _string; int _start; double _x, _y, _w, _h, _ayh; RMTypes.AlignY _alignY; int _hash;
+    boolean    _fractional;
+    
+    // The layout class and wrap path (RMTextLayoutInPath only)
+    Class      _class; RMPath _path;
+
+    /** Creates a new key for given layout. */
+    public Key(RMTextLayout aLayout)
+    {
+        _xstring = aLayout.getXString(); _string = _xstring.toString(); _start = aLayout.getStart();
+        _x = aLayout.getX(); _y = aLayout.getY(); _w = aLayout.getWidth(); _h = aLayout.getHeight();
+        _ayh = aLayout._ayh; _alignY = aLayout.getAlignmentY(); _fractional = aLayout.getUseFractionalMetrics();
+        _class = aLayout.getClass();
+        _path = aLayout instanceof RMTextLayoutInPath? ((RMTextLayoutInPath)aLayout).getPath() : null;
+        _hash = _string.hashCode()*31 + _start;
+        _hash = _hash*31 + Double.hashCode(_w); _hash = _hash*31 + Double.hashCode(_h);
+        _hash = _hash*31 + _xstring.getRunCount();
+        _hash = _hash*31 + (_path!=null? _path.getElementCount() : 0);
+    }
+
+    /** Standard equals implementation. */
+    public boolean equals(Object anObj)
+    {
+        // Check identity, class and get other
+        if(anObj==this) return true;
+        if(!(anObj instanceof Key)) return false;
+        Key other = (Key)anObj;
+
+        // Check Hash, Start, bounds, alignment and String
+        if(other._hash!=_hash || other._start!=_start) return false;
+        if(other._x!=_x || other._y!=_y || other._w!=_w || other._h!=_h || other._ayh!=_ayh) return false;
+        if(other._alignY!=_alignY || other._fractional!=_fractional || !other._string.equals(_string)) return false;
+        if(other._class!=_class || !RMUtils.equals(other._path, _path)) return false;
+
+        // Check run lengths and styles
+        RMXStringRun r1 = _xstring.getRun(), r2 = other._xstring.getRun();
+        for(; r1!=null && r2!=null; r1=r1.getNext(), r2=r2.getNext())
+            if(r1.length()!=r2.length() || !r1.getStyle().equals(r2.getStyle()))
+                return false;
+        return r1==null && r2==null; // Return true if both run lists ended
+    }
+
+    /** Standard hashCode implementation. */
+    public int hashCode()  { return _hash; }
+}
+
+}
@@ -350,6 +350,68 @@ public static RMXString rpgClone(RMXString aString, ReportOwner anRptOwner, Obje
     return outString;
 }
 
+/**
+ * Returns the start/end pairs of the simple page keys (@Page@, @PageMax@, etc.) in given xstring, so they can be
+ * patched in place once page numbers are known. Returns null if a key with a page reference isn't a simple page key.
+ */
+public static int[] getPageKeyRanges(RMXString aString)
+{
+    // Iterate over @key@ ranges in string
+    int ranges[] = new int[0];
+    for(Range range=nextKeyRangeAfterIndex(aString, 0, new Range()); range.length()>0;
+        range=nextKeyRangeAfterIndex(aString, range.end, range)) {
+
+        // Get key chain (just skip keys without page reference)
+        if(range.length()<3) continue;
+        String keyString = aString.subSequence(range.start + 1, range.end - 1).toString();
+        RMKeyChain keyChain = RMKeyChain.getKeyChain(keyString);
+        if(!keyChain.hasPageReference()) continue;
+
+        // If not simple page key, return null, otherwise add range
+        if(keyChain.getOp()!=RMKeyChain.Op.Key || !isPageKey(keyChain.getValueString())) return null;
+        ranges = Arrays.copyOf(ranges, ranges.length + 2);
+        ranges[ranges.length-2] = range.start; ranges[ranges.length-1] = range.end;
+    }
+
+    // Return ranges
+    return ranges;
+}
+
+/**
+ * Replaces the simple page keys at given ranges with page values from given map, formatting values with key run format.
+ * Returns false (with no changes) if ranges no longer point to page keys.
+ */
+public static boolean resolvePageKeys(RMXString aString, int theRanges[], Map aPageInfo)
+{
+    // Get page values for ranges (just return false if any range isn't still a page key)
+    Object values[] = new Object[theRanges.length/2];
+    for(int i=0; i<theRanges.length; i+=2) { int start = theRanges[i], end = theRanges[i+1];
+        if(end>aString.length() || end-start<3 || aString.charAt(start)!='@' || aString.charAt(end-1)!='@')
+            return false;
+        String key = aString.subSequence(start + 1, end - 1).toString();
+        Object val = isPageKey(key)? aPageInfo.get(key) : null; if(val==null) return false;
+        RMFormat format = aString.getRunAt(start + 1, false).getFormat();
+        if(!(format instanceof RMNumberFormat)) format = RMNumberFormat.PLAIN;
+        values[i/2] = format.formatRM(val);
+    }
+
+    // Replace page keys from back to front so earlier ranges stay valid
+    for(int i=theRanges.length-2; i>=0; i-=2) { Object value = values[i/2];
+        if(value instanceof RMXString) aString.replaceString((RMXString)value, theRanges[i], theRanges[i+1]);
+        else aString.replaceChars(value.toString(), theRanges[i], theRanges[i+1]);
+    }
+    return true;
+}
+
+/**
+ * Returns whether given key is one of the simple page keys.
+ */
+private static boolean isPageKey(String aKey)
+{
+    return aKey!=null && (aKey.equals("Page") || aKey.equals("PageMax") || aKey.equals("PageBreak") ||
+        aKey.equals("PageBreakMax") || aKey.equals("PageBreakPage") || aKey.equals("PageBreakPageMax"));
+}
+
 /**
  * Returns the range of the next occurrence of @delimited@ text.
  */